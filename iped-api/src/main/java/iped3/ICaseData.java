@@ -4,7 +4,6 @@
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingDeque;
 
 /**
  * (INTERFACE DO IPED) Classe que define todos os dados do caso.
@@ -41,8 +40,6 @@ public interface ICaseData extends Serializable {
      */
     void addTimeGroup(IFileGroup timeGroup);
 
-    Integer changeToNextQueue();
-
     /**
      * @return true se o caso contém um report
      */
@@ -73,8 +70,6 @@ public interface ICaseData extends Serializable {
      */
     Object getCaseObject(String key);
 
-    Integer getCurrentQueuePriority();
-
     int getDiscoveredEvidences();
 
     /**
@@ -83,11 +78,12 @@ public interface ICaseData extends Serializable {
     long getDiscoveredVolume();
 
     /**
-     * Obtém fila de arquivos de evidência do caso.
+     * Obtém o número de itens aguardando processamento, incluindo os retidos
+     * aguardando suas dependências.
      *
-     * @return fila de arquivos.
+     * @return tamanho da fila de arquivos.
      */
-    LinkedBlockingDeque<IItem> getItemQueue();
+    int getItemQueueSize();
 
     /**
      * Obtém o objeto raiz da árvore de arquivos do caso.
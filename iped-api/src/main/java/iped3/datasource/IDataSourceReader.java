@@ -36,11 +36,9 @@ public interface IDataSourceReader {
     boolean isSupported(File datasource);
 
     /**
-     * Lê a fonte de dados informada. Adiciona os itens na fila de processamento
-     * caso listOnly = false usando caseData.addEvidenceFile(). Ou conta e soma o
-     * volume dos itens a processar caso listOnly = true para estimar o progresso do
-     * processamento usando caseData.incDiscoveredEvidences() e
-     * caseData.incDiscoveredVolume().
+     * Lê a fonte de dados informada, adicionando os itens na fila de processamento
+     * usando caseData.addItem(), que também contabiliza o número e o volume dos
+     * itens descobertos para estimar o progresso do processamento.
      *
      * @param datasource
      *            Fonte de dados que será processada/lida.
@@ -6,9 +6,16 @@
 package iped3.search;
 
 import iped3.io.IItemBase;
+import iped3.util.BasicProps;
 
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  *
@@ -16,10 +23,83 @@
  */
 public interface IItemSearcher extends Closeable {
 
+    /**
+     * Caminho do item pai, campo aceito apenas por {@link #lookup}.
+     */
+    String PARENT_PATH = "parentPath"; //$NON-NLS-1$
+
     List<IItemBase> search(String luceneQuery);
 
     Iterable<IItemBase> searchIterable(String luceneQuery);
 
     String escapeQuery(String string);
 
+    /**
+     * Busca exata, sem diferenciar maiúsculas de minúsculas, dos itens cujo campo
+     * é igual ao valor.
+     *
+     * @param field
+     *            {@link BasicProps#NAME}, {@link BasicProps#PATH},
+     *            {@link BasicProps#HASH} ou {@link #PARENT_PATH}
+     */
+    default List<IItemBase> lookup(String field, String value) {
+        List<IItemBase> items = lookup(field, Collections.singleton(value)).get(value);
+        return items != null ? items : Collections.emptyList();
+    }
+
+    /**
+     * Versão em lote de {@link #lookup(String, String)}. Valores sem itens
+     * correspondentes são mapeados para listas vazias.
+     */
+    default Map<String, List<IItemBase>> lookup(String field, Collection<String> values) {
+        String luceneField = PARENT_PATH.equals(field) ? BasicProps.PATH : field;
+        Map<String, List<IItemBase>> result = new HashMap<>();
+        for (String value : values) {
+            if (value == null || result.containsKey(value)) {
+                continue;
+            }
+            List<IItemBase> items = new ArrayList<>();
+            for (IItemBase item : searchIterable(luceneField + ":\"" + escapeQuery(value) + "\"")) { //$NON-NLS-1$ //$NON-NLS-2$
+                if (lookupMatches(item, field, value)) {
+                    items.add(item);
+                }
+            }
+            result.put(value, items);
+        }
+        return result;
+    }
+
+    /**
+     * @return valor do item usado por {@link #lookup}, ou null se não houver.
+     */
+    static String getLookupValue(IItemBase item, String field) {
+        if (BasicProps.NAME.equals(field)) {
+            return item.getName();
+        }
+        if (BasicProps.PATH.equals(field)) {
+            return item.getPath();
+        }
+        if (BasicProps.HASH.equals(field)) {
+            return item.getHash();
+        }
+        if (PARENT_PATH.equals(field)) {
+            String path = item.getPath();
+            int idx = path != null ? path.lastIndexOf('/') : -1;
+            return idx > 0 ? path.substring(0, idx) : null;
+        }
+        throw new IllegalArgumentException("Field not supported by lookup: " + field); //$NON-NLS-1$
+    }
+
+    /**
+     * Normalização dos valores comparados por {@link #lookup}.
+     */
+    static String normalizeLookupValue(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    static boolean lookupMatches(IItemBase item, String field, String value) {
+        String itemValue = getLookupValue(item, field);
+        return itemValue != null && normalizeLookupValue(itemValue).equals(normalizeLookupValue(value));
+    }
+
 }
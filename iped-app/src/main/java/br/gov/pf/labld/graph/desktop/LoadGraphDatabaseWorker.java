@@ -11,9 +11,8 @@
 
 import org.apache.commons.codec.digest.DigestUtils;
 
-import br.gov.pf.labld.graph.GraphFileWriter;
 import br.gov.pf.labld.graph.GraphGenerator;
-import br.gov.pf.labld.graph.GraphImportRunner.ImportListener;
+import br.gov.pf.labld.graph.GraphStoreWriter.ImportListener;
 import br.gov.pf.labld.graph.GraphService;
 import br.gov.pf.labld.graph.GraphServiceFactoryImpl;
 import br.gov.pf.labld.graph.GraphTask;
@@ -108,12 +107,10 @@ public void output(String line) {
         @Override
         protected Boolean doInBackground() throws IOException {
             try {
-                List<File> csvParents = cases.stream().map(c -> new File(c.getModuleDir(), GraphTask.GENERATED_PATH))
-                        .collect(Collectors.toList());
-                File preparedCSVs = new File(graphOut.getParentFile(), "generated");
-                GraphFileWriter.prepareMultiCaseCSVs(preparedCSVs, csvParents);
+                File[] caseDbs = cases.stream().map(c -> new File(c.getModuleDir(), GraphTask.DB_PATH))
+                        .toArray(File[]::new);
                 GraphGenerator graphGenerator = new GraphGenerator();
-                return graphGenerator.generate(this, graphOut, preparedCSVs.listFiles());
+                return graphGenerator.generate(this, graphOut, caseDbs);
             } finally {
                 progress.close();
             }
@@ -19,17 +19,25 @@
 package dpf.sp.gpinf.indexer.desktop;
 
 import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
 
 import javax.imageio.ImageIO;
 import javax.swing.SwingUtilities;
@@ -47,9 +55,11 @@
 import dpf.sp.gpinf.indexer.process.task.HTMLReportTask;
 import dpf.sp.gpinf.indexer.process.task.ImageThumbTask;
 import dpf.sp.gpinf.indexer.process.task.VideoThumbTask;
+import dpf.sp.gpinf.indexer.util.BlobStore;
 import dpf.sp.gpinf.indexer.util.ErrorIcon;
 import dpf.sp.gpinf.indexer.util.GalleryValue;
 import dpf.sp.gpinf.indexer.util.GraphicsMagicConverter;
+import dpf.sp.gpinf.indexer.util.HashValue;
 import dpf.sp.gpinf.indexer.util.ImageUtil;
 import dpf.sp.gpinf.indexer.util.Util;
 import iped3.IItemId;
@@ -70,14 +80,26 @@ public class GalleryModel extends AbstractTableModel {
     private boolean logRendering = false;
     ImageThumbTask imgThumbTask;
 
-    public Map<IItemId, GalleryValue> cache = Collections.synchronizedMap(new LinkedHashMap<IItemId, GalleryValue>());
-    private int maxCacheSize = 1000;
+    /**
+     * Number of requests taken at once by each gallery thread.
+     */
+    private static final int BATCH_SIZE = 8;
+
+    private GalleryThumbCache cache;
     private ErrorIcon errorIcon = new ErrorIcon();
     private BufferedImage errorImg = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_BINARY);
     private UnsupportedIcon unsupportedIcon = new UnsupportedIcon();
-    private ExecutorService executor;
     private GraphicsMagicConverter magickConverter;
 
+    private final LinkedHashMap<IItemId, ThumbRequest> requests = new LinkedHashMap<>();
+    private Thread[] workers;
+    private volatile int firstVisibleCell = 0, lastVisibleCell = -1;
+
+    private static final Set<String> nameField = Collections.singleton(IndexItem.NAME);
+    private static final Set<String> renderFields = new HashSet<>(Arrays.asList(IndexItem.NAME, IndexItem.PATH,
+            IndexItem.CONTENTTYPE, IndexItem.HASH, IndexItem.EXPORT, IndexItem.LENGTH, IndexItem.THUMB,
+            ImageThumbTask.HAS_THUMB));
+
     @Override
     public int getColumnCount() {
         return colCount;
@@ -121,191 +143,382 @@ public Object getValueAt(final int row, final int col) {
                 e.printStackTrace();
             }
         }
+        if (cache == null) {
+            cache = new GalleryThumbCache(thumbSize);
+        }
+
+        if (SwingUtilities.isEventDispatchThread()) {
+            updateVisibleCells();
+        }
 
-        int idx = row * colCount + col;
-        if (idx >= App.get().ipedResult.getLength()) {
+        int cell = row * colCount + col;
+        if (cell >= App.get().ipedResult.getLength()) {
             return new GalleryValue("", null, null); //$NON-NLS-1$
         }
 
-        idx = App.get().resultsTable.convertRowIndexToModel(idx);
+        int idx = App.get().resultsTable.convertRowIndexToModel(cell);
         final IItemId id = App.get().ipedResult.getItem(idx);
-        final int docId = App.get().appCase.getLuceneId(id);
 
-        synchronized (cache) {
-            if (cache.containsKey(id)) {
-                return cache.get(id);
+        GalleryValue value = cache.get(id);
+        if (value != null) {
+            return value;
+        }
+
+        synchronized (requests) {
+            ThumbRequest req = requests.remove(id);
+            if (req != null) {
+                // reinserida no fim, será atendida antes das mais antigas
+                req.row = row;
+                req.col = col;
+                req.cell = cell;
+                requests.put(id, req);
+                return req.placeholder;
             }
         }
 
+        final int docId = App.get().appCase.getLuceneId(id);
         final Document doc;
         try {
-            doc = App.get().appCase.getSearcher().doc(docId);
+            doc = App.get().appCase.getSearcher().doc(docId, nameField);
 
         } catch (IOException e) {
             return new GalleryValue("", errorIcon, id); //$NON-NLS-1$
         }
 
-        final String mediaType = doc.get(IndexItem.CONTENTTYPE);
+        ThumbRequest req = new ThumbRequest();
+        req.id = id;
+        req.docId = docId;
+        req.row = row;
+        req.col = col;
+        req.cell = cell;
+        req.placeholder = new GalleryValue(doc.get(IndexItem.NAME), null, id);
+
+        synchronized (requests) {
+            if (workers == null) {
+                // do not create converter in worker threads, it causes deadlock see #313
+                magickConverter = new GraphicsMagicConverter();
+                workers = new Thread[galleryThreads];
+                for (int i = 0; i < workers.length; i++) {
+                    workers[i] = new Thread(new Worker(), "GalleryWorker-" + i); //$NON-NLS-1$
+                    workers[i].setDaemon(true);
+                    workers[i].start();
+                }
+            }
+            requests.put(id, req);
+            requests.notify();
+        }
 
-        if (executor == null) {
-            executor = Executors.newFixedThreadPool(galleryThreads);
-            // do not use executor above in constructor below, it causes deadlock see #313
-            magickConverter = new GraphicsMagicConverter();
+        return req.placeholder;
+    }
+
+    /**
+     * Atualiza o intervalo de células visíveis e descarta as requisições ainda não
+     * iniciadas de células que saíram da área visível. Deve ser chamado na EDT.
+     */
+    private void updateVisibleCells() {
+        GalleryTable gallery = App.get().gallery;
+        Rectangle rect = gallery.getVisibleRect();
+        int firstRow = gallery.rowAtPoint(new Point(0, rect.y));
+        int lastRow = gallery.rowAtPoint(new Point(0, rect.y + rect.height - 1));
+        if (firstRow == -1) {
+            firstRow = 0;
         }
+        if (lastRow == -1) {
+            lastRow = gallery.getRowCount() - 1;
+        }
+        int first = firstRow * colCount;
+        int last = (lastRow + 1) * colCount - 1;
+        if (first == firstVisibleCell && last == lastVisibleCell) {
+            return;
+        }
+        firstVisibleCell = first;
+        lastVisibleCell = last;
 
-        executor.execute(new Runnable() {
-            public void run() {
+        synchronized (requests) {
+            Iterator<ThumbRequest> it = requests.values().iterator();
+            while (it.hasNext()) {
+                ThumbRequest req = it.next();
+                if (!req.running && !isVisible(req)) {
+                    it.remove();
+                }
+            }
+        }
+    }
 
-                BufferedImage image = null;
-                InputStream stream = null;
-                GalleryValue value = new GalleryValue(doc.get(IndexItem.NAME), null, id);
-                boolean getDimension = true;
-                try {
-                    if (cache.containsKey(id)) {
-                        return;
-                    }
+    private boolean isVisible(ThumbRequest req) {
+        return req.cell >= firstVisibleCell && req.cell <= lastVisibleCell;
+    }
 
-                    if (!App.get().gallery.getVisibleRect()
-                            .intersects(App.get().gallery.getCellRect(row, col, false))) {
-                        return;
-                    }
+    /**
+     * Verifica, antes de uma etapa custosa, se a célula continua visível. Caso
+     * contrário a requisição é cancelada e será refeita quando a célula for
+     * novamente exibida.
+     */
+    private boolean isCancelled(ThumbRequest req) {
+        synchronized (requests) {
+            if (isVisible(req)) {
+                return false;
+            }
+            requests.remove(req.id);
+            return true;
+        }
+    }
 
-                    if (logRendering) {
-                        String path = doc.get(IndexItem.PATH);
-                        LOGGER.info("Gallery rendering " + path); //$NON-NLS-1$
-                    }
+    private static class ThumbRequest {
+        IItemId id;
+        int docId;
+        int row, col, cell;
+        GalleryValue placeholder;
+        boolean running;
+    }
 
-                    BytesRef bytesRef = doc.getBinaryValue(IndexItem.THUMB);
-                    if (bytesRef != null && (!isSupportedVideo(mediaType) || App.get().useVideoThumbsInGallery)) {
-                        byte[] thumb = bytesRef.bytes;
-                        if (thumb.length > 0) {
-                            image = ImageIO.read(new ByteArrayInputStream(thumb));
-                        } else {
-                            image = errorImg;
+    /**
+     * Atende primeiro as requisições mais recentes (LIFO), que correspondem às
+     * células exibidas por último, em lotes cujos documentos são lidos em ordem de
+     * docId para aproveitar a localidade dos blocos de campos armazenados.
+     */
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                List<ThumbRequest> batch = new ArrayList<>();
+                synchronized (requests) {
+                    while (batch.isEmpty()) {
+                        ListIterator<ThumbRequest> it = new ArrayList<>(requests.values())
+                                .listIterator(requests.size());
+                        while (it.hasPrevious() && batch.size() < BATCH_SIZE) {
+                            ThumbRequest req = it.previous();
+                            if (req.running) {
+                                continue;
+                            }
+                            if (!isVisible(req)) {
+                                requests.remove(req.id);
+                                continue;
+                            }
+                            req.running = true;
+                            batch.add(req);
                         }
-                    }
-
-                    String hash = doc.get(IndexItem.HASH);
-                    if (image == null && hash != null && !hash.isEmpty()) {
-                        image = getViewImage(docId, hash, !isSupportedImage(mediaType));
-                        int resizeTolerance = 4;
-                        if (image != null) {
-                            if (image.getWidth() < thumbSize - resizeTolerance
-                                    && image.getHeight() < thumbSize - resizeTolerance) {
-                                value.originalW = image.getWidth();
-                                value.originalH = image.getHeight();
-                                getDimension = false;
+                        if (batch.isEmpty()) {
+                            try {
+                                requests.wait();
+                            } catch (InterruptedException e) {
+                                return;
                             }
                         }
                     }
+                }
+                processBatch(batch);
+            }
+        }
+    }
 
-                    String export = doc.get(IndexItem.EXPORT);
-                    if (image == null && export != null && !export.isEmpty() && isSupportedImage(mediaType)) {
-                        image = getThumbFromFTKReport(
-                                App.get().appCase.getAtomicSource(docId).getCaseDir().getAbsolutePath(), export);
-                        getDimension = false;
-                    }
+    private void processBatch(List<ThumbRequest> batch) {
+        ThumbRequest[] byDocId = batch.toArray(new ThumbRequest[batch.size()]);
+        Arrays.sort(byDocId, new Comparator<ThumbRequest>() {
+            @Override
+            public int compare(ThumbRequest o1, ThumbRequest o2) {
+                return Integer.compare(o1.docId, o2.docId);
+            }
+        });
+        Map<ThumbRequest, Document> docs = new HashMap<>();
+        for (ThumbRequest req : byDocId) {
+            try {
+                docs.put(req, App.get().appCase.getSearcher().doc(req.docId, renderFields));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        for (ThumbRequest req : batch) {
+            Document doc = docs.get(req);
+            GalleryValue value;
+            if (doc == null) {
+                value = new GalleryValue(req.placeholder.name, errorIcon, req.id);
+            } else {
+                value = render(req, doc);
+            }
+            if (value == null) {
+                continue;
+            }
+            String mediaType = doc != null ? doc.get(IndexItem.CONTENTTYPE) : null;
+            cache.put(req.id, value, mediaType != null && isSupportedVideo(mediaType));
+
+            final int row, col;
+            synchronized (requests) {
+                requests.remove(req.id);
+                row = req.row;
+                col = req.col;
+            }
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    App.get().galleryModel.fireTableCellUpdated(row, col);
+                }
+            });
+        }
+    }
 
-                    if (image == null && !isSupportedImage(mediaType) && !isSupportedVideo(mediaType)) {
-                        image = errorImg;
-                        value.icon = unsupportedIcon;
-                    }
+    /**
+     * @return o valor a exibir ou null se a célula deixou de ser visível antes da
+     *         conclusão.
+     */
+    private GalleryValue render(ThumbRequest req, Document doc) {
 
-                    if (image == null && stream == null && isSupportedImage(mediaType)) {
-                        stream = App.get().appCase.getItemByLuceneID(docId).getBufferedStream();
-                    }
+        final int docId = req.docId;
+        final File moduleDir = App.get().appCase.getAtomicSource(docId).getModuleDir();
+        final String mediaType = doc.get(IndexItem.CONTENTTYPE);
+        final boolean isVideo = isSupportedVideo(mediaType);
+        final String hash = doc.get(IndexItem.HASH);
 
-                    if (stream != null) {
-                        stream.mark(10000000);
-                    }
+        BufferedImage image = null;
+        InputStream stream = null;
+        GalleryValue value = new GalleryValue(doc.get(IndexItem.NAME), null, req.id);
+        boolean getDimension = true;
+        boolean toDiskCache = false;
+        try {
+            if (isCancelled(req)) {
+                return null;
+            }
 
-                    if (stream != null && getDimension) {
-                        Dimension d = ImageUtil.getImageFileDimension(stream);
-                        if (d != null) {
-                            value.originalW = d.width;
-                            value.originalH = d.height;
-                        }
-                        stream.reset();
-                    }
+            if (logRendering) {
+                String path = doc.get(IndexItem.PATH);
+                LOGGER.info("Gallery rendering " + path); //$NON-NLS-1$
+            }
 
-                    if (image == null && stream != null && ImageThumbTask.extractThumb
-                            && mediaType.equals("image/jpeg")) { //$NON-NLS-1$
-                        image = ImageUtil.getThumb(new CloseShieldInputStream(stream));
-                        stream.reset();
+            if (!isVideo || App.get().useVideoThumbsInGallery) {
+                byte[] thumb = getThumbBytes(docId, doc, hash);
+                if (thumb != null) {
+                    if (thumb.length > 0) {
+                        image = ImageIO.read(new ByteArrayInputStream(thumb));
+                    } else {
+                        image = errorImg;
                     }
+                }
+            }
 
-                    if (image == null && stream != null) {
-                        image = ImageUtil.getSubSampledImage(stream, thumbSize, thumbSize);
-                        stream.reset();
-                    }
+            boolean hasHash = hash != null && !hash.isEmpty();
+            if (image == null && hasHash && cache.readFromDisk(moduleDir, hash, isVideo, value)) {
+                return value;
+            }
 
-                    if (image == null && stream != null) {
-                        String sizeStr = doc.get(IndexItem.LENGTH);
-                        Long size = sizeStr == null ? null : Long.parseLong(sizeStr);
-                        image = magickConverter.getImage(stream, thumbSize, size);
+            if (image == null && hasHash) {
+                image = getViewImage(docId, hash, !isSupportedImage(mediaType));
+                int resizeTolerance = 4;
+                if (image != null) {
+                    if (image.getWidth() < thumbSize - resizeTolerance
+                            && image.getHeight() < thumbSize - resizeTolerance) {
+                        value.originalW = image.getWidth();
+                        value.originalH = image.getHeight();
+                        getDimension = false;
                     }
+                    toDiskCache = isVideo;
+                }
+            }
 
-                    if (image == null || image == errorImg) {
-                        if (value.icon == null)
-                            value.icon = errorIcon;
-                    }
+            String export = doc.get(IndexItem.EXPORT);
+            if (image == null && export != null && !export.isEmpty() && isSupportedImage(mediaType)) {
+                image = getThumbFromFTKReport(
+                        App.get().appCase.getAtomicSource(docId).getCaseDir().getAbsolutePath(), export);
+                getDimension = false;
+            }
 
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    value.icon = errorIcon;
+            if (image == null && !isSupportedImage(mediaType) && !isVideo) {
+                image = errorImg;
+                value.icon = unsupportedIcon;
+            }
 
-                } finally {
-                    try {
-                        if (stream != null) {
-                            stream.close();
-                        }
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+            if (image == null && isSupportedImage(mediaType)) {
+                if (isCancelled(req)) {
+                    return null;
                 }
+                stream = App.get().appCase.getItemByLuceneID(docId).getBufferedStream();
+                toDiskCache = true;
+            }
 
-                if (image != errorImg) {
-                    value.image = image;
+            if (stream != null) {
+                stream.mark(10000000);
+            }
+
+            if (stream != null && getDimension) {
+                Dimension d = ImageUtil.getImageFileDimension(stream);
+                if (d != null) {
+                    value.originalW = d.width;
+                    value.originalH = d.height;
                 }
+                stream.reset();
+            }
 
-                cache.put(id, value);
+            if (image == null && stream != null && ImageThumbTask.extractThumb
+                    && mediaType.equals("image/jpeg")) { //$NON-NLS-1$
+                image = ImageUtil.getThumb(new CloseShieldInputStream(stream));
+                stream.reset();
+            }
 
-                SwingUtilities.invokeLater(new Runnable() {
-                    @Override
-                    public void run() {
-                        App.get().galleryModel.fireTableCellUpdated(row, col);
-                    }
-                });
+            if (image == null && stream != null) {
+                image = ImageUtil.getSubSampledImage(stream, thumbSize, thumbSize);
+                stream.reset();
+            }
 
-                synchronized (cache) {
-                    Iterator<IItemId> i = cache.keySet().iterator();
-                    while (cache.size() > maxCacheSize) {
-                        i.next();
-                        i.remove();
-                    }
+            if (image == null && stream != null) {
+                if (isCancelled(req)) {
+                    return null;
+                }
+                String sizeStr = doc.get(IndexItem.LENGTH);
+                Long size = sizeStr == null ? null : Long.parseLong(sizeStr);
+                image = magickConverter.getImage(stream, thumbSize, size);
+            }
+
+            if (image == null || image == errorImg) {
+                if (value.icon == null)
+                    value.icon = errorIcon;
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            value.icon = errorIcon;
 
+        } finally {
+            try {
+                if (stream != null) {
+                    stream.close();
                 }
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-        });
+        }
 
-        return new GalleryValue(doc.get(IndexItem.NAME), null, id);
+        if (image != null && image != errorImg) {
+            value.image = cache.scale(image);
+            if (toDiskCache && hash != null && !hash.isEmpty()) {
+                cache.writeToDisk(moduleDir, hash, isVideo, value);
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Miniatura gerada no processamento: campo armazenado no índice ou, se
+     * ausente, o armazenamento de miniaturas do caso.
+     */
+    private byte[] getThumbBytes(int docId, Document doc, String hash) throws IOException {
+        BytesRef bytesRef = doc.getBinaryValue(IndexItem.THUMB);
+        if (bytesRef != null) {
+            return Arrays.copyOfRange(bytesRef.bytes, bytesRef.offset, bytesRef.offset + bytesRef.length);
+        }
+        if (hash == null || hash.isEmpty() || !Boolean.valueOf(doc.get(ImageThumbTask.HAS_THUMB))) {
+            return null;
+        }
+        File storageDir = new File(App.get().appCase.getAtomicSource(docId).getModuleDir(), BlobStore.STORAGE_DIR);
+        if (!storageDir.exists()) {
+            return null;
+        }
+        return BlobStore.get(storageDir).get(new HashValue(hash).getBytes(), BlobStore.THUMB);
     }
 
     public void clearVideoThumbsInCache() {
-        synchronized (cache) {
-            Iterator<IItemId> it = cache.keySet().iterator();
-            while (it.hasNext()) {
-                IItemId id = it.next();
-                int docId = App.get().appCase.getLuceneId(id);
-                try {
-                    Document doc = App.get().appCase.getSearcher().doc(docId);
-                    String mediaType = doc.get(IndexItem.CONTENTTYPE);
-                    if (isSupportedVideo(mediaType)) {
-                        it.remove();
-                    }
-                } catch (Exception e) {
-                }
-            }
+        if (cache != null) {
+            cache.removeVideos();
         }
     }
 
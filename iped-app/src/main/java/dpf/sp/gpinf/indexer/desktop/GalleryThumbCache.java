@@ -0,0 +1,282 @@
+package dpf.sp.gpinf.indexer.desktop;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dpf.sp.gpinf.indexer.util.GalleryValue;
+import dpf.sp.gpinf.indexer.util.ImageUtil;
+import dpf.sp.gpinf.indexer.util.Util;
+import iped3.IItemId;
+
+/**
+ * Cache das miniaturas da galeria em dois níveis: imagens decodificadas em
+ * memória, limitadas pelo tamanho em bytes dos pixels, e miniaturas já
+ * redimensionadas em disco, indexadas pelo hash do conteúdo e compartilhadas
+ * entre sessões. Só vão para o disco miniaturas de alto custo (imagens
+ * decodificadas por completo e imagens de visualização de vídeos), as
+ * miniaturas geradas no processamento já são lidas rapidamente do índice.
+ *
+ * O cache em disco fica na pasta do caso de cada item, assim miniaturas de
+ * evidências não são gravadas fora do caso, e é limitado em tamanho, removendo
+ * as miniaturas usadas há mais tempo. Se a pasta não puder ser gravada (ex:
+ * caso em mídia somente leitura), a gravação é suspensa por um tempo e tentada
+ * novamente depois.
+ */
+public class GalleryThumbCache {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(GalleryThumbCache.class);
+
+    private static final String DISK_CACHE_DIR = "galleryCache"; //$NON-NLS-1$
+
+    private static final long MAX_DISK_BYTES = 512L << 20;
+    private static final long DISK_RETRY_MILLIS = 60000;
+
+    private static final int DISK_MAGIC = 0x47544331; // "GTC1"
+    private static final String DISK_EXT = "thumb"; //$NON-NLS-1$
+    private static final String VIDEO_SUFFIX = "_v"; //$NON-NLS-1$
+
+    private static final long MAX_MEMORY_BYTES = Math.min(Runtime.getRuntime().maxMemory() / 8, 512L << 20);
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private static class Entry {
+        GalleryValue value;
+        boolean video;
+        long bytes;
+    }
+
+    /**
+     * Cache em disco de um caso. O tamanho total é calculado na primeira gravação.
+     */
+    private static class DiskCache {
+        final File dir;
+        long bytes = -1;
+        long disabledUntil = 0;
+
+        DiskCache(File dir) {
+            this.dir = dir;
+        }
+    }
+
+    private final LinkedHashMap<IItemId, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<File, DiskCache> diskCaches = new HashMap<>();
+    private final int thumbSize;
+    private long memoryBytes = 0;
+
+    public GalleryThumbCache(int thumbSize) {
+        this.thumbSize = thumbSize;
+    }
+
+    public synchronized GalleryValue get(IItemId id) {
+        Entry entry = memory.get(id);
+        return entry != null ? entry.value : null;
+    }
+
+    public synchronized void put(IItemId id, GalleryValue value, boolean video) {
+        Entry entry = new Entry();
+        entry.value = value;
+        entry.video = video;
+        entry.bytes = ENTRY_OVERHEAD;
+        if (value.image != null) {
+            entry.bytes += 4L * value.image.getWidth() * value.image.getHeight();
+        }
+        Entry prev = memory.put(id, entry);
+        if (prev != null) {
+            memoryBytes -= prev.bytes;
+        }
+        memoryBytes += entry.bytes;
+
+        Iterator<Entry> it = memory.values().iterator();
+        while (memoryBytes > MAX_MEMORY_BYTES && it.hasNext()) {
+            memoryBytes -= it.next().bytes;
+            it.remove();
+        }
+    }
+
+    public synchronized void removeVideos() {
+        Iterator<Entry> it = memory.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.video) {
+                memoryBytes -= entry.bytes;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Reduz a imagem ao tamanho das miniaturas, se for maior, para economizar
+     * memória e não redimensionar novamente imagens grandes a cada exibição.
+     */
+    public BufferedImage scale(BufferedImage image) {
+        if (image.getWidth() > thumbSize || image.getHeight() > thumbSize) {
+            image = ImageUtil.resizeImage(image, thumbSize, thumbSize);
+        }
+        return image;
+    }
+
+    private DiskCache getDiskCache(File moduleDir) {
+        synchronized (diskCaches) {
+            return diskCaches.computeIfAbsent(moduleDir,
+                    dir -> new DiskCache(new File(new File(dir, DISK_CACHE_DIR), Integer.toString(thumbSize))));
+        }
+    }
+
+    private static File getDiskFile(DiskCache cache, String hash, boolean video) {
+        return Util.getFileFromHash(cache.dir, hash + (video ? VIDEO_SUFFIX : ""), DISK_EXT); //$NON-NLS-1$
+    }
+
+    /**
+     * Lê do disco uma miniatura redimensionada anteriormente, preenchendo a
+     * imagem e as dimensões originais do valor.
+     *
+     * @param moduleDir
+     *            pasta do caso do item.
+     * @return true se a miniatura foi encontrada.
+     */
+    public boolean readFromDisk(File moduleDir, String hash, boolean video, GalleryValue value) {
+        File file = getDiskFile(getDiskCache(moduleDir), hash, video);
+        if (!file.exists()) {
+            return false;
+        }
+        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())))) {
+            if (dis.readInt() != DISK_MAGIC) {
+                return false;
+            }
+            int originalW = dis.readInt();
+            int originalH = dis.readInt();
+            BufferedImage image = ImageIO.read(dis);
+            if (image == null) {
+                return false;
+            }
+            value.originalW = originalW;
+            value.originalH = originalH;
+            value.image = image;
+            // data de uso, para remover primeiro as miniaturas usadas há mais tempo
+            file.setLastModified(System.currentTimeMillis());
+            return true;
+
+        } catch (IOException e) {
+            LOGGER.debug("Error reading gallery cache file " + file.getAbsolutePath(), e); //$NON-NLS-1$
+            return false;
+        }
+    }
+
+    /**
+     * Grava no disco a miniatura já redimensionada. A gravação é feita em arquivo
+     * temporário renomeado ao final, assim outras instâncias do programa nunca
+     * leem arquivos incompletos.
+     *
+     * @param moduleDir
+     *            pasta do caso do item.
+     */
+    public void writeToDisk(File moduleDir, String hash, boolean video, GalleryValue value) {
+        if (value.image == null) {
+            return;
+        }
+        DiskCache cache = getDiskCache(moduleDir);
+        synchronized (cache) {
+            if (System.currentTimeMillis() < cache.disabledUntil) {
+                return;
+            }
+        }
+        File file = getDiskFile(cache, hash, video);
+        File tmp = null;
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(baos);
+            dos.writeInt(DISK_MAGIC);
+            dos.writeInt(value.originalW);
+            dos.writeInt(value.originalH);
+            if (!ImageIO.write(ImageUtil.getOpaqueImage(value.image), "jpg", dos)) { //$NON-NLS-1$
+                return;
+            }
+            dos.flush();
+
+            file.getParentFile().mkdirs();
+            tmp = File.createTempFile("iped", ".tmp", file.getParentFile()); //$NON-NLS-1$ //$NON-NLS-2$
+            Files.write(tmp.toPath(), baos.toByteArray());
+            if (tmp.renameTo(file)) {
+                tmp = null;
+                added(cache, file.length());
+            }
+
+        } catch (IOException e) {
+            LOGGER.warn("Suspending gallery disk cache in {}: {}", cache.dir.getAbsolutePath(), e.toString()); //$NON-NLS-1$
+            synchronized (cache) {
+                cache.disabledUntil = System.currentTimeMillis() + DISK_RETRY_MILLIS;
+            }
+
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Contabiliza a miniatura gravada e, se o cache passou do limite, remove as
+     * miniaturas usadas há mais tempo até ocupar 90% do limite.
+     */
+    private static void added(DiskCache cache, long length) throws IOException {
+        synchronized (cache) {
+            if (cache.bytes < 0) {
+                cache.bytes = 0;
+                for (File file : listFiles(cache.dir)) {
+                    cache.bytes += file.length();
+                }
+            } else {
+                cache.bytes += length;
+            }
+            if (cache.bytes <= MAX_DISK_BYTES) {
+                return;
+            }
+            List<File> files = listFiles(cache.dir);
+            long[] lastModified = new long[files.size()];
+            Integer[] order = new Integer[files.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+                lastModified[i] = files.get(i).lastModified();
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(lastModified[a], lastModified[b]));
+            for (int i = 0; i < order.length && cache.bytes > MAX_DISK_BYTES * 9 / 10; i++) {
+                File file = files.get(order[i]);
+                long fileLength = file.length();
+                if (file.delete()) {
+                    cache.bytes -= fileLength;
+                }
+            }
+        }
+    }
+
+    private static List<File> listFiles(File dir) throws IOException {
+        if (!dir.exists()) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> stream = Files.walk(dir.toPath())) {
+            return stream.filter(path -> path.getFileName().toString().endsWith("." + DISK_EXT)) //$NON-NLS-1$
+                    .map(Path::toFile).collect(Collectors.toList());
+        }
+    }
+
+}
@@ -14,6 +14,7 @@
 import org.apache.lucene.util.BytesRef;
 
 import dpf.sp.gpinf.indexer.search.MultiSearchResult;
+import dpf.sp.gpinf.indexer.search.SimilarImagesSearch;
 import gpinf.similarity.ImageSimilarity;
 import iped3.IItem;
 import iped3.IItemId;
@@ -51,6 +52,7 @@ public class ImageSimilarityScorer {
     private final MultiSearchResult result;
     private final byte[] refSimilarityFeatures;
     private final IItem refItem;
+    private final SimilarImagesSearch search;
     private final int len;
 
     private final List<Integer> topResults = new ArrayList<Integer>();
@@ -58,9 +60,19 @@ public class ImageSimilarityScorer {
     private final Map<Integer, Integer> refDist = new HashMap<Integer, Integer>();
 
     public ImageSimilarityScorer(MultiSearchResult result, IItem refItem) {
+        this(result, refItem, null);
+    }
+
+    /**
+     * @param search
+     *            search used to filter the results. If it used the image similarity
+     *            index, the distances computed by the index are reused.
+     */
+    public ImageSimilarityScorer(MultiSearchResult result, IItem refItem, SimilarImagesSearch search) {
         this.result = result;
         this.len = result.getLength();
         this.refItem = refItem;
+        this.search = search;
         this.refSimilarityFeatures = refItem.getImageSimilarityFeatures();
     }
 
@@ -68,6 +80,41 @@ public void score() throws IOException {
         if (len == 0 || refSimilarityFeatures == null) {
             return;
         }
+        if (search != null && search.isIndexUsed()) {
+            scoreFromIndex();
+        } else {
+            scoreFromDocValues();
+        }
+        organizeTopResults();
+    }
+
+    private void scoreFromIndex() throws IOException {
+        LeafReader leafReader = App.get().appCase.getLeafReader();
+        for (int i = 0; i < len; i++) {
+            IItemId itemId = result.getItem(i);
+            int distance = search.getDistance(itemId);
+            if (distance < 0) {
+                result.setScore(i, 0);
+                continue;
+            }
+            float score = Math.max(0, 100 - distance * distToScoreMult / refSimilarityFeatures.length);
+            if (distance == 0 && isIdentical(leafReader, App.get().appCase.getLuceneId(itemId))) {
+                score = identicalScore;
+            }
+            result.setScore(i, score);
+        }
+    }
+
+    private boolean isIdentical(LeafReader leafReader, int luceneId) throws IOException {
+        String refHash = refItem.getHash();
+        if (refHash == null) {
+            return false;
+        }
+        Document doc = leafReader.document(luceneId);
+        return refHash.equals(doc.get(BasicProps.HASH));
+    }
+
+    private void scoreFromDocValues() throws IOException {
         LeafReader leafReader = App.get().appCase.getLeafReader();
         int numThreads = Runtime.getRuntime().availableProcessors();
         Thread[] threads = new Thread[numThreads];
@@ -98,18 +145,13 @@ public void run() {
                                     evalCut);
                             float score = Math.max(0, 100 - distance * distToScoreMult / refSimilarityFeatures.length);
                             if (distance == 0) {
-                                String refHash = refItem.getHash();
-                                if (refHash != null) {
-                                    try {
-                                        Document doc = leafReader.document(luceneId);
-                                        String currHash = doc.get(BasicProps.HASH);
-                                        if (refHash.equals(currHash)) {
-                                            score = identicalScore;
-                                        }
-                                    } catch (IOException e) {
-                                        e.printStackTrace();
-                                        break;
+                                try {
+                                    if (isIdentical(leafReader, luceneId)) {
+                                        score = identicalScore;
                                     }
+                                } catch (IOException e) {
+                                    e.printStackTrace();
+                                    break;
                                 }
                             }
                             result.setScore(i, score);
@@ -126,8 +168,6 @@ public void run() {
             } catch (InterruptedException e) {
             }
         }
-
-        organizeTopResults();
     }
 
     private void organizeTopResults() {
@@ -62,6 +62,7 @@ public class PesquisarIndice extends CancelableWorker<MultiSearchResult, Object>
     String queryText;
     Query query;
     IPEDSearcher searcher;
+    SimilarImagesSearch similarImagesSearch;
 
     public PesquisarIndice(String queryText) {
         this.queryText = queryText;
@@ -132,8 +133,9 @@ private Query getQueryWithUIFilter() throws ParseException, QueryNodeException {
         }
 
         if (App.get().similarImagesQueryRefItem != null) {
-            Query similarImagesQuery = new SimilarImagesSearch()
-                    .getQueryForSimilarImages(App.get().similarImagesQueryRefItem);
+            similarImagesSearch = new SimilarImagesSearch();
+            Query similarImagesQuery = similarImagesSearch
+                    .getQueryForSimilarImages(App.get().similarImagesQueryRefItem, App.get().appCase);
             if (similarImagesQuery != null) {
                 BooleanQuery.Builder boolQuery = new BooleanQuery.Builder();
                 boolQuery.add(result, Occur.MUST);
@@ -244,7 +246,7 @@ public MultiSearchResult doInBackground() {
                 }
 
                 if (App.get().similarImagesQueryRefItem != null) {
-                    new ImageSimilarityScorer(result, App.get().similarImagesQueryRefItem).score();
+                    new ImageSimilarityScorer(result, App.get().similarImagesQueryRefItem, similarImagesSearch).score();
                     result = ImageSimilarityLowScoreFilter.filter(result);
                 }
 
@@ -368,7 +368,8 @@ private int compare(String a, String b) {
     }
 
     private String getCell(JTable table, int row, int col) {
-        String cell = table.getValueAt(row, col).toString();
+        String cell = App.get().resultsModel
+                .getLoadedValueAt(table.convertRowIndexToModel(row), table.convertColumnIndexToModel(col)).toString();
         return cell.replace("<html><nobr>", "").replace("</html>", "") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
                 .replace(App.get().getParams().HIGHLIGHT_START_TAG, "")
                 .replace(App.get().getParams().HIGHLIGHT_END_TAG, ""); //$NON-NLS-1$
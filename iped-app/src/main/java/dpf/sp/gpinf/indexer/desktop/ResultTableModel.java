@@ -18,29 +18,19 @@
  */
 package dpf.sp.gpinf.indexer.desktop;
 
-import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.text.Collator;
 import java.text.NumberFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.Date;
-import java.util.List;
-import java.util.TimeZone;
 
+import javax.swing.JTable;
 import javax.swing.SwingUtilities;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableColumn;
 
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.SortedNumericDocValues;
 import org.apache.lucene.search.highlight.TextFragment;
 
-import dpf.sp.gpinf.indexer.datasource.SleuthkitReader;
 import dpf.sp.gpinf.indexer.process.IndexItem;
-import dpf.sp.gpinf.indexer.util.DateUtil;
 import dpf.sp.gpinf.indexer.util.Util;
 import iped3.IItemId;
 import iped3.search.IMultiSearchResult;
@@ -49,11 +39,6 @@ public class ResultTableModel extends AbstractTableModel implements SearchResult
 
     private static final long serialVersionUID = 1L;
 
-    private static final List<String> basicDateFields = Arrays.asList(IndexItem.ACCESSED, IndexItem.MODIFIED,
-            IndexItem.CREATED, IndexItem.RECORDDATE);
-
-    private static final NumberFormat numberFormat = NumberFormat.getNumberInstance();
-
     public static String BOOKMARK_COL = Messages.getString("ResultTableModel.bookmark"); //$NON-NLS-1$
     public static String SCORE_COL = Messages.getString("ResultTableModel.score"); //$NON-NLS-1$
 
@@ -108,15 +93,8 @@ public void updateCols() {
         columnNames = cols.toArray(new String[0]);
     }
 
-    private SimpleDateFormat df = new SimpleDateFormat(Messages.getString("ResultTableModel.DateFormat")); //$NON-NLS-1$
-    private SimpleDateFormat fatAccessedDf = new SimpleDateFormat(Messages.getString("ResultTableModel.FATDateFormat")); //$NON-NLS-1$
-    private Collator collator = Collator.getInstance();
-
     public ResultTableModel() {
         super();
-        df.setTimeZone(TimeZone.getTimeZone("UTC")); //$NON-NLS-1$
-        fatAccessedDf.setTimeZone(TimeZone.getTimeZone("UTC")); //$NON-NLS-1$
-        collator.setStrength(Collator.PRIMARY);
     }
 
     @Override
@@ -197,11 +175,26 @@ public IMultiSearchResult getSearchResult() {
         return App.get().ipedResult;
     }
 
-    private Document doc;
-    private int lastDocRead = -1;
+    private ResultTableValueCache valueCache = new ResultTableValueCache();
+
+    // linhas antes e depois da linha exibida carregadas em segundo plano
+    private static final int PREFETCH_ROWS = 256;
 
     @Override
     public Object getValueAt(int row, int col) {
+        return getValueAt(row, col, false);
+    }
+
+    /**
+     * Retorna o valor da célula, carregando-o do índice se ainda não estiver em
+     * cache. Deve ser usado quando o valor é necessário imediatamente, ex: busca
+     * pela digitação na coluna ordenada.
+     */
+    public Object getLoadedValueAt(int row, int col) {
+        return getValueAt(row, col, true);
+    }
+
+    private Object getValueAt(int row, int col, boolean loadNow) {
 
         if (col == 0)
             return String.valueOf(App.get().resultsTable.convertRowIndexToView(row) + 1);
@@ -209,21 +202,6 @@ public Object getValueAt(int row, int col) {
         if (col == 1)
             return app.appCase.getMultiMarcadores().isSelected(app.ipedResult.getItem(row));
 
-        String value = ""; //$NON-NLS-1$
-
-        IItemId item = App.get().ipedResult.getItem(row);
-        int docId = App.get().appCase.getLuceneId(item);
-
-        if (docId != lastDocRead) {
-            try {
-                doc = app.appCase.getSearcher().doc(docId);
-            } catch (IOException e) {
-                e.printStackTrace();
-                return Messages.getString("ResultTableModel.Error"); //$NON-NLS-1$
-            }
-        }
-        lastDocRead = docId;
-
         try {
             int fCol = col - fixedCols.length;
             String field = fields[fCol];
@@ -236,93 +214,60 @@ public Object getValueAt(int row, int col) {
                 return Util.concatStrings(app.appCase.getMultiMarcadores().getLabelList(app.ipedResult.getItem(row)));
             }
 
-            SortedNumericDocValues sndv = App.get().appCase.getLeafReader().getSortedNumericDocValues(field);
-            if (sndv == null)
-                sndv = App.get().appCase.getLeafReader().getSortedNumericDocValues("_num_" + field); //$NON-NLS-1$
-
-            boolean mayBeNumeric = MetadataPanel.mayBeNumeric(field);
-
-            String[] values = doc.getValues(field);
-            if (values.length > 1) {
-                boolean sorted = false;
-                if (mayBeNumeric && sndv != null) {
-                    try {
-                        Arrays.sort(values, new Comparator<String>() {
-                            @Override
-                            public int compare(String o1, String o2) {
-                                return Double.valueOf(o1).compareTo(Double.valueOf(o2));
-                            }
-                        });
-                        sorted = true;
-                    } catch (NumberFormatException e) {
-                    }
-                }
-                if (!sorted)
-                    Arrays.sort(values, collator);
-            }
-
-            StringBuilder sb = new StringBuilder();
-            for (int i = 0; i < values.length; i++) {
-                try {
-                    // do not use scientific notation for longs
-                    Double d = Double.valueOf(values[i]);
-                    if (d.doubleValue() == d.longValue()) {
-                        values[i] = Long.toString(d.longValue());
-                    }
-                } catch (NumberFormatException e) {
-                }
+            IItemId item = App.get().ipedResult.getItem(row);
+            int docId = App.get().appCase.getLuceneId(item);
 
-                sb.append(values[i]);
-                if (i != values.length - 1) {
-                    if (i == 9) {
-                        sb.append(" ..."); //$NON-NLS-1$
-                        break;
+            String value = valueCache.getValue(docId, field);
+            if (value == null) {
+                if (loadNow) {
+                    value = valueCache.loadValue(docId, field);
+                } else {
+                    if (!valueCache.isPending(docId)) {
+                        prefetch(row);
                     }
-                    sb.append(" | "); //$NON-NLS-1$
+                    return ""; //$NON-NLS-1$
                 }
             }
 
-            value = sb.toString().trim();
-
-            if (value.isEmpty())
-                return value;
-
-            if (basicDateFields.contains(field))
-                try {
-                    Date date = DateUtil.stringToDate(value);
-                    if (field.equals(IndexItem.ACCESSED)) {
-                        if (doc.get(SleuthkitReader.IN_FAT_FS) != null)
-                            return fatAccessedDf.format(date);
-                    }
-                    return df.format(date);
-
-                } catch (Exception e) {
-                    // e.printStackTrace();
-                }
-
-            if (Date.class.equals(IndexItem.getMetadataTypes().get(field))) {
-                // it was stored lowercase because query parser converts range queries to
-                // lowercase
-                value = value.toUpperCase();
-            }
-
-            if (field.equals(IndexItem.LENGTH)) {
-                value = numberFormat.format(Long.valueOf(value));
-
-            } else if (field.equals(IndexItem.NAME)) {
+            if (field.equals(IndexItem.NAME) && !value.isEmpty()) {
                 TextFragment[] fragments = TextHighlighter.getHighlightedFrags(false, value, field, 0);
                 if (fragments[0].getScore() > 0) {
                     value = "<html><nobr>" + fragments[0].toString() + "</html>"; //$NON-NLS-1$ //$NON-NLS-2$
                 }
             }
 
+            return value;
+
         } catch (Exception e) {
             e.printStackTrace();
             return Messages.getString("ResultTableModel.Error"); //$NON-NLS-1$
         }
 
-        return value;
+    }
 
+    /**
+     * Agenda o carregamento das linhas próximas, na ordem exibida, da linha
+     * solicitada.
+     */
+    private void prefetch(int row) {
+        JTable table = App.get().resultsTable;
+        int viewRow = table.convertRowIndexToView(row);
+        if (viewRow == -1) {
+            viewRow = row;
+        }
+        int from = Math.max(0, viewRow - PREFETCH_ROWS);
+        int to = Math.min(table.getRowCount() - 1, viewRow + PREFETCH_ROWS);
+        int[] docIds = new int[Math.max(0, to - from + 1)];
+        // linha solicitada primeiro
+        int n = 0;
+        docIds[n++] = App.get().appCase.getLuceneId(app.ipedResult.getItem(row));
+        for (int i = from; i <= to && n < docIds.length; i++) {
+            if (i != viewRow) {
+                int modelRow = table.convertRowIndexToModel(i);
+                docIds[n++] = App.get().appCase.getLuceneId(app.ipedResult.getItem(modelRow));
+            }
+        }
+        valueCache.prefetch(Arrays.copyOf(docIds, n), fields);
     }
 
 }
@@ -19,13 +19,16 @@
 package dpf.sp.gpinf.indexer.desktop;
 
 import java.awt.Dialog;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import javax.swing.RowSorter;
+import javax.swing.SortOrder;
 
+import dpf.sp.gpinf.indexer.desktop.parallelsorter.ParallelIntSort;
 import dpf.sp.gpinf.indexer.desktop.parallelsorter.ParallelTableRowSorter;
 import iped3.desktop.CancelableWorker;
 import iped3.desktop.ProgressDialog;
@@ -57,6 +60,32 @@ protected boolean useToString(int column) {
         return false;
     }
 
+    /**
+     * Ordena pelas chaves primitivas de cada coluna, extraídas e mantidas em cache
+     * pelos comparadores, em vez de comparar os valores a cada par de linhas.
+     */
+    @Override
+    protected int[] sortModelRows(int[] modelRows, SortKey[] sortKeys) {
+        List<int[]> keys = new ArrayList<>();
+        for (SortKey sortKey : sortKeys) {
+            if (sortKey.getSortOrder() == SortOrder.UNSORTED) {
+                // demais chaves não se aplicam, empates ficam na ordem do modelo
+                break;
+            }
+            int[] columnKeys = ((RowComparator) getComparator(sortKey.getColumn())).getSortKeys(modelRows);
+            if (sortKey.getSortOrder() == SortOrder.DESCENDING) {
+                for (int i = 0; i < columnKeys.length; i++) {
+                    columnKeys[i] = ~columnKeys[i];
+                }
+            }
+            keys.add(columnKeys);
+        }
+        if (keys.isEmpty()) {
+            return null;
+        }
+        return ParallelIntSort.sortByKeys(modelRows, keys.toArray(new int[keys.size()][]));
+    }
+
     @Override
     public void setSortKeys(final List<? extends SortKey> sortKeys) {
         if (sortKeys == null) {
@@ -0,0 +1,451 @@
+package dpf.sp.gpinf.indexer.desktop;
+
+import java.io.IOException;
+import java.text.Collator;
+import java.text.NumberFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.swing.SwingUtilities;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.util.Bits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dpf.sp.gpinf.indexer.datasource.SleuthkitReader;
+import dpf.sp.gpinf.indexer.process.IndexItem;
+import dpf.sp.gpinf.indexer.util.DateUtil;
+
+/**
+ * Cache colunar dos valores exibidos na tabela de resultados, indexado pelo id
+ * lucene dos itens, assim continua válido entre pesquisas e ordenações.
+ *
+ * Colunas numéricas com NumericDocValues são lidas dos DocValues para arrays de
+ * long. As demais guardam, por item, o ordinal do valor já formatado em um
+ * dicionário compartilhado da coluna, carregado dos campos armazenados apenas
+ * das colunas visíveis. O carregamento é feito em uma thread de fundo para as
+ * linhas próximas às exibidas, assim a renderização na EDT não lê o índice.
+ */
+public class ResultTableValueCache {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ResultTableValueCache.class);
+
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    // limite de valores em cache, para evitar uso excessivo de memória
+    private static final int MAX_CACHED_VALUES = 1 << 24;
+
+    private static final long NOT_LOADED = Long.MIN_VALUE;
+    private static final long NO_VALUE = Long.MIN_VALUE + 1;
+
+    private static final List<String> basicDateFields = Arrays.asList(IndexItem.ACCESSED, IndexItem.MODIFIED,
+            IndexItem.CREATED, IndexItem.RECORDDATE);
+
+    private static final String[] fixedLongFields = { IndexItem.ID, IndexItem.PARENTID, IndexItem.SLEUTHID,
+            IndexItem.LENGTH };
+
+    private final Map<String, Column> columns = new ConcurrentHashMap<>();
+    private volatile LeafReader reader;
+    private final AtomicInteger cachedValues = new AtomicInteger();
+
+    private final Set<Integer> pending = ConcurrentHashMap.newKeySet();
+    private final Object requestLock = new Object();
+    private Request nextRequest;
+
+    // usados apenas na EDT
+    private final NumberFormat numberFormat = NumberFormat.getNumberInstance();
+
+    // usados apenas com lock da instância
+    private final NumberFormat loaderNumberFormat = NumberFormat.getNumberInstance();
+    private final SimpleDateFormat df = new SimpleDateFormat(Messages.getString("ResultTableModel.DateFormat")); //$NON-NLS-1$
+    private final SimpleDateFormat fatAccessedDf = new SimpleDateFormat(
+            Messages.getString("ResultTableModel.FATDateFormat")); //$NON-NLS-1$
+    private final Collator collator = Collator.getInstance();
+
+    private static class Request {
+
+        int[] docIds;
+        String[] fields;
+
+        Request(int[] docIds, String[] fields) {
+            this.docIds = docIds;
+            this.fields = fields;
+        }
+    }
+
+    public ResultTableValueCache() {
+        df.setTimeZone(TimeZone.getTimeZone("UTC")); //$NON-NLS-1$
+        fatAccessedDf.setTimeZone(TimeZone.getTimeZone("UTC")); //$NON-NLS-1$
+        collator.setStrength(Collator.PRIMARY);
+
+        Thread loader = new Thread(() -> runLoader(), "ResultTableValueLoader"); //$NON-NLS-1$
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    private class Column {
+
+        private final String field;
+        private final boolean sortedNumeric;
+        private NumericDocValues ndv;
+        private Bits docsWithField;
+        // páginas e valores publicados atomicamente, pois get() é chamado na EDT sem
+        // lock enquanto a thread de fundo carrega os valores
+        private final AtomicReferenceArray<AtomicLongArray> numPages;
+        private final AtomicReferenceArray<AtomicIntegerArray> ordPages;
+        private volatile String[] dictionary = new String[16];
+        private int dictSize = 0;
+        private final HashMap<String, Integer> ords = new HashMap<>();
+
+        private Column(String field, LeafReader reader) throws IOException {
+            this.field = field;
+            sortedNumeric = reader.getSortedNumericDocValues(field) != null
+                    || reader.getSortedNumericDocValues("_num_" + field) != null; //$NON-NLS-1$
+            if (isLongField(field)) {
+                ndv = reader.getNumericDocValues(field);
+                docsWithField = reader.getDocsWithField(field);
+            }
+            int pageCount = (reader.maxDoc() >>> PAGE_BITS) + 1;
+            if (ndv != null && docsWithField != null) {
+                numPages = new AtomicReferenceArray<>(pageCount);
+                ordPages = null;
+            } else {
+                ndv = null;
+                numPages = null;
+                ordPages = new AtomicReferenceArray<>(pageCount);
+            }
+        }
+
+        private boolean isNumeric() {
+            return ndv != null;
+        }
+
+        private boolean isLoaded(int docId) {
+            int page = docId >>> PAGE_BITS;
+            if (isNumeric()) {
+                AtomicLongArray values = numPages.get(page);
+                return values != null && values.get(docId & (PAGE_SIZE - 1)) != NOT_LOADED;
+            } else {
+                AtomicIntegerArray values = ordPages.get(page);
+                return values != null && values.get(docId & (PAGE_SIZE - 1)) != 0;
+            }
+        }
+
+        /**
+         * @return o valor exibido ou null se ainda não carregado.
+         */
+        private String get(int docId) {
+            int page = docId >>> PAGE_BITS;
+            if (isNumeric()) {
+                AtomicLongArray values = numPages.get(page);
+                long value = values == null ? NOT_LOADED : values.get(docId & (PAGE_SIZE - 1));
+                if (value == NOT_LOADED) {
+                    return null;
+                }
+                if (value == NO_VALUE) {
+                    return ""; //$NON-NLS-1$
+                }
+                return IndexItem.LENGTH.equals(field) ? numberFormat.format(value) : Long.toString(value);
+            } else {
+                AtomicIntegerArray values = ordPages.get(page);
+                int ord = values == null ? 0 : values.get(docId & (PAGE_SIZE - 1));
+                if (ord == 0) {
+                    return null;
+                }
+                // o valor do dicionário é gravado antes do ordinal, então já está visível
+                String[] dict = dictionary;
+                return ord <= dict.length ? dict[ord - 1] : null;
+            }
+        }
+
+        private synchronized void loadNumeric(int docId) {
+            int page = docId >>> PAGE_BITS;
+            AtomicLongArray values = numPages.get(page);
+            if (values == null) {
+                long[] empty = new long[PAGE_SIZE];
+                Arrays.fill(empty, NOT_LOADED);
+                values = new AtomicLongArray(empty);
+                numPages.set(page, values);
+            }
+            if (values.get(docId & (PAGE_SIZE - 1)) == NOT_LOADED) {
+                values.set(docId & (PAGE_SIZE - 1), docsWithField.get(docId) ? ndv.get(docId) : NO_VALUE);
+                cachedValues.incrementAndGet();
+            }
+        }
+
+        private synchronized void put(int docId, String value) {
+            Integer ord = ords.get(value);
+            if (ord == null) {
+                String[] dict = dictionary;
+                if (dictSize == dict.length) {
+                    dict = Arrays.copyOf(dict, dictSize * 2);
+                }
+                dict[dictSize++] = value;
+                dictionary = dict;
+                ord = dictSize;
+                ords.put(value, ord);
+            }
+            int page = docId >>> PAGE_BITS;
+            AtomicIntegerArray values = ordPages.get(page);
+            if (values == null) {
+                values = new AtomicIntegerArray(PAGE_SIZE);
+                ordPages.set(page, values);
+            }
+            if (values.get(docId & (PAGE_SIZE - 1)) == 0) {
+                cachedValues.incrementAndGet();
+            }
+            // publica o ordinal apenas depois do valor no dicionário
+            values.set(docId & (PAGE_SIZE - 1), ord);
+        }
+    }
+
+    private static boolean isLongField(String field) {
+        Class<?> type = IndexItem.getMetadataTypes().get(field);
+        return Arrays.asList(fixedLongFields).contains(field) || Integer.class.equals(type) || Long.class.equals(type)
+                || Byte.class.equals(type);
+    }
+
+    private void checkReader() {
+        LeafReader current = App.get().appCase.getLeafReader();
+        if (current != reader || cachedValues.get() > MAX_CACHED_VALUES) {
+            columns.clear();
+            cachedValues.set(0);
+            reader = current;
+        }
+    }
+
+    private Column getColumn(String field) throws IOException {
+        Column column = columns.get(field);
+        if (column == null) {
+            column = new Column(field, reader);
+            Column prev = columns.putIfAbsent(field, column);
+            if (prev != null) {
+                column = prev;
+            }
+        }
+        return column;
+    }
+
+    /**
+     * Retorna o valor do campo já carregado, sem acessar o índice.
+     *
+     * @return o valor ou null se ainda não carregado.
+     */
+    public String getValue(int docId, String field) {
+        checkReader();
+        Column column = columns.get(field);
+        return column == null ? null : column.get(docId);
+    }
+
+    /**
+     * Carrega os campos do item na thread atual, se necessário, e retorna o valor
+     * do campo.
+     */
+    public String loadValue(int docId, String field) {
+        checkReader();
+        load(docId, new String[] { field });
+        return getValue(docId, field);
+    }
+
+    /**
+     * Agenda o carregamento em segundo plano dos campos dos itens informados,
+     * substituindo requisição anterior ainda não iniciada.
+     */
+    public void prefetch(int[] docIds, String[] fields) {
+        checkReader();
+        synchronized (requestLock) {
+            if (nextRequest != null) {
+                removePending(nextRequest.docIds, 0);
+            }
+            for (int docId : docIds) {
+                pending.add(docId);
+            }
+            nextRequest = new Request(docIds, fields);
+            requestLock.notify();
+        }
+    }
+
+    /**
+     * @return se há um carregamento pendente que inclui o item.
+     */
+    public boolean isPending(int docId) {
+        return pending.contains(docId);
+    }
+
+    private void removePending(int[] docIds, int from) {
+        for (int i = from; i < docIds.length; i++) {
+            pending.remove(docIds[i]);
+        }
+    }
+
+    private void runLoader() {
+        while (true) {
+            Request request;
+            synchronized (requestLock) {
+                while (nextRequest == null) {
+                    try {
+                        requestLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                request = nextRequest;
+                nextRequest = null;
+            }
+            int i = 0;
+            for (; i < request.docIds.length; i++) {
+                // prioriza requisição mais recente (ex: rolagem rápida)
+                synchronized (requestLock) {
+                    if (nextRequest != null) {
+                        break;
+                    }
+                }
+                load(request.docIds[i], request.fields);
+                pending.remove(request.docIds[i]);
+            }
+            removePending(request.docIds, i);
+            SwingUtilities.invokeLater(() -> App.get().resultsTable.repaint());
+        }
+    }
+
+    private void load(int docId, String[] fields) {
+        List<Column> stored = null;
+        try {
+            Set<String> fieldsToLoad = null;
+            for (String field : fields) {
+                if (ResultTableModel.BOOKMARK_COL.equals(field) || ResultTableModel.SCORE_COL.equals(field)) {
+                    continue;
+                }
+                Column column = getColumn(field);
+                if (column.isLoaded(docId)) {
+                    continue;
+                }
+                if (column.isNumeric()) {
+                    column.loadNumeric(docId);
+                } else {
+                    if (fieldsToLoad == null) {
+                        fieldsToLoad = new HashSet<>();
+                        fieldsToLoad.add(SleuthkitReader.IN_FAT_FS);
+                        stored = new ArrayList<>();
+                    }
+                    fieldsToLoad.add(field);
+                    stored.add(column);
+                }
+            }
+            if (stored != null) {
+                Document doc = App.get().appCase.getSearcher().doc(docId, fieldsToLoad);
+                for (Column column : stored) {
+                    column.put(docId, format(column, doc));
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error("Error loading table values of document " + docId, e); //$NON-NLS-1$
+            if (stored != null) {
+                // evita novas tentativas a cada repintura
+                for (Column column : stored) {
+                    column.put(docId, Messages.getString("ResultTableModel.Error")); //$NON-NLS-1$
+                }
+            }
+        }
+    }
+
+    private synchronized String format(Column column, Document doc) {
+        String field = column.field;
+        try {
+            boolean mayBeNumeric = MetadataPanel.mayBeNumeric(field);
+
+            String[] values = doc.getValues(field);
+            if (values.length > 1) {
+                boolean sorted = false;
+                if (mayBeNumeric && column.sortedNumeric) {
+                    try {
+                        Arrays.sort(values, new Comparator<String>() {
+                            @Override
+                            public int compare(String o1, String o2) {
+                                return Double.valueOf(o1).compareTo(Double.valueOf(o2));
+                            }
+                        });
+                        sorted = true;
+                    } catch (NumberFormatException e) {
+                    }
+                }
+                if (!sorted)
+                    Arrays.sort(values, collator);
+            }
+
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < values.length; i++) {
+                try {
+                    // do not use scientific notation for longs
+                    Double d = Double.valueOf(values[i]);
+                    if (d.doubleValue() == d.longValue()) {
+                        values[i] = Long.toString(d.longValue());
+                    }
+                } catch (NumberFormatException e) {
+                }
+
+                sb.append(values[i]);
+                if (i != values.length - 1) {
+                    if (i == 9) {
+                        sb.append(" ..."); //$NON-NLS-1$
+                        break;
+                    }
+                    sb.append(" | "); //$NON-NLS-1$
+                }
+            }
+
+            String value = sb.toString().trim();
+
+            if (value.isEmpty())
+                return value;
+
+            if (basicDateFields.contains(field))
+                try {
+                    Date date = DateUtil.stringToDate(value);
+                    if (field.equals(IndexItem.ACCESSED)) {
+                        if (doc.get(SleuthkitReader.IN_FAT_FS) != null)
+                            return fatAccessedDf.format(date);
+                    }
+                    return df.format(date);
+
+                } catch (Exception e) {
+                    // e.printStackTrace();
+                }
+
+            if (Date.class.equals(IndexItem.getMetadataTypes().get(field))) {
+                // it was stored lowercase because query parser converts range queries to
+                // lowercase
+                value = value.toUpperCase();
+            }
+
+            if (field.equals(IndexItem.LENGTH)) {
+                value = loaderNumberFormat.format(Long.valueOf(value));
+            }
+
+            return value;
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Messages.getString("ResultTableModel.Error"); //$NON-NLS-1$
+        }
+    }
+
+}
@@ -33,6 +33,7 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dpf.sp.gpinf.indexer.desktop.parallelsorter.ParallelIntSort;
 import dpf.sp.gpinf.indexer.process.IndexItem;
 import dpf.sp.gpinf.indexer.util.Util;
 import iped3.IItemId;
@@ -213,6 +214,255 @@ protected SortedNumericDocValues initialValue() {
         }
     };
 
+    /**
+     * Chaves de ordenação por docId, extraídas uma única vez por coluna e
+     * reutilizadas entre ordenações e filtros enquanto o leitor do índice não mudar.
+     */
+    private int[] docKeys;
+
+    /**
+     * Valores carregados dos campos armazenados, quando não há DocValues.
+     */
+    private Object[] storedValues;
+
+    private static final Object NO_VALUE = new Object();
+
+    /**
+     * Retorna, para cada linha, uma chave inteira cuja ordem é a mesma de
+     * {@link #compare(Integer, Integer)}, permitindo ordenar as linhas por arrays
+     * primitivos sem comparar valores a cada par.
+     */
+    public int[] getSortKeys(int[] rows) {
+        final int n = rows.length;
+        int[] keys = new int[n];
+
+        if (scoreCol) {
+            for (int i = 0; i < n; i++) {
+                int bits = Float.floatToIntBits(app.ipedResult.getScore(rows[i]));
+                keys[i] = bits ^ ((bits >> 31) & 0x7fffffff);
+            }
+            return keys;
+        }
+
+        final IItemId[] items = new IItemId[n];
+        for (int i = 0; i < n; i++) {
+            items[i] = app.ipedResult.getItem(rows[i]);
+        }
+
+        if (col == 1) {
+            for (int i = 0; i < n; i++) {
+                keys[i] = app.appCase.getMultiMarcadores().isSelected(items[i]) ? 0 : 1;
+            }
+            return keys;
+        }
+
+        if (bookmarkCol) {
+            final String[] labels = new String[n];
+            for (int i = 0; i < n; i++) {
+                labels[i] = Util.concatStrings(app.appCase.getMultiMarcadores().getLabelList(items[i]));
+            }
+            return ParallelIntSort.rank(n, new ParallelIntSort.IntComparator() {
+                @Override
+                public int compare(int a, int b) {
+                    return labels[a].compareTo(labels[b]);
+                }
+            });
+        }
+
+        int[] docIds = new int[n];
+        for (int i = 0; i < n; i++) {
+            docIds[i] = app.appCase.getLuceneId(items[i]);
+        }
+
+        if (sdv != null || ssdv != null || sndv != null || ndv != null) {
+            int[] docKeys = getDocKeys();
+            for (int i = 0; i < n; i++) {
+                keys[i] = docKeys[docIds[i]];
+            }
+            return keys;
+        }
+
+        return getStoredSortKeys(docIds);
+    }
+
+    private synchronized int[] getDocKeys() {
+        if (docKeys == null) {
+            long t = System.currentTimeMillis();
+            docKeys = extractDocKeys();
+            LOGGER.info("Sort keys extracted for {} in {}ms", field, System.currentTimeMillis() - t); //$NON-NLS-1$
+        }
+        return docKeys;
+    }
+
+    private int[] extractDocKeys() {
+        final int maxDoc = atomicReader.maxDoc();
+
+        if (sdv != null) {
+            SortedDocValues sdv = localSDV.get();
+            int[] keys = new int[maxDoc];
+            for (int doc = 0; doc < maxDoc; doc++) {
+                keys[doc] = sdv.getOrd(doc);
+                checkInterrupted(doc);
+            }
+            return keys;
+
+        } else if (ssdv != null) {
+            // ordinais de todos os documentos em sequência, ordenados lexicograficamente
+            SortedSetDocValues lssdv = localSSDV.get();
+            final int[] start = new int[maxDoc + 1];
+            int[] ords = new int[maxDoc];
+            int count = 0;
+            for (int doc = 0; doc < maxDoc; doc++) {
+                start[doc] = count;
+                lssdv.setDocument(doc);
+                long ord;
+                while ((ord = lssdv.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+                    if (count == ords.length) {
+                        ords = Arrays.copyOf(ords, ords.length * 2);
+                    }
+                    ords[count++] = (int) ord;
+                }
+                checkInterrupted(doc);
+            }
+            start[maxDoc] = count;
+            final int[] allOrds = ords;
+            return ParallelIntSort.rank(maxDoc, new ParallelIntSort.IntComparator() {
+                @Override
+                public int compare(int a, int b) {
+                    int i = start[a], endA = start[a + 1];
+                    int j = start[b], endB = start[b + 1];
+                    for (; i < endA && j < endB; i++, j++) {
+                        if (allOrds[i] != allOrds[j]) {
+                            return allOrds[i] < allOrds[j] ? -1 : 1;
+                        }
+                    }
+                    return Integer.compare(endA - i, endB - j);
+                }
+            });
+
+        } else if (sndv != null) {
+            SortedNumericDocValues lsndv = localSNDV.get();
+            final int[] start = new int[maxDoc + 1];
+            long[] values = new long[maxDoc];
+            int count = 0;
+            for (int doc = 0; doc < maxDoc; doc++) {
+                start[doc] = count;
+                lsndv.setDocument(doc);
+                int docCount = lsndv.count();
+                if (count + docCount > values.length) {
+                    values = Arrays.copyOf(values, Math.max(values.length * 2, count + docCount));
+                }
+                for (int k = 0; k < docCount; k++) {
+                    values[count++] = lsndv.valueAt(k);
+                }
+                checkInterrupted(doc);
+            }
+            start[maxDoc] = count;
+            final long[] allValues = values;
+            return ParallelIntSort.rank(maxDoc, new ParallelIntSort.IntComparator() {
+                @Override
+                public int compare(int a, int b) {
+                    int i = start[a], endA = start[a + 1];
+                    int j = start[b], endB = start[b + 1];
+                    while (i < endA || j < endB) {
+                        long va = i < endA ? allValues[i] : Long.MIN_VALUE;
+                        long vb = j < endB ? allValues[j] : Long.MIN_VALUE;
+                        int result = Long.compare(va, vb);
+                        if (result != 0) {
+                            return result;
+                        }
+                        i++;
+                        j++;
+                    }
+                    return 0;
+                }
+            });
+
+        } else {
+            Bits docsWithField = localDocsWithField.get();
+            NumericDocValues ndv = localNDV.get();
+            final long[] values = new long[maxDoc];
+            final boolean[] hasValue = new boolean[maxDoc];
+            for (int doc = 0; doc < maxDoc; doc++) {
+                hasValue[doc] = docsWithField.get(doc);
+                if (hasValue[doc]) {
+                    values[doc] = ndv.get(doc);
+                }
+                checkInterrupted(doc);
+            }
+            return ParallelIntSort.rank(maxDoc, new ParallelIntSort.IntComparator() {
+                @Override
+                public int compare(int a, int b) {
+                    if (hasValue[a] != hasValue[b]) {
+                        return hasValue[a] ? 1 : -1;
+                    }
+                    return hasValue[a] ? Long.compare(values[a], values[b]) : 0;
+                }
+            });
+        }
+    }
+
+    /**
+     * Ordenação sem DocValues: carrega dos campos armazenados apenas os valores
+     * ainda não carregados dos documentos a ordenar.
+     */
+    private int[] getStoredSortKeys(int[] docIds) {
+        final Object[] values = new Object[docIds.length];
+        synchronized (this) {
+            if (storedValues == null) {
+                storedValues = new Object[app.appCase.getReader().maxDoc()];
+            }
+            for (int i = 0; i < docIds.length; i++) {
+                Object value = storedValues[docIds[i]];
+                if (value == null) {
+                    value = loadStoredValue(docIds[i]);
+                    storedValues[docIds[i]] = value;
+                }
+                values[i] = value;
+                checkInterrupted(i);
+            }
+        }
+        return ParallelIntSort.rank(docIds.length, new ParallelIntSort.IntComparator() {
+            @Override
+            @SuppressWarnings({ "unchecked", "rawtypes" })
+            public int compare(int a, int b) {
+                Object v1 = values[a], v2 = values[b];
+                if (v1 == NO_VALUE) {
+                    return v2 == NO_VALUE ? 0 : -1;
+                } else if (v2 == NO_VALUE) {
+                    return 1;
+                }
+                return ((Comparable) v1).compareTo(v2);
+            }
+        });
+    }
+
+    private Object loadStoredValue(int docId) {
+        try {
+            String value = app.appCase.getReader().document(docId, fieldsToLoad).get(field);
+            if (value == null || value.isEmpty()) {
+                return NO_VALUE;
+            }
+            if (isLongField) {
+                return Long.parseLong(value);
+            }
+            if (isDoubleField) {
+                return Double.parseDouble(value);
+            }
+            return value;
+
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+            return NO_VALUE;
+        }
+    }
+
+    private static void checkInterrupted(int i) {
+        if ((i & 0xFFFF) == 0 && Thread.currentThread().isInterrupted()) {
+            throw new RuntimeException(Messages.getString("RowComparator.SortCanceled")); //$NON-NLS-1$
+        }
+    }
+
     public static boolean isNewIndexReader() {
         return atomicReader != App.get().appCase.getLeafReader();
     }
@@ -0,0 +1,186 @@
+package dpf.sp.gpinf.indexer.desktop.parallelsorter;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Stable parallel merge sort of primitive int arrays with a primitive
+ * comparator, used to sort row permutations by precomputed keys without boxing.
+ */
+public class ParallelIntSort {
+
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+    private static final int INSERTION_THRESHOLD = 32;
+
+    public interface IntComparator {
+        int compare(int a, int b);
+    }
+
+    /**
+     * Thrown when the thread that requested the sort is interrupted.
+     */
+    public static class SortCanceledException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private ParallelIntSort() {
+    }
+
+    /**
+     * Sorts the array in place. Equal elements keep their relative order.
+     */
+    public static void sort(int[] a, IntComparator c) {
+        if (a.length < 2) {
+            return;
+        }
+        int[] tmp = new int[a.length];
+        SortTask task = new SortTask(a, tmp, 0, a.length, c, Thread.currentThread());
+        if (a.length <= PARALLEL_THRESHOLD) {
+            task.compute();
+        } else {
+            ForkJoinPool.commonPool().invoke(task);
+        }
+    }
+
+    /**
+     * @return dense ranks of the elements 0 to n-1: equal elements have the same
+     *         rank, ranks start at 0 and follow the comparator order.
+     */
+    public static int[] rank(int n, IntComparator c) {
+        int[] idx = new int[n];
+        for (int i = 0; i < n; i++) {
+            idx[i] = i;
+        }
+        sort(idx, c);
+        int[] ranks = new int[n];
+        int rank = 0;
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && c.compare(idx[i - 1], idx[i]) != 0) {
+                rank++;
+            }
+            ranks[idx[i]] = rank;
+        }
+        return ranks;
+    }
+
+    /**
+     * Sorts the rows by their keys, compared in order, falling back to row order
+     * when all keys are equal.
+     *
+     * @param keys
+     *            keys[k][i] is the k-th key of rows[i]
+     * @return the sorted rows
+     */
+    public static int[] sortByKeys(int[] rows, final int[][] keys) {
+        final int n = rows.length;
+        if (keys.length == 1) {
+            // single key: row position packed in the low bits, no comparator needed
+            int[] key = keys[0];
+            long[] packed = new long[n];
+            for (int i = 0; i < n; i++) {
+                packed[i] = ((long) key[i] << 32) | rows[i];
+            }
+            Arrays.parallelSort(packed);
+            int[] sorted = new int[n];
+            for (int i = 0; i < n; i++) {
+                sorted[i] = (int) packed[i];
+            }
+            return sorted;
+        }
+
+        final int[] modelRows = rows;
+        int[] perm = new int[n];
+        for (int i = 0; i < n; i++) {
+            perm[i] = i;
+        }
+        sort(perm, new IntComparator() {
+            @Override
+            public int compare(int a, int b) {
+                for (int[] key : keys) {
+                    int result = Integer.compare(key[a], key[b]);
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+                return Integer.compare(modelRows[a], modelRows[b]);
+            }
+        });
+        int[] sorted = new int[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = rows[perm[i]];
+        }
+        return sorted;
+    }
+
+    private static class SortTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] a, tmp;
+        private final int lo, hi;
+        private final IntComparator c;
+        private final Thread caller;
+
+        SortTask(int[] a, int[] tmp, int lo, int hi, IntComparator c, Thread caller) {
+            this.a = a;
+            this.tmp = tmp;
+            this.lo = lo;
+            this.hi = hi;
+            this.c = c;
+            this.caller = caller;
+        }
+
+        @Override
+        protected void compute() {
+            if (caller.isInterrupted()) {
+                throw new SortCanceledException();
+            }
+            if (hi - lo <= PARALLEL_THRESHOLD) {
+                mergeSort(a, tmp, lo, hi, c);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new SortTask(a, tmp, lo, mid, c, caller), new SortTask(a, tmp, mid, hi, c, caller));
+            merge(a, tmp, lo, mid, hi, c);
+        }
+    }
+
+    private static void mergeSort(int[] a, int[] tmp, int lo, int hi, IntComparator c) {
+        if (hi - lo <= INSERTION_THRESHOLD) {
+            for (int i = lo + 1; i < hi; i++) {
+                int v = a[i];
+                int j = i - 1;
+                while (j >= lo && c.compare(a[j], v) > 0) {
+                    a[j + 1] = a[j];
+                    j--;
+                }
+                a[j + 1] = v;
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        mergeSort(a, tmp, lo, mid, c);
+        mergeSort(a, tmp, mid, hi, c);
+        merge(a, tmp, lo, mid, hi, c);
+    }
+
+    private static void merge(int[] a, int[] tmp, int lo, int mid, int hi, IntComparator c) {
+        if (c.compare(a[mid - 1], a[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(a, lo, tmp, lo, hi - lo);
+        int i = lo, j = mid, k = lo;
+        while (i < mid && j < hi) {
+            a[k++] = c.compare(tmp[j], tmp[i]) < 0 ? tmp[j++] : tmp[i++];
+        }
+        while (i < mid) {
+            a[k++] = tmp[i++];
+        }
+        while (j < hi) {
+            a[k++] = tmp[j++];
+        }
+    }
+
+}
@@ -544,7 +544,7 @@ private void sortExistingData() {
         } else {
             // sort the data
             // patch
-            Arrays.parallelSort(viewToModel);
+            sortViewToModel();
 
             // Update the modelToView array
             setModelToViewFromViewToModel(false);
@@ -595,7 +595,7 @@ public void sort() {
 
             // sort them
             // patch
-            Arrays.parallelSort(viewToModel);
+            sortViewToModel();
 
             // Update the modelToView array
             setModelToViewFromViewToModel(false);
@@ -603,6 +603,40 @@ public void sort() {
         fireRowSorterChanged(lastViewToModel);
     }
 
+    /**
+     * Sorts viewToModel, using the rows sorted by {@link #sortModelRows} if it is
+     * supported, otherwise comparing the rows with the cached comparators.
+     */
+    private void sortViewToModel() {
+        int[] rows = new int[viewToModel.length];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = viewToModel[i].modelIndex;
+        }
+        int[] sorted = sortModelRows(rows, cachedSortKeys);
+        if (sorted == null) {
+            Arrays.parallelSort(viewToModel);
+        } else {
+            for (int i = 0; i < sorted.length; i++) {
+                viewToModel[i].modelIndex = sorted[i];
+            }
+        }
+    }
+
+    /**
+     * Sorts the model rows by the sort keys, with ties in model order. Subclasses
+     * may override this to sort by precomputed keys instead of comparing values
+     * pairwise.
+     *
+     * @param modelRows
+     *            the model indexes of the rows to sort
+     * @param sortKeys
+     *            the current sort keys
+     * @return the sorted model indexes or null to sort with the comparators
+     */
+    protected int[] sortModelRows(int[] modelRows, SortKey[] sortKeys) {
+        return null;
+    }
+
     /**
      * Updates the useToString mapping before a sort.
      */
@@ -19,10 +19,8 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import br.gov.pf.labld.graph.GraphImportRunner.ImportListener;
+import br.gov.pf.labld.graph.GraphStoreWriter.ImportListener;
 import dpf.sp.gpinf.indexer.Configuration;
-import dpf.sp.gpinf.indexer.config.ConfigurationManager;
-import dpf.sp.gpinf.indexer.config.LocalConfig;
 
 public class GraphGenerator {
 
@@ -35,6 +33,9 @@ public boolean generate(File output, File... input) throws IOException {
         return this.generate(null, output, input);
     }
 
+    /**
+     * Merges the graph databases of several cases into output.
+     */
     public boolean generate(ImportListener listener, File output, File... input) throws IOException {
         boolean imported = importDB(listener, output, input);
 
@@ -45,7 +46,7 @@ public boolean generate(ImportListener listener, File output, File... input) thr
         return imported;
     }
 
-    private void runPostImportOps(File output) throws IOException {
+    public void runPostImportOps(File output) throws IOException {
         GraphService graphService = null;
         try {
             graphService = GraphServiceFactoryImpl.getInstance().getGraphService();
@@ -65,10 +66,7 @@ private void runPostImportOps(File output) throws IOException {
 
     private boolean importDB(ImportListener listener, File output, File... input) {
         try {
-            LocalConfig localConfig = (LocalConfig) ConfigurationManager.getInstance().findObjects(LocalConfig.class)
-                    .iterator().next();
-            GraphImportRunner runner = new GraphImportRunner(listener, input);
-            runner.run(output, GraphTask.DB_NAME, localConfig.isOutputOnSSD());
+            GraphStoreWriter.mergeCases(listener, output, input);
             return true;
         } catch (Exception e) {
             LOGGER.error("Error generating database.", e);
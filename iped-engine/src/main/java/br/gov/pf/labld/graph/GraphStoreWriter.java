@@ -0,0 +1,728 @@
+package br.gov.pf.labld.graph;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dpf.sp.gpinf.indexer.util.Util;
+
+/**
+ * Writes nodes and relationships directly into an embedded graph store while
+ * items are processed, replacing the generation of CSVs imported at the end.
+ *
+ * Callers compute the md5 node ids and enqueue the writes into a bounded queue
+ * consumed by a single writer thread, which owns the store transactions. Node
+ * ids are resolved to store ids by an off-heap {@link NodeIdTable}, so repeated
+ * nodes are merged without index lookups. Transactions are committed in
+ * batches and on {@link #flush()}, so the store is consistent and can be opened
+ * up to the last commit. Each relationship is tagged with the number of the
+ * flush batch that created it, and the last flushed batch is saved in a commit
+ * mark file, so relationships created after the last flush of an interrupted
+ * processing are removed when the store is reopened. Store ids are not used for
+ * that, since the store reuses the ids of deleted relationships.
+ *
+ * Node replaces (e.g. user account nodes merged with phone and email nodes) are
+ * only applied on {@link #close()}.
+ */
+public class GraphStoreWriter implements Closeable, Flushable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(GraphStoreWriter.class);
+
+    public static final String NODE_ID = "nodeId";
+    public static final String REPLACE_NAME = "replace.csv";
+
+    private static final String COMMIT_MARK_NAME = "commit.mark";
+
+    /**
+     * Relationship property with the flush batch that created the relationship.
+     */
+    public static final String BATCH_PROPERTY = "_batch";
+
+    private static final int TX_BATCH_SIZE = 50000;
+    private static final int QUEUE_SIZE = 10000;
+    private static final int PROGRESS_INTERVAL = 100000;
+
+    public static interface ImportListener {
+
+        public void output(String line);
+    }
+
+    private static interface Op {
+
+        void apply();
+    }
+
+    private static final Op STOP = () -> {
+    };
+
+    private File dbDir;
+    private File replaceFile;
+    private File commitMark;
+    private GraphDatabaseService graphDB;
+    private NodeIdTable nodeIds = new NodeIdTable();
+    private BlockingQueue<Op> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private Thread writerThread;
+    private volatile Throwable error;
+    private volatile long failedOps = 0;
+
+    private Map<String, String> replaces = new HashMap<>();
+
+    // accessed only by the writer thread after construction
+    private Transaction tx;
+    private int txOps = 0;
+    private long batch = 1;
+
+    /**
+     * @param dbDir
+     *            graph store directory, created if it does not exist.
+     * @param controlDir
+     *            directory of node replaces and commit control files.
+     */
+    public GraphStoreWriter(File dbDir, File controlDir) throws IOException {
+        this.dbDir = dbDir;
+        controlDir.mkdirs();
+        this.replaceFile = new File(controlDir, REPLACE_NAME);
+        this.commitMark = new File(controlDir, COMMIT_MARK_NAME);
+        if (replaceFile.exists()) {
+            replaces = loadReplaces(replaceFile);
+        }
+
+        boolean existed = dbDir.exists();
+        graphDB = new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(dbDir).newGraphDatabase();
+        try {
+            if (existed) {
+                loadStore();
+            } else {
+                writeCommitMark();
+            }
+        } catch (IOException | RuntimeException e) {
+            graphDB.shutdown();
+            throw e;
+        }
+
+        writerThread = new Thread(() -> run(), "GraphStoreWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Loads node ids of an existing store and removes relationships not
+     * committed by an interrupted processing.
+     */
+    private void loadStore() throws IOException {
+        long committedBatch = Long.MAX_VALUE;
+        if (commitMark.exists()) {
+            String mark = new String(Files.readAllBytes(commitMark.toPath()), StandardCharsets.ISO_8859_1);
+            committedBatch = Long.parseLong(mark.trim());
+        }
+        List<Long> uncommitted = new ArrayList<>();
+        try (Transaction tx = graphDB.beginTx()) {
+            for (Node node : graphDB.getAllNodes()) {
+                Object id = node.getProperty(NODE_ID, null);
+                if (id != null) {
+                    try {
+                        nodeIds.put(id.toString(), node.getId());
+                    } catch (IllegalArgumentException e) {
+                        LOGGER.warn("Ignoring graph node with invalid id {}", id);
+                    }
+                }
+            }
+            long maxBatch = 0;
+            for (Relationship rel : graphDB.getAllRelationships()) {
+                Object relBatch = rel.getProperty(BATCH_PROPERTY, null);
+                if (!(relBatch instanceof Long)) {
+                    // created by other tools, e.g. the old CSV import
+                    continue;
+                }
+                if ((Long) relBatch > committedBatch) {
+                    uncommitted.add(rel.getId());
+                } else {
+                    maxBatch = Math.max(maxBatch, (Long) relBatch);
+                }
+            }
+            batch = (committedBatch != Long.MAX_VALUE ? committedBatch : maxBatch) + 1;
+            tx.success();
+        }
+        for (int i = 0; i < uncommitted.size(); i += TX_BATCH_SIZE) {
+            try (Transaction tx = graphDB.beginTx()) {
+                for (long id : uncommitted.subList(i, Math.min(i + TX_BATCH_SIZE, uncommitted.size()))) {
+                    graphDB.getRelationshipById(id).delete();
+                }
+                tx.success();
+            }
+        }
+        LOGGER.info("Graph store loaded with {} nodes, {} uncommitted relationships removed.", nodeIds.size(),
+                uncommitted.size());
+    }
+
+    private void run() {
+        try {
+            Op op;
+            while ((op = queue.take()) != STOP) {
+                try {
+                    op.apply();
+                } catch (RuntimeException e) {
+                    failedOps++;
+                    LOGGER.warn("Error writing to graph store", e);
+                }
+                if (txOps >= TX_BATCH_SIZE) {
+                    commitTx();
+                }
+            }
+        } catch (Throwable e) {
+            LOGGER.error("Graph store writer failed", e);
+            error = e;
+        } finally {
+            if (tx != null) {
+                tx.close();
+                tx = null;
+            }
+        }
+    }
+
+    private void enqueue(Op op) throws IOException {
+        try {
+            while (!queue.offer(op, 1, TimeUnit.SECONDS)) {
+                checkError();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        checkError();
+    }
+
+    private void checkError() throws IOException {
+        if (error != null) {
+            throw new IOException("Graph store writer failed", error);
+        }
+        if (!writerThread.isAlive()) {
+            throw new IOException("Graph store writer is closed");
+        }
+    }
+
+    /**
+     * Runs op in the writer thread after all previous writes and waits for it.
+     */
+    private void sync(Op op) throws IOException {
+        CountDownLatch latch = new CountDownLatch(1);
+        enqueue(() -> {
+            try {
+                op.apply();
+            } finally {
+                latch.countDown();
+            }
+        });
+        try {
+            while (!latch.await(1, TimeUnit.SECONDS)) {
+                checkError();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        checkError();
+    }
+
+    private void beginTx() {
+        if (tx == null) {
+            tx = graphDB.beginTx();
+        }
+        txOps++;
+    }
+
+    private void commitTx() {
+        if (tx != null) {
+            try {
+                tx.success();
+                tx.close();
+            } catch (RuntimeException e) {
+                error = e;
+                throw e;
+            } finally {
+                tx = null;
+                txOps = 0;
+            }
+        }
+    }
+
+    /**
+     * Marks the current batch as committed and starts a new one.
+     */
+    private void writeCommitMark() {
+        try {
+            Files.write(commitMark.toPath(), Long.toString(batch).getBytes(StandardCharsets.ISO_8859_1));
+            Util.fsync(commitMark.toPath());
+            batch++;
+        } catch (IOException e) {
+            error = e;
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Node getOrCreateNode(String id, Label label, String propName, Object propValue) {
+        long nodeId = nodeIds.get(id);
+        if (nodeId != -1) {
+            return graphDB.getNodeById(nodeId);
+        }
+        Node node = label != null ? graphDB.createNode(label) : graphDB.createNode();
+        node.setProperty(NODE_ID, id);
+        if (propName != null) {
+            mergeProperty(node, propName, propValue);
+        }
+        nodeIds.put(id, node.getId());
+        return node;
+    }
+
+    private void applyNode(String id, Collection<Label> labels, Map<String, Object> properties) {
+        beginTx();
+        Node node = getOrCreateNode(id, null, null, null);
+        for (Label label : labels) {
+            if (!node.hasLabel(label)) {
+                node.addLabel(label);
+            }
+        }
+        for (Entry<String, Object> entry : properties.entrySet()) {
+            mergeProperty(node, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void applyRelationship(String id1, Label label1, String idProperty1, Object propertyValue1, String id2,
+            Label label2, String idProperty2, Object propertyValue2, RelationshipType type,
+            Map<String, Object> properties) {
+        beginTx();
+        Node start = getOrCreateNode(id1, label1, idProperty1, propertyValue1);
+        Node end = getOrCreateNode(id2, label2, idProperty2, propertyValue2);
+        Relationship rel = start.createRelationshipTo(end, type);
+        for (Entry<String, Object> entry : properties.entrySet()) {
+            if (BATCH_PROPERTY.equals(entry.getKey())) {
+                continue;
+            }
+            String value = toPropertyValue(entry.getValue());
+            if (!value.isEmpty()) {
+                rel.setProperty(entry.getKey(), value);
+            }
+        }
+        rel.setProperty(BATCH_PROPERTY, batch);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String toPropertyValue(Object value) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Collection) {
+            return ((Collection<Object>) value).stream().map(o -> o.toString()).collect(Collectors.joining(";"));
+        }
+        if (value instanceof String[]) {
+            return String.join(";", (String[]) value);
+        }
+        return value.toString();
+    }
+
+    /**
+     * Adds value to the property, keeping the distinct values (ignoring case)
+     * separated by ';', as previously done when normalizing node CSVs.
+     */
+    private static void mergeProperty(PropertyContainer container, String key, Object value) {
+        String strVal = toPropertyValue(value);
+        if (strVal.isEmpty()) {
+            return;
+        }
+        Object prev = container.getProperty(key, null);
+        if (prev == null) {
+            container.setProperty(key, strVal);
+            return;
+        }
+        String prevVal = toPropertyValue(prev);
+        if (prevVal.equals(strVal)) {
+            return;
+        }
+        Set<String> values = new TreeSet<>(IgnoreCaseComparator.INSTANCE);
+        values.addAll(Arrays.asList(prevVal.split(";")));
+        int prevSize = values.size();
+        values.addAll(Arrays.asList(strVal.split(";")));
+        if (values.size() != prevSize || !(prev instanceof String)) {
+            container.setProperty(key,
+                    values.stream().map(v -> v.trim()).filter(v -> !v.isEmpty()).collect(Collectors.joining(";")));
+        }
+    }
+
+    /**
+     * Moves labels, properties and relationships of node fromId to node toId and
+     * deletes the former. Relationships are moved in transactions of up to
+     * TX_BATCH_SIZE, so merging a node with many relationships does not build a
+     * huge transaction.
+     */
+    private void mergeNodes(String fromId, String toId) {
+        long from = nodeIds.get(fromId);
+        long to = nodeIds.get(toId);
+        if (from == -1 || to == -1 || from == to) {
+            return;
+        }
+        beginTx();
+        Node src = graphDB.getNodeById(from);
+        Node dst = graphDB.getNodeById(to);
+        for (Label label : src.getLabels()) {
+            if (!dst.hasLabel(label)) {
+                dst.addLabel(label);
+            }
+        }
+        for (Entry<String, Object> entry : src.getAllProperties().entrySet()) {
+            if (!NODE_ID.equals(entry.getKey())) {
+                mergeProperty(dst, entry.getKey(), entry.getValue());
+            }
+        }
+        Set<Relationship> rels = new LinkedHashSet<>();
+        while (true) {
+            for (Relationship rel : src.getRelationships()) {
+                rels.add(rel);
+                if (rels.size() == TX_BATCH_SIZE) {
+                    break;
+                }
+            }
+            for (Relationship rel : rels) {
+                Node start = rel.getStartNode().getId() == from ? dst : rel.getStartNode();
+                Node end = rel.getEndNode().getId() == from ? dst : rel.getEndNode();
+                // the copy keeps the batch property, so it is committed if the original was
+                Relationship copy = start.createRelationshipTo(end, rel.getType());
+                for (Entry<String, Object> entry : rel.getAllProperties().entrySet()) {
+                    copy.setProperty(entry.getKey(), entry.getValue());
+                }
+                rel.delete();
+            }
+            if (rels.size() < TX_BATCH_SIZE) {
+                break;
+            }
+            rels.clear();
+            commitTx();
+            beginTx();
+            src = graphDB.getNodeById(from);
+            dst = graphDB.getNodeById(to);
+        }
+        src.delete();
+        nodeIds.put(fromId, to);
+    }
+
+    private static String uniqueId(Label label, String uniquePropertyName, String uniquePropertyValue) {
+        String unique = label.name() + "_" + uniquePropertyName + "_" + uniquePropertyValue;
+        String id = DigestUtils.md5Hex(unique);
+        return id;
+    }
+
+    public String writeCreateNode(String uniquePropertyName, Object uniquePropertyValue, Map<String, Object> properties,
+            Label label, Label... labels) throws IOException {
+        String id = uniqueId(label, uniquePropertyName, uniquePropertyValue.toString());
+        List<Label> list = new ArrayList<>(Arrays.asList(labels));
+        list.add(label);
+        Map<String, Object> props = new HashMap<>(properties);
+        enqueue(() -> applyNode(id, list, props));
+        return id;
+    }
+
+    @SuppressWarnings("unchecked")
+    public String writeNode(Label label, String uniquePropertyName, Object uniquePropertyValue,
+            Map<String, Object> properties) throws IOException {
+        String id = uniqueId(label, uniquePropertyName, uniquePropertyValue.toString());
+        Object val = properties.get(uniquePropertyName);
+        if (val instanceof Collection) {
+            ((Collection<Object>) val).add(uniquePropertyValue);
+        } else {
+            if (val != null && !val.equals(uniquePropertyValue))
+                properties.put(uniquePropertyName, Arrays.asList(uniquePropertyValue, val));
+            else if (val == null)
+                properties.put(uniquePropertyName, uniquePropertyValue);
+        }
+        // values are converted now, callers may reuse the map
+        Map<String, Object> props = new HashMap<>(properties.size());
+        for (Entry<String, Object> entry : properties.entrySet()) {
+            props.put(entry.getKey(), toPropertyValue(entry.getValue()));
+        }
+        enqueue(() -> applyNode(id, Collections.singletonList(label), props));
+        return id;
+    }
+
+    public String writeNode(Label label, String uniquePropertyName, Object uniquePropertyValue) throws IOException {
+        HashMap<String, Object> properties = new HashMap<>();
+        return writeNode(label, uniquePropertyName, uniquePropertyValue, properties);
+    }
+
+    public void writeRelationship(Label label1, String idProperty1, Object propertyValue1, Label label2,
+            String idProperty2, Object propertyValue2, RelationshipType relationshipType,
+            Map<String, Object> properties) throws IOException {
+        String uniqueId1 = uniqueId(label1, idProperty1, propertyValue1.toString());
+        String uniqueId2 = uniqueId(label2, idProperty2, propertyValue2.toString());
+        Map<String, Object> props = new LinkedHashMap<>(properties);
+        enqueue(() -> applyRelationship(uniqueId1, label1, idProperty1, propertyValue1, uniqueId2, label2,
+                idProperty2, propertyValue2, relationshipType, props));
+    }
+
+    public void writeRelationship(String uniqueId1, Label label2, String idProperty2, Object propertyValue2,
+            RelationshipType relationshipType, Map<String, Object> properties) throws IOException {
+        String uniqueId2 = uniqueId(label2, idProperty2, propertyValue2.toString());
+        Map<String, Object> props = new LinkedHashMap<>(properties);
+        enqueue(() -> applyRelationship(uniqueId1, null, null, null, uniqueId2, label2, idProperty2, propertyValue2,
+                relationshipType, props));
+    }
+
+    public void writeCreateRelationship(Label label1, String idProperty1, Object propertyValue1, Label label2,
+            String idProperty2, Object propertyValue2, RelationshipType relationshipType) throws IOException {
+        writeRelationship(label1, idProperty1, propertyValue1, label2, idProperty2, propertyValue2, relationshipType,
+                Collections.emptyMap());
+    }
+
+    public void writeCreateRelationship(String uniqueId1, Label label2, String idProperty2, Object propertyValue2,
+            RelationshipType relationshipType) throws IOException {
+        writeRelationship(uniqueId1, label2, idProperty2, propertyValue2, relationshipType, Collections.emptyMap());
+    }
+
+    private static String getLastReplace(Map<String, String> replaces, String id) {
+        String tmp, key = id;
+        while ((tmp = replaces.get(key)) != null) {
+            key = tmp;
+        }
+        return key;
+    }
+
+    public void writeNodeReplace(Label label, String propName, Object propValue, String nodeId) throws IOException {
+        String uniqueId1 = uniqueId(label, propName, propValue.toString());
+        synchronized (replaces) {
+            if (!uniqueId1.equals(nodeId)) {
+                addReplace(uniqueId1, nodeId);
+            }
+        }
+    }
+
+    private void addReplace(String id, String newId) {
+        String key = getLastReplace(replaces, id);
+        String replace = getLastReplace(replaces, newId);
+        if (!key.equals(replace)) {
+            replaces.put(key, replace);
+        }
+    }
+
+    /**
+     * Adds the node replaces saved by other processing, e.g. of the case a report
+     * was created from.
+     */
+    public void addReplaces(File replaceFile) throws IOException {
+        if (replaceFile.exists()) {
+            Map<String, String> other = loadReplaces(replaceFile);
+            synchronized (replaces) {
+                for (Entry<String, String> entry : other.entrySet()) {
+                    addReplace(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies nodes, and optionally relationships, of another graph store into
+     * this one, merging nodes with the same id.
+     */
+    public void copyFrom(File sourceDbDir, boolean nodesOnly, ImportListener listener) throws IOException {
+        GraphDatabaseService source = new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(sourceDbDir)
+                .setConfig(GraphDatabaseSettings.read_only, "true").newGraphDatabase();
+        try (Transaction sourceTx = source.beginTx()) {
+            long count = 0;
+            for (Node node : source.getAllNodes()) {
+                Object id = node.getProperty(NODE_ID, null);
+                if (id == null) {
+                    continue;
+                }
+                List<Label> labels = new ArrayList<>();
+                for (Label label : node.getLabels()) {
+                    labels.add(DynLabel.label(label.name()));
+                }
+                Map<String, Object> props = new HashMap<>(node.getAllProperties());
+                props.remove(NODE_ID);
+                enqueue(() -> applyNode(id.toString(), labels, props));
+                if (++count % PROGRESS_INTERVAL == 0) {
+                    output(listener, "Copied " + count + " nodes from " + sourceDbDir.getAbsolutePath());
+                }
+            }
+            output(listener, "Copied " + count + " nodes from " + sourceDbDir.getAbsolutePath());
+            if (!nodesOnly) {
+                count = 0;
+                for (Relationship rel : source.getAllRelationships()) {
+                    Object id1 = rel.getStartNode().getProperty(NODE_ID, null);
+                    Object id2 = rel.getEndNode().getProperty(NODE_ID, null);
+                    if (id1 == null || id2 == null) {
+                        continue;
+                    }
+                    RelationshipType type = DynRelationshipType.withName(rel.getType().name());
+                    Map<String, Object> props = new HashMap<>(rel.getAllProperties());
+                    enqueue(() -> applyRelationship(id1.toString(), null, null, null, id2.toString(), null, null, null,
+                            type, props));
+                    if (++count % PROGRESS_INTERVAL == 0) {
+                        output(listener, "Copied " + count + " relationships from " + sourceDbDir.getAbsolutePath());
+                    }
+                }
+                output(listener, "Copied " + count + " relationships from " + sourceDbDir.getAbsolutePath());
+            }
+            sourceTx.success();
+        } finally {
+            source.shutdown();
+        }
+    }
+
+    private static void output(ImportListener listener, String line) {
+        LOGGER.info(line);
+        if (listener != null) {
+            listener.output(line);
+        }
+    }
+
+    /**
+     * Merges the graph stores of several cases into a new store, without
+     * exporting them to intermediate files.
+     */
+    public static void mergeCases(ImportListener listener, File output, File... caseDbDirs) throws IOException {
+        try (GraphStoreWriter writer = new GraphStoreWriter(output, new File(output.getParentFile(), "control"))) {
+            for (File caseDbDir : caseDbDirs) {
+                if (caseDbDir.exists()) {
+                    writer.copyFrom(caseDbDir, false, listener);
+                } else {
+                    LOGGER.warn("Graph database not found: " + caseDbDir.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Commits the pending writes to the store.
+     */
+    @Override
+    public void flush() throws IOException {
+        sync(() -> {
+            commitTx();
+            writeCommitMark();
+        });
+        saveReplaces();
+    }
+
+    /**
+     * Commits the pending writes, applies the node replaces and closes the store.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            List<Entry<String, String>> entries;
+            synchronized (replaces) {
+                entries = new ArrayList<>(replaces.entrySet());
+            }
+            LOGGER.info("Applying {} graph node replaces...", entries.size());
+            for (Entry<String, String> entry : entries) {
+                String target = getLastReplace(replaces, entry.getValue());
+                enqueue(() -> mergeNodes(entry.getKey(), target));
+            }
+            flush();
+            LOGGER.info("Graph store closed with {} nodes.", nodeIds.size());
+            if (failedOps > 0) {
+                LOGGER.error("{} graph store writes failed, see the warnings above.", failedOps);
+            }
+        } finally {
+            if (writerThread.isAlive()) {
+                queue.clear();
+                queue.offer(STOP);
+                try {
+                    writerThread.join();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            graphDB.shutdown();
+            nodeIds.close();
+        }
+    }
+
+    private static Map<String, String> loadReplaces(File replaceFile) throws IOException {
+        Map<String, String> replaces = new HashMap<>();
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(replaceFile), Charset.forName("UTF-8")))) {
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                String[] values = line.split(",");
+                String id = values[0];
+                String newId = values[1];
+                if (!id.equals(newId)) {
+                    replaces.put(id, newId);
+                }
+            }
+        }
+
+        return replaces;
+    }
+
+    private void saveReplaces() throws IOException {
+        synchronized (replaces) {
+            try (Writer replaceWriter = new BufferedWriter(
+                    new OutputStreamWriter(new FileOutputStream(replaceFile), Charset.forName("UTF-8")))) {
+                for (Entry<String, String> entry : replaces.entrySet()) {
+                    replaceWriter.write(entry.getKey());
+                    replaceWriter.write(",");
+                    replaceWriter.write(entry.getValue());
+                    replaceWriter.write("\r\n");
+                }
+            }
+            Util.fsync(replaceFile.toPath());
+        }
+    }
+
+    public File getDbDir() {
+        return dbDir;
+    }
+
+    private static class IgnoreCaseComparator implements Comparator<String> {
+
+        static IgnoreCaseComparator INSTANCE = new IgnoreCaseComparator();
+
+        @Override
+        public int compare(String o1, String o2) {
+            return o1.trim().compareToIgnoreCase(o2.trim());
+        }
+    }
+
+}
@@ -40,7 +40,6 @@
 import dpf.mg.udi.gpinf.vcardparser.VCardParser;
 import dpf.mg.udi.gpinf.whatsappextractor.WhatsAppParser;
 import dpf.mt.gpinf.skype.parser.SkypeParser;
-import dpf.sp.gpinf.indexer.CmdLineArgs;
 import dpf.sp.gpinf.indexer.WorkerProvider;
 import dpf.sp.gpinf.indexer.datasource.IPEDReader;
 import dpf.sp.gpinf.indexer.datasource.UfedXmlReader;
@@ -48,7 +47,6 @@
 import dpf.sp.gpinf.indexer.parsers.ufed.UfedMessage;
 import dpf.sp.gpinf.indexer.process.task.AbstractTask;
 import dpf.sp.gpinf.indexer.process.task.regex.RegexHits;
-import dpf.sp.gpinf.indexer.util.IOUtil;
 import dpf.sp.gpinf.indexer.util.IPEDException;
 import dpf.sp.gpinf.indexer.util.Util;
 import iped3.IItem;
@@ -102,7 +100,7 @@ protected boolean removeEldestEntry(Entry<String, SortedSet<String>> eldest) {
 
     private boolean enabled = false;
 
-    private static GraphFileWriter graphFileWriter;
+    private static GraphStoreWriter graphWriter;
 
     private static Map<String, NodeValues> datasourceOwnerMap = new HashMap<>();
 
@@ -112,29 +110,19 @@ public void init(Properties confParams, File confDir) throws Exception {
         if (enabled) {
             configuration = loadConfiguration(confDir);
 
-            if (graphFileWriter == null) {
-                graphFileWriter = new GraphFileWriter(new File(output, GENERATED_PATH),
-                        configuration.getDefaultEntity());
+            if (graphWriter == null) {
+                try {
+                    graphWriter = new GraphStoreWriter(new File(output, DB_PATH), new File(output, GENERATED_PATH));
+                } catch (RuntimeException e) {
+                    // store locked by another process when appending
+                    throw new IPEDException("Error opening graph database, currently it can't be in use!");
+                }
 
                 if (configuration.getProcessProximityRelationships() && caseData.isIpedReport()) {
                     logger.warn(
                             "process-proximity-relationships not supported in reports yet, it will be ignored, resulting in different graphs!");
                 }
             }
-
-            CmdLineArgs args = (CmdLineArgs) caseData.getCaseObject(CmdLineArgs.class.getName());
-            if (args.isAppendIndex()) {
-                File graphDbOutput = new File(output, GraphTask.DB_PATH);
-                if (graphDbOutput.exists()) {
-                    // TODO test if LOAD CSV Cypher command is faster than rebuilding all database
-                    // from scratch with bulk import tool
-                    try {
-                        IOUtil.deleteDirectory(graphDbOutput, false);
-                    } catch (IOException e) {
-                        throw new IPEDException("Error appending to graph database, currently it can't be in use!");
-                    }
-                }
-            }
         }
     }
 
@@ -153,52 +141,34 @@ public static GraphConfiguration loadConfiguration(File confDir) throws IOExcept
     }
 
     public static void commit() throws IOException {
-        if (graphFileWriter != null) {
-            logger.info("Commiting graph CSVs...");
-            graphFileWriter.flush();
-            logger.info("Commiting graph CSVs finished.");
+        if (graphWriter != null) {
+            logger.info("Commiting graph database...");
+            graphWriter.flush();
+            logger.info("Commiting graph database finished.");
         }
     }
 
-    private void finishGraphGeneration() throws IOException {
-        WorkerProvider.getInstance().firePropertyChange("mensagem", "", "Generating graph database...");
-        logger.info("Generating graph database...");
-        File graphDbOutput = new File(output, GraphTask.DB_PATH);
-        File graphDbGenerated = new File(output, GraphTask.GENERATED_PATH);
-        GraphGenerator graphGenerator = new GraphGenerator();
-        graphGenerator.generate(graphDbOutput, graphDbGenerated);
-        logger.info("Generating graph database finished.");
-    }
-
     @Override
     public void finish() throws Exception {
-        if (graphFileWriter != null) {
-            WorkerProvider.getInstance().firePropertyChange("mensagem", "", "Finishing graph CSVs...");
-            logger.info("Finishing graph CSVs...");
-            graphFileWriter.close(caseData.isIpedReport());
-            logger.info("Finishing graph CSVs finished.");
+        if (graphWriter != null) {
+            WorkerProvider.getInstance().firePropertyChange("mensagem", "", "Finishing graph database...");
+            logger.info("Finishing graph database...");
             if (caseData.isIpedReport()) {
                 File prevCaseModuleDir = (File) caseData.getCaseObject(IPEDReader.ORIG_CASE_MODULE_DIR);
-                File prevCSVRoot = new File(prevCaseModuleDir, GraphTask.GENERATED_PATH);
-                if (prevCSVRoot.exists() && prevCSVRoot.isDirectory()) {
-                    for (File file : prevCSVRoot.listFiles()) {
-                        File target = new File(output, GraphTask.GENERATED_PATH + "/" + file.getName());
-                        if (file.getName().startsWith(GraphFileWriter.NODE_CSV_PREFIX)
-                                || file.getName().startsWith(GraphFileWriter.REPLACE_NAME)) {
-                            IOUtil.copiaArquivo(file, target);
-                        }
-                    }
+                File prevGraphDb = new File(prevCaseModuleDir, GraphTask.DB_PATH);
+                if (prevGraphDb.isDirectory()) {
+                    graphWriter.copyFrom(prevGraphDb, true, null);
                 }
-                graphFileWriter = new GraphFileWriter(new File(output, GENERATED_PATH),
-                        configuration.getDefaultEntity());
-                graphFileWriter.close();
+                graphWriter.addReplaces(
+                        new File(prevCaseModuleDir, GraphTask.GENERATED_PATH + "/" + GraphStoreWriter.REPLACE_NAME));
             }
-            finishGraphGeneration();
-            WorkerProvider.getInstance().firePropertyChange("mensagem", "", "Compressing graph CSVs...");
-            logger.info("Compressing graph CSVs...");
-            graphFileWriter.compressGeneratedCSVFiles();
-            logger.info("Compressing graph CSVs finished.");
-            graphFileWriter = null;
+            graphWriter.close();
+            graphWriter = null;
+            logger.info("Finishing graph database finished.");
+
+            logger.info("Running graph post generation operations...");
+            new GraphGenerator().runPostImportOps(new File(output, GraphTask.DB_PATH));
+            logger.info("Running graph post generation operations finished.");
         }
     }
 
@@ -221,7 +191,7 @@ private void processEvidence(IItem evidence) throws IOException {
 
         // old item->node model and gui dependent code was moved to class below
         // ItemNodeGenerator itemNodeGenerator = new ItemNodeGenerator(caseData,
-        // configuration, graphFileWriter);
+        // configuration, graphWriter);
         // itemNodeGenerator.generateNodeForItem(evidence);
 
         if (includeEvidence(evidence)) {
@@ -461,7 +431,7 @@ private void processCommunicationMetadata(IItem evidence) throws IOException {
         String relationType = getRelationType(evidence.getMediaType().toString());
         NodeValues nv1 = getNodeValues(sender, evidence.getMetadata());
 
-        graphFileWriter.writeNode(nv1.label, nv1.propertyName, nv1.propertyValue, nv1.props);
+        graphWriter.writeNode(nv1.label, nv1.propertyName, nv1.propertyValue, nv1.props);
 
         RelationshipType relationshipType = DynRelationshipType.withName(relationType);
         Map<String, Object> relProps = new HashMap<>();
@@ -475,8 +445,8 @@ private void processCommunicationMetadata(IItem evidence) throws IOException {
 
         for (String recipient : recipients) {
             NodeValues nv2 = getNodeValues(recipient, evidence.getMetadata());
-            graphFileWriter.writeNode(nv2.label, nv2.propertyName, nv2.propertyValue, nv2.props);
-            graphFileWriter.writeRelationship(nv1.label, nv1.propertyName, nv1.propertyValue, nv2.label,
+            graphWriter.writeNode(nv2.label, nv2.propertyName, nv2.propertyValue, nv2.props);
+            graphWriter.writeRelationship(nv1.label, nv1.propertyName, nv1.propertyValue, nv2.label,
                     nv2.propertyName, nv2.propertyValue, relationshipType, relProps);
         }
     }
@@ -590,23 +560,23 @@ private NodeValues writePersonNode(IItem item, SortedSet<String> msisdnPhones) t
             nv1.addProp(ExtraProperties.USER_ACCOUNT, serviceAccount);
         }
 
-        String uniqueId = graphFileWriter.writeNode(nv1.label, nv1.propertyName, nv1.propertyValue, nv1.props);
+        String uniqueId = graphWriter.writeNode(nv1.label, nv1.propertyName, nv1.propertyValue, nv1.props);
 
         for (String email : emails) {
-            graphFileWriter.writeNodeReplace(DynLabel.label(GraphConfiguration.PERSON_LABEL),
+            graphWriter.writeNodeReplace(DynLabel.label(GraphConfiguration.PERSON_LABEL),
                     ExtraProperties.USER_EMAIL, email, uniqueId);
-            graphFileWriter.writeNodeReplace(DynLabel.label(GraphConfiguration.EMAIL_LABEL), ExtraProperties.USER_EMAIL,
+            graphWriter.writeNodeReplace(DynLabel.label(GraphConfiguration.EMAIL_LABEL), ExtraProperties.USER_EMAIL,
                     email, uniqueId);
         }
         for (String phone : formattedPhones) {
-            graphFileWriter.writeNodeReplace(DynLabel.label(GraphConfiguration.PERSON_LABEL),
+            graphWriter.writeNodeReplace(DynLabel.label(GraphConfiguration.PERSON_LABEL),
                     ExtraProperties.USER_PHONE, phone, uniqueId);
-            graphFileWriter.writeNodeReplace(DynLabel.label(GraphConfiguration.PHONE_LABEL), ExtraProperties.USER_PHONE,
+            graphWriter.writeNodeReplace(DynLabel.label(GraphConfiguration.PHONE_LABEL), ExtraProperties.USER_PHONE,
                     phone, uniqueId);
         }
         for (String account : accounts) {
             for (String service : accountType) {
-                graphFileWriter.writeNodeReplace(DynLabel.label(GraphConfiguration.PERSON_LABEL),
+                graphWriter.writeNodeReplace(DynLabel.label(GraphConfiguration.PERSON_LABEL),
                         ExtraProperties.USER_ACCOUNT, getServiceAccount(account, service), uniqueId);
             }
         }
@@ -662,15 +632,15 @@ private NodeValues getGenericOwnerNode(IItem item) throws IOException {
                 nv1 = new NodeValues(DynLabel.label(GraphConfiguration.DATASOURCE_LABEL), BasicProps.EVIDENCE_UUID,
                         evidenceUUID);
                 nv1.addProp(BasicProps.NAME, Util.getRootName(item.getPath()));
-                graphFileWriter.writeNode(nv1.label, nv1.propertyName, nv1.propertyValue, nv1.props);
+                graphWriter.writeNode(nv1.label, nv1.propertyName, nv1.propertyValue, nv1.props);
                 datasourceOwnerMap.put(evidenceUUID, nv1);
 
                 List<String> msisdns = (List<String>) caseData.getCaseObject(UfedXmlReader.MSISDN_PROP + evidenceUUID);
                 if (msisdns != null && !msisdns.isEmpty()) {
                     NodeValues nv2 = this.getPhoneNodeValues(msisdns.get(0));
                     if (nv2 != null) {
-                        String id = graphFileWriter.writeNode(nv2.label, nv2.propertyName, nv2.propertyValue);
-                        graphFileWriter.writeNodeReplace(nv1.label, nv1.propertyName, nv1.propertyValue, id);
+                        String id = graphWriter.writeNode(nv2.label, nv2.propertyName, nv2.propertyValue);
+                        graphWriter.writeNodeReplace(nv1.label, nv1.propertyName, nv1.propertyValue, id);
                     }
                 }
             }
@@ -691,7 +661,7 @@ private void processContacts(IItem item) throws IOException {
             String service = item.getMetadata().get(ExtraProperties.USER_ACCOUNT_TYPE);
             nv1 = new NodeValues(DynLabel.label(GraphConfiguration.PERSON_LABEL), ExtraProperties.USER_ACCOUNT,
                     getServiceAccount(contactOfAccount, service));
-            graphFileWriter.writeNode(nv1.label, nv1.propertyName, nv1.propertyValue);
+            graphWriter.writeNode(nv1.label, nv1.propertyName, nv1.propertyValue);
         }
 
         if (nv1 == null)
@@ -704,7 +674,7 @@ private void processContacts(IItem item) throws IOException {
         relProps.put(RELATIONSHIP_ID, item.getId());
         relProps.put(RELATIONSHIP_SOURCE, item.getDataSource().getUUID());
 
-        graphFileWriter.writeRelationship(nv1.label, nv1.propertyName, nv1.propertyValue, nv2.label, nv2.propertyName,
+        graphWriter.writeRelationship(nv1.label, nv1.propertyName, nv1.propertyValue, nv2.label, nv2.propertyName,
                 nv2.propertyValue, relationshipType, relProps);
     }
 
@@ -739,9 +709,9 @@ private void processWifi(IItem item) throws IOException {
         relProps.put(RELATIONSHIP_ID, item.getId());
         relProps.put(RELATIONSHIP_SOURCE, item.getDataSource().getUUID());
 
-        graphFileWriter.writeNode(nv2.label, nv2.propertyName, nv2.propertyValue, nodeProps);
+        graphWriter.writeNode(nv2.label, nv2.propertyName, nv2.propertyValue, nodeProps);
 
-        graphFileWriter.writeRelationship(nv1.label, nv1.propertyName, nv1.propertyValue, nv2.label, nv2.propertyName,
+        graphWriter.writeRelationship(nv1.label, nv1.propertyName, nv1.propertyValue, nv2.label, nv2.propertyName,
                 nv2.propertyValue, relationshipType, relProps);
     }
 
@@ -828,15 +798,15 @@ private void processMatches(GraphEntity entity, GraphEntityMetadata metadata, Co
                     }
 
                     if (controlSet.add(id1)) {
-                        graphFileWriter.writeNode(label, propertyName, propertyValue);
+                        graphWriter.writeNode(label, propertyName, propertyValue);
                     }
                     if (controlSet.add(id2)) {
-                        graphFileWriter.writeNode(label2, propertyName2, propertyValue2);
+                        graphWriter.writeNode(label2, propertyName2, propertyValue2);
                     }
 
                     String ids = id1.compareTo(id2) <= 0 ? id1 + "-" + id2 : id2 + "-" + id1;
                     if (relationsAdded.add(ids)) {
-                        graphFileWriter.writeRelationship(label, propertyName, propertyValue, label2, propertyName2,
+                        graphWriter.writeRelationship(label, propertyName, propertyValue, label2, propertyName2,
                                 propertyValue2, relationshipType, relProps);
                     }
                 }
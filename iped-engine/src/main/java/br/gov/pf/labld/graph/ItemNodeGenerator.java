@@ -26,12 +26,12 @@ public class ItemNodeGenerator {
 
     private ICaseData caseData;
     private GraphConfiguration configuration;
-    private GraphFileWriter graphFileWriter;
+    private GraphStoreWriter graphWriter;
 
-    public ItemNodeGenerator(ICaseData caseData, GraphConfiguration configuration, GraphFileWriter graphFileWriter) {
+    public ItemNodeGenerator(ICaseData caseData, GraphConfiguration configuration, GraphStoreWriter graphWriter) {
         this.caseData = caseData;
         this.configuration = configuration;
-        this.graphFileWriter = graphFileWriter;
+        this.graphWriter = graphWriter;
     }
 
     public void generateNodeForItem(IItem evidence) throws IOException {
@@ -129,11 +129,11 @@ public void generateNodeForItem(IItem evidence) throws IOException {
 
         nodeProperties.put(propertyName, identifier);
 
-        String nodeId = graphFileWriter.writeCreateNode(propertyName, identifier, nodeProperties, label,
+        String nodeId = graphWriter.writeCreateNode(propertyName, identifier, nodeProperties, label,
                 labels.toArray(new Label[labels.size()]));
 
         if (isGraphDatasource) {
-            graphFileWriter.writeNodeReplace(DynLabel.label(configuration.getDefaultEntity()), "evidenceId",
+            graphWriter.writeNodeReplace(DynLabel.label(configuration.getDefaultEntity()), "evidenceId",
                     evidence.getId(), nodeId);
         }
 
@@ -142,12 +142,12 @@ public void generateNodeForItem(IItem evidence) throws IOException {
         if (isIpedCase && parentIds.size() > 2) {
             // Cria vinculo da evidencia com a entrada do datasource se ipedCase.
             Integer inputId = parentIds.get(2);
-            graphFileWriter.writeCreateRelationship(label, "evidenceId", inputId, label, propertyName, identifier,
+            graphWriter.writeCreateRelationship(label, "evidenceId", inputId, label, propertyName, identifier,
                     relationshipType);
         } else if (isIpedCase && parentIds.size() == 2) {
             // Cria vinculo da entrada com o datasource se ipedCase.
             Integer datasourceId = parentIds.get(1);
-            graphFileWriter.writeCreateRelationship(DynLabel.label(configuration.getDefaultEntity()), "evidenceId",
+            graphWriter.writeCreateRelationship(DynLabel.label(configuration.getDefaultEntity()), "evidenceId",
                     datasourceId, label, propertyName, identifier, relationshipType);
         }
     }
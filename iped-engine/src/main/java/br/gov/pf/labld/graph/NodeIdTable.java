@@ -0,0 +1,142 @@
+package br.gov.pf.labld.graph;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * Off-heap open addressing hash table mapping 128-bit node ids (the md5 used
+ * as nodeId property) to graph store node ids. Each entry takes 24 bytes of
+ * direct memory, so tens of millions of nodes do not pressure the java heap.
+ *
+ * Not thread safe.
+ */
+public class NodeIdTable implements Closeable {
+
+    private static final int ENTRY_SIZE = 24;
+    private static final int MAX_SEGMENT_BITS = 22;
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    private static final float MAX_LOAD = 0.6f;
+
+    private ByteBuffer[] segments;
+    private int segmentBits;
+    private long mask;
+    private long size = 0;
+
+    public NodeIdTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(long capacity) {
+        segmentBits = Math.min(Long.numberOfTrailingZeros(capacity), MAX_SEGMENT_BITS);
+        int numSegments = (int) (capacity >>> segmentBits);
+        segments = new ByteBuffer[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            segments[i] = ByteBuffer.allocateDirect(ENTRY_SIZE << segmentBits);
+        }
+        mask = capacity - 1;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the node id mapped to the md5 hex id or -1 if not found.
+     */
+    public long get(String md5Hex) {
+        return get(parseHex(md5Hex, 0), parseHex(md5Hex, 16));
+    }
+
+    public void put(String md5Hex, long nodeId) {
+        put(parseHex(md5Hex, 0), parseHex(md5Hex, 16), nodeId);
+    }
+
+    public long get(long hi, long lo) {
+        long slot = findSlot(hi, lo);
+        ByteBuffer segment = segments[(int) (slot >>> segmentBits)];
+        long value = segment.getLong(offset(slot) + 16);
+        return value - 1;
+    }
+
+    public void put(long hi, long lo, long nodeId) {
+        long slot = findSlot(hi, lo);
+        ByteBuffer segment = segments[(int) (slot >>> segmentBits)];
+        int pos = offset(slot);
+        boolean isNew = segment.getLong(pos + 16) == 0;
+        segment.putLong(pos, hi);
+        segment.putLong(pos + 8, lo);
+        // values are stored plus one, so zero means empty slot
+        segment.putLong(pos + 16, nodeId + 1);
+        if (isNew && ++size > (mask + 1) * MAX_LOAD) {
+            grow();
+        }
+    }
+
+    private long findSlot(long hi, long lo) {
+        long slot = mix(hi ^ lo) & mask;
+        while (true) {
+            ByteBuffer segment = segments[(int) (slot >>> segmentBits)];
+            int pos = offset(slot);
+            if (segment.getLong(pos + 16) == 0 || (segment.getLong(pos) == hi && segment.getLong(pos + 8) == lo)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int offset(long slot) {
+        return (int) (slot & ((1L << segmentBits) - 1)) * ENTRY_SIZE;
+    }
+
+    private void grow() {
+        ByteBuffer[] old = segments;
+        int oldSegmentEntries = 1 << segmentBits;
+        allocate((mask + 1) << 1);
+        for (ByteBuffer segment : old) {
+            for (int i = 0; i < oldSegmentEntries; i++) {
+                int pos = i * ENTRY_SIZE;
+                long value = segment.getLong(pos + 16);
+                if (value != 0) {
+                    long hi = segment.getLong(pos), lo = segment.getLong(pos + 8);
+                    long slot = findSlot(hi, lo);
+                    ByteBuffer dest = segments[(int) (slot >>> segmentBits)];
+                    int destPos = offset(slot);
+                    dest.putLong(destPos, hi);
+                    dest.putLong(destPos + 8, lo);
+                    dest.putLong(destPos + 16, value);
+                }
+            }
+        }
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long parseHex(String hex, int off) {
+        if (hex.length() != 32) {
+            throw new IllegalArgumentException("Not a md5 hex id: " + hex);
+        }
+        long value = 0;
+        for (int i = off; i < off + 16; i++) {
+            int digit = Character.digit(hex.charAt(i), 16);
+            if (digit == -1) {
+                throw new IllegalArgumentException("Not a md5 hex id: " + hex);
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Releases the references to the direct buffers, freed by the next GC.
+     */
+    @Override
+    public void close() {
+        segments = new ByteBuffer[0];
+    }
+
+}
@@ -11,6 +11,7 @@
 
 import dpf.sp.gpinf.indexer.Configuration;
 import dpf.sp.gpinf.indexer.ConstantsViewer;
+import dpf.sp.gpinf.indexer.parsers.OCRParser;
 
 public class LocalConfig extends AbstractPropertiesConfigurable {
 
@@ -89,6 +90,8 @@ public void processConfig(Path resource) throws IOException {
         } else {
             numThreads = Runtime.getRuntime().availableProcessors();
         }
+        // one OCR worker per processing thread, as with one tesseract per parsing
+        System.setProperty(OCRParser.NUM_WORKERS_PROP, String.valueOf(numThreads));
 
         value = properties.getProperty("indexTempOnSSD"); //$NON-NLS-1$
         if (value != null) {
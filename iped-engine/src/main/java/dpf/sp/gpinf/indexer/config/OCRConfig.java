@@ -12,6 +12,8 @@ public class OCRConfig extends AbstractPropertiesConfigurable {
     public static final String minFileSize2OCR = "minFileSize2OCR";
     public static final String maxFileSize2OCR = "maxFileSize2OCR";
     public static final String pageSegMode = "pageSegMode";
+    public static final String maxBatchSize = "OCRMaxBatchSize";
+    public static final String timeoutPerImage = "OCRTimeoutPerImage";
 
     public static final String CONFIG_FILE = "conf/AdvancedConfig.txt"; //$NON-NLS-1$
 
@@ -61,6 +63,16 @@ public void processConfig(Path resource) throws IOException {
             System.setProperty(OCRParser.PAGE_SEGMODE_PROP, value.trim());
         }
 
+        value = properties.getProperty("OCRMaxBatchSize"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            System.setProperty(OCRParser.MAX_BATCH_PROP, value.trim());
+        }
+
+        value = properties.getProperty("OCRTimeoutPerImage"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            System.setProperty(OCRParser.TIMEOUT_PROP, value.trim());
+        }
+
     }
 
     public Boolean isOCREnabled() {
@@ -19,8 +19,8 @@ public class AD1DataSourceReader extends DataSourceReader {
     AD1InputStreamFactory inputStreamFactory;
     IItem rootItem;
 
-    public AD1DataSourceReader(ICaseData caseData, File output, boolean listOnly) {
-        super(caseData, output, listOnly);
+    public AD1DataSourceReader(ICaseData caseData, File output) {
+        super(caseData, output);
     }
 
     @Override
@@ -53,11 +53,6 @@ public int read(File datasource) throws Exception {
 
     private IItem addRootItem(File root) throws InterruptedException {
 
-        if (listOnly) {
-            caseData.incDiscoveredEvidences(1);
-            return null;
-        }
-
         String evidenceName = getEvidenceName(root);
         dataSource = new DataSource(root);
         dataSource.setName(evidenceName);
@@ -82,29 +77,23 @@ private void createAndAddItem(AD1Extractor ad1, FileHeader header, IItem parent)
 
         IItem item = new Item();
 
-        if (!listOnly) {
-            item.setDataSource(dataSource);
-            item.setParent(parent);
-            item.setIsDir(header.isDirectory());
-            item.setName(header.getFileName());
-            item.setPath(rootItem.getName() + header.getFilePath());
-            item.setLength(header.getFileSize());
-            item.setModificationDate(header.getMTime());
-            item.setAccessDate(header.getATime());
-            item.setCreationDate(header.getCTime());
-            item.setRecordDate(header.getRTime());
-            item.setDeleted(header.isDeleted());
-            item.setHasChildren(header.hasChildren());
-
-            item.setInputStreamFactory(inputStreamFactory);
-            item.setIdInDataSource(Long.toString(header.object_address));
-
-            caseData.addItem(item);
-
-        } else {
-            caseData.incDiscoveredEvidences(1);
-            caseData.incDiscoveredVolume(header.getFileSize());
-        }
+        item.setDataSource(dataSource);
+        item.setParent(parent);
+        item.setIsDir(header.isDirectory());
+        item.setName(header.getFileName());
+        item.setPath(rootItem.getName() + header.getFilePath());
+        item.setLength(header.getFileSize());
+        item.setModificationDate(header.getMTime());
+        item.setAccessDate(header.getATime());
+        item.setCreationDate(header.getCTime());
+        item.setRecordDate(header.getRTime());
+        item.setDeleted(header.isDeleted());
+        item.setHasChildren(header.hasChildren());
+
+        item.setInputStreamFactory(inputStreamFactory);
+        item.setIdInDataSource(Long.toString(header.object_address));
+
+        caseData.addItem(item);
 
         FileHeader child = header.getChildHeader();
         if (child != null)
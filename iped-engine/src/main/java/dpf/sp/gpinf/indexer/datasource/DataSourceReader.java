@@ -41,12 +41,6 @@ public abstract class DataSourceReader {
      */
     ICaseData caseData;
 
-    /**
-     * Indica se os itens serão apenas listados (contados) ou adicionados à fila de
-     * processamento
-     */
-    boolean listOnly;
-
     /**
      * Pasta de saída do processamento.
      */
@@ -64,13 +58,9 @@ public abstract class DataSourceReader {
      *            Objeto com dados do caso
      * @param output
      *            Pasta de saída do processamento
-     * @param listOnly
-     *            Se os itens serão apenas listados(contados) ou adicionados à fila
-     *            de processamento
      */
-    public DataSourceReader(ICaseData caseData, File output, boolean listOnly) {
+    public DataSourceReader(ICaseData caseData, File output) {
         this.caseData = caseData;
-        this.listOnly = listOnly;
         this.output = output;
     }
 
@@ -82,11 +72,9 @@ public DataSourceReader(ICaseData caseData, File output, boolean listOnly) {
     public abstract boolean isSupported(File datasource);
 
     /**
-     * Lê a fonte de dados informada. Adiciona os itens na fila de processamento
-     * caso listOnly = false usando caseData.addEvidenceFile(). Ou conta e soma o
-     * volume dos itens a processar caso listOnly = true para estimar o progresso do
-     * processamento usando caseData.incDiscoveredEvidences() e
-     * caseData.incDiscoveredVolume().
+     * Lê a fonte de dados informada, adicionando os itens na fila de processamento
+     * usando caseData.addItem(), que também contabiliza o número e o volume dos
+     * itens descobertos para estimar o progresso do processamento.
      *
      * @param datasource
      *            Fonte de dados que será processada/lida.
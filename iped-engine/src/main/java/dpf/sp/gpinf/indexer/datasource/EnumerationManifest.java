@@ -0,0 +1,236 @@
+package dpf.sp.gpinf.indexer.datasource;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dpf.sp.gpinf.indexer.util.IOUtil;
+import iped3.IItem;
+
+/**
+ * Manifesto da enumeração das fontes de dados, gravado pelo {@link ItemProducer}
+ * durante a única passada sobre as fontes. Para cada item adicionado ao caso
+ * registra id, tamanho e o deslocamento do caminho em um arquivo de caminhos à
+ * parte. Ao final da enumeração grava o total de itens e de volume, que
+ * processamentos posteriores das mesmas fontes (ex: --continue) reutilizam para
+ * estimar o progresso antes de a enumeração terminar.
+ *
+ * Layout do arquivo de manifesto: cabeçalho de {@link #HEADER_SIZE} bytes
+ * (magic, versão, assinatura das fontes, flag de completo, número de itens,
+ * volume) seguido de registros de {@link #RECORD_SIZE} bytes (id, tamanho ou -1,
+ * deslocamento do caminho). O arquivo de caminhos contém, para cada item, o
+ * tamanho em bytes seguido do caminho em UTF-8.
+ */
+public class EnumerationManifest implements Closeable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(EnumerationManifest.class);
+
+    public static final String MANIFEST_FILE = "data/enumeration.manifest"; //$NON-NLS-1$
+    public static final String PATHS_FILE = "data/enumeration.paths"; //$NON-NLS-1$
+
+    private static final String TMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+    private static final int MAGIC = 0x454E554D; // "ENUM"
+    private static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 40;
+    static final int RECORD_SIZE = 20;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Totais de uma enumeração completa anterior.
+     */
+    public static class Summary {
+
+        private final long numItems, volume;
+
+        private Summary(long numItems, long volume) {
+            this.numItems = numItems;
+            this.volume = volume;
+        }
+
+        public long getNumItems() {
+            return numItems;
+        }
+
+        public long getVolume() {
+            return volume;
+        }
+    }
+
+    private final File manifestFile, pathsFile, tmpManifest, tmpPaths;
+    private final long signature;
+    private FileChannel manifest, paths;
+    private ByteBuffer records = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer pathBuf = ByteBuffer.allocate(BUFFER_SIZE);
+    private long pathsPos = 0;
+    private long numItems = 0, volume = 0;
+    private boolean failed = false;
+
+    /**
+     * Cria um novo manifesto. Ele é gravado em arquivos temporários e só substitui
+     * o manifesto anterior em {@link #finish()}, assim uma enumeração interrompida
+     * não invalida o manifesto completo de um processamento anterior.
+     */
+    public EnumerationManifest(File output, List<File> sources) throws IOException {
+        this.manifestFile = new File(output, MANIFEST_FILE);
+        this.pathsFile = new File(output, PATHS_FILE);
+        this.tmpManifest = new File(output, MANIFEST_FILE + TMP_SUFFIX);
+        this.tmpPaths = new File(output, PATHS_FILE + TMP_SUFFIX);
+        this.signature = getSignature(sources);
+
+        manifestFile.getParentFile().mkdirs();
+        manifest = FileChannel.open(tmpManifest.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        paths = FileChannel.open(tmpPaths.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        manifest.position(HEADER_SIZE);
+    }
+
+    /**
+     * Carrega os totais da última enumeração completa das fontes de dados
+     * informadas.
+     *
+     * @return os totais ou null se não houver manifesto completo gerado a partir
+     *         das mesmas fontes de dados.
+     */
+    public static Summary load(File output, List<File> sources) {
+        File file = new File(output, MANIFEST_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && fc.read(header) != -1)
+                ;
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return null;
+            }
+            long signature = header.getLong();
+            boolean complete = header.getInt() == 1;
+            long numItems = header.getLong();
+            long volume = header.getLong();
+            if (!complete || signature != getSignature(sources)) {
+                return null;
+            }
+            return new Summary(numItems, volume);
+
+        } catch (IOException e) {
+            LOGGER.warn("Error reading enumeration manifest {}: {}", file.getAbsolutePath(), e.toString()); //$NON-NLS-1$
+            return null;
+        }
+    }
+
+    /**
+     * Assinatura das fontes de dados: caminho, tamanho e data de modificação.
+     */
+    private static long getSignature(List<File> sources) {
+        long h = 1125899906842597L;
+        for (File source : sources) {
+            h = 31 * h + source.getAbsolutePath().hashCode();
+            h = 31 * h + source.length();
+            h = 31 * h + source.lastModified();
+        }
+        return h;
+    }
+
+    /**
+     * Registra um item adicionado ao caso. Deve ser chamado após o id definitivo
+     * do item ter sido atribuído. Erros de escrita apenas invalidam o manifesto,
+     * sem interromper o processamento.
+     */
+    public synchronized void add(IItem item) {
+        Long length = item.getLength();
+        numItems++;
+        if (length != null && item.isToSumVolume()) {
+            volume += length;
+        }
+        if (failed) {
+            return;
+        }
+        try {
+            write(item, length);
+
+        } catch (IOException e) {
+            LOGGER.warn("Error writing enumeration manifest: {}", e.toString()); //$NON-NLS-1$
+            failed = true;
+            close();
+        }
+    }
+
+    private void write(IItem item, Long length) throws IOException {
+        String path = item.getPath();
+        byte[] pathBytes = path != null ? path.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        long pathOffset = pathsPos;
+        if (pathBuf.remaining() < 4 + pathBytes.length) {
+            flush(paths, pathBuf);
+            if (pathBuf.capacity() < 4 + pathBytes.length) {
+                pathBuf = ByteBuffer.allocate(4 + pathBytes.length);
+            }
+        }
+        pathBuf.putInt(pathBytes.length).put(pathBytes);
+        pathsPos += 4 + pathBytes.length;
+
+        if (records.remaining() < RECORD_SIZE) {
+            flush(manifest, records);
+        }
+        records.putInt(item.getId()).putLong(length != null ? length : -1).putLong(pathOffset);
+    }
+
+    private static void flush(FileChannel fc, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            fc.write(buf);
+        }
+        buf.clear();
+    }
+
+    /**
+     * Marca a enumeração como completa, gravando os totais, e substitui o manifesto
+     * anterior.
+     */
+    public synchronized void finish() throws IOException {
+        if (failed) {
+            return;
+        }
+        flush(manifest, records);
+        flush(paths, pathBuf);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(signature).putInt(1).putLong(numItems).putLong(volume);
+        header.flip();
+        manifest.position(0);
+        while (header.hasRemaining()) {
+            manifest.write(header);
+        }
+        close();
+
+        Files.move(tmpPaths.toPath(), pathsFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmpManifest.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        LOGGER.info("Enumeration manifest saved: {} items, {} MB", numItems, volume / (1 << 20)); //$NON-NLS-1$
+    }
+
+    /**
+     * Fecha o manifesto. Se {@link #finish()} não foi chamado, o manifesto fica
+     * incompleto e não é reutilizado.
+     */
+    @Override
+    public synchronized void close() {
+        IOUtil.closeQuietly(manifest);
+        IOUtil.closeQuietly(paths);
+    }
+
+}
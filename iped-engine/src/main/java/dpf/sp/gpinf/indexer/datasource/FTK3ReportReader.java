@@ -46,8 +46,8 @@ public class FTK3ReportReader extends DataSourceReader {
     public static boolean wasExecuted = false;
     private static Logger LOGGER = LoggerFactory.getLogger(FTK3ReportReader.class);
 
-    public FTK3ReportReader(ICaseData caseData, File output, boolean listOnly) {
-        super(caseData, output, listOnly);
+    public FTK3ReportReader(ICaseData caseData, File output) {
+        super(caseData, output);
     }
 
     @Override
@@ -69,60 +69,16 @@ public int read(File report) throws Exception {
             relativePath += "/"; //$NON-NLS-1$
         }
 
-        int alternativeFiles = 0;
-        if (listOnly) {
-            lerListaDeArquivos(new File(report, "files")); //$NON-NLS-1$
-        }
-
-        if (!listOnly) {
-            String caseName = getFTK3CaseName(report);
+        String caseName = getFTK3CaseName(report);
 
-            WorkerProvider.getInstance().firePropertyChange("mensagem", "", //$NON-NLS-1$ //$NON-NLS-2$
-                    Messages.getString("FTK3ReportReader.LoadDatabaseProps")); //$NON-NLS-1$
-            LOGGER.info("Loading properties from database..."); //$NON-NLS-1$
+        WorkerProvider.getInstance().firePropertyChange("mensagem", "", //$NON-NLS-1$ //$NON-NLS-2$
+                Messages.getString("FTK3ReportReader.LoadDatabaseProps")); //$NON-NLS-1$
+        LOGGER.info("Loading properties from database..."); //$NON-NLS-1$
 
-            FTKDatabase ds = FTKDatabase.get(caseName, report);
-            ds.getCaseData(caseData, new File(report, "files"), relativePath + "files", ADList); //$NON-NLS-1$ //$NON-NLS-2$
-        }
+        FTKDatabase ds = FTKDatabase.get(caseName, report);
+        ds.getCaseData(caseData, new File(report, "files"), relativePath + "files", ADList); //$NON-NLS-1$ //$NON-NLS-2$
 
-        return alternativeFiles;
-    }
-
-    private int lerListaDeArquivos(File file) throws Exception {
-
-        int alternativeFiles = 0;
-        String[] names = file.list();
-        if (names != null) {
-            for (int i = 0; i < names.length; i++) {
-                if (Thread.interrupted()) {
-                    throw new InterruptedException(Thread.currentThread().getName() + " interrupted."); //$NON-NLS-1$
-                }
-
-                File subFile = new File(file, names[i]);
-                if (subFile.isDirectory()) {
-                    alternativeFiles += lerListaDeArquivos(subFile);
-                } else {
-                    // TODO contagem de descobertos e alternativos falha caso só
-                    // haja versão de visualização do arquivo
-                    // realizar contagem correta utilizará mais memória
-                    /*
-                     * if(names[i].contains(".[AD].")){ if(listOnly) alternativeFiles++; else try{
-                     * int id = Integer.valueOf(names[i].substring(0, names[i].indexOf(".")));
-                     * ADList.add(id); }catch(NumberFormatException e){ throw new
-                     * NumberFormatException("ID do arquivo '" + subFile.getPath() +
-                     * "' não identificado. Os arquivos foram exportados usando o ID como nomenclatura?"
-                     * ); } }else if(listOnly){
-                     */
-                    caseData.incDiscoveredEvidences(1);
-                    // IndexFiles.getInstance().firePropertyChange("discovered", 0,
-                    // caseData.getDiscoveredEvidences());
-                    caseData.incDiscoveredVolume(subFile.length());
-                    // }
-
-                }
-            }
-        }
-        return alternativeFiles;
+        return 0;
     }
 
     public static boolean bookmarkExists(File report) {
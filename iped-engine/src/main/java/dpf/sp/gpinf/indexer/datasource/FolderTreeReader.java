@@ -60,8 +60,8 @@ public class FolderTreeReader extends DataSourceReader {
     private String evidenceName;
     private CmdLineArgs args;
 
-    public FolderTreeReader(ICaseData caseData, File output, boolean listOnly) {
-        super(caseData, output, listOnly);
+    public FolderTreeReader(ICaseData caseData, File output) {
+        super(caseData, output);
     }
 
     public int read(File file) throws Exception {
@@ -122,39 +122,32 @@ private void transverse(File file, List<Integer> parents, List<String> paths) th
     }
 
     private IItem getEvidence(Path path, BasicFileAttributes attr) {
-        if (listOnly) {
-            caseData.incDiscoveredEvidences(1);
-            caseData.incDiscoveredVolume(attr.size());
-            return null;
+        File file = path.toFile();
+        IItem item = new Item();
+        item.setName(file.getName());
+        if (file.equals(rootFile)) {
+            item.setName(evidenceName);
+        }
+        item.setDataSource(dataSource);
+        try {
+            String relativePath = Util.getRelativePath(output, file);
+            item.setExportedFile(relativePath);
+            item.setFile(file);
+        } catch (InvalidPathException e) {
+            LOGGER.error("File content will not be processed " + e.toString()); //$NON-NLS-1$
+        }
 
-        } else {
-            File file = path.toFile();
-            IItem item = new Item();
-            item.setName(file.getName());
-            if (file.equals(rootFile)) {
-                item.setName(evidenceName);
-            }
-            item.setDataSource(dataSource);
+        if (args.isAddowner())
             try {
-                String relativePath = Util.getRelativePath(output, file);
-                item.setExportedFile(relativePath);
-                item.setFile(file);
-            } catch (InvalidPathException e) {
-                LOGGER.error("File content will not be processed " + e.toString()); //$NON-NLS-1$
-            }
+                UserPrincipal owner = Files.getOwner(path);
+                if (owner != null)
+                    item.setExtraAttribute(FS_OWNER, owner.toString());
 
-            if (args.isAddowner())
-                try {
-                    UserPrincipal owner = Files.getOwner(path);
-                    if (owner != null)
-                        item.setExtraAttribute(FS_OWNER, owner.toString());
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
 
-            return item;
-        }
+        return item;
     }
 
     class FolderVisitor implements FileVisitor<Path> {
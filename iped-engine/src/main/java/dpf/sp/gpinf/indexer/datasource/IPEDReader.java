@@ -102,8 +102,8 @@ public class IPEDReader extends DataSourceReader {
     private List<IIPEDSource> srcList = new ArrayList<IIPEDSource>();
     private String deviceName;
 
-    public IPEDReader(ICaseData caseData, File output, boolean listOnly) {
-        super(caseData, output, listOnly);
+    public IPEDReader(ICaseData caseData, File output) {
+        super(caseData, output);
     }
 
     public boolean isSupported(File report) {
@@ -132,6 +132,8 @@ public int read(File file) throws Exception {
         }
 
         Object obj = Util.readObject(file.getAbsolutePath());
+        if (obj instanceof Marcadores)
+            ((Marcadores) obj).replayJournal(file);
         if (obj instanceof IMultiMarcadores) {
             IMultiMarcadores mm = (IMultiMarcadores) obj;
             for (IMarcadores m : mm.getSingleBookmarks())
@@ -175,14 +177,12 @@ private void processBookmark(IMarcadores state) throws Exception {
         indexDir = state.getIndexDir().getCanonicalFile();
         basePath = indexDir.getParentFile().getParentFile().getAbsolutePath();
         caseData.putCaseObject(ORIG_CASE_MODULE_DIR, indexDir.getParentFile());
-        if(!listOnly) {
-            List<File> reportingCases = (List<File>) caseData.getCaseObject(REPORTING_CASES);
-            if (reportingCases == null) {
-                caseData.putCaseObject(REPORTING_CASES, reportingCases = new ArrayList<>());
-            }
-            reportingCases.add(new File(basePath));
+        List<File> reportingCases = (List<File>) caseData.getCaseObject(REPORTING_CASES);
+        if (reportingCases == null) {
+            caseData.putCaseObject(REPORTING_CASES, reportingCases = new ArrayList<>());
         }
-        
+        reportingCases.add(new File(basePath));
+
         ipedCase = new IPEDSource(new File(basePath));
         ipedCase.checkImagePaths();
         /*
@@ -219,8 +219,6 @@ private void processBookmark(IMarcadores state) throws Exception {
     }
 
     private void copyBookmarksToReport() throws ClassNotFoundException, IOException {
-        if (listOnly)
-            return;
         int lastId = ipedCase.getLastId();
         int totalItens = ipedCase.getTotalItens();
         File stateFile = new File(output, Marcadores.STATEFILENAME);
@@ -396,14 +394,6 @@ private void insertIntoProcessQueue(LuceneSearchResult result, boolean treeNode)
                 len = Long.valueOf(value);
             }
 
-            if (listOnly) {
-                caseData.incDiscoveredEvidences(1);
-                if (!treeNode) {
-                    caseData.incDiscoveredVolume(len);
-                }
-                continue;
-            }
-
             Item evidence = new Item();
             evidence.setName(doc.get(IndexItem.NAME));
 
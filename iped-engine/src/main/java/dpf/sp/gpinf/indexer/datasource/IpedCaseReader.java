@@ -21,17 +21,17 @@ public class IpedCaseReader extends DataSourceReader {
 
     private List<DataSourceReader> subReaders;
 
-    public IpedCaseReader(ICaseData caseData, File output, boolean listOnly) {
-        super(caseData, output, listOnly);
+    public IpedCaseReader(ICaseData caseData, File output) {
+        super(caseData, output);
         initSubReaders();
     }
 
     private void initSubReaders() {
         subReaders = new ArrayList<>(3);
 
-        SleuthkitReader sleuthkitReader = new SleuthkitReader(caseData, output, listOnly);
-        UfedXmlReader ufedXmlReader = new UfedXmlReader(caseData, output, listOnly);
-        FolderTreeReader folderTreeReader = new FolderTreeReader(caseData, output, listOnly);
+        SleuthkitReader sleuthkitReader = new SleuthkitReader(caseData, output);
+        UfedXmlReader ufedXmlReader = new UfedXmlReader(caseData, output);
+        FolderTreeReader folderTreeReader = new FolderTreeReader(caseData, output);
 
         subReaders.add(sleuthkitReader);
         subReaders.add(ufedXmlReader);
@@ -62,19 +62,13 @@ public int read(File file) throws Exception {
 
         dataSource = new DataSource(ipedCase.getCaseFile());
 
-        List<Item> datasourceEvidences = null;
-        if (!listOnly) {
-            Item caseEvidence = createCaseEvidence(ipedCase);
-            datasourceEvidences = createRootEvidences(ipedCase, caseEvidence);
-        }
+        Item caseEvidence = createCaseEvidence(ipedCase);
+        List<Item> datasourceEvidences = createRootEvidences(ipedCase, caseEvidence);
 
         List<IpedDatasource> datasources = ipedCase.getDatasources();
         for (int index = 0; index < datasources.size(); index++) {
             IpedDatasource ipedDatasource = datasources.get(index);
-            Item datasourceEvidence = null;
-            if (!listOnly) {
-                datasourceEvidence = datasourceEvidences.get(index);
-            }
+            Item datasourceEvidence = datasourceEvidences.get(index);
 
             List<IpedInput> inputs = ipedDatasource.getInputs();
             for (IpedInput input : inputs) {
@@ -137,8 +131,6 @@ private Item createDatasourceEvidence(IpedDatasource datasource, Item caseEviden
 
         Item.getId();
 
-        caseData.incDiscoveredEvidences(1);
-
         try {
             caseData.addItem(Item);
         } catch (InterruptedException e) {
@@ -161,7 +153,6 @@ private Item createCaseEvidence(IpedCase ipedCase) {
 
         Item.getId();
 
-        caseData.incDiscoveredEvidences(1);
         try {
             caseData.addItem(Item);
         } catch (InterruptedException e) {
@@ -32,32 +32,39 @@
 import dpf.sp.gpinf.indexer.process.Manager;
 import dpf.sp.gpinf.indexer.process.task.SkipCommitedTask;
 import dpf.sp.gpinf.indexer.util.HashValue;
-import gpinf.dev.data.Item;
 import iped3.ICaseData;
 
 /**
- * Responsável por instanciar e executar o contador e o produtor de itens do
- * caso que adiciona os itens a fila de processamento. Podem obter os itens de
- * diversas fontes de dados: pastas, relatórios do FTK, imagens forenses ou
- * casos do IPED.
+ * Responsável por instanciar e executar o produtor de itens do caso que
+ * adiciona os itens a fila de processamento. Podem obter os itens de diversas
+ * fontes de dados: pastas, relatórios do FTK, imagens forenses ou casos do
+ * IPED.
  *
+ * As fontes de dados são enumeradas uma única vez: a contagem do número e
+ * volume dos itens descobertos, usada para estimar o progresso, é feita ao
+ * adicioná-los ao caso, e fica registrada em um {@link EnumerationManifest}.
+ * Como a fila de processamento é limitada, o total só é conhecido ao fim da
+ * enumeração, então os totais do manifesto de um processamento anterior das
+ * mesmas fontes são usados como estimativa inicial, e a estimativa é atualizada
+ * periodicamente com o volume já descoberto (ver {@link #updateTaskSize()}).
  */
 public class ItemProducer extends Thread {
 
     private static Logger LOGGER = LoggerFactory.getLogger(ItemProducer.class);
 
     private final ICaseData caseData;
-    private final boolean listOnly;
     private List<File> datasources;
     private File output;
     private Manager manager;
     private DataSourceReader currentReader;
     private ArrayList<DataSourceReader> sourceReaders = new ArrayList<DataSourceReader>();
 
-    public ItemProducer(Manager manager, ICaseData caseData, boolean listOnly, List<File> datasources, File output)
-            throws Exception {
+    private long previousVolume = 0;
+    private int taskSize = -1;
+    private boolean enumerated = false;
+
+    public ItemProducer(Manager manager, ICaseData caseData, List<File> datasources, File output) throws Exception {
         this.caseData = caseData;
-        this.listOnly = listOnly;
         this.datasources = datasources;
         this.output = output;
         this.manager = manager;
@@ -73,9 +80,8 @@ private void installDataSourceReaders() throws Exception {
         };
 
         for (Class<? extends DataSourceReader> srcReader : readerList) {
-            Constructor<? extends DataSourceReader> constr = srcReader.getConstructor(ICaseData.class, File.class,
-                    boolean.class);
-            sourceReaders.add(constr.newInstance(caseData, output, listOnly));
+            Constructor<? extends DataSourceReader> constr = srcReader.getConstructor(ICaseData.class, File.class);
+            sourceReaders.add(constr.newInstance(caseData, output));
         }
     }
 
@@ -87,21 +93,51 @@ public String currentDirectory() {
         }
     }
 
+    /**
+     * Atualiza o tamanho estimado do processamento enquanto as fontes são
+     * enumeradas: o maior valor entre a estimativa do processamento anterior e o
+     * volume já descoberto. Ao fim da enumeração, o tamanho passa a ser o volume
+     * descoberto e não é mais alterado.
+     */
+    public synchronized void updateTaskSize() {
+        if (!enumerated) {
+            fireTaskSize((int) (Math.max(previousVolume, caseData.getDiscoveredVolume()) / 1000000));
+        }
+    }
+
+    private void fireTaskSize(int size) {
+        if (size != taskSize) {
+            taskSize = size;
+            WorkerProvider.getInstance().firePropertyChange("taskSize", 0, size); //$NON-NLS-1$
+        }
+    }
+
     @Override
     public void run() {
         File currSource = null;
+        EnumerationManifest manifest = null;
         try {
+            EnumerationManifest.Summary previous = EnumerationManifest.load(output, datasources);
+            if (previous != null) {
+                LOGGER.info("Using previous enumeration estimate: {} items, {} MB", previous.getNumItems(), //$NON-NLS-1$
+                        previous.getVolume() / (1 << 20));
+                synchronized (this) {
+                    previousVolume = previous.getVolume();
+                }
+                updateTaskSize();
+            }
+            manifest = new EnumerationManifest(output, datasources);
+            caseData.putCaseObject(EnumerationManifest.class.getName(), manifest);
+
             for (File source : datasources) {
                 currSource = source;
                 if (Thread.interrupted()) {
                     throw new InterruptedException(Thread.currentThread().getName() + " interrupted."); //$NON-NLS-1$
                 }
 
-                if (listOnly) {
-                    WorkerProvider.getInstance().firePropertyChange("mensagem", 0, //$NON-NLS-1$
-                            Messages.getString("ItemProducer.Adding") + source.getAbsolutePath() + "'"); //$NON-NLS-1$ //$NON-NLS-2$
-                    LOGGER.info("Adding '{}'", source.getAbsolutePath()); //$NON-NLS-1$
-                }
+                WorkerProvider.getInstance().firePropertyChange("mensagem", 0, //$NON-NLS-1$
+                        Messages.getString("ItemProducer.Adding") + source.getAbsolutePath() + "'"); //$NON-NLS-1$ //$NON-NLS-2$
+                LOGGER.info("Adding '{}'", source.getAbsolutePath()); //$NON-NLS-1$
 
                 int alternativeFiles = 0;
                 for (DataSourceReader srcReader : sourceReaders) {
@@ -118,21 +154,21 @@ public void run() {
                 Set<HashValue> parentsWithLostSubitems = (Set<HashValue>) caseData
                         .getCaseObject(SkipCommitedTask.PARENTS_WITH_LOST_SUBITEMS);
                 if (parentsWithLostSubitems != null && parentsWithLostSubitems.size() > 0) {
-                    IPEDReader reader = new IPEDReader(caseData, output, listOnly);
+                    IPEDReader reader = new IPEDReader(caseData, output);
                     reader.read(parentsWithLostSubitems, manager);
                 }
 
+                manager.getItemScheduler().dataSourceEnumerated();
+
             }
-            if (!listOnly) {
-                Item evidence = new Item();
-                evidence.setQueueEnd(true);
-                // caseData.addEvidenceFile(evidence);
+            caseData.putCaseObject(EnumerationManifest.class.getName(), null);
+            manifest.finish();
 
-            } else {
-                LOGGER.info("Total items found: {}", caseData.getDiscoveredEvidences()); //$NON-NLS-1$
+            LOGGER.info("Total items found: {}", caseData.getDiscoveredEvidences()); //$NON-NLS-1$
+            synchronized (this) {
+                enumerated = true;
+                fireTaskSize((int) (caseData.getDiscoveredVolume() / 1000000));
             }
-            WorkerProvider.getInstance().firePropertyChange("taskSize", 0, //$NON-NLS-1$
-                    (int) (caseData.getDiscoveredVolume() / 1000000));
 
         } catch (Throwable e) {
             if (manager.exception == null) {
@@ -141,6 +177,11 @@ public void run() {
                 e1.initCause(e);
                 manager.exception = e1;
             }
+        } finally {
+            manager.getItemScheduler().enumerationFinished();
+            if (manifest != null) {
+                manifest.close();
+            }
         }
 
     }
@@ -29,14 +29,19 @@
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.tika.io.IOUtils;
 import org.apache.tika.mime.MediaType;
@@ -102,16 +107,21 @@ public class SleuthkitReader extends DataSourceReader {
     private static volatile Thread waitLoadDbThread;
     private static volatile Exception exception = null;
 
+    private static final int BATCH_SIZE = 100000;
+    private static final int MIN_BATCH_SIZE = 1000;
+    private static final long DB_POLL_MILLIS = 1000;
+
     private static String[] TSK_CMD = { "tsk_loaddb", "-a", "-d", DB_NAME, IMG_NAME }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 
     private CmdLineArgs args;
     private Long firstId, lastId;
 
-    private ArrayList<Integer> sleuthIdToId = new ArrayList<Integer>();
+    // ids dos itens criados, indexados pelo id da sleuthkit relativo a firstId
+    private IntPagedMap sleuthIdToId = new IntPagedMap();
 
     // chamada content.getParent() é custosa, entao os valores já mapeados são
-    // salvos neste cache
-    private ArrayList<Integer> tskParentIds = new ArrayList<>();
+    // salvos neste cache, indexados pelo id da sleuthkit relativo a firstId
+    private IntPagedMap tskParentIds = new IntPagedMap();
 
     private List<Integer> inheritedParents;
     private String inheritedPath;
@@ -119,15 +129,14 @@ public class SleuthkitReader extends DataSourceReader {
     private AddImageProcess addImage;
     private String deviceName;
     private boolean isISO9660 = false;
-    private boolean fastmode = false;
 
     // Referência estática para a JVM não finalizar o objeto que será usado
     // futuramente
     // via referência interna ao JNI para acessar os itens do caso
     public static volatile SleuthkitCase sleuthCase;
 
-    public SleuthkitReader(ICaseData caseData, File output, boolean listOnly) {
-        super(caseData, output, listOnly);
+    public SleuthkitReader(ICaseData caseData, File output) {
+        super(caseData, output);
 
         if (Configuration.getInstance().loaddbPathWin != null)
             TSK_CMD[0] = Configuration.getInstance().loaddbPathWin;
@@ -253,10 +262,6 @@ public void read(File image, Item parent) throws Exception {
         checkTSKVersion();
 
         args = (CmdLineArgs) caseData.getCaseObject(CmdLineArgs.class.getName());
-        if (args.getProfile() != null) {
-            if (args.getProfile().equals("fastmode")) //$NON-NLS-1$ //$NON-NLS-2$
-                fastmode = true;
-        }
 
         int offset = TimeZone.getDefault().getRawOffset() / 3600000;
         String timezone = "GMT" + (-offset); //$NON-NLS-1$
@@ -290,129 +295,121 @@ public void read(File image, Item parent) throws Exception {
 
         String dbPath = output.getParent() + File.separator + DB_NAME;
 
-        if (listOnly) {
+        if (sleuthCase == null) {
+            if (new File(dbPath).exists()) {
+                sleuthCase = SleuthkitCase.openCase(dbPath);
 
-            if (sleuthCase == null) {
-                if (new File(dbPath).exists()) {
-                    sleuthCase = SleuthkitCase.openCase(dbPath);
+            } else {
+                WorkerProvider.getInstance().firePropertyChange("mensagem", "", //$NON-NLS-1$ //$NON-NLS-2$
+                        Messages.getString("SleuthkitReader.Creating") + dbPath); //$NON-NLS-1$
+                LOGGER.info("Creating database {}", dbPath); //$NON-NLS-1$
+                sleuthCase = SleuthkitCase.newCase(dbPath);
+                LOGGER.info("{} database created", dbPath); //$NON-NLS-1$
+            }
+        }
 
-                } else {
-                    WorkerProvider.getInstance().firePropertyChange("mensagem", "", //$NON-NLS-1$ //$NON-NLS-2$
-                            Messages.getString("SleuthkitReader.Creating") + dbPath); //$NON-NLS-1$
-                    LOGGER.info("Creating database {}", dbPath); //$NON-NLS-1$
-                    sleuthCase = SleuthkitCase.newCase(dbPath);
-                    LOGGER.info("{} database created", dbPath); //$NON-NLS-1$
-                }
+        SleuthKitConfig sleuthKitConfig = (SleuthKitConfig) ConfigurationManager.getInstance()
+                .findObjects(SleuthKitConfig.class).iterator().next();
+        if (sleuthKitConfig.isRobustImageReading())
+            Manager.getInstance().initSleuthkitServers(sleuthCase.getDbDirPath());
+
+        Long[] range = getDecodedRangeId(image);
+        if (range != null && args.isContinue()) {
+            synchronized (idRangeMap) {
+                idRangeMap.put(image, range);
+                idRangeMap.notify();
             }
+        } else if (image.getName().equals(DB_NAME)) {
+            firstId = 0L;
+            lastId = sleuthCase.getLastObjectId();
 
-            SleuthKitConfig sleuthKitConfig = (SleuthKitConfig) ConfigurationManager.getInstance()
-                    .findObjects(SleuthKitConfig.class).iterator().next();
-            if (sleuthKitConfig.isRobustImageReading())
-                Manager.getInstance().initSleuthkitServers(sleuthCase.getDbDirPath());
+            synchronized (idRangeMap) {
+                Long[] ids = { firstId, lastId };
+                idRangeMap.put(image, ids);
+                idRangeMap.notify();
+            }
+        } else {
+            if (args.isContinue()) {
+                deleteDatasource(image);
+            }
 
-            Long[] range = getDecodedRangeId(image);
-            if (range != null && args.isContinue()) {
-                synchronized (idRangeMap) {
-                    idRangeMap.put(image, range);
-                    idRangeMap.notify();
-                }
-            } else if (image.getName().equals(DB_NAME)) {
-                firstId = 0L;
-                lastId = sleuthCase.getLastObjectId();
-
-                synchronized (idRangeMap) {
-                    Long[] ids = { firstId, lastId };
-                    idRangeMap.put(image, ids);
-                    idRangeMap.notify();
-                }
-            } else {
-                if (args.isContinue()) {
-                    deleteDatasource(image);
-                }
+            WorkerProvider.getInstance().firePropertyChange("mensagem", "", //$NON-NLS-1$ //$NON-NLS-2$
+                    Messages.getString("SleuthkitReader.WaitDecode") + image.getAbsolutePath()); //$NON-NLS-1$
+            LOGGER.info("Decoding image {}", image.getAbsolutePath()); //$NON-NLS-1$
 
-                WorkerProvider.getInstance().firePropertyChange("mensagem", "", //$NON-NLS-1$ //$NON-NLS-2$
-                        Messages.getString("SleuthkitReader.WaitDecode") + image.getAbsolutePath()); //$NON-NLS-1$
-                LOGGER.info("Decoding image {}", image.getAbsolutePath()); //$NON-NLS-1$
+            firstId = sleuthCase.getLastObjectId() + 1;
 
-                firstId = sleuthCase.getLastObjectId() + 1;
+            synchronized (idRangeMap) {
+                Long[] ids = { firstId, null };
+                idRangeMap.put(image, ids);
+                idRangeMap.notify();
+            }
 
-                synchronized (idRangeMap) {
-                    Long[] ids = { firstId, null };
-                    idRangeMap.put(image, ids);
-                    idRangeMap.notify();
+            boolean extraParamsAdded = false;
+            ArrayList<String> cmdArray = new ArrayList<>();
+            for (String param : TSK_CMD) {
+                if (param.equals(DB_NAME)) {
+                    cmdArray.add(dbPath);
+                } else if (param.equals(IMG_NAME)) {
+                    cmdArray.add(image.getAbsolutePath());
+                } else {
+                    cmdArray.add(param);
                 }
-
-                boolean extraParamsAdded = false;
-                ArrayList<String> cmdArray = new ArrayList<>();
-                for (String param : TSK_CMD) {
-                    if (param.equals(DB_NAME)) {
-                        cmdArray.add(dbPath);
-                    } else if (param.equals(IMG_NAME)) {
-                        cmdArray.add(image.getAbsolutePath());
-                    } else {
-                        cmdArray.add(param);
+                if (!extraParamsAdded) {
+                    if (isTskPatched) {
+                        cmdArray.add("-z"); //$NON-NLS-1$
+                        cmdArray.add(timezone);
                     }
-                    if (!extraParamsAdded) {
-                        if (isTskPatched) {
-                            cmdArray.add("-z"); //$NON-NLS-1$
-                            cmdArray.add(timezone);
-                        }
-                        if (sectorSize > 0) {
-                            cmdArray.add("-b"); //$NON-NLS-1$
-                            cmdArray.add("" + sectorSize); //$NON-NLS-1$
-                        }
-                        if (password != null) {
-                            cmdArray.add("-K"); //$NON-NLS-1$
-                            cmdArray.add(password); // $NON-NLS-1$
-                        }
-                        extraParamsAdded = true;
+                    if (sectorSize > 0) {
+                        cmdArray.add("-b"); //$NON-NLS-1$
+                        cmdArray.add("" + sectorSize); //$NON-NLS-1$
                     }
+                    if (password != null) {
+                        cmdArray.add("-K"); //$NON-NLS-1$
+                        cmdArray.add(password); // $NON-NLS-1$
+                    }
+                    extraParamsAdded = true;
                 }
+            }
 
-                String[] cmd = cmdArray.toArray(new String[0]);
-
-                if (!isTskPatched) {
-                    sleuthCase.acquireExclusiveLock();
-                }
+            String[] cmd = cmdArray.toArray(new String[0]);
 
-                try {
-                    ProcessBuilder pb = new ProcessBuilder(cmd);
-                    Process process = pb.start();
+            if (!isTskPatched) {
+                sleuthCase.acquireExclusiveLock();
+            }
 
-                    process.getOutputStream().close();
-                    logStream(process.getInputStream(), image.getAbsolutePath());
-                    logStream(process.getErrorStream(), image.getAbsolutePath());
+            try {
+                ProcessBuilder pb = new ProcessBuilder(cmd);
+                Process process = pb.start();
 
-                    if (!isTskPatched) {
-                        waitProcess(process, image);
-                    } else {
-                        waitProcessInOtherThread(process, image);
-                    }
+                process.getOutputStream().close();
+                logStream(process.getInputStream(), image.getAbsolutePath());
+                logStream(process.getErrorStream(), image.getAbsolutePath());
 
-                } finally {
-                    if (!isTskPatched) {
-                        sleuthCase.releaseExclusiveLock();
-                    }
+                if (!isTskPatched) {
+                    waitProcess(process, image);
+                } else {
+                    waitProcessInOtherThread(process, image);
                 }
 
+            } finally {
+                if (!isTskPatched) {
+                    sleuthCase.releaseExclusiveLock();
+                }
             }
 
         }
 
         java.util.logging.Logger.getLogger("org.sleuthkit").setLevel(java.util.logging.Level.SEVERE); //$NON-NLS-1$
 
-        if (!(listOnly && fastmode)) {
-            try {
-                readItensAdded(image);
-
-            } catch (Exception e) {
-                if (waitLoadDbThread != null)
-                    waitLoadDbThread.interrupt();
-                throw e;
-            }
+        try {
+            readItensAdded(image);
 
-        } else if (waitLoadDbThread != null)
-            waitLoadDbThread.join();
+        } catch (Exception e) {
+            if (waitLoadDbThread != null)
+                waitLoadDbThread.interrupt();
+            throw e;
+        }
 
     }
     
@@ -531,7 +528,9 @@ public void run() {
 
     /**
      * Processa os itens em grupos, conforme vão sendo adicionados ao sqlite pelo
-     * loadDb, caso seja utilizado loaddb com patch de concorrência
+     * loadDb, caso seja utilizado loaddb com patch de concorrência. Enquanto o
+     * loaddb executa, aguarda notificações de alteração do banco em vez de
+     * consultá-lo periodicamente.
      */
     private void readItensAdded(File file) throws Exception {
 
@@ -542,60 +541,100 @@ private void readItensAdded(File file) throws Exception {
             firstId = idRangeMap.get(file)[0];
         }
 
-        Long endId, startId = firstId;
-        do {
-            endId = sleuthCase.getLastObjectId();
+        long start = System.currentTimeMillis();
+        long numObjects = 0;
+        WatchService dbWatcher = null;
+        try {
+            Long endId, startId = firstId;
+            do {
+                endId = sleuthCase.getLastObjectId();
+
+                if (lastId == null) {
+                    lastId = idRangeMap.get(file)[1];
+                    if (exception != null) {
+                        throw exception;
+                    }
+                }
+                if (lastId != null) {
+                    endId = lastId;
 
-            if (lastId == null) {
-                lastId = idRangeMap.get(file)[1];
-                if (exception != null) {
-                    throw exception;
+                } else if (endId - startId + 1 < MIN_BATCH_SIZE) {
+                    if (dbWatcher == null) {
+                        dbWatcher = createDbWatcher();
+                    }
+                    waitDbChange(dbWatcher);
+                    continue;
                 }
-            }
-            if (lastId != null) {
-                endId = lastId;
-            }
 
-            if (startId > endId) {
-                Thread.sleep(1000);
-                continue;
-            }
-            if (endId - startId > 100000) {
-                endId = startId + 100000;
-            }
-            addItems(startId, endId);
-            startId = endId + 1;
+                if (endId - startId >= BATCH_SIZE) {
+                    endId = startId + BATCH_SIZE - 1;
+                }
+                if (startId <= endId) {
+                    numObjects += addItems(startId, endId);
+                }
+                startId = endId + 1;
+
+            } while (!endId.equals(lastId));
 
-        } while (!endId.equals(lastId));
+        } finally {
+            IOUtil.closeQuietly(dbWatcher);
+        }
+
+        long secs = Math.max(1, (System.currentTimeMillis() - start) / 1000);
+        LOGGER.info("{} sleuthkit objects read from {} in {}s ({} objects/s)", numObjects, //$NON-NLS-1$
+                file.getAbsolutePath(), secs, numObjects / secs);
     }
 
-    private void addItems(long start, long last) throws Exception {
+    private WatchService createDbWatcher() {
+        try {
+            WatchService watcher = FileSystems.getDefault().newWatchService();
+            new File(sleuthCase.getDbDirPath()).toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            return watcher;
 
-        if (!listOnly) {
-            long[] ids = new long[(int) (last - start + 1)];
-            for (int k = 0; k < ids.length; k++)
-                ids[k] = start + k;
-            cacheTskParentIds(ids);
+        } catch (IOException e) {
+            LOGGER.warn("Could not watch changes of {}: {}", DB_NAME, e.toString()); //$NON-NLS-1$
+            return null;
         }
+    }
 
-        TreeSet<Integer> idSet = new TreeSet<>();
-        StringBuilder where = new StringBuilder();
-        where.append("obj_id IN (");
-        for (long id = start; id <= last; id++) {
-            idSet.add((int) id);
-            where.append(id);
-            if (id < last)
-                where.append(",");
+    /**
+     * Aguarda alteração em algum arquivo do banco (sleuth.db, journal, wal) ou, no
+     * máximo, {@link #DB_POLL_MILLIS}, caso a notificação não seja suportada ou o
+     * loaddb termine sem novas escritas.
+     */
+    private void waitDbChange(WatchService dbWatcher) throws InterruptedException {
+        if (dbWatcher == null) {
+            Thread.sleep(DB_POLL_MILLIS);
+            return;
+        }
+        WatchKey key = dbWatcher.poll(DB_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (key != null) {
+            key.pollEvents();
+            key.reset();
         }
-        where.append(") ORDER BY obj_id;");
+    }
 
-        List<AbstractFile> absFiles = findFilesWhere(where.toString());
-        where = null;
+    /**
+     * Adiciona os objetos da sleuthkit com ids no intervalo [start, last].
+     *
+     * @return o número de objetos lidos.
+     */
+    private int addItems(long start, long last) throws Exception {
 
-        idSet.removeAll(absFiles.stream().map(a -> (int) a.getId()).collect(Collectors.toSet()));
+        // objetos existentes no intervalo, indexados pelo id relativo a start
+        BitSet objects = new BitSet((int) (last - start + 1));
+        int numObjects = cacheTskParentIds(start, last, objects);
 
-        for (int id : idSet) {
-            Content content = getContentById(id);
+        List<AbstractFile> absFiles = findFilesWhere("obj_id BETWEEN " + start + " AND " + last //$NON-NLS-1$ //$NON-NLS-2$
+                + " ORDER BY obj_id;"); //$NON-NLS-1$
+
+        for (AbstractFile absFile : absFiles) {
+            objects.clear((int) (absFile.getId() - start));
+        }
+
+        for (int i = objects.nextSetBit(0); i >= 0; i = objects.nextSetBit(i + 1)) {
+            Content content = getContentById(start + i);
             if (content == null) {
                 continue;
             }
@@ -605,6 +644,8 @@ private void addItems(long start, long last) throws Exception {
         for (AbstractFile absFile : absFiles) {
             addContent(absFile);
         }
+
+        return numObjects;
     }
 
     private void addContent(Content content) throws Exception {
@@ -614,10 +655,7 @@ private void addContent(Content content) throws Exception {
 
         IItem item = addContentAndGetItem(content);
         if (item != null) {
-            while (content.getId() - firstId >= sleuthIdToId.size()) {
-                sleuthIdToId.add(null);
-            }
-            sleuthIdToId.set((int) (content.getId() - firstId), item.getId());
+            sleuthIdToId.put(content.getId() - firstId, item.getId());
         }
     }
 
@@ -660,30 +698,40 @@ private void handleTskCoreException(TskCoreException e, long start) throws TskCo
             throw e;
     }
 
-    private Integer getTskParentId(long id) throws TskCoreException, SQLException {
-        Integer parent = tskParentIds.get((int) id);
-        if (parent == null)
+    private int getTskParentId(long id) throws IPEDException {
+        int parent = tskParentIds.get(id - firstId);
+        if (parent == IntPagedMap.MISSING)
             throw new IPEDException("No parent found for tsk objectId " + id);
         return parent;
     }
 
-    private void cacheTskParentIds(long[] ids) throws TskCoreException, SQLException {
-        StringBuilder query = new StringBuilder("SELECT obj_id, par_obj_id  FROM tsk_objects WHERE obj_id in ("); //$NON-NLS-1$
-        for (int i = 0; i < ids.length - 1; i++) {
-            query.append(ids[i]);
-            query.append(","); //$NON-NLS-1$
-        }
-        query.append(ids[ids.length - 1] + ")"); //$NON-NLS-1$
-        CaseDbQuery dbQuery = sleuthCase.executeQuery(query.toString());
+    /**
+     * @return id do item criado para o objeto, ou null se o objeto não gerou item.
+     */
+    private Integer getItemId(int tskId) {
+        int id = sleuthIdToId.get(tskId - firstId);
+        return id != IntPagedMap.MISSING ? id : null;
+    }
+
+    /**
+     * Carrega os pais dos objetos com ids no intervalo [start, last], marcando os
+     * objetos existentes.
+     *
+     * @return o número de objetos existentes no intervalo.
+     */
+    private int cacheTskParentIds(long start, long last, BitSet objects) throws TskCoreException, SQLException {
+        String query = "SELECT obj_id, par_obj_id FROM tsk_objects WHERE obj_id BETWEEN " + start + " AND " + last; //$NON-NLS-1$ //$NON-NLS-2$
+        CaseDbQuery dbQuery = sleuthCase.executeQuery(query);
         ResultSet rs = dbQuery.getResultSet();
+        int numObjects = 0;
         try {
             while (rs.next()) {
                 long objId = rs.getLong(1);
                 long parId = rs.getLong(2);
-                while (objId >= tskParentIds.size())
-                    tskParentIds.add(null);
 
-                tskParentIds.set((int) objId, (int) parId);
+                tskParentIds.put(objId - firstId, (int) parId);
+                objects.set((int) (objId - start));
+                numObjects++;
                 if (parId > objId) {
                     throw new IPEDException(
                             "Sleuthkit parentId greater then objectId, please report this unexpected behaviour to iped project.");
@@ -692,6 +740,7 @@ private void cacheTskParentIds(long[] ids) throws TskCoreException, SQLException
         } finally {
             dbQuery.close();
         }
+        return numObjects;
     }
 
     private IItem addContentAndGetItem(Content content) throws Exception {
@@ -802,13 +851,6 @@ private IItem addItem(AbstractFile absFile, IItem evidence, boolean unalloc) thr
             evidence.setLength(absFile.getSize());
         }
 
-        if (listOnly || fastmode) {
-            caseData.incDiscoveredEvidences(1);
-            caseData.incDiscoveredVolume(evidence.getLength());
-            if (listOnly)
-                return null;
-        }
-
         evidence.setDataSource(dataSource);
 
         if (evidence.getName() == null) {
@@ -832,9 +874,14 @@ private IItem addItem(AbstractFile absFile, IItem evidence, boolean unalloc) thr
         }
 
         boolean first = true;
-        Integer tskId = (int) absFile.getId();
+        int tskId = (int) absFile.getId();
         while ((tskId = getTskParentId(tskId)) != 0) {
-            Integer parentId = sleuthIdToId.get(tskId - firstId.intValue());
+            Integer parentId = getItemId(tskId);
+            if (parentId == null) {
+                // ancestral sem item, o pai passa a ser o próximo ancestral com item
+                LOGGER.debug("No item found for tsk objectId {}", tskId); //$NON-NLS-1$
+                continue;
+            }
             if (first) {
                 evidence.setParentId(parentId);
                 evidence.setParentIdInDataSource(String.valueOf(tskId));
@@ -883,12 +930,6 @@ private IItem addItem(AbstractFile absFile, IItem evidence, boolean unalloc) thr
 
     private IItem addEvidenceFile(Content content) throws Exception {
 
-        if (listOnly || fastmode) {
-            caseData.incDiscoveredEvidences(1);
-            if (listOnly)
-                return null;
-        }
-
         Item evidence = new Item();
         evidence.setLength(content.getSize());
         evidence.setSumVolume(false);
@@ -951,9 +992,14 @@ private IItem addEvidenceFile(Content content) throws Exception {
         evidence.setSleuthId((int) content.getId());
 
         boolean first = true;
-        Integer tskId = (int) content.getId();
+        int tskId = (int) content.getId();
         while ((tskId = getTskParentId(tskId)) != 0) {
-            Integer parentId = sleuthIdToId.get(tskId - firstId.intValue());
+            Integer parentId = getItemId(tskId);
+            if (parentId == null) {
+                // ancestral sem item, o pai passa a ser o próximo ancestral com item
+                LOGGER.debug("No item found for tsk objectId {}", tskId); //$NON-NLS-1$
+                continue;
+            }
             if (first) {
                 evidence.setParentId(parentId);
                 evidence.setParentIdInDataSource(String.valueOf(tskId));
@@ -1017,4 +1063,49 @@ public void run() {
         }.start();
     }
 
+    /**
+     * Mapa de ids não negativos para inteiros não negativos, em páginas de arrays
+     * primitivos alocadas sob demanda. Evita objetos Integer por objeto da
+     * sleuthkit e cópias do array inteiro ao crescer, relevante em imagens com
+     * dezenas de milhões de objetos.
+     */
+    private static class IntPagedMap {
+
+        static final int MISSING = -1;
+
+        private static final int PAGE_BITS = 20;
+        private static final int PAGE_SIZE = 1 << PAGE_BITS;
+        private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+        private int[][] pages = new int[0][];
+
+        void put(long key, int value) {
+            int p = (int) (key >>> PAGE_BITS);
+            if (p >= pages.length) {
+                pages = Arrays.copyOf(pages, Math.max(p + 1, pages.length * 2));
+            }
+            int[] page = pages[p];
+            if (page == null) {
+                page = pages[p] = new int[PAGE_SIZE];
+                Arrays.fill(page, MISSING);
+            }
+            page[(int) key & PAGE_MASK] = value;
+        }
+
+        int get(long key) {
+            if (key < 0) {
+                return MISSING;
+            }
+            int p = (int) (key >>> PAGE_BITS);
+            if (p >= pages.length || pages[p] == null) {
+                return MISSING;
+            }
+            return pages[p][(int) key & PAGE_MASK];
+        }
+
+        void clear() {
+            pages = new int[0][];
+        }
+    }
+
 }
@@ -103,8 +103,8 @@ public class UfedXmlReader extends DataSourceReader {
     boolean ignoreSupportedChats = false;
     HashMap<String, String> ufdrPathToUfedId = new HashMap<>();
 
-    public UfedXmlReader(ICaseData caseData, File output, boolean listOnly) {
-        super(caseData, output, listOnly);
+    public UfedXmlReader(ICaseData caseData, File output) {
+        super(caseData, output);
     }
 
     private void reset() {
@@ -235,9 +235,6 @@ private void configureParsers() {
 
     private void addRootItem(IItem parent) throws InterruptedException {
 
-        if (listOnly)
-            return;
-
         String evidenceName = getEvidenceName(root);
         IDataSource evidenceSource = new DataSource(root);
         evidenceSource.setName(evidenceName);
@@ -265,15 +262,11 @@ private void addRootItem(IItem parent) throws InterruptedException {
 
         pathToParent.put(rootItem.getPath(), rootItem);
 
-        caseData.incDiscoveredEvidences(1);
         caseData.addItem(rootItem);
     }
 
     private void addVirtualDecodedFolder() throws InterruptedException {
 
-        if (listOnly)
-            return;
-
         decodedFolder = new Item();
         decodedFolder.setName("_DecodedData"); //$NON-NLS-1$
         decodedFolder.setParent(rootItem);
@@ -284,7 +277,6 @@ private void addVirtualDecodedFolder() throws InterruptedException {
 
         pathToParent.put(decodedFolder.getPath(), decodedFolder);
 
-        caseData.incDiscoveredEvidences(1);
         caseData.addItem(decodedFolder);
     }
 
@@ -455,7 +447,6 @@ private IItem getParent(String path) throws SAXException {
             pathToParent.put(parentPath, parent);
 
             try {
-                caseData.incDiscoveredEvidences(1);
                 caseData.addItem(parent);
 
             } catch (InterruptedException e) {
@@ -471,8 +462,7 @@ public void startElement(String uri, String localName, String qName, Attributes
             XmlNode node = new XmlNode(qName, atts);
             nodeSeq.add(node);
 
-            if (!listOnly)
-                elements.add(qName);
+            elements.add(qName);
 
             if (qName.equals("extractionInfo")) { //$NON-NLS-1$
                 String id = atts.getValue("id"); //$NON-NLS-1$
@@ -485,12 +475,6 @@ public void startElement(String uri, String localName, String qName, Attributes
                 if (len != null)
                     size = Long.valueOf(len.trim());
 
-                if (listOnly) {
-                    caseData.incDiscoveredEvidences(1);
-                    caseData.incDiscoveredVolume(size);
-                    return;
-                }
-
                 Item item = new Item();
 
                 item.setLength(size);
@@ -513,11 +497,6 @@ public void startElement(String uri, String localName, String qName, Attributes
             } else if (qName.equals("model")) { //$NON-NLS-1$
                 XmlNode prevNode = nodeSeq.get(nodeSeq.size() - 2);
                 if (prevNode.element.equals("modelType")) { //$NON-NLS-1$
-                    if (listOnly) {
-                        caseData.incDiscoveredEvidences(1);
-                        return;
-                    }
-
                     Item item = new Item();
 
                     String type = atts.getValue("type"); //$NON-NLS-1$
@@ -544,12 +523,6 @@ public void startElement(String uri, String localName, String qName, Attributes
                 } else if (prevNode.element.equals("modelField") || prevNode.element.equals("multiModelField")) { //$NON-NLS-1$ //$NON-NLS-2$
 
                     String type = atts.getValue("type"); //$NON-NLS-1$
-                    if (listOnly) {
-                        if (!mergeInParentNode.contains(type))
-                            caseData.incDiscoveredEvidences(1);
-                        return;
-                    }
-
                     Item item = new Item();
                     IItem parent = itemSeq.get(itemSeq.size() - 1);
 
@@ -613,9 +586,6 @@ public void endElement(String uri, String localName, String qName) throws SAXExc
                 }
             }
 
-            if (listOnly)
-                return;
-
             String nameAttr = currentNode.atts.get("name"); //$NON-NLS-1$
             Item item = null;
             if (itemSeq.size() > 0)
@@ -885,13 +855,10 @@ else if ("Bcc".equalsIgnoreCase(role)) //$NON-NLS-1$
                             } else if (seenAttachs != null) {
                                 item.getMetadata().set(ExtraProperties.LINKED_ITEMS,
                                         ESCAPED_UFED_ID + ":" + prevUfedId);
-                                caseData.incDiscoveredEvidences(-1);
                             }
                             processItem(item);
                             seenAttachsPerId.remove(item.getId());
                         }
-                    } else {
-                        caseData.incDiscoveredEvidences(-1);
                     }
                     if (MediaTypes.isInstanceOf(item.getMediaType(), UFEDChatParser.UFED_CHAT_MIME)) {
                         inChat = false;
@@ -908,7 +875,6 @@ else if ("Bcc".equalsIgnoreCase(role)) //$NON-NLS-1$
 
         private void processItem(Item item) throws SAXException {
             try {
-                caseData.incDiscoveredVolume(item.getLength());
                 fillMissingInfo(item);
                 caseData.addItem(item);
 
@@ -1242,8 +1208,6 @@ private File createContactPreview(Item contact) {
 
         @Override
         public void characters(char[] ch, int start, int length) throws SAXException {
-            if (listOnly)
-                return;
             chars.append(ch, start, length);
         }
 
@@ -0,0 +1,218 @@
+package dpf.sp.gpinf.indexer.process;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import iped3.ICaseData;
+import iped3.io.IItemBase;
+import iped3.search.IItemSearcher;
+import iped3.util.BasicProps;
+
+/**
+ * Índices em memória de nome, caminho, hash e caminho do pai dos itens
+ * adicionados ao índice durante o processamento, usados por
+ * {@link IItemSearcher#lookup} para evitar a montagem e execução de uma
+ * consulta Lucene a cada busca exata feita pelos parsers.
+ *
+ * Cada campo é um multimapa de hash de 32 bits do valor normalizado para id do
+ * item, dividido em segmentos com travas próprias. Como apenas o hash é
+ * guardado, os itens candidatos devem ser conferidos pelo chamador. Consome
+ * cerca de 16 bytes por item e campo.
+ */
+public class ItemLookupIndex {
+
+    static final String[] FIELDS = { BasicProps.NAME, BasicProps.PATH, BasicProps.HASH, IItemSearcher.PARENT_PATH };
+
+    private static final int SEGMENT_BITS = 5;
+    private static final int[] EMPTY = new int[0];
+
+    private static final AtomicLong lookups = new AtomicLong();
+    private static final AtomicLong emptyLookups = new AtomicLong();
+    private static final AtomicLong candidates = new AtomicLong();
+    private static final AtomicLong falseCandidates = new AtomicLong();
+    private static final AtomicLong luceneLookups = new AtomicLong();
+
+    private final Segment[][] segments = new Segment[FIELDS.length][1 << SEGMENT_BITS];
+
+    private volatile boolean complete = true;
+
+    public static synchronized ItemLookupIndex get(ICaseData caseData) {
+        ItemLookupIndex index = (ItemLookupIndex) caseData.getCaseObject(ItemLookupIndex.class.getName());
+        if (index == null) {
+            index = new ItemLookupIndex();
+            caseData.putCaseObject(ItemLookupIndex.class.getName(), index);
+        }
+        return index;
+    }
+
+    private ItemLookupIndex() {
+        for (Segment[] fieldSegments : segments) {
+            for (int i = 0; i < fieldSegments.length; i++) {
+                fieldSegments[i] = new Segment();
+            }
+        }
+    }
+
+    /**
+     * Indica que o índice do caso contém itens de processamentos anteriores, não
+     * presentes na memória. As buscas passam a ser feitas no Lucene.
+     */
+    public void setIncomplete() {
+        complete = false;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void add(IItemBase item) {
+        for (int f = 0; f < FIELDS.length; f++) {
+            String value = IItemSearcher.getLookupValue(item, FIELDS[f]);
+            if (value != null && !value.isEmpty()) {
+                int key = key(value);
+                segments[f][key >>> (32 - SEGMENT_BITS)].put(key, item.getId());
+            }
+        }
+    }
+
+    /**
+     * @return ids candidatos em ordem crescente, incluindo possíveis colisões de
+     *         hash.
+     */
+    public int[] get(String field, String value) {
+        int f = fieldIndex(field);
+        int key = key(value);
+        int[] ids = segments[f][key >>> (32 - SEGMENT_BITS)].get(key);
+        lookups.incrementAndGet();
+        if (ids.length == 0) {
+            emptyLookups.incrementAndGet();
+        } else {
+            candidates.addAndGet(ids.length);
+        }
+        return ids;
+    }
+
+    private static int fieldIndex(String field) {
+        for (int f = 0; f < FIELDS.length; f++) {
+            if (FIELDS[f].equals(field)) {
+                return f;
+            }
+        }
+        throw new IllegalArgumentException("Field not supported by lookup: " + field); //$NON-NLS-1$
+    }
+
+    private static int key(String value) {
+        String s = IItemSearcher.normalizeLookupValue(value);
+        // FNV-1a seguido da finalização do murmur3, para espalhar os bits altos
+        // usados na escolha do segmento
+        int h = 0x811c9dc5;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    static void countFalseCandidate() {
+        falseCandidates.incrementAndGet();
+    }
+
+    static void countLuceneLookups(int num) {
+        luceneLookups.addAndGet(num);
+    }
+
+    /**
+     * @return buscas respondidas pelo índice em memória
+     */
+    public static long getLookups() {
+        return lookups.get();
+    }
+
+    /**
+     * @return buscas sem itens candidatos, respondidas sem acessar o Lucene
+     */
+    public static long getEmptyLookups() {
+        return emptyLookups.get();
+    }
+
+    public static long getCandidates() {
+        return candidates.get();
+    }
+
+    /**
+     * @return candidatos descartados por colisão de hash ou ainda não visíveis
+     */
+    public static long getFalseCandidates() {
+        return falseCandidates.get();
+    }
+
+    /**
+     * @return buscas feitas por consulta ao Lucene
+     */
+    public static long getLuceneLookups() {
+        return luceneLookups.get();
+    }
+
+    /**
+     * Tabela de endereçamento aberto com chave (hash) e valor (id) empacotados em
+     * um long por posição. A posição vazia é 0, por isso ids são guardados
+     * somados de 1.
+     */
+    private static class Segment {
+
+        private long[] table = new long[64];
+        private int size = 0;
+
+        synchronized void put(int key, int id) {
+            if ((size + 1) * 4 > table.length * 3) {
+                resize();
+            }
+            insert(table, key, id + 1);
+            size++;
+        }
+
+        synchronized int[] get(int key) {
+            int[] ids = EMPTY;
+            int n = 0;
+            int mask = table.length - 1;
+            for (int i = key & mask; table[i] != 0; i = (i + 1) & mask) {
+                if ((int) (table[i] >>> 32) == key) {
+                    if (n == ids.length) {
+                        ids = Arrays.copyOf(ids, Math.max(4, n * 2));
+                    }
+                    ids[n++] = (int) table[i] - 1;
+                }
+            }
+            if (n == 0) {
+                return EMPTY;
+            }
+            ids = Arrays.copyOf(ids, n);
+            Arrays.sort(ids);
+            return ids;
+        }
+
+        private static void insert(long[] table, int key, int value) {
+            int mask = table.length - 1;
+            int i = key & mask;
+            while (table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            table[i] = ((long) key << 32) | (value & 0xffffffffL);
+        }
+
+        private void resize() {
+            long[] newTable = new long[table.length * 2];
+            for (long entry : table) {
+                if (entry != 0) {
+                    insert(newTable, (int) (entry >>> 32), (int) entry);
+                }
+            }
+            table = newTable;
+        }
+    }
+
+}
@@ -0,0 +1,601 @@
+package dpf.sp.gpinf.indexer.process;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import iped3.IItem;
+import iped3.datasource.IDataSource;
+
+/**
+ * Escalonador dos itens a serem processados pelos Workers.
+ *
+ * Itens com prioridade de processamento maior que zero (ver
+ * {@link MimeTypesProcessingOrder}) dependem dos itens de prioridade menor.
+ * Eles ficam retidos até suas dependências terminarem de ser processadas e
+ * então são liberados imediatamente, sem esperar que todos os Workers esvaziem
+ * uma fila global. As dependências são contadas por evidência: itens de tipos
+ * cujas dependências estão na própria evidência (ver
+ * {@link MimeTypesProcessingOrder#isEvidenceScoped}) são liberados quando a
+ * evidência terminou de ser enumerada e não há itens de prioridade menor dela
+ * pendentes. Os demais aguardam os itens de prioridade menor de todo o caso.
+ *
+ * Itens liberados são consumidos assim:
+ *
+ * <ul>
+ * <li>itens das fontes de dados entram em uma fila global, separada em itens
+ * pequenos e grandes. Itens grandes são iniciados primeiro, para não ficarem
+ * para o final do processamento, mas o número de Workers processando itens
+ * grandes é limitado enquanto houver itens pequenos aguardando;</li>
+ * <li>subitens criados por um Worker (expansão de containers, carving) vão para
+ * uma fila local do próprio Worker, consumida do início (LIFO), mantendo os
+ * subitens no Worker que processou o container;</li>
+ * <li>Workers sem trabalho roubam itens do final das filas locais dos
+ * outros.</li>
+ * </ul>
+ *
+ * Cada item é contado como pendente (retido, enfileirado ou em processamento) na
+ * prioridade em que foi enfileirado, assim o término do processamento e a
+ * liberação das dependências são detectados sem condições de corrida quando os
+ * contadores chegam a zero.
+ */
+public class ItemScheduler {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ItemScheduler.class);
+
+    /**
+     * Itens a partir desse tamanho são considerados grandes pela admissão.
+     */
+    private static final long LARGE_ITEM_SIZE = 128 * 1024 * 1024;
+
+    /**
+     * Limite da fila local de cada Worker. Acima disso, os subitens são
+     * processados imediatamente pelo Worker que os criou.
+     */
+    private static final int MAX_LOCAL_QUEUE_SIZE = 100;
+
+    private static final long IDLE_WAIT_MILLIS = 1000;
+
+    private final int[] priorities;
+
+    private final int maxQueueSize;
+
+    private final ConcurrentLinkedDeque<Entry> small = new ConcurrentLinkedDeque<>();
+    private final ConcurrentLinkedDeque<Entry> large = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger globalSize = new AtomicInteger();
+    private volatile ConcurrentLinkedDeque<Entry>[] localQueues = newLocalQueues(0);
+
+    private int maxLargeInProcessing = 1;
+    private final AtomicInteger largeInProcessing = new AtomicInteger();
+
+    /**
+     * Contadores de todo o caso e itens retidos que dependem de todo o caso.
+     */
+    private final Scope caseScope;
+    private final ConcurrentHashMap<String, Scope> evidenceScopes = new ConcurrentHashMap<>();
+    private final Set<Scope> scopesWithHeld = new LinkedHashSet<>();
+    private int heldItems = 0;
+
+    private final AtomicLong releaseGeneration = new AtomicLong();
+    private volatile Runnable releaseListener;
+
+    private WorkerQueueStats[] workerStats = new WorkerQueueStats[0];
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicInteger idleWorkers = new AtomicInteger();
+    private final AtomicInteger waitingProducers = new AtomicInteger();
+
+    public ItemScheduler(int maxQueueSize, Collection<Integer> priorities) {
+        this.maxQueueSize = maxQueueSize;
+        TreeSet<Integer> sorted = new TreeSet<>(priorities);
+        sorted.add(0);
+        this.priorities = new int[sorted.size()];
+        int i = 0;
+        for (Integer priority : sorted) {
+            this.priorities[i++] = priority;
+        }
+        caseScope = new Scope("case", this.priorities.length); //$NON-NLS-1$
+    }
+
+    /**
+     * Deve ser chamado antes de os Workers iniciarem.
+     */
+    public void setNumWorkers(int numWorkers) {
+        workerStats = new WorkerQueueStats[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            workerStats[i] = new WorkerQueueStats();
+        }
+        localQueues = newLocalQueues(numWorkers);
+        maxLargeInProcessing = Math.max(1, numWorkers / 2);
+    }
+
+    /**
+     * Define a ação executada quando itens retidos são liberados, antes de eles
+     * serem enfileirados, por exemplo para atualizar o searcher usado pelos
+     * parsers dependentes. Executada com o lock do escalonador, deve ser rápida.
+     */
+    public void setReleaseListener(Runnable listener) {
+        this.releaseListener = listener;
+    }
+
+    /**
+     * @return número de liberações de itens retidos até o momento.
+     */
+    public long getReleaseGeneration() {
+        return releaseGeneration.get();
+    }
+
+    /**
+     * @return prioridade em que foi enfileirado o item sendo processado pelo
+     *         Worker. Itens com prioridade até ela podem ser processados
+     *         imediatamente pelo Worker.
+     */
+    public int getCurrentPriority(int workerId) {
+        Entry entry = workerId < workerStats.length ? workerStats[workerId].current : null;
+        return entry != null ? priorities[entry.level] : 0;
+    }
+
+    /**
+     * Informa que os itens de todas as fontes de dados lidas até o momento foram
+     * enumerados. Chamado pelo produtor ao terminar cada fonte de dados.
+     */
+    public void dataSourceEnumerated() {
+        for (Scope scope : evidenceScopes.values()) {
+            scope.enumerated = true;
+        }
+        releaseHeld();
+    }
+
+    /**
+     * Informa que todas as fontes de dados foram enumeradas.
+     */
+    public void enumerationFinished() {
+        caseScope.enumerated = true;
+        dataSourceEnumerated();
+        signalAll();
+    }
+
+    /**
+     * @return se todas as fontes de dados foram enumeradas e não há itens
+     *         retidos, enfileirados nem em processamento.
+     */
+    public boolean isDone() {
+        if (!caseScope.enumerated) {
+            return false;
+        }
+        for (int i = 0; i < priorities.length; i++) {
+            if (caseScope.pending.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return número de itens enfileirados ou retidos.
+     */
+    public int getQueueSize() {
+        int size = globalSize.get();
+        for (ConcurrentLinkedDeque<Entry> local : localQueues) {
+            size += local.size();
+        }
+        lock.lock();
+        try {
+            return size + heldItems;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Enfileira item na fila global. Itens de prioridade zero bloqueiam se a fila
+     * estiver cheia, os demais ficam retidos até suas dependências terminarem.
+     */
+    public void add(IItem item, int priority) throws InterruptedException {
+        int level = getLevel(priority);
+        if (level == 0) {
+            if (globalSize.get() >= maxQueueSize) {
+                waitNotFull();
+            }
+            addGlobal(count(item, level));
+            signalWorker();
+            return;
+        }
+        Entry entry = count(item, level);
+        Scope holder = MimeTypesProcessingOrder.isEvidenceScoped(item.getMediaType()) ? entry.scope : caseScope;
+        lock.lock();
+        try {
+            // decidido com o lock para não perder a liberação do nível
+            if (isReady(holder, level)) {
+                addGlobal(entry);
+            } else {
+                if (holder.held[level].isEmpty()) {
+                    scopesWithHeld.add(holder);
+                }
+                holder.held[level].addLast(entry);
+                heldItems++;
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        signalWorker();
+    }
+
+    /**
+     * Enfileira subitem na fila local do Worker que o criou. O subitem é contado
+     * na prioridade do item sendo processado pelo Worker.
+     *
+     * @param force
+     *            enfileira mesmo se a fila local estiver cheia
+     * @return false se o item não foi enfileirado e deve ser processado
+     *         imediatamente.
+     */
+    public boolean addLocal(int workerId, IItem item, boolean force) {
+        ConcurrentLinkedDeque<Entry>[] locals = localQueues;
+        if (locals.length <= workerId) {
+            return false;
+        }
+        ConcurrentLinkedDeque<Entry> local = locals[workerId];
+        if (!force && local.size() >= MAX_LOCAL_QUEUE_SIZE) {
+            return false;
+        }
+        WorkerQueueStats stats = workerStats[workerId];
+        Entry parent = stats.current;
+        local.addFirst(count(item, parent != null ? parent.level : 0));
+        int size = local.size();
+        if (size > stats.maxLocalQueueSize) {
+            stats.maxLocalQueueSize = size;
+        }
+        signalWorker();
+        return true;
+    }
+
+    /**
+     * Retorna o próximo item a ser processado pelo Worker, aguardando se não
+     * houver nenhum disponível. Cada item retornado deve ser seguido por uma
+     * chamada a {@link #done(int)}.
+     *
+     * @return próximo item ou null se todos os itens foram processados.
+     */
+    public IItem take(int workerId) throws InterruptedException {
+        WorkerQueueStats stats = workerStats[workerId];
+        while (true) {
+            if (isDone()) {
+                return null;
+            }
+            IItem item = poll(workerId, stats);
+            if (item != null) {
+                return item;
+            }
+            long t = System.nanoTime();
+            lock.lockInterruptibly();
+            try {
+                idleWorkers.incrementAndGet();
+                try {
+                    // checa novamente com o lock para não perder um sinal
+                    if (isDone()) {
+                        return null;
+                    }
+                    item = poll(workerId, stats);
+                    if (item == null) {
+                        workAvailable.await(IDLE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+                } finally {
+                    idleWorkers.decrementAndGet();
+                }
+            } finally {
+                lock.unlock();
+                stats.idleNanos += System.nanoTime() - t;
+            }
+            if (item != null) {
+                return item;
+            }
+        }
+    }
+
+    /**
+     * Informa que o último item retornado por {@link #take(int)} foi processado.
+     */
+    public void done(int workerId) {
+        WorkerQueueStats stats = workerStats[workerId];
+        if (stats.processingLarge) {
+            stats.processingLarge = false;
+            largeInProcessing.decrementAndGet();
+        }
+        stats.processed++;
+        Entry entry = stats.current;
+        stats.current = null;
+        boolean levelDone = entry.scope.pending.decrementAndGet(entry.level) == 0;
+        levelDone |= caseScope.pending.decrementAndGet(entry.level) == 0;
+        if (levelDone) {
+            releaseHeld();
+            if (isDone()) {
+                signalAll();
+            }
+        }
+    }
+
+    private int getLevel(int priority) {
+        for (int i = 0; i < priorities.length; i++) {
+            if (priorities[i] == priority) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown processing priority " + priority); //$NON-NLS-1$
+    }
+
+    private Scope getScope(IItem item) {
+        IDataSource dataSource = item.getDataSource();
+        String uuid = dataSource != null && dataSource.getUUID() != null ? dataSource.getUUID() : ""; //$NON-NLS-1$
+        Scope scope = evidenceScopes.get(uuid);
+        if (scope == null) {
+            Scope newScope = new Scope(uuid, priorities.length);
+            // evidências descobertas após o fim da enumeração já estão completas
+            newScope.enumerated = caseScope.enumerated;
+            scope = evidenceScopes.putIfAbsent(uuid, newScope);
+            if (scope == null) {
+                scope = newScope;
+            }
+        }
+        return scope;
+    }
+
+    private Entry count(IItem item, int level) {
+        Entry entry = new Entry(item, getScope(item), level);
+        entry.scope.pending.incrementAndGet(level);
+        caseScope.pending.incrementAndGet(level);
+        return entry;
+    }
+
+    private static boolean isReady(Scope scope, int level) {
+        if (!scope.enumerated) {
+            return false;
+        }
+        for (int i = 0; i < level; i++) {
+            if (scope.pending.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Libera os itens retidos cujas dependências terminaram.
+     */
+    private void releaseHeld() {
+        lock.lock();
+        try {
+            if (scopesWithHeld.isEmpty()) {
+                return;
+            }
+            List<ArrayDeque<Entry>> ready = new ArrayList<>();
+            for (Scope scope : scopesWithHeld.toArray(new Scope[0])) {
+                boolean hasHeld = false;
+                for (int level = 1; level < priorities.length; level++) {
+                    ArrayDeque<Entry> held = scope.held[level];
+                    if (held.isEmpty()) {
+                        continue;
+                    }
+                    if (!isReady(scope, level)) {
+                        hasHeld = true;
+                        continue;
+                    }
+                    LOGGER.debug("Releasing {} items with priority {} depending on {}", held.size(), //$NON-NLS-1$
+                            priorities[level], scope.name);
+                    ready.add(held);
+                }
+                if (!hasHeld) {
+                    scopesWithHeld.remove(scope);
+                }
+            }
+            if (ready.isEmpty()) {
+                return;
+            }
+            releaseGeneration.incrementAndGet();
+            // antes de os itens ficarem visíveis aos Workers
+            Runnable listener = releaseListener;
+            if (listener != null) {
+                listener.run();
+            }
+            for (ArrayDeque<Entry> held : ready) {
+                heldItems -= held.size();
+                Entry entry;
+                while ((entry = held.pollFirst()) != null) {
+                    addGlobal(entry);
+                }
+            }
+            workAvailable.signalAll();
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void addGlobal(Entry entry) {
+        globalSize.incrementAndGet();
+        Long len = entry.item.getLength();
+        if (len != null && len >= LARGE_ITEM_SIZE) {
+            large.addLast(entry);
+        } else {
+            small.addLast(entry);
+        }
+    }
+
+    private IItem poll(int workerId, WorkerQueueStats stats) {
+        Entry entry = null;
+        ConcurrentLinkedDeque<Entry>[] locals = localQueues;
+        if (workerId < locals.length) {
+            entry = locals[workerId].pollFirst();
+        }
+        if (entry == null && !large.isEmpty()
+                && (largeInProcessing.get() < maxLargeInProcessing || small.isEmpty())) {
+            entry = large.pollFirst();
+            if (entry != null) {
+                largeInProcessing.incrementAndGet();
+                stats.processingLarge = true;
+                takenFromGlobal();
+            }
+        }
+        if (entry == null) {
+            entry = small.pollFirst();
+            if (entry != null) {
+                takenFromGlobal();
+            }
+        }
+        if (entry == null) {
+            for (int i = 1; i < locals.length && entry == null; i++) {
+                entry = locals[(workerId + i) % locals.length].pollLast();
+            }
+            if (entry != null) {
+                stats.steals++;
+            }
+        }
+        if (entry == null) {
+            return null;
+        }
+        stats.current = entry;
+        return entry.item;
+    }
+
+    private void takenFromGlobal() {
+        if (globalSize.decrementAndGet() < maxQueueSize && waitingProducers.get() > 0) {
+            lock.lock();
+            try {
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void waitNotFull() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            waitingProducers.incrementAndGet();
+            try {
+                while (globalSize.get() >= maxQueueSize) {
+                    notFull.await(IDLE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                waitingProducers.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalWorker() {
+        if (idleWorkers.get() > 0) {
+            lock.lock();
+            try {
+                workAvailable.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void signalAll() {
+        lock.lock();
+        try {
+            workAvailable.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentLinkedDeque<Entry>[] newLocalQueues(int num) {
+        ConcurrentLinkedDeque<Entry>[] queues = new ConcurrentLinkedDeque[num];
+        for (int i = 0; i < num; i++) {
+            queues[i] = new ConcurrentLinkedDeque<>();
+        }
+        return queues;
+    }
+
+    public WorkerQueueStats[] getWorkerStats() {
+        return workerStats;
+    }
+
+    /**
+     * Métricas de escalonamento de um Worker. Escritas apenas pelo próprio Worker.
+     */
+    public static class WorkerQueueStats {
+
+        private volatile long steals, idleNanos, processed;
+        private volatile int maxLocalQueueSize;
+        private boolean processingLarge;
+        private volatile Entry current;
+
+        public long getSteals() {
+            return steals;
+        }
+
+        public long getIdleNanos() {
+            return idleNanos;
+        }
+
+        public long getProcessed() {
+            return processed;
+        }
+
+        public int getMaxLocalQueueSize() {
+            return maxLocalQueueSize;
+        }
+    }
+
+    private static class Entry {
+
+        final IItem item;
+        final Scope scope;
+        final int level;
+
+        Entry(IItem item, Scope scope, int level) {
+            this.item = item;
+            this.scope = scope;
+            this.level = level;
+        }
+    }
+
+    /**
+     * Itens pendentes por prioridade de uma evidência ou de todo o caso, e itens
+     * retidos aguardando esses itens.
+     */
+    private static class Scope {
+
+        final String name;
+        final AtomicIntegerArray pending;
+        final ArrayDeque<Entry>[] held;
+        volatile boolean enumerated = false;
+
+        @SuppressWarnings("unchecked")
+        Scope(String name, int levels) {
+            this.name = name;
+            this.pending = new AtomicIntegerArray(levels);
+            this.held = new ArrayDeque[levels];
+            for (int i = 0; i < levels; i++) {
+                held[i] = new ArrayDeque<>();
+            }
+        }
+    }
+
+}
@@ -3,8 +3,12 @@
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.queryparser.flexible.standard.QueryParserUtil;
@@ -20,15 +24,62 @@ public class ItemSearcher implements IItemSearcher {
     File caseFolder;
     IndexWriter iw;
     IPEDSource iSource;
+    ItemLookupIndex lookupIndex;
+
+    /**
+     * Protege a atualização do índice aberto sobre o IndexWriter das buscas em
+     * andamento.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean refreshRequested = false;
 
     public ItemSearcher(IPEDSource iSource) {
         this.iSource = iSource;
     }
 
-    public ItemSearcher(File caseFolder, IndexWriter iw) {
+    /**
+     * Cria searcher sobre o índice em construção. O índice é aberto na primeira
+     * busca e reaberto em modo near-real-time após {@link #requestRefresh()}. As
+     * buscas exatas de {@link #lookup} usam o índice em memória dos itens
+     * adicionados.
+     */
+    public ItemSearcher(File caseFolder, IndexWriter iw, ItemLookupIndex lookupIndex) {
         this.caseFolder = caseFolder;
         this.iw = iw;
-        this.iSource = new IPEDSource(caseFolder, iw);
+        this.lookupIndex = lookupIndex;
+    }
+
+    /**
+     * Solicita que a próxima busca veja os itens adicionados ao IndexWriter até o
+     * momento.
+     */
+    public void requestRefresh() {
+        refreshRequested = true;
+    }
+
+    private IPEDSource acquire() {
+        if (iw != null && (iSource == null || refreshRequested)) {
+            lock.writeLock().lock();
+            try {
+                if (iSource == null) {
+                    refreshRequested = false;
+                    iSource = new IPEDSource(caseFolder, iw);
+                } else if (refreshRequested) {
+                    refreshRequested = false;
+                    iSource.refresh();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        lock.readLock().lock();
+        return iSource;
+    }
+
+    private void release() {
+        lock.readLock().unlock();
     }
 
     @Override
@@ -60,7 +111,12 @@ public boolean hasNext() {
 
                     @Override
                     public IItemBase next() {
-                        return iSource.getItemByID(result.getId(pos++));
+                        IPEDSource source = acquire();
+                        try {
+                            return source.getItemByID(result.getId(pos++));
+                        } finally {
+                            release();
+                        }
                     }
 
                 };
@@ -68,23 +124,73 @@ public IItemBase next() {
         };
     }
 
+    @Override
+    public Map<String, List<IItemBase>> lookup(String field, Collection<String> values) {
+        if (lookupIndex == null || !lookupIndex.isComplete()) {
+            ItemLookupIndex.countLuceneLookups(values.size());
+            return IItemSearcher.super.lookup(field, values);
+        }
+        Map<String, List<IItemBase>> result = new HashMap<>();
+        IPEDSource source = null;
+        try {
+            for (String value : values) {
+                if (value == null || result.containsKey(value)) {
+                    continue;
+                }
+                List<IItemBase> items = new ArrayList<>();
+                int[] ids = lookupIndex.get(field, value);
+                for (int i = 0; i < ids.length; i++) {
+                    if (i > 0 && ids[i] == ids[i - 1]) {
+                        continue;
+                    }
+                    if (source == null) {
+                        source = acquire();
+                    }
+                    // itens adicionados após a última atualização do índice aberto
+                    // também não seriam encontrados pelo Lucene
+                    IItemBase item = source.containsId(ids[i]) ? source.getItemByID(ids[i]) : null;
+                    if (item != null && IItemSearcher.lookupMatches(item, field, value)) {
+                        items.add(item);
+                    } else {
+                        ItemLookupIndex.countFalseCandidate();
+                    }
+                }
+                result.put(value, items);
+            }
+        } finally {
+            if (source != null) {
+                release();
+            }
+        }
+        return result;
+    }
+
     private SearchResult getResult(String luceneQuery) {
-        IPEDSearcher searcher = new IPEDSearcher(iSource, luceneQuery);
-        searcher.setTreeQuery(true);
-        searcher.setNoScoring(true);
+        IPEDSource source = acquire();
         try {
+            IPEDSearcher searcher = new IPEDSearcher(source, luceneQuery);
+            searcher.setTreeQuery(true);
+            searcher.setNoScoring(true);
             return searcher.search();
 
         } catch (Exception e) {
             e.printStackTrace();
             return new SearchResult(new int[0], new float[0]);
+
+        } finally {
+            release();
         }
     }
 
     @Override
     public void close() throws IOException {
-        if (iSource != null)
-            iSource.close();
+        lock.writeLock().lock();
+        try {
+            if (iSource != null)
+                iSource.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     @Override
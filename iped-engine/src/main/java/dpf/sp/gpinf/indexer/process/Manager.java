@@ -57,8 +57,11 @@
 import dpf.sp.gpinf.indexer.datasource.FTK3ReportReader;
 import dpf.sp.gpinf.indexer.datasource.ItemProducer;
 import dpf.sp.gpinf.indexer.io.ParsingReader;
+import dpf.sp.gpinf.indexer.process.task.DuplicateTask;
 import dpf.sp.gpinf.indexer.process.task.ExportCSVTask;
 import dpf.sp.gpinf.indexer.process.task.ExportFileTask;
+import dpf.sp.gpinf.indexer.process.task.HashTask;
+import dpf.sp.gpinf.indexer.process.task.ImageSimilarityTask;
 import dpf.sp.gpinf.indexer.process.task.IndexTask;
 import dpf.sp.gpinf.indexer.search.IPEDSearcher;
 import dpf.sp.gpinf.indexer.search.IPEDSource;
@@ -79,15 +82,14 @@
 
 /**
  * Classe responsável pela preparação do processamento, inicialização do
- * contador, produtor e consumidores (workers) dos itens, monitoramento do
- * processamento e pelas etapas pós-processamento.
- *
- * O contador apenas enumera e soma o tamanho dos itens que serão processados,
- * permitindo que seja estimado o progresso e término do processamento.
+ * produtor e consumidores (workers) dos itens, monitoramento do processamento e
+ * pelas etapas pós-processamento.
  *
  * O produtor obtém os itens a partir de uma fonte de dados específica
  * (relatório do FTK, diretório, imagem), inserindo-os numa fila de
- * processamento com tamanho limitado (para limitar o uso de memória).
+ * processamento com tamanho limitado (para limitar o uso de memória). Na mesma
+ * passada ele conta e soma o tamanho dos itens, permitindo que seja estimado o
+ * progresso e término do processamento.
  *
  * Os consumidores (workers) retiram os itens da fila e são responsáveis pelo
  * seu processamento. Cada worker executa em uma thread diferente, permitindo o
@@ -112,11 +114,12 @@ public class Manager {
     private static Manager instance;
 
     private ICaseData caseData;
+    private ItemScheduler itemScheduler;
 
     private List<File> sources;
     private File output, finalIndexDir, indexDir, palavrasChave;
 
-    private ItemProducer contador, produtor;
+    private ItemProducer produtor;
     private Worker[] workers;
     private IndexWriter writer;
 
@@ -153,9 +156,12 @@ public Manager(List<File> sources, File output, File palavras) {
         this.output = output;
         this.palavrasChave = palavras;
 
-        this.caseData = new CaseData(QUEUE_SIZE);
+        CaseData caseData = new CaseData(QUEUE_SIZE);
+        this.caseData = caseData;
+        this.itemScheduler = caseData.getItemScheduler();
 
         Item.setStartID(0);
+        Item.setShareContent(true);
 
         finalIndexDir = new File(output, "index"); //$NON-NLS-1$
 
@@ -211,12 +217,8 @@ public void process() throws Exception {
             if (!iniciarIndexacao())
                 return;
 
-            // apenas conta o número de arquivos a indexar
-            contador = new ItemProducer(this, caseData, true, sources, output);
-            contador.start();
-
             // produz lista de arquivos e propriedades a indexar
-            produtor = new ItemProducer(this, caseData, false, sources, output);
+            produtor = new ItemProducer(this, caseData, sources, output);
             produtor.start();
 
             monitorarIndexacao();
@@ -231,6 +233,8 @@ public void process() throws Exception {
 
         removeEmptyTreeNodes();
 
+        createImageSimilarityIndex();
+
         new P2PBookmarker(caseData).createBookmarksForSharedFiles(output.getParentFile());
 
         updateImagePaths();
@@ -253,14 +257,11 @@ private void interromperIndexacao() throws Exception {
             }
         }
         ParsingReader.shutdownTasks();
+        HashTask.shutdownTasks();
         if (writer != null) {
             writer.rollback();
         }
 
-        if (contador != null) {
-            contador.interrupt();
-            // contador.join(5000);
-        }
         if (produtor != null) {
             produtor.interrupt();
             // produtor.join(5000);
@@ -344,6 +345,7 @@ private void removeEvidence(String uuid) throws IOException {
         int deletes = prevDocs - writer.numDocs();
         LOGGER.log(CONSOLE, "Deleted about {} raw documents from index.", deletes);
         writer.close();
+        DuplicateTask.deleteHashRegistry(output);
     }
 
     private boolean iniciarIndexacao() throws Exception {
@@ -374,6 +376,13 @@ private boolean iniciarIndexacao() throws Exception {
         }
 
         workers = new Worker[localConfig.getNumThreads()];
+        itemScheduler.setNumWorkers(workers.length);
+        itemScheduler.setReleaseListener(new Runnable() {
+            @Override
+            public void run() {
+                getItemSearcher().requestRefresh();
+            }
+        });
         for (int k = 0; k < workers.length; k++) {
             workers[k] = new Worker(k, caseData, writer, output, this);
         }
@@ -405,45 +414,31 @@ private void monitorarIndexacao() throws Exception {
                 exception = new IPEDException("Processing canceled!"); //$NON-NLS-1$
             }
 
-            String currentDir = contador.currentDirectory();
-            if (contador.isAlive() && currentDir != null && !currentDir.trim().isEmpty()) {
+            String currentDir = produtor.currentDirectory();
+            if (produtor.isAlive() && currentDir != null && !currentDir.trim().isEmpty()) {
                 WorkerProvider.getInstance().firePropertyChange("mensagem", 0, //$NON-NLS-1$
                         Messages.getString("Manager.Adding") + currentDir.trim() + "\""); //$NON-NLS-1$ //$NON-NLS-2$
             }
+            if (produtor.isAlive()) {
+                produtor.updateTaskSize();
+            }
             WorkerProvider.getInstance().firePropertyChange("discovered", 0, caseData.getDiscoveredEvidences()); //$NON-NLS-1$
             WorkerProvider.getInstance().firePropertyChange("processed", -1, stats.getProcessed()); //$NON-NLS-1$
             WorkerProvider.getInstance().firePropertyChange("progresso", 0, (int) (stats.getVolume() / 1000000)); //$NON-NLS-1$
 
-            someWorkerAlive = false;
             for (int k = 0; k < workers.length; k++) {
                 if (workers[k].exception != null && exception == null) {
                     exception = workers[k].exception;
                 }
-                /**
-                 * TODO sincronizar teste, pois pode ocorrer condição de corrida e o teste não
-                 * detectar um último item sendo processado não é demasiado grave pois será
-                 * detectado o problema no log de estatísticas e o usuario sera informado do
-                 * erro.
-                 */
-                if (caseData.getItemQueue().size() > 0 || workers[k].evidence != null || produtor.isAlive()) // if(workers[k].isAlive())
-                    someWorkerAlive = true;
             }
+            // produtor deve ser testado antes, pois seus itens são contados como
+            // pendentes antes de ele terminar
+            someWorkerAlive = produtor.isAlive() || !itemScheduler.isDone();
 
             if (!someWorkerAlive) {
                 IItemSearcher searcher = (IItemSearcher) caseData.getCaseObject(IItemSearcher.class.getName());
                 if (searcher != null)
                     searcher.close();
-
-                if (caseData.changeToNextQueue() != null) {
-                    LOGGER.info("Changed to processing queue with priority " + caseData.getCurrentQueuePriority()); //$NON-NLS-1$
-
-                    caseData.putCaseObject(IItemSearcher.class.getName(),
-                            new ItemSearcher(output.getParentFile(), writer));
-
-                    someWorkerAlive = true;
-                    for (int k = 0; k < workers.length; k++)
-                        workers[k].processNextQueue();
-                }
             }
 
             long t = System.currentTimeMillis();
@@ -462,6 +457,21 @@ private void monitorarIndexacao() throws Exception {
 
     }
 
+    /**
+     * Obtém o searcher usado pelos parsers de itens que dependem de outros itens,
+     * criado na primeira liberação de itens retidos. O índice é aberto sobre o
+     * IndexWriter apenas na primeira busca e atualizado incrementalmente a cada
+     * liberação.
+     */
+    private synchronized ItemSearcher getItemSearcher() {
+        ItemSearcher searcher = (ItemSearcher) caseData.getCaseObject(IItemSearcher.class.getName());
+        if (searcher == null) {
+            searcher = new ItemSearcher(output.getParentFile(), writer, ItemLookupIndex.get(caseData));
+            caseData.putCaseObject(IItemSearcher.class.getName(), searcher);
+        }
+        return searcher;
+    }
+
     private Thread commit() {
         // commit could be costly, do in another thread
         Thread t = new Thread() {
@@ -470,6 +480,7 @@ public void run() {
                 try {
                     long start = System.currentTimeMillis() / 1000;
                     LOGGER.info("Prepare commit started...");
+                    DuplicateTask.prepareCommit(caseData, output);
                     writer.prepareCommit();
 
                     // commit other control data
@@ -477,7 +488,7 @@ public void run() {
                     IndexItem.saveMetadataTypes(new File(output, "conf")); //$NON-NLS-1$
                     stats.commit();
 
-                    LOGGER.info("Commiting sqlite storages...");
+                    LOGGER.info("Commiting storage...");
                     ExportFileTask.commitStorage(output);
 
                     GraphTask.commit();
@@ -485,6 +496,7 @@ public void run() {
                     ExportCSVTask.commit(output);
 
                     writer.commit();
+                    DuplicateTask.commit(output);
                     long end = System.currentTimeMillis() / 1000;
                     LOGGER.info("Commit finished in " + (end - start) + "s");
                     partialCommitsTime.addAndGet(end - start);
@@ -506,6 +518,10 @@ public void run() {
         return t;
     }
 
+    public ItemScheduler getItemScheduler() {
+        return itemScheduler;
+    }
+
     public int numItensBeingProcessed() {
         int num = 0;
         for (int k = 0; k < workers.length; k++) {
@@ -538,12 +554,14 @@ private void finalizarIndexacao() throws Exception {
 
         }
 
+        DuplicateTask.prepareCommit(caseData, output);
         stats.commit();
 
         WorkerProvider.getInstance().firePropertyChange("mensagem", "", Messages.getString("Manager.ClosingIndex")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
         LOGGER.info("Closing Index..."); //$NON-NLS-1$
         writer.close();
         writer = null;
+        DuplicateTask.commit(output);
 
         if (!indexDir.getCanonicalPath().equalsIgnoreCase(finalIndexDir.getCanonicalPath())) {
             WorkerProvider.getInstance().firePropertyChange("mensagem", "", Messages.getString("Manager.CopyingIndex")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
@@ -677,6 +695,15 @@ private void removeEmptyTreeNodes() {
 
     }
 
+    private void createImageSimilarityIndex() {
+        try {
+            ImageSimilarityTask.createIndex(output);
+
+        } catch (Exception e) {
+            LOGGER.warn("Error creating image similarity index", e); //$NON-NLS-1$
+        }
+    }
+
     private void prepareOutputFolder() throws Exception {
         if (output.exists() && !args.isAppendIndex() && !args.isContinue() && !args.isRestart()
                 && args.getEvidenceToRemove() == null) {
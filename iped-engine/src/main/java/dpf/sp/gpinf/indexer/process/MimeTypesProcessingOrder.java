@@ -1,6 +1,7 @@
 package dpf.sp.gpinf.indexer.process;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -26,6 +27,12 @@
  * prioridade 0, depois da fila de prioridade 1 e assim por diante. Assim é
  * possível configurar dependências de processamento entre os itens.
  * 
+ * As dependências de alguns mimeTypes estão apenas na própria evidência (ex:
+ * arquivos WAL e anexos de bancos de aplicativos de chat da mesma extração).
+ * Esses itens são liberados assim que os itens de prioridade menor da sua
+ * evidência são processados, sem aguardar as demais evidências do caso (ver
+ * {@link ItemScheduler}).
+ * 
  * @author Nassif
  *
  */
@@ -34,6 +41,9 @@ public class MimeTypesProcessingOrder {
     /** Mapa do mimeType para sua prioridade de processamento */
     private static Map<MediaType, Integer> mediaTypes = installTypesToPostProcess();
 
+    /** MimeTypes cujas dependências estão na mesma evidência */
+    private static Set<MediaType> evidenceScopedTypes = installEvidenceScopedTypes();
+
     private static MediaTypeRegistry mediaRegistry;
 
     /** Definie as prioridades de processamento dos mimeTypes */
@@ -67,6 +77,35 @@ private static Map<MediaType, Integer> installTypesToPostProcess() {
         return mediaTypes;
     }
 
+    /**
+     * Define os mimeTypes que buscam apenas itens da própria evidência. Parsers
+     * P2P buscam arquivos compartilhados pelo hash em todo o caso, pois podem
+     * estar em outro disco, e aguardam todas as evidências.
+     */
+    private static Set<MediaType> installEvidenceScopedTypes() {
+
+        Set<MediaType> types = new HashSet<MediaType>();
+
+        // wal logs in the same folder
+        types.add(SQLite3Parser.MEDIA_TYPE);
+
+        types.add(SkypeParser.SKYPE_MIME);
+
+        types.add(TelegramParser.TELEGRAM_USER_CONF);
+        types.add(TelegramParser.TELEGRAM_DB);
+        types.add(TelegramParser.TELEGRAM_DB_IOS);
+
+        types.add(WhatsAppParser.WA_DB);
+        types.add(WhatsAppParser.MSG_STORE);
+        types.add(WhatsAppParser.MSG_STORE_2);
+        types.add(WhatsAppParser.CONTACTS_V2);
+        types.add(WhatsAppParser.CHAT_STORAGE);
+
+        types.add(UFEDChatParser.UFED_CHAT_MIME);
+
+        return types;
+    }
+
     private static synchronized void setMediaRegistry() {
         
         if (mediaRegistry == null) {
@@ -93,6 +132,26 @@ public static int getProcessingPriority(MediaType mediaType) {
         return 0;
     }
 
+    /**
+     * @return se as dependências de processamento do mimeType estão apenas na
+     *         própria evidência.
+     */
+    public static boolean isEvidenceScoped(MediaType mediaType) {
+
+        if (mediaRegistry == null) {
+            setMediaRegistry();
+        }
+
+        while (mediaType != null && !MediaType.OCTET_STREAM.equals(mediaType)) {
+            if (mediaTypes.containsKey(mediaType)) {
+                return evidenceScopedTypes.contains(mediaType);
+            }
+            mediaType = mediaRegistry.getSupertype(mediaType);
+        }
+
+        return false;
+    }
+
     /** Obtém todas as prioridades de processamento configuradas */
     public static Set<Integer> getProcessingPriorities() {
         Set<Integer> priorities = new TreeSet<Integer>();
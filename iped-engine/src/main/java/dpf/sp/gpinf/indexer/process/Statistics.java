@@ -10,6 +10,7 @@
 import java.lang.management.RuntimeMXBean;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map.Entry;
 
 import javax.swing.JOptionPane;
@@ -31,6 +32,7 @@
 import dpf.sp.gpinf.indexer.util.ConfiguredFSDirectory;
 import dpf.sp.gpinf.indexer.util.HashValue;
 import dpf.sp.gpinf.indexer.util.Util;
+import dpf.sp.gpinf.indexer.util.ZipEntryCache;
 import iped3.ICaseData;
 import iped3.IItem;
 
@@ -65,6 +67,8 @@ public class Statistics {
     int ignored = 0;
     int previousIndexedFiles = 0;
     int ioerrors = 0;
+    HashMap<String, long[]> hashThroughput = new LinkedHashMap<>();
+    long sharedContentItems = 0, sharedContentLength = 0, sharedContentServed = 0, sharedContentRead = 0;
 
     public static Statistics get(ICaseData caseData, File indexDir) {
         if (instance == null) {
@@ -191,6 +195,42 @@ synchronized public void incIgnored() {
         ignored++;
     }
 
+    /**
+     * Acumula bytes processados e tempo gasto (em nanosegundos) por algoritmo de
+     * hash.
+     */
+    synchronized public void addHashThroughput(String algorithm, long bytes, long nanos) {
+        long[] counters = hashThroughput.get(algorithm);
+        if (counters == null) {
+            counters = new long[2];
+            hashThroughput.put(algorithm, counters);
+        }
+        counters[0] += bytes;
+        counters[1] += nanos;
+    }
+
+    /**
+     * @return mapa de algoritmo de hash para {bytes, nanosegundos}
+     */
+    synchronized public HashMap<String, long[]> getHashThroughput() {
+        HashMap<String, long[]> copy = new LinkedHashMap<>();
+        for (Entry<String, long[]> entry : hashThroughput.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().clone());
+        }
+        return copy;
+    }
+
+    /**
+     * Acumula, para itens com conteúdo compartilhado entre as tarefas, o tamanho do
+     * item, os bytes lidos pelas tarefas e os bytes efetivamente lidos da fonte.
+     */
+    synchronized public void addContentRead(long length, long served, long read) {
+        sharedContentItems++;
+        sharedContentLength += length;
+        sharedContentServed += served;
+        sharedContentRead += read;
+    }
+
     synchronized public void updateLastId(int id) {
         if (id > lastId) {
             lastId = id;
@@ -231,7 +271,39 @@ public void logarEstatisticas(Manager manager) throws Exception {
                     + Math.round((100f * sec) / totalTime) + "%)"); //$NON-NLS-1$
         }
 
+        for (Entry<String, long[]> entry : getHashThroughput().entrySet()) {
+            long mb = entry.getValue()[0] / (1024 * 1024);
+            long millis = entry.getValue()[1] / 1000000;
+            LOGGER.info("Hash {}:\t{} MB hashed in {}s ({} MB/s per thread)", entry.getKey(), mb, millis / 1000, //$NON-NLS-1$
+                    millis == 0 ? 0 : mb * 1000 / millis);
+        }
+
+        ItemScheduler.WorkerQueueStats[] queueStats = manager.getItemScheduler().getWorkerStats();
+        for (int i = 0; i < queueStats.length; i++) {
+            LOGGER.info("{}:\tItems: {}\tStolen: {}\tIdle: {}s\tMax local queue: {}", workers[i].getName(), //$NON-NLS-1$
+                    queueStats[i].getProcessed(), queueStats[i].getSteals(), queueStats[i].getIdleNanos() / 1000000000,
+                    queueStats[i].getMaxLocalQueueSize());
+        }
+
         LOGGER.info("Partial commits took {} seconds", manager.partialCommitsTime.get());
+        synchronized (this) {
+            if (sharedContentLength > 0) {
+                LOGGER.info("Shared content:\tItems: {}\tVolume: {} MB\tRead by tasks: {} MB ({}x)\tRead from sources: {} MB ({}x)", //$NON-NLS-1$
+                        sharedContentItems, sharedContentLength >> 20, sharedContentServed >> 20,
+                        String.format("%.2f", (double) sharedContentServed / sharedContentLength), //$NON-NLS-1$
+                        sharedContentRead >> 20, String.format("%.2f", (double) sharedContentRead / sharedContentLength)); //$NON-NLS-1$
+            }
+        }
+        if (ZipEntryCache.getOpens() > 0) {
+            LOGGER.info("ZIP entries opened: {}\tCache hits: {}\tRead without copy: {}\tInflated: {} MB", //$NON-NLS-1$
+                    ZipEntryCache.getOpens(), ZipEntryCache.getHits(), ZipEntryCache.getStoredOpens(),
+                    ZipEntryCache.getInflatedBytes() / (1024 * 1024));
+        }
+        if (ItemLookupIndex.getLookups() > 0 || ItemLookupIndex.getLuceneLookups() > 0) {
+            LOGGER.info("Item lookups:\tIn memory: {}\tWithout candidates: {}\tCandidates: {}\tDiscarded: {}\tLucene queries: {}", //$NON-NLS-1$
+                    ItemLookupIndex.getLookups(), ItemLookupIndex.getEmptyLookups(), ItemLookupIndex.getCandidates(),
+                    ItemLookupIndex.getFalseCandidates(), ItemLookupIndex.getLuceneLookups());
+        }
         LOGGER.info("File Splits: {}", getSplits()); //$NON-NLS-1$
         LOGGER.info("Timeouts: {}", getTimeouts()); //$NON-NLS-1$
         LOGGER.info("Parsing Exceptions: {}", IndexerDefaultParser.parsingErrors); //$NON-NLS-1$
@@ -126,10 +126,6 @@ public void finish() throws Exception {
         finishTasks();
     }
 
-    public void processNextQueue() {
-        this.interrupt();
-    }
-
     /**
      * Alguns itens ainda não tem um File setado, como report do FTK1.
      *
@@ -205,16 +201,14 @@ public enum ProcessTime {
 
     public void processNewItem(IItem evidence, ProcessTime time) {
         caseData.incDiscoveredEvidences(1);
-        // Se a fila está pequena, enfileira
-        if (time == ProcessTime.LATER
-                || (time == ProcessTime.AUTO && caseData.getItemQueue().size() < 10 * manager.getWorkers().length)) {
-            caseData.getItemQueue().addFirst(evidence);
-        } // caso contrário processa o item no worker atual
-        else {
-            long t = System.nanoTime() / 1000;
-            process(evidence);
-            runningTask.addSubitemProcessingTime(System.nanoTime() / 1000 - t);
+        // Enfileira na fila local, de onde outros workers ociosos podem roubá-lo
+        if (time != ProcessTime.NOW && manager.getItemScheduler().addLocal(id, evidence, time == ProcessTime.LATER)) {
+            return;
         }
+        // caso contrário processa o item no worker atual
+        long t = System.nanoTime() / 1000;
+        process(evidence);
+        runningTask.addSubitemProcessingTime(System.nanoTime() / 1000 - t);
 
     }
 
@@ -223,35 +217,24 @@ public void run() {
 
         LOGGER.info("{} started.", getName()); //$NON-NLS-1$
 
+        ItemScheduler scheduler = manager.getItemScheduler();
+
         while (!this.isInterrupted() && exception == null) {
 
             try {
                 evidence = null;
-                evidence = caseData.getItemQueue().takeFirst();
-
-                if (!evidence.isQueueEnd()) {
-                    process(evidence);
-
-                } else {
-                    IItem queueEnd = evidence;
-                    evidence = null;
-                    if (manager.numItensBeingProcessed() == 0) {
-                        caseData.getItemQueue().addLast(queueEnd);
-                        process(queueEnd);
-                        break;
-                    } else {
-                        caseData.getItemQueue().addLast(queueEnd);
-                        if (itensBeingProcessed > 0) {
-                            process(queueEnd);
-                        } else {
-                            Thread.sleep(1000);
-                        }
-                    }
+                IItem item = scheduler.take(id);
+                if (item == null) {
+                    break;
+                }
+                try {
+                    process(item);
+                } finally {
+                    scheduler.done(id);
                 }
 
             } catch (InterruptedException e) {
-                if (caseData.getCurrentQueuePriority() == null)
-                    break;
+                break;
             }
         }
 
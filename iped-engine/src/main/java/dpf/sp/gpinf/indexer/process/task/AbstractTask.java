@@ -197,7 +197,7 @@ public final void processAndSendToNextTask(IItem evidence) throws Exception {
     protected void sendToNextTask(IItem evidence) throws Exception {
         if (nextTask != null) {
             int priority = MimeTypesProcessingOrder.getProcessingPriority(evidence.getMediaType());
-            if (priority <= caseData.getCurrentQueuePriority())
+            if (priority <= worker.manager.getItemScheduler().getCurrentPriority(worker.id))
                 nextTask.processAndSendToNextTask(evidence);
             else {
                 evidence.dispose();
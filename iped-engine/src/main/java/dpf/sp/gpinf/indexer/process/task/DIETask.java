@@ -4,11 +4,10 @@
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -77,7 +76,7 @@ public class DIETask extends AbstractTask {
     /**
      * Map to store videos scores, to avoid processing duplicated videos. 
      */
-    private static final HashMap<String, Short> videoResults = new HashMap<String, Short>();
+    private static final ConcurrentHashMap<String, Short> videoResults = new ConcurrentHashMap<String, Short>();
     
     // Static counters for the number of images/videos successfully processed/failed, and the total processing time.
     private static final AtomicLong totalImagesProcessed = new AtomicLong();
@@ -91,6 +90,13 @@ public class DIETask extends AbstractTask {
 
     private static GraphicsMagicConverter graphicsMagicConverter = new GraphicsMagicConverter();
 
+    /**
+     * Feature buffers reused by this task instance (one per worker thread), one
+     * row per image or video frame.
+     */
+    private float[][] featureRows = new float[1][];
+    private double[] predictions = new double[1];
+
     @Override
     public boolean isEnabled() {
         return taskEnabled;
@@ -211,7 +217,8 @@ protected void process(IItem evidence) throws Exception {
                 }
                 List<Float> features = die.extractFeatures(img);
                 if (features != null) {
-                    double p = predictor.predict(features);
+                    featureRows[0] = RandomForestPredictor.toArray(features, featureRows[0]);
+                    double p = predictor.predict(featureRows[0]);
                     update(evidence, predictionToScore(p));
                     totalImagesProcessed.incrementAndGet();
                 } else {
@@ -221,10 +228,7 @@ protected void process(IItem evidence) throws Exception {
                 totalImagesTime.addAndGet(t);
 
             } else if (isVideoType(evidence.getMediaType())) {
-                Short prevResult = null;
-                synchronized (videoResults) {
-                    prevResult = videoResults.get(evidence.getHash());
-                }
+                Short prevResult = videoResults.get(evidence.getHash());
                 if (prevResult != null) {
                     update(evidence, prevResult.intValue());
                     return;
@@ -237,24 +241,29 @@ protected void process(IItem evidence) throws Exception {
                         String videoComment = (String) read[1];
                         if (videoComment != null && videoComment.startsWith("Frames=")) {
                             List<BufferedImage> frames = ImageUtil.getFrames((BufferedImage) read[0], videoComment);
-                            List<Double> pvideo = new ArrayList<Double>();
+                            // extract features of all frames, then predict them in a single batch
+                            int numFrames = 0;
                             if (frames != null) {
+                                if (featureRows.length < frames.size()) {
+                                    featureRows = Arrays.copyOf(featureRows, frames.size());
+                                    predictions = new double[frames.size()];
+                                }
                                 for (BufferedImage frame : frames) {
                                     List<Float> features = die.extractFeatures(frame);
                                     if (features != null) {
-                                        double p = predictor.predict(features);
-                                        pvideo.add(p);
+                                        featureRows[numFrames] = RandomForestPredictor.toArray(features,
+                                                featureRows[numFrames]);
+                                        numFrames++;
                                     }
                                 }
+                                predictor.predict(featureRows, numFrames, predictions);
                             }
-                            if (!pvideo.isEmpty()) {
-                                double p = videoScore(pvideo);
+                            if (numFrames > 0) {
+                                double p = videoScore(predictions, numFrames);
                                 int score = predictionToScore(p);
                                 update(evidence, score);
                                 totalVideosProcessed.incrementAndGet();
-                                synchronized (videoResults) {
-                                    videoResults.put(evidence.getHash(), (short) score);
-                                }
+                                videoResults.put(evidence.getHash(), (short) score);
                             } else {
                                 totalVideosFailed.incrementAndGet();
                             }
@@ -273,14 +282,14 @@ protected void process(IItem evidence) throws Exception {
      * Combine the score of each video frame into a single score. 
      * It uses a weighted average, with higher weights for higher scores.
      */
-    private double videoScore(List<Double> p) {
-        Collections.sort(p);
-        Collections.reverse(p);
+    private double videoScore(double[] p, int n) {
+        Arrays.sort(p, 0, n);
         double weight = 1;
         double mult = 0.7;
         double div = 0;
         double sum = 0;
-        for (double v : p) {
+        for (int i = n - 1; i >= 0; i--) {
+            double v = p[i];
             div += weight;
             sum += v * weight;
             weight *= mult;
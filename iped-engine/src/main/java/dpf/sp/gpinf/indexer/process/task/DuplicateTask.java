@@ -1,7 +1,9 @@
 package dpf.sp.gpinf.indexer.process.task;
 
 import java.io.File;
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Properties;
 
 import org.apache.lucene.index.DirectoryReader;
@@ -9,10 +11,15 @@
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.SortedDocValues;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import dpf.sp.gpinf.indexer.CmdLineArgs;
 import dpf.sp.gpinf.indexer.process.IndexItem;
+import dpf.sp.gpinf.indexer.util.HashRegistry;
 import dpf.sp.gpinf.indexer.util.HashValue;
 import dpf.sp.gpinf.indexer.util.SlowCompositeReaderWrapper;
+import iped3.ICaseData;
 import iped3.IHashValue;
 import iped3.IItem;
 
@@ -23,24 +30,31 @@
  */
 public class DuplicateTask extends AbstractTask {
 
+    private static Logger LOGGER = LoggerFactory.getLogger(DuplicateTask.class);
+
     public static String HASH_MAP = HashTask.class.getSimpleName() + "HashMap"; //$NON-NLS-1$
 
-    private HashMap<IHashValue, IHashValue> hashMap;
+    /**
+     * Hashes dos itens indexados até o último commit, usado por --continue e
+     * --append para não reler todos os hashes do índice.
+     */
+    private static final String HASH_REGISTRY_FILE = "data/hashRegistry.dat"; //$NON-NLS-1$
+
+    private HashRegistry hashRegistry;
 
     public static boolean ignoreDuplicates = false;
 
+    public static HashRegistry getHashRegistry(ICaseData caseData) {
+        return (HashRegistry) caseData.getCaseObject(HASH_MAP);
+    }
+
     public void process(IItem evidence) {
 
         // Verificação de duplicados
         IHashValue hashValue = evidence.getHashValue();
         if (hashValue != null) {
-            synchronized (hashMap) {
-                if (!hashMap.containsKey(hashValue)) {
-                    hashMap.put(hashValue, hashValue);
-                } else {
-                    evidence.setDuplicate(true);
-                }
-
+            if (!hashRegistry.putIfAbsent(hashValue.getBytes())) {
+                evidence.setDuplicate(true);
             }
         }
 
@@ -62,33 +76,79 @@ public void init(Properties confProps, File confDir) throws Exception {
             ignoreDuplicates = Boolean.valueOf(value);
         }
 
-        hashMap = (HashMap<IHashValue, IHashValue>) caseData.getCaseObject(HASH_MAP);
-        if (hashMap == null) {
-            hashMap = new HashMap<IHashValue, IHashValue>();
-            caseData.putCaseObject(HASH_MAP, hashMap);
-
-            try (IndexReader reader = DirectoryReader.open(worker.writer, true, true)) {
-                LeafReader aReader = SlowCompositeReaderWrapper.wrap(reader);
-                SortedDocValues sdv = aReader.getSortedDocValues(IndexItem.HASH);
-                if (sdv != null) {
-                    for (int ord = 0; ord < sdv.getValueCount(); ord++) {
-                        String hash = sdv.lookupOrd(ord).utf8ToString();
-                        if (hash != null && !hash.isEmpty()) {
-                            IHashValue hValue = new HashValue(hash);
-                            hashMap.put(hValue, hValue);
-                        }
+        synchronized (DuplicateTask.class) {
+            hashRegistry = getHashRegistry(caseData);
+            if (hashRegistry == null) {
+                hashRegistry = loadHashRegistry();
+                caseData.putCaseObject(HASH_MAP, hashRegistry);
+            }
+        }
+
+    }
+
+    private HashRegistry loadHashRegistry() throws IOException {
+        CmdLineArgs args = (CmdLineArgs) caseData.getCaseObject(CmdLineArgs.class.getName());
+        File file = new File(output, HASH_REGISTRY_FILE);
+        // --restart volta a um commit anterior, o arquivo pode conter hashes descartados
+        if (file.exists() && (args == null || !args.isRestart())) {
+            try {
+                HashRegistry registry = HashRegistry.load(file);
+                LOGGER.info("Loaded {} hashes from {}", registry.size(), file.getAbsolutePath()); //$NON-NLS-1$
+                return registry;
+
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Error loading {}, reading hashes from index: {}", file.getAbsolutePath(), e.toString()); //$NON-NLS-1$
+            }
+        }
+
+        HashRegistry registry = new HashRegistry();
+        try (IndexReader reader = DirectoryReader.open(worker.writer, true, true)) {
+            LeafReader aReader = SlowCompositeReaderWrapper.wrap(reader);
+            SortedDocValues sdv = aReader.getSortedDocValues(IndexItem.HASH);
+            if (sdv != null) {
+                for (int ord = 0; ord < sdv.getValueCount(); ord++) {
+                    String hash = sdv.lookupOrd(ord).utf8ToString();
+                    if (hash != null && !hash.isEmpty()) {
+                        registry.markIndexed(new HashValue(hash).getBytes());
                     }
                 }
-            } catch (IndexNotFoundException e) {
-                // ignore
             }
+        } catch (IndexNotFoundException e) {
+            // ignore
+        }
+        return registry;
+    }
+
+    /**
+     * Grava um snapshot dos hashes indexados. Deve ser chamado antes de
+     * IndexWriter.prepareCommit(), assim todos os hashes gravados pertencem a itens
+     * incluídos no commit. O snapshot só passa a valer após
+     * {@link #commit(File)}.
+     */
+    public static void prepareCommit(ICaseData caseData, File output) throws IOException {
+        HashRegistry registry = getHashRegistry(caseData);
+        if (registry != null) {
+            registry.save(new File(output, HASH_REGISTRY_FILE + ".tmp")); //$NON-NLS-1$
         }
+    }
+
+    public static void commit(File output) throws IOException {
+        File tmp = new File(output, HASH_REGISTRY_FILE + ".tmp"); //$NON-NLS-1$
+        if (tmp.exists()) {
+            Files.move(tmp.toPath(), new File(output, HASH_REGISTRY_FILE).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
 
+    /**
+     * Invalida os hashes persistidos, por exemplo após remoção de evidências.
+     */
+    public static void deleteHashRegistry(File output) throws IOException {
+        Files.deleteIfExists(new File(output, HASH_REGISTRY_FILE).toPath());
     }
 
     @Override
     public void finish() throws Exception {
-        hashMap.clear();
     }
 
 }
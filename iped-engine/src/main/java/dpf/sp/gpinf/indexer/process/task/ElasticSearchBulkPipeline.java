@@ -0,0 +1,625 @@
+package dpf.sp.gpinf.indexer.process.task;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dpf.sp.gpinf.indexer.util.IOUtil;
+import repackaged.org.apache.http.entity.ByteArrayEntity;
+import repackaged.org.apache.http.entity.ContentType;
+
+/**
+ * Export pipeline of documents to ElasticSearch, decoupled from processing
+ * workers. Workers only hand off the already serialized document to a ring
+ * bounded in bytes, or to a disk spill queue when the ring is full, so they
+ * never wait for the cluster. Dedicated sender threads build compressed bulk
+ * requests, adapt the bulk size to the observed latency and rejections, and
+ * replay rejected items and failed requests with backoff. Requests too large
+ * for the cluster are split, down to a single document.
+ *
+ * If several bulks in a row fail after all retries, the cluster is considered
+ * down and requests are not retried until one succeeds, and {@link #close()}
+ * gives up if no document is completed for some minutes, so an unavailable
+ * cluster does not hold the end of processing for hours.
+ */
+public class ElasticSearchBulkPipeline implements Closeable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ElasticSearchBulkPipeline.class);
+
+    private static final int MIN_BULK_BYTES = 1 << 20;
+    private static final int MAX_BULK_BYTES = 64 << 20;
+    private static final long TARGET_LATENCY_MILLIS = 2000;
+    private static final long MAX_LINGER_MILLIS = 1000;
+    private static final long MAX_RING_BYTES = Math.min(Runtime.getRuntime().maxMemory() / 16, 256L << 20);
+    private static final int MAX_RETRIES = 8;
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 60000;
+    private static final int COMPRESSION_THRESHOLD = 1 << 12;
+    private static final int CIRCUIT_BREAKER_FAILURES = 3;
+    private static final long CLOSE_STALL_MILLIS = 10 * 60 * 1000;
+
+    private static final ContentType NDJSON = ContentType.create("application/x-ndjson", StandardCharsets.UTF_8); //$NON-NLS-1$
+
+    private static class Doc {
+
+        final String id, path;
+        final byte[] source;
+        int retries;
+
+        Doc(String id, String path, byte[] source) {
+            this.id = id;
+            this.path = path;
+            this.source = source;
+        }
+    }
+
+    private final RestClient client;
+    private final String index;
+    private final int maxBulkItems;
+    private final int maxBulkBytes;
+    private final int timeoutMillis;
+    private final boolean compress;
+
+    private final ArrayBlockingQueue<Doc> ring;
+    private final AtomicLong ringBytes = new AtomicLong();
+    private final SpillQueue spill;
+    private final Thread[] senders;
+
+    private final AtomicLong pending = new AtomicLong();
+    private volatile boolean closing = false;
+    private volatile int targetBytes;
+    private volatile boolean spillFailed = false;
+    private volatile boolean aborted = false;
+    private final AtomicInteger failedBulks = new AtomicInteger();
+
+    private final AtomicLong indexedDocs = new AtomicLong();
+    private final AtomicLong failedDocs = new AtomicLong();
+    private final AtomicLong retriedDocs = new AtomicLong();
+    private final AtomicLong spilledDocs = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong wireBytes = new AtomicLong();
+    private final AtomicLong requestMillis = new AtomicLong();
+
+    /**
+     * @param numSenders
+     *            number of sender threads, that is, of simultaneous bulk
+     *            requests
+     * @param bulkBytes
+     *            initial size of bulk requests, adapted between 1MB and 4x
+     *            this value
+     * @param maxBulkItems
+     *            maximum number of documents of a bulk request
+     * @param spillDir
+     *            folder of the spill file, created when the ring is full
+     */
+    public ElasticSearchBulkPipeline(RestClient client, String index, int numSenders, int bulkBytes,
+            int maxBulkItems, int timeoutMillis, boolean compress, File spillDir) {
+        this.client = client;
+        this.index = index;
+        this.maxBulkItems = maxBulkItems;
+        this.maxBulkBytes = (int) Math.max(MIN_BULK_BYTES, Math.min(MAX_BULK_BYTES, 4L * bulkBytes));
+        this.targetBytes = Math.max(MIN_BULK_BYTES, Math.min(bulkBytes, maxBulkBytes));
+        this.timeoutMillis = timeoutMillis;
+        this.compress = compress;
+        this.ring = new ArrayBlockingQueue<>(Math.max(1024, 2 * numSenders * maxBulkItems));
+        this.spill = new SpillQueue(spillDir);
+
+        senders = new Thread[numSenders];
+        for (int i = 0; i < numSenders; i++) {
+            senders[i] = new Thread("ElasticSearchSender-" + i) { //$NON-NLS-1$
+                @Override
+                public void run() {
+                    sendLoop();
+                }
+            };
+            senders[i].setDaemon(true);
+            senders[i].start();
+        }
+    }
+
+    /**
+     * Hands off a serialized document to the senders. Does not block while the
+     * spill queue can be written.
+     */
+    public void add(String id, String path, byte[] source) throws InterruptedException {
+        if (closing) {
+            throw new IllegalStateException("ElasticSearch pipeline already closed"); //$NON-NLS-1$
+        }
+        Doc doc = new Doc(id, path, source);
+        pending.incrementAndGet();
+        enqueue(doc);
+    }
+
+    private void enqueue(Doc doc) throws InterruptedException {
+        if (ringBytes.addAndGet(doc.source.length) <= MAX_RING_BYTES && ring.offer(doc)) {
+            return;
+        }
+        ringBytes.addAndGet(-doc.source.length);
+        if (!spillFailed) {
+            try {
+                spill.add(doc);
+                spilledDocs.incrementAndGet();
+                return;
+            } catch (IOException e) {
+                LOGGER.warn("Error writing ElasticSearch spill file, waiting for senders: {}", e.toString()); //$NON-NLS-1$
+                spillFailed = true;
+            }
+        }
+        ringBytes.addAndGet(doc.source.length);
+        ring.put(doc);
+    }
+
+    private Doc poll(long timeoutMillis) throws InterruptedException {
+        // spilled documents first, so the spill file is drained while the ring is busy
+        Doc doc = null;
+        try {
+            doc = spill.poll();
+        } catch (IOException e) {
+            int lost = spill.discard();
+            LOGGER.error("Error reading ElasticSearch spill file, " + lost + " documents not indexed", e); //$NON-NLS-1$ //$NON-NLS-2$
+            failedDocs.addAndGet(lost);
+            pending.addAndGet(-lost);
+        }
+        if (doc == null) {
+            doc = timeoutMillis > 0 ? ring.poll(timeoutMillis, TimeUnit.MILLISECONDS) : ring.poll();
+            if (doc != null) {
+                ringBytes.addAndGet(-doc.source.length);
+            }
+        }
+        return doc;
+    }
+
+    private List<Doc> nextBatch() throws InterruptedException {
+        List<Doc> batch = new ArrayList<>();
+        long bytes = 0;
+        long deadline = System.currentTimeMillis() + MAX_LINGER_MILLIS;
+        int target = targetBytes;
+        while (bytes < target && batch.size() < maxBulkItems) {
+            Doc doc = poll(0);
+            if (doc == null) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0 || (closing && !batch.isEmpty())) {
+                    break;
+                }
+                doc = poll(Math.min(wait, 100));
+                if (doc == null) {
+                    if (closing && pending.get() == 0) {
+                        break;
+                    }
+                    continue;
+                }
+            }
+            batch.add(doc);
+            bytes += doc.source.length;
+        }
+        return batch;
+    }
+
+    private void sendLoop() {
+        try {
+            while (!closing || pending.get() > 0) {
+                List<Doc> batch = nextBatch();
+                if (!batch.isEmpty()) {
+                    sendWithRetries(batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOGGER.warn("{} interrupted", Thread.currentThread().getName()); //$NON-NLS-1$
+        } catch (RuntimeException e) {
+            // the client throws a RuntimeException when a waiting request is interrupted
+            if (!aborted) {
+                throw e;
+            }
+        }
+    }
+
+    private void sendWithRetries(List<Doc> batch) throws InterruptedException {
+        byte[] body = buildBody(batch);
+        for (int attempt = 0;; attempt++) {
+            try {
+                long start = System.currentTimeMillis();
+                Map<String, Object> response = send(body);
+                long latency = System.currentTimeMillis() - start;
+                requestMillis.addAndGet(latency);
+                if (failedBulks.getAndSet(0) >= CIRCUIT_BREAKER_FAILURES) {
+                    LOGGER.info("ElasticSearch is responding again"); //$NON-NLS-1$
+                }
+                boolean rejected = processResponse(batch, response);
+                adaptBulkSize(latency, rejected);
+                return;
+
+            } catch (IOException e) {
+                int status = e instanceof ResponseException
+                        ? ((ResponseException) e).getResponse().getStatusLine().getStatusCode()
+                        : -1;
+                if (status == 413) {
+                    // too large for the cluster, the bulk is split in halves
+                    targetBytes = Math.max(MIN_BULK_BYTES, targetBytes / 2);
+                    if (batch.size() == 1) {
+                        Doc doc = batch.get(0);
+                        LOGGER.error("Elastic failure result {}: document too large for the cluster", doc.path); //$NON-NLS-1$
+                        done(doc, false);
+                        return;
+                    }
+                    int half = batch.size() / 2;
+                    sendWithRetries(new ArrayList<>(batch.subList(0, half)));
+                    sendWithRetries(new ArrayList<>(batch.subList(half, batch.size())));
+                    return;
+                }
+                boolean retriable = status == -1 || status == 429 || status >= 500;
+                if (retriable) {
+                    targetBytes = Math.max(MIN_BULK_BYTES, targetBytes / 2);
+                }
+                // while the cluster seems down, each bulk is tried only once
+                int maxRetries = failedBulks.get() >= CIRCUIT_BREAKER_FAILURES ? 0 : MAX_RETRIES;
+                if (!retriable || attempt >= maxRetries || aborted) {
+                    if (retriable && failedBulks.incrementAndGet() == CIRCUIT_BREAKER_FAILURES) {
+                        LOGGER.error("ElasticSearch seems to be down, bulks will not be retried until a request succeeds"); //$NON-NLS-1$
+                    }
+                    LOGGER.error("Error indexing " + batch.size() + " documents to ElasticSearch", e); //$NON-NLS-1$ //$NON-NLS-2$
+                    for (Doc doc : batch) {
+                        LOGGER.error("Elastic failure result {}: {}", doc.path, e.toString()); //$NON-NLS-1$
+                        done(doc, false);
+                    }
+                    return;
+                }
+                LOGGER.warn("Error sending bulk request to ElasticSearch, retrying: {}", e.toString()); //$NON-NLS-1$
+                Thread.sleep(backoff(attempt));
+            }
+        }
+    }
+
+    private byte[] buildBody(List<Doc> batch) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(targetBytes + 4096);
+        for (Doc doc : batch) {
+            StringBuilder action = new StringBuilder(128);
+            action.append("{\"create\":{\"_index\":"); //$NON-NLS-1$
+            appendJsonString(action, index);
+            action.append(",\"_id\":"); //$NON-NLS-1$
+            appendJsonString(action, doc.id);
+            action.append("}}\n"); //$NON-NLS-1$
+            byte[] bytes = action.toString().getBytes(StandardCharsets.UTF_8);
+            baos.write(bytes, 0, bytes.length);
+            baos.write(doc.source, 0, doc.source.length);
+            baos.write('\n');
+        }
+        return baos.toByteArray();
+    }
+
+    private static void appendJsonString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c)); //$NON-NLS-1$
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    private Map<String, Object> send(byte[] body) throws IOException {
+        Request request = new Request("POST", "/_bulk"); //$NON-NLS-1$ //$NON-NLS-2$
+        request.addParameter("timeout", timeoutMillis + "ms"); //$NON-NLS-1$ //$NON-NLS-2$
+        byte[] wire = body;
+        if (compress && body.length >= COMPRESSION_THRESHOLD) {
+            wire = gzip(body);
+            RequestOptions.Builder options = RequestOptions.DEFAULT.toBuilder();
+            options.addHeader("Content-Encoding", "gzip"); //$NON-NLS-1$ //$NON-NLS-2$
+            request.setOptions(options);
+        }
+        request.setEntity(new ByteArrayEntity(wire, NDJSON));
+
+        requests.incrementAndGet();
+        sentBytes.addAndGet(body.length);
+        wireBytes.addAndGet(wire.length);
+
+        Response response = client.performRequest(request);
+        try (InputStream is = response.getEntity().getContent()) {
+            return XContentHelper.convertToMap(XContentType.JSON.xContent(), is, false);
+        }
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(baos, 64 * 1024) {
+            {
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        }) {
+            gzip.write(body);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Replays rejected items and logs the other failures.
+     *
+     * @return true if the cluster rejected some item because of load
+     */
+    @SuppressWarnings("unchecked")
+    private boolean processResponse(List<Doc> batch, Map<String, Object> response) throws InterruptedException {
+        if (Boolean.FALSE.equals(response.get("errors"))) { //$NON-NLS-1$
+            for (Doc doc : batch) {
+                LOGGER.debug("Elastic result created {}", doc.path); //$NON-NLS-1$
+                done(doc, true);
+            }
+            return false;
+        }
+        List<Object> items = (List<Object>) response.get("items"); //$NON-NLS-1$
+        if (items == null || items.size() != batch.size()) {
+            LOGGER.error("Unexpected ElasticSearch bulk response with {} items, expected {}", //$NON-NLS-1$
+                    items == null ? 0 : items.size(), batch.size());
+            for (Doc doc : batch) {
+                done(doc, false);
+            }
+            return false;
+        }
+        boolean rejected = false;
+        int maxRetries = 0;
+        List<Doc> retry = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Doc doc = batch.get(i);
+            Map<String, Object> result = null;
+            for (Object op : ((Map<String, Object>) items.get(i)).values()) {
+                result = (Map<String, Object>) op;
+            }
+            Object error = result != null ? result.get("error") : null; //$NON-NLS-1$
+            if (result != null && error == null) {
+                LOGGER.debug("Elastic result {} {}", result.get("result"), doc.path); //$NON-NLS-1$ //$NON-NLS-2$
+                done(doc, true);
+                continue;
+            }
+            int status = result != null && result.get("status") instanceof Number //$NON-NLS-1$
+                    ? ((Number) result.get("status")).intValue() //$NON-NLS-1$
+                    : -1;
+            String msg = String.valueOf(error);
+            if ((status == 429 || status >= 500) && doc.retries < MAX_RETRIES) {
+                rejected |= status == 429;
+                doc.retries++;
+                maxRetries = Math.max(maxRetries, doc.retries);
+                retry.add(doc);
+            } else {
+                if (!msg.contains("document already exists")) { //$NON-NLS-1$
+                    LOGGER.error("Elastic failure result {}: {}", doc.path, msg); //$NON-NLS-1$
+                } else {
+                    LOGGER.debug("Elastic failure result {}: {}", doc.path, msg); //$NON-NLS-1$
+                }
+                done(doc, false);
+            }
+        }
+        if (!retry.isEmpty()) {
+            retriedDocs.addAndGet(retry.size());
+            Thread.sleep(backoff(maxRetries - 1));
+            for (Doc doc : retry) {
+                requeue(doc);
+            }
+        }
+        return rejected;
+    }
+
+    private void requeue(Doc doc) throws InterruptedException {
+        enqueue(doc);
+    }
+
+    private void done(Doc doc, boolean success) {
+        if (success) {
+            indexedDocs.incrementAndGet();
+        } else {
+            failedDocs.incrementAndGet();
+        }
+        pending.decrementAndGet();
+    }
+
+    private static long backoff(int attempt) {
+        return Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+    }
+
+    /**
+     * Halves the bulk size on rejections or slow responses and increases it
+     * gradually while responses are fast.
+     */
+    private void adaptBulkSize(long latency, boolean rejected) {
+        int size = targetBytes;
+        if (rejected || latency > TARGET_LATENCY_MILLIS) {
+            size = Math.max(MIN_BULK_BYTES, size / 2);
+        } else if (latency < TARGET_LATENCY_MILLIS / 2) {
+            size = Math.min(maxBulkBytes, size + size / 4);
+        }
+        targetBytes = size;
+    }
+
+    public long getPendingDocs() {
+        return pending.get();
+    }
+
+    public long getIndexedDocs() {
+        return indexedDocs.get();
+    }
+
+    public long getFailedDocs() {
+        return failedDocs.get();
+    }
+
+    public long getRetriedDocs() {
+        return retriedDocs.get();
+    }
+
+    public long getSpilledDocs() {
+        return spilledDocs.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Waits for all documents to be sent and stops the senders. Gives up, counting
+     * the documents not sent as failed, if no document is completed for
+     * {@value #CLOSE_STALL_MILLIS} ms.
+     */
+    @Override
+    public void close() throws IOException {
+        closing = true;
+        try {
+            long completed = indexedDocs.get() + failedDocs.get();
+            long lastProgress = System.currentTimeMillis();
+            for (Thread sender : senders) {
+                while (sender.isAlive() && !aborted) {
+                    sender.join(1000);
+                    long now = System.currentTimeMillis();
+                    long current = indexedDocs.get() + failedDocs.get();
+                    if (current != completed) {
+                        completed = current;
+                        lastProgress = now;
+                    } else if (now - lastProgress > CLOSE_STALL_MILLIS) {
+                        abort();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Thread sender : senders) {
+                sender.interrupt();
+            }
+            Thread.currentThread().interrupt();
+        } finally {
+            spill.close();
+        }
+        long numRequests = requests.get();
+        LOGGER.info("ElasticSearch export: {} documents indexed, {} failed, {} retried, {} spilled to disk", //$NON-NLS-1$
+                indexedDocs.get(), failedDocs.get(), retriedDocs.get(), spilledDocs.get());
+        LOGGER.info("ElasticSearch export: {} bulk requests, {} MB sent ({} MB compressed), {} ms average latency, final bulk size {} KB", //$NON-NLS-1$
+                numRequests, sentBytes.get() >> 20, wireBytes.get() >> 20,
+                numRequests > 0 ? requestMillis.get() / numRequests : 0, targetBytes >> 10);
+    }
+
+    private void abort() throws InterruptedException {
+        aborted = true;
+        for (Thread sender : senders) {
+            sender.interrupt();
+        }
+        for (Thread sender : senders) {
+            sender.join(10000);
+        }
+        long lost = pending.getAndSet(0);
+        failedDocs.addAndGet(lost);
+        LOGGER.error("ElasticSearch export made no progress for {} minutes, {} documents not indexed", //$NON-NLS-1$
+                CLOSE_STALL_MILLIS / 60000, lost);
+    }
+
+    /**
+     * Disk queue of documents that did not fit in the ring. Records are appended
+     * at the end of a single file and read in order, the file is truncated when
+     * all records were read.
+     */
+    private static class SpillQueue {
+
+        private final File dir;
+        private File file;
+        private RandomAccessFile raf;
+        private long readPos = 0, writePos = 0;
+        private int size = 0;
+
+        SpillQueue(File dir) {
+            this.dir = dir;
+        }
+
+        synchronized void add(Doc doc) throws IOException {
+            if (raf == null) {
+                dir.mkdirs();
+                file = File.createTempFile("elastic-spill", ".tmp", dir); //$NON-NLS-1$ //$NON-NLS-2$
+                file.deleteOnExit();
+                raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+            }
+            byte[] id = doc.id.getBytes(StandardCharsets.UTF_8);
+            byte[] path = doc.path.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buf = ByteBuffer.allocate(16 + id.length + path.length + doc.source.length);
+            buf.putInt(doc.retries).putInt(id.length).put(id).putInt(path.length).put(path)
+                    .putInt(doc.source.length).put(doc.source);
+            raf.seek(writePos);
+            raf.write(buf.array(), 0, buf.position());
+            writePos += buf.position();
+            size++;
+        }
+
+        synchronized Doc poll() throws IOException {
+            if (size == 0) {
+                return null;
+            }
+            raf.seek(readPos);
+            int retries = raf.readInt();
+            String id = readString();
+            String path = readString();
+            byte[] source = new byte[raf.readInt()];
+            raf.readFully(source);
+            readPos = raf.getFilePointer();
+            if (--size == 0) {
+                readPos = writePos = 0;
+                raf.setLength(0);
+            }
+            Doc doc = new Doc(id, path, source);
+            doc.retries = retries;
+            return doc;
+        }
+
+        private String readString() throws IOException {
+            byte[] bytes = new byte[raf.readInt()];
+            raf.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return number of discarded documents
+         */
+        synchronized int discard() {
+            int discarded = size;
+            size = 0;
+            readPos = writePos = 0;
+            try {
+                if (raf != null) {
+                    raf.setLength(0);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Error truncating ElasticSearch spill file: {}", e.toString()); //$NON-NLS-1$
+            }
+            return discarded;
+        }
+
+        synchronized void close() {
+            IOUtil.closeQuietly(raf);
+            raf = null;
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+}
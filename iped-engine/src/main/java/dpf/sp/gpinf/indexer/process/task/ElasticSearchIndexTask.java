@@ -12,16 +12,8 @@
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.elasticsearch.ElasticsearchStatusException;
-import org.elasticsearch.action.ActionListener;
-import org.elasticsearch.action.DocWriteRequest.OpType;
-import org.elasticsearch.action.bulk.BulkItemResponse;
-import org.elasticsearch.action.bulk.BulkRequest;
-import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
-import org.elasticsearch.client.Cancellable;
 import org.elasticsearch.client.RequestOptions;
-import org.elasticsearch.client.Requests;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestClientBuilder.HttpClientConfigCallback;
@@ -29,9 +21,9 @@
 import org.elasticsearch.client.indices.CreateIndexRequest;
 import org.elasticsearch.client.indices.CreateIndexResponse;
 import org.elasticsearch.client.indices.PutMappingRequest;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.Settings.Builder;
-import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.slf4j.Logger;
@@ -39,6 +31,8 @@
 
 import dpf.sp.gpinf.indexer.CmdLineArgs;
 import dpf.sp.gpinf.indexer.WorkerProvider;
+import dpf.sp.gpinf.indexer.config.ConfigurationManager;
+import dpf.sp.gpinf.indexer.config.LocalConfig;
 import dpf.sp.gpinf.indexer.process.IndexItem;
 import dpf.sp.gpinf.indexer.util.FragmentingReader;
 import dpf.sp.gpinf.indexer.util.IOUtil;
@@ -76,6 +70,7 @@ public class ElasticSearchIndexTask extends AbstractTask {
     private static final String CONNECT_TIMEOUT_KEY = "connect_timeout_millis";
     private static final String CMD_FIELDS_KEY = "elastic";
     private static final String CUSTOM_ANALYZER_KEY = "useCustomAnalyzer";
+    private static final String COMPRESS_REQUESTS_KEY = "compress_requests";
 
     private static boolean enabled = false;
     private static String host;
@@ -91,9 +86,12 @@ public class ElasticSearchIndexTask extends AbstractTask {
     private static int index_replicas = 1;
     private static String index_policy = "default_policy";
     private static boolean useCustomAnalyzer;
+    private static boolean compress_requests = true;
 
     private static RestHighLevelClient client;
 
+    private static ElasticSearchBulkPipeline pipeline;
+
     private static AtomicInteger count = new AtomicInteger();
 
     private static HashMap<String, String> cmdLineFields = new HashMap<>();
@@ -102,14 +100,6 @@ public class ElasticSearchIndexTask extends AbstractTask {
 
     private String indexName;
 
-    private BulkRequest bulkRequest = new BulkRequest();
-
-    private HashMap<String, String> idToPath = new HashMap<>();
-
-    private int numRequests = 0;
-
-    private Object lock = new Object();
-
     private char[] textBuf = new char[16 * 1024];
 
     @Override
@@ -167,6 +157,11 @@ public HttpAsyncClientBuilder customizeHttpClient(HttpAsyncClientBuilder httpCli
         }
 
         createIndex(indexName, args);
+
+        LocalConfig localConfig = (LocalConfig) ConfigurationManager.getInstance().findObjects(LocalConfig.class)
+                .iterator().next();
+        pipeline = new ElasticSearchBulkPipeline(client.getLowLevelClient(), indexName, max_async_requests,
+                min_bulk_size, min_bulk_items, timeout_millis, compress_requests, localConfig.getIndexerTemp());
     }
 
     private void parseCmdLineFields(String cmdFields) {
@@ -200,6 +195,10 @@ private void loadConfFile(File file) throws IOException {
         index_replicas = Integer.valueOf(props.getProperty(INDEX_REPLICAS_KEY).trim());
         index_policy = props.getProperty(INDEX_POLICY_KEY).trim();
         useCustomAnalyzer = Boolean.valueOf(props.getProperty(CUSTOM_ANALYZER_KEY).trim());
+        String value = props.getProperty(COMPRESS_REQUESTS_KEY);
+        if (value != null) {
+            compress_requests = Boolean.valueOf(value.trim());
+        }
     }
 
     private void createIndex(String indexName, CmdLineArgs args) throws IOException {
@@ -262,20 +261,14 @@ private void createFieldMappings(String indexName) throws IOException {
     @Override
     public void finish() throws Exception {
 
-        if (bulkRequest.numberOfActions() > 0) {
-            WorkerProvider.getInstance().firePropertyChange("mensagem", "", //$NON-NLS-1$ //$NON-NLS-2$
-                    "Finishing Worker-" + worker.id + " ElasticSearchTask..."); //$NON-NLS-1$
-            LOGGER.info("Finishing Worker-" + worker.id + " ElasticSearchTask..."); //$NON-NLS-1$ //$NON-NLS-2$
-            sendBulkRequest();
-        }
-
-        synchronized (lock) {
-            while (numRequests > 0) {
-                lock.wait();
-            }
-        }
-
         if (count.decrementAndGet() == 0) {
+            if (pipeline != null) {
+                WorkerProvider.getInstance().firePropertyChange("mensagem", "", //$NON-NLS-1$ //$NON-NLS-2$
+                        "Finishing ElasticSearchTask..."); //$NON-NLS-1$
+                LOGGER.info("Finishing ElasticSearchTask, {} documents pending...", pipeline.getPendingDocs()); //$NON-NLS-1$
+                pipeline.close();
+                pipeline = null;
+            }
             IOUtil.closeQuietly(client);
         }
     }
@@ -305,24 +298,10 @@ protected void process(IItem item) throws Exception {
 
                 XContentBuilder jsonBuilder = getJsonItemBuilder(item, fragReader);
 
-                IndexRequest indexRequest = Requests.indexRequest(indexName);
-                indexRequest.id(id);
-                indexRequest.source(jsonBuilder);
-                indexRequest.timeout(TimeValue.timeValueMillis(timeout_millis));
-                indexRequest.opType(OpType.CREATE);
-
-                bulkRequest.add(indexRequest);
-                idToPath.put(id, item.getPath());
+                pipeline.add(id, item.getPath(), BytesReference.toBytes(BytesReference.bytes(jsonBuilder)));
 
                 LOGGER.debug("Added to bulk request {}", item.getPath());
 
-                if (bulkRequest.estimatedSizeInBytes() >= min_bulk_size
-                        || bulkRequest.numberOfActions() >= min_bulk_items) {
-                    sendBulkRequest();
-                    bulkRequest = new BulkRequest();
-                    idToPath = new HashMap<>();
-                }
-
             } while (!Thread.currentThread().isInterrupted() && fragReader.nextFragment());
 
         } finally {
@@ -332,66 +311,6 @@ protected void process(IItem item) throws Exception {
 
     }
 
-    private void sendBulkRequest() throws IOException {
-        try {
-            synchronized (lock) {
-                if (++numRequests > max_async_requests) {
-                    lock.wait();
-                }
-            }
-            Cancellable cancellable = client.bulkAsync(bulkRequest, RequestOptions.DEFAULT,
-                    new BulkResponseListener(idToPath));
-
-        } catch (Exception e) {
-            LOGGER.error("Error indexing to ElasticSearch " + bulkRequest.getDescription(), e);
-        }
-    }
-
-    private class BulkResponseListener implements ActionListener<BulkResponse> {
-
-        HashMap<String, String> idPathMap;
-
-        private BulkResponseListener(HashMap<String, String> itemMap) {
-            this.idPathMap = itemMap;
-        }
-
-        @Override
-        public void onResponse(BulkResponse response) {
-
-            notifyWaitingRequests();
-
-            for (BulkItemResponse bulkItemResponse : response) {
-                if (bulkItemResponse.isFailed()) {
-                    BulkItemResponse.Failure failure = bulkItemResponse.getFailure();
-                    String path = idPathMap.get(bulkItemResponse.getId());
-                    String msg = failure.getMessage();
-                    if (!msg.contains("document already exists")) { //$NON-NLS-1$
-                        LOGGER.error("Elastic failure result {}: {}", path, msg); //$NON-NLS-1$
-                    } else {
-                        LOGGER.debug("Elastic failure result {}: {}", path, msg); //$NON-NLS-1$
-                    }
-                } else {
-                    LOGGER.debug("Elastic result {} {}", bulkItemResponse.getResponse().getResult(),
-                            idPathMap.get(bulkItemResponse.getId()));
-                }
-            }
-        }
-
-        @Override
-        public void onFailure(Exception e) {
-            notifyWaitingRequests();
-            LOGGER.error("Error indexing to ElasticSearch ", e);
-        }
-
-        private void notifyWaitingRequests() {
-            synchronized (lock) {
-                numRequests--;
-                lock.notify();
-            }
-        }
-
-    }
-
     private XContentBuilder getJsonItemBuilder(IItem item, Reader textReader) throws IOException {
         XContentBuilder builder = XContentFactory.jsonBuilder();
 
@@ -26,27 +26,20 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
-import java.util.zip.Deflater;
 
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.compress.compressors.CompressorException;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
-import org.apache.commons.compress.compressors.gzip.GzipParameters;
 import org.apache.commons.compress.utils.IOUtils;
 import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
 import org.slf4j.Logger;
@@ -61,12 +54,14 @@
 import dpf.sp.gpinf.indexer.config.IPEDConfig;
 import dpf.sp.gpinf.indexer.parsers.util.ExportFolder;
 import dpf.sp.gpinf.indexer.process.task.regex.RegexTask;
+import dpf.sp.gpinf.indexer.util.BlobStore;
+import dpf.sp.gpinf.indexer.util.BlobStoreInputStreamFactory;
+import dpf.sp.gpinf.indexer.util.HashRegistry;
 import dpf.sp.gpinf.indexer.util.HashValue;
 import dpf.sp.gpinf.indexer.util.IOUtil;
 import dpf.sp.gpinf.indexer.util.SeekableFileInputStream;
 import dpf.sp.gpinf.indexer.util.SeekableInputStreamFactory;
 import dpf.sp.gpinf.indexer.util.Util;
-import iped3.IHashValue;
 import iped3.IItem;
 import iped3.io.SeekableInputStream;
 import iped3.sleuthkit.ISleuthKitItem;
@@ -83,19 +78,10 @@ public class ExportFileTask extends AbstractTask {
     public static final String EXTRACT_DIR = Messages.getString("ExportFileTask.ExportFolder"); //$NON-NLS-1$
     private static final String SUBITEM_DIR = "subitens"; //$NON-NLS-1$
 
-    private static final String STORAGE_PREFIX = "storage";
     public static final String STORAGE_CON_PREFIX = "storageConnection";
     private static final int MAX_BUFFER_SIZE = 1 << 24;
     private static final int SQLITE_CACHE_SIZE = 1 << 24;
 
-    private static final byte DB_SUFFIX_BITS = 4; // current impl maximum is 8
-
-    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS t1(id TEXT PRIMARY KEY, data BLOB, thumb BLOB, text TEXT);";
-
-    private static final String INSERT_DATA = "INSERT INTO t1(id, data) VALUES(?,?) ON CONFLICT(id) DO UPDATE SET data=? WHERE data IS NULL;";
-
-    private static final String CHECK_HASH = "SELECT id FROM t1 WHERE id=? AND data IS NOT NULL;";
-
     private static final int MAX_SUBITEM_COMPRESSION = 100;
     private static final int ZIPBOMB_MIN_SIZE = 10 * 1024 * 1024;
 
@@ -105,11 +91,11 @@ public class ExportFileTask extends AbstractTask {
 
     private static boolean computeHash = false;
     private File extractDir;
-    private HashMap<IHashValue, IHashValue> hashMap;
+    private HashRegistry hashRegistry;
     private List<String> noContentLabels;
 
-    private static HashMap<File, HashMap<Integer, File>> storage = new HashMap<>();
-    private static HashMap<File, HashMap<Integer, Connection>> storageCon = new HashMap<>();
+    private BlobStore storage;
+    private BlobStoreInputStreamFactory storageFactory;
 
     public ExportFileTask() {
         ExportFolder.setExportPath(EXTRACT_DIR);
@@ -134,59 +120,20 @@ private void setExtractLocation() {
         IPEDConfig ipedConfig = (IPEDConfig) ConfigurationManager.getInstance().findObjects(IPEDConfig.class).iterator()
                 .next();
         if (!caseData.containsReport() || !ipedConfig.isHtmlReportEnabled()) {
-            if (storageCon.get(output) == null) {
-                configureSQLiteStorage(output);
-            }
-        }
-    }
-
-    public static Connection getSQLiteStorageCon(File output, byte[] hash) {
-        if (storageCon.get(output) == null) {
-            configureSQLiteStorage(output);
-        }
-        int dbSuffix = getStorageSuffix(hash);
-        return storageCon.get(output).get(dbSuffix);
-    }
-
-    private static int getStorageSuffix(byte[] hash) {
-        return (hash[0] & 0xFF) >> (8 - DB_SUFFIX_BITS);
-    }
-
-    private static Connection getSQLiteStorageCon(File db) {
-        File output = db.getParentFile().getParentFile();
-        if (storageCon.get(output) == null) {
-            configureSQLiteStorage(output);
-        }
-        int dbSuffix = Integer
-                .valueOf(db.getName().substring(STORAGE_PREFIX.length() + 1, db.getName().indexOf(".db")));
-        return storageCon.get(output).get(dbSuffix);
-    }
-
-    private static synchronized void configureSQLiteStorage(File output) {
-        if (storageCon.get(output) != null) {
-            return;
-        }
-        HashMap<Integer, Connection> tempStorageCon = new HashMap<>();
-        HashMap<Integer, File> tempStorage = new HashMap<>();
-        for (int i = 0; i < Math.pow(2, DB_SUFFIX_BITS); i++) {
-            String storageName = STORAGE_PREFIX + "-" + i + ".db";
-            File db = new File(output, STORAGE_PREFIX + File.separator + storageName);
-            db.getParentFile().mkdir();
-            tempStorage.put(i, db);
             try {
-                Connection con = getSQLiteConnection(db);
-                try (Statement stmt = con.createStatement()) {
-                    stmt.executeUpdate(CREATE_TABLE);
-                }
-
-                tempStorageCon.put(i, con);
-
-            } catch (SQLException e) {
+                storage = getStorage(output);
+                storageFactory = new BlobStoreInputStreamFactory(storage.getDir().toPath());
+            } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
-        storage.put(output, tempStorage);
-        storageCon.put(output, tempStorageCon);
+    }
+
+    /**
+     * Armazenamento do conteúdo de subitens e de miniaturas do caso.
+     */
+    public static BlobStore getStorage(File output) throws IOException {
+        return BlobStore.openForWrite(new File(output, BlobStore.STORAGE_DIR));
     }
 
     private static Connection getSQLiteConnection(File storage) throws SQLException {
@@ -358,11 +305,7 @@ public void renameToHash(IItem evidence) {
             if (!hashFile.getParentFile().exists()) {
                 hashFile.getParentFile().mkdirs();
             }
-            IHashValue hashVal = new HashValue(hash);
-            IHashValue hashLock;
-            synchronized (hashMap) {
-                hashLock = hashMap.get(hashVal);
-            }
+            Object hashLock = hashRegistry.getLock(new HashValue(hash).getBytes());
 
             synchronized (hashLock) {
                 if (!hashFile.exists()) {
@@ -431,10 +374,7 @@ public void extractFile(InputStream inputStream, IItem evidence, Long parentSize
                     Util.getValidFilename(Integer.toString(evidence.getId()) + ext));
         } else if ((hash = evidence.getHash()) != null && !hash.isEmpty()) {
             outputFile = getHashFile(hash, ext);
-            IHashValue hashVal = new HashValue(hash);
-            synchronized (hashMap) {
-                hashLock = hashMap.get(hashVal);
-            }
+            hashLock = hashRegistry.getLock(new HashValue(hash).getBytes());
 
         } else {
             outputFile = new File(extractDir, Util.getValidFilename("0" + Integer.toString(evidence.getId()) + ext)); //$NON-NLS-1$
@@ -460,7 +400,7 @@ public void extractFile(InputStream inputStream, IItem evidence, Long parentSize
                             // catch exceptions here to extract some content, even runtime exceptions
                             exception = e;
                         }
-                        if ((i == -1 || exception != null) && storageCon.get(output) != null && total == 0) {
+                        if ((i == -1 || exception != null) && storage != null && total == 0) {
                             if (baos.size() == 0) {
                                 evidence.setLength(0L);
                             } else {
@@ -515,48 +455,20 @@ public void extractFile(InputStream inputStream, IItem evidence, Long parentSize
 
     }
 
-    private void insertIntoStorage(IItem evidence, byte[] buf, int len)
-            throws InterruptedException, IOException, SQLException, CompressorException {
+    private void insertIntoStorage(IItem evidence, byte[] buf, int len) throws InterruptedException, IOException {
         byte[] hash = DigestUtils.md5(new ByteArrayInputStream(buf, 0, len));
-        int k = getStorageSuffix(hash);
-        HashValue md5 = new HashValue(hash);
-        boolean alreadyInDB = false;
-        try (PreparedStatement ps = storageCon.get(output).get(k).prepareStatement(CHECK_HASH)) {
-            ps.setString(1, md5.toString());
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                alreadyInDB = true;
-            }
-        }
-        if (!alreadyInDB) {
-            try (PreparedStatement ps = storageCon.get(output).get(k).prepareStatement(INSERT_DATA)) {
-                ps.setString(1, md5.toString());
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                OutputStream gzippedOut = new GzipCompressorOutputStream(baos, getGzipParams());
-                // OutputStream gzippedOut = new LZ4BlockOutputStream(baos);
-                gzippedOut.write(buf, 0, len);
-                gzippedOut.close();
-                byte[] bytes = baos.toByteArray();
-                baos = null;
-                ps.setBytes(2, bytes);
-                ps.setBytes(3, bytes);
-                ps.executeUpdate();
-            }
-        }
-        evidence.setIdInDataSource(md5.toString());
-        evidence.setInputStreamFactory(
-                new SQLiteInputStreamFactory(storage.get(output).get(k).toPath(), storageCon.get(output).get(k)));
+        storage.put(hash, BlobStore.DATA, buf, len);
+        evidence.setIdInDataSource(new HashValue(hash).toString());
+        evidence.setInputStreamFactory(storageFactory);
         evidence.setFile(null);
         evidence.setFileOffset(-1);
         evidence.setLength((long) len);
     }
 
-    private GzipParameters getGzipParams() {
-        GzipParameters compression = new GzipParameters();
-        compression.setCompressionLevel(Deflater.BEST_SPEED);
-        return compression;
-    }
-
+    /**
+     * Leitura do conteúdo de subitens de casos processados com o armazenamento
+     * anterior em bases SQLite.
+     */
     public static class SQLiteInputStreamFactory extends SeekableInputStreamFactory {
 
         private static final String SELECT_DATA = "SELECT data FROM t1 WHERE id=?;";
@@ -567,11 +479,6 @@ public SQLiteInputStreamFactory(Path datasource) {
             super(datasource);
         }
 
-        public SQLiteInputStreamFactory(Path datasource, Connection conn) {
-            super(datasource);
-            this.conn = conn;
-        }
-
         @Override
         public boolean checkIfDataSourceExists() {
             // do nothing, it will always be into case folder
@@ -584,8 +491,10 @@ public boolean checkIfDataSourceExists() {
         public SeekableInputStream getSeekableInputStream(String identifier) throws IOException {
             try {
                 byte[] bytes = null;
-                if (conn == null || conn.isClosed()) {
-                    conn = getSQLiteStorageCon(getDataSourcePath().toFile());
+                synchronized (this) {
+                    if (conn == null || conn.isClosed()) {
+                        conn = getSQLiteConnection(getDataSourcePath().toFile());
+                    }
                 }
                 try (PreparedStatement ps = conn.prepareStatement(SELECT_DATA)) {
                     ps.setString(1, identifier);
@@ -628,35 +537,24 @@ public void init(Properties confProps, File confDir) throws Exception {
         itensExtracted = 0;
         subDirCounter = 0;
 
-        hashMap = (HashMap<IHashValue, IHashValue>) caseData.getCaseObject(DuplicateTask.HASH_MAP);
+        hashRegistry = DuplicateTask.getHashRegistry(caseData);
+        if (hashRegistry == null) {
+            // DuplicateTask not installed, registry used just for locking
+            hashRegistry = new HashRegistry();
+        }
 
     }
 
     @Override
     public void finish() throws Exception {
-        hashMap.clear();
-        if (storageCon.get(output) != null) {
-            int i = 0;
-            for (Connection con : storageCon.get(output).values()) {
-                if (con != null && !con.isClosed() && !con.getAutoCommit()) {
-                    con.commit();
-                    con.close();
-                    LOGGER.info("Closed connection to storage " + i);
-                }
-                i++;
-            }
-            storageCon.remove(output);
+        if (storage != null && !storage.isClosed()) {
+            BlobStore.closeStore(storage.getDir());
+            LOGGER.info("Closed storage " + storage.getDir().getAbsolutePath()); //$NON-NLS-1$
         }
     }
 
-    public static void commitStorage(File output) throws SQLException {
-        if (storageCon.get(output) != null) {
-            for (Connection con : storageCon.get(output).values()) {
-                if (con != null && !con.isClosed() && !con.getAutoCommit()) {
-                    con.commit();
-                }
-            }
-        }
+    public static void commitStorage(File output) throws IOException, InterruptedException {
+        BlobStore.commitStore(new File(output, BlobStore.STORAGE_DIR));
     }
 
 }
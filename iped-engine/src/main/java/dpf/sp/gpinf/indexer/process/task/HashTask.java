@@ -23,9 +23,18 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.slf4j.Logger;
@@ -62,7 +71,24 @@ public String toString() {
         }
     }
 
-    private HashMap<String, MessageDigest> digestMap = new LinkedHashMap<String, MessageDigest>();
+    /**
+     * Tamanho de cada buffer de leitura. São mantidos 2 buffers por instância da
+     * tarefa, para que a leitura do próximo bloco ocorra enquanto o bloco atual é
+     * processado pelos algoritmos.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Itens menores que isso são processados inline pelo próprio Worker, pois o
+     * custo de despachar os blocos para as threads de hash não compensa.
+     */
+    private static final long MIN_LEN_TO_HASH_IN_PARALLEL = 4 * BUFFER_SIZE;
+
+    private static ExecutorService hashLanesPool = Executors.newCachedThreadPool(new HashLaneThreadFactory());
+
+    private HashMap<String, DigestLane> digestMap = new LinkedHashMap<String, DigestLane>();
+
+    private byte[][] buffers;
 
     @Override
     public boolean isEnabled() {
@@ -78,23 +104,30 @@ public void init(Properties confProps, File confDir) throws Exception {
         if (value != null && !value.isEmpty()) {
             for (String algorithm : value.split(";")) { //$NON-NLS-1$
                 algorithm = algorithm.trim();
-                MessageDigest digest = null;
+                DigestLane lane = null;
                 if (!algorithm.equalsIgnoreCase(HASH.EDONKEY.toString())) {
-                    digest = MessageDigest.getInstance(algorithm.toUpperCase());
+                    lane = new DigestLane(algorithm, MessageDigest.getInstance(algorithm.toUpperCase()));
                 } else {
-                    digest = MessageDigest.getInstance("MD4", new BouncyCastleProvider()); //$NON-NLS-1$
+                    lane = new Ed2kLane(algorithm, MessageDigest.getInstance("MD4", new BouncyCastleProvider())); //$NON-NLS-1$
                 }
-                digestMap.put(algorithm, digest);
+                digestMap.put(algorithm, lane);
             }
-
+            buffers = new byte[2][BUFFER_SIZE];
         }
 
     }
 
     @Override
     public void finish() throws Exception {
-        // TODO Auto-generated method stub
+        if (stats != null) {
+            for (DigestLane lane : digestMap.values()) {
+                stats.addHashThroughput(lane.algorithm, lane.totalBytes, lane.totalNanos);
+            }
+        }
+    }
 
+    public static void shutdownTasks() {
+        hashLanesPool.shutdownNow();
     }
 
     public void process(IItem evidence) {
@@ -110,30 +143,24 @@ public void process(IItem evidence) {
 
         InputStream in = null;
         try {
+            for (DigestLane lane : digestMap.values()) {
+                lane.reset();
+            }
+
             in = evidence.getBufferedStream();
-            byte[] buf = new byte[1024 * 1024];
-            int len;
-            while ((len = in.read(buf)) >= 0 && !Thread.currentThread().isInterrupted()) {
-                for (String algo : digestMap.keySet()) {
-                    if (!algo.equals(HASH.EDONKEY.toString())) {
-                        digestMap.get(algo).update(buf, 0, len);
-                    } else {
-                        updateEd2k(buf, len);
-                    }
-                }
+            Long length = evidence.getLength();
+            if (length != null && length >= MIN_LEN_TO_HASH_IN_PARALLEL) {
+                hashInParallel(in);
+            } else {
+                hashInline(in);
             }
 
             boolean defaultHash = true;
-            for (String algo : digestMap.keySet()) {
-                byte[] hash;
-                if (!algo.equals(HASH.EDONKEY.toString())) {
-                    hash = digestMap.get(algo).digest();
-                } else {
-                    hash = digestEd2k();
-                }
+            for (DigestLane lane : digestMap.values()) {
+                byte[] hash = lane.digest();
 
                 String hashString = getHashString(hash);
-                evidence.setExtraAttribute(algo, hashString);
+                evidence.setExtraAttribute(lane.algorithm, hashString);
 
                 if (defaultHash) {
                     evidence.setHash(hashString);
@@ -142,6 +169,9 @@ public void process(IItem evidence) {
             }
 
         } catch (Exception e) {
+            if (e instanceof ExecutionException && e.getCause() instanceof Exception) {
+                e = (Exception) e.getCause();
+            }
             if (e instanceof IOException) {
                 evidence.setExtraAttribute("ioError", "true"); //$NON-NLS-1$ //$NON-NLS-2$
                 stats.incIoErrors();
@@ -156,46 +186,175 @@ public void process(IItem evidence) {
 
     }
 
-    private static int CHUNK_SIZE = 9500 * 1024;
-    private int chunk = 0, total = 0;
-    private ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private void hashInline(InputStream in) throws IOException {
+        byte[] buf = buffers[0];
+        int len;
+        while ((len = in.read(buf)) >= 0 && !Thread.currentThread().isInterrupted()) {
+            for (DigestLane lane : digestMap.values()) {
+                lane.update(buf, len);
+            }
+        }
+    }
+
+    /**
+     * Cada algoritmo é atualizado em uma thread própria (lane) enquanto o Worker lê
+     * o próximo bloco no buffer alternativo. Os lanes de um bloco terminam antes do
+     * próximo ser despachado, assim cada digest recebe os blocos em ordem.
+     */
+    private void hashInParallel(InputStream in) throws Exception {
+        ArrayList<Future<?>> pending = new ArrayList<>(digestMap.size());
+        int current = 0;
+        int len = in.read(buffers[current]);
+        try {
+            while (len >= 0 && !Thread.currentThread().isInterrupted()) {
+                final byte[] buf = buffers[current];
+                final int bufLen = len;
+                for (DigestLane lane : digestMap.values()) {
+                    pending.add(hashLanesPool.submit(() -> {
+                        lane.update(buf, bufLen);
+                        return null;
+                    }));
+                }
+                current ^= 1;
+                len = in.read(buffers[current]);
+                for (Future<?> future : pending) {
+                    future.get();
+                }
+                pending.clear();
+            }
+        } finally {
+            awaitLanes(pending);
+        }
+    }
+
+    /**
+     * Aguarda o término dos lanes ainda em execução, mesmo após erro ou
+     * interrupção, pois eles atualizam os digests e buffers reutilizados pelo
+     * próximo item.
+     */
+    private static void awaitLanes(List<Future<?>> pending) {
+        boolean interrupted = false;
+        for (Future<?> future : pending) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException e) {
+                    // o erro já foi propagado pelo laço de hashInParallel
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Estado de um algoritmo de hash, atualizado sempre por uma única thread por
+     * vez.
+     */
+    private static class DigestLane {
+
+        final String algorithm;
+        final MessageDigest digest;
+        long totalBytes, totalNanos;
+
+        DigestLane(String algorithm, MessageDigest digest) {
+            this.algorithm = algorithm;
+            this.digest = digest;
+        }
+
+        void update(byte[] buffer, int len) throws IOException {
+            long t = System.nanoTime();
+            doUpdate(buffer, len);
+            totalNanos += System.nanoTime() - t;
+            totalBytes += len;
+        }
 
-    private void updateEd2k(byte[] buffer, int len) throws IOException {
+        void doUpdate(byte[] buffer, int len) throws IOException {
+            digest.update(buffer, 0, len);
+        }
 
-        MessageDigest md4 = digestMap.get(HASH.EDONKEY.toString());
-        if (chunk + len >= CHUNK_SIZE) {
-            int offset = CHUNK_SIZE - chunk;
-            md4.update(buffer, 0, offset);
-            out.write(md4.digest());
-            chunk = len - offset;
-            md4.update(buffer, offset, chunk);
-        } else {
-            md4.update(buffer, 0, len);
-            chunk += len;
+        byte[] digest() throws IOException {
+            return digest.digest();
+        }
+
+        void reset() {
+            digest.reset();
         }
-        total += len;
     }
 
-    private byte[] digestEd2k() throws IOException {
+    private static class Ed2kLane extends DigestLane {
+
+        private static int CHUNK_SIZE = 9500 * 1024;
+        private int chunk = 0, total = 0;
+        private ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Ed2kLane(String algorithm, MessageDigest md4) {
+            super(algorithm, md4);
+        }
+
+        @Override
+        void doUpdate(byte[] buffer, int len) throws IOException {
+
+            MessageDigest md4 = digest;
+            if (chunk + len >= CHUNK_SIZE) {
+                int offset = CHUNK_SIZE - chunk;
+                md4.update(buffer, 0, offset);
+                out.write(md4.digest());
+                chunk = len - offset;
+                md4.update(buffer, offset, chunk);
+            } else {
+                md4.update(buffer, 0, len);
+                chunk += len;
+            }
+            total += len;
+        }
+
+        @Override
+        byte[] digest() throws IOException {
+
+            MessageDigest md4 = digest;
+            if (total == 0 || total % CHUNK_SIZE != 0) {
+                out.write(md4.digest());
+            }
+
+            if (out.size() > md4.getDigestLength()) {
+                md4.update(out.toByteArray());
+                out.reset();
+                out.write(md4.digest());
+            }
 
-        MessageDigest md4 = digestMap.get(HASH.EDONKEY.toString());
-        if (total == 0 || total % CHUNK_SIZE != 0) {
-            out.write(md4.digest());
+            byte[] ed2k = out.toByteArray();
+
+            reset();
+
+            return ed2k;
         }
 
-        if (out.size() > md4.getDigestLength()) {
-            md4.update(out.toByteArray());
-            out.reset();
-            out.write(md4.digest());
+        @Override
+        void reset() {
+            super.reset();
+            chunk = 0;
+            total = 0;
+            out = new ByteArrayOutputStream();
         }
+    }
 
-        byte[] ed2k = out.toByteArray();
+    private static class HashLaneThreadFactory implements ThreadFactory {
 
-        chunk = 0;
-        total = 0;
-        out = new ByteArrayOutputStream();
+        private AtomicInteger i = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "HashLaneThread-" + i.getAndIncrement()); //$NON-NLS-1$
+            t.setDaemon(true);
+            return t;
+        }
 
-        return ed2k;
     }
 
     public static String getHashString(byte[] hash) {
@@ -3,6 +3,7 @@
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.util.Properties;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -13,7 +14,9 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dpf.sp.gpinf.indexer.search.IPEDSource;
 import gpinf.similarity.ImageSimilarity;
+import gpinf.similarity.ImageSimilarityIndex;
 import iped3.IItem;
 
 /**
@@ -80,6 +83,23 @@ public void finish() throws Exception {
         }
     }
 
+    /**
+     * Cria o índice de busca de imagens semelhantes, após o término do
+     * processamento. Também recria um índice existente se a tarefa estiver
+     * desabilitada, pois novos itens podem ter sido adicionados ao caso.
+     */
+    public static void createIndex(File moduleDir) throws IOException {
+        if (!taskEnabled && !ImageSimilarityIndex.getIndexFile(moduleDir).exists()) {
+            return;
+        }
+        logger.info("Creating image similarity index..."); //$NON-NLS-1$
+        long t = System.currentTimeMillis();
+        try (IPEDSource ipedCase = new IPEDSource(moduleDir.getParentFile())) {
+            ImageSimilarityIndex.build(ipedCase);
+        }
+        logger.info("Image similarity index finished in {} ms", System.currentTimeMillis() - t); //$NON-NLS-1$
+    }
+
     protected void process(IItem evidence) throws Exception {
         if (!taskEnabled || !isImageType(evidence.getMediaType()) || !evidence.isToAddToCase()
                 || evidence.getHash() == null) {
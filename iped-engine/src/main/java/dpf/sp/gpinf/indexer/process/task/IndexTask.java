@@ -24,14 +24,17 @@
 import dpf.sp.gpinf.indexer.io.ParsingReader;
 import dpf.sp.gpinf.indexer.parsers.IndexerDefaultParser;
 import dpf.sp.gpinf.indexer.process.IndexItem;
+import dpf.sp.gpinf.indexer.process.ItemLookupIndex;
 import dpf.sp.gpinf.indexer.process.Worker.STATE;
 import dpf.sp.gpinf.indexer.search.IPEDSource;
 import dpf.sp.gpinf.indexer.util.CloseFilterReader;
 import dpf.sp.gpinf.indexer.util.FragmentingReader;
+import dpf.sp.gpinf.indexer.util.HashRegistry;
 import dpf.sp.gpinf.indexer.util.IOUtil;
 import dpf.sp.gpinf.indexer.util.IPEDException;
 import dpf.sp.gpinf.indexer.util.Util;
 import gpinf.dev.data.Item;
+import iped3.IHashValue;
 import iped3.IItem;
 import iped3.sleuthkit.ISleuthKitItem;
 
@@ -57,6 +60,8 @@ public class IndexTask extends AbstractTask {
 
     private IndexerDefaultParser autoParser;
     private List<IdLenPair> textSizes;
+    private HashRegistry hashRegistry;
+    private ItemLookupIndex lookupIndex;
 
     public IndexTask() {
         this.autoParser = new IndexerDefaultParser();
@@ -179,6 +184,13 @@ public void process(IItem evidence) throws IOException {
 
         textSizes.add(new IdLenPair(evidence.getId(), fragReader.getTotalTextSize()));
 
+        lookupIndex.add(evidence);
+
+        IHashValue hashValue = evidence.getHashValue();
+        if (hashRegistry != null && hashValue != null) {
+            hashRegistry.markIndexed(hashValue.getBytes());
+        }
+
     }
 
     private Metadata getMetadata(IItem evidence) {
@@ -216,14 +228,20 @@ public void init(Properties properties, File confDir) throws Exception {
             indexUnallocated = Boolean.valueOf(value);
         }
 
+        lookupIndex = ItemLookupIndex.get(caseData);
+
         CmdLineArgs args = (CmdLineArgs) caseData.getCaseObject(CmdLineArgs.class.getName());
         if (args.isAppendIndex() || args.isContinue() || args.isRestart()) {
+            // itens já indexados não estão no índice em memória
+            lookupIndex.setIncomplete();
             try (IPEDSource ipedSrc = new IPEDSource(output.getParentFile(), worker.writer)) {
                 stats.setLastId(ipedSrc.getLastId());
                 Item.setStartID(ipedSrc.getLastId() + 1);
             }
         }
 
+        hashRegistry = DuplicateTask.getHashRegistry(caseData);
+
         textSizes = (List<IdLenPair>) caseData.getCaseObject(TEXT_SIZES);
         if (textSizes == null) {
             textSizes = Collections.synchronizedList(new ArrayList<IdLenPair>());
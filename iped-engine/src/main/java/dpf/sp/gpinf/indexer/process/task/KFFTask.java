@@ -1,16 +1,24 @@
 package dpf.sp.gpinf.indexer.process.task;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.ProgressMonitor;
 
@@ -23,6 +31,9 @@
 import dpf.sp.gpinf.indexer.Configuration;
 import dpf.sp.gpinf.indexer.process.task.HashTask.HashValue;
 import dpf.sp.gpinf.indexer.util.IPEDException;
+import dpf.sp.gpinf.indexer.util.SortedHashDB;
+import dpf.sp.gpinf.indexer.util.SortedHashDBWriter;
+import iped3.IHashValue;
 import iped3.IItem;
 
 /**
@@ -34,6 +45,11 @@
  * cache do SO antes que sejam descartados, pois os hashes são de difícil
  * repetição.
  *
+ * Bases importadas a partir desta versão usam o formato {@link SortedHashDB}:
+ * arquivos de hashes ordenados e mapeados em memória, com índice de prefixos e
+ * filtro de Bloom, gravados ao lado do caminho configurado em kffDb. Bases
+ * antigas no formato MapDB continuam sendo suportadas para consulta.
+ *
  * @author Nassif
  *
  */
@@ -46,8 +62,14 @@ public class KFFTask extends AbstractTask {
     public static final String KFF_STATUS = "kffstatus"; //$NON-NLS-1$
     public static final String KFF_GROUP = "kffgroup"; //$NON-NLS-1$
 
+    private static final String MD5_DB_SUFFIX = ".md5"; //$NON-NLS-1$
+    private static final String SHA1_DB_SUFFIX = ".sha1"; //$NON-NLS-1$
+    private static final String PRODUCTS_SUFFIX = ".products"; //$NON-NLS-1$
+    private static final int IMPORT_HASHES_IN_MEMORY = 1 << 23;
+    private static final int BLOOM_BITS_PER_HASH = 10;
+
     public static int excluded = 0;
-    private static Object lock = new Object();
+    private static AtomicInteger excludedCounter = new AtomicInteger();
 
     /*
      * valor negativo no mapa indica hash ignorável valor positivo indica alerta
@@ -56,9 +78,13 @@ public class KFFTask extends AbstractTask {
     private static Map<HashValue, Integer> md5Map;
     private static Map<HashValue, Integer> sha1Map;
 
+    private static SortedHashDB md5SortedDb;
+    private static SortedHashDB sha1SortedDb;
+
     private static Map<Integer, String[]> products;
     private static Set<String> alertProducts;
     private static DB db;
+    private static File kffDb;
     private static boolean taskEnabled = true;
 
     private boolean excludeKffIgnorable = true;
@@ -113,42 +139,28 @@ public void init(Properties confParams, File confDir) throws Exception {
         if (!importing && !taskEnabled)
             return;
 
-        if (map == null) {
+        if (map == null && md5SortedDb == null) {
             excluded = 0;
+            excludedCounter.set(0);
 
-            File kffDb = new File(kffDbPath.trim());
-            if (importing)
+            kffDb = new File(kffDbPath.trim());
+            if (importing) {
                 kffDb.getParentFile().mkdirs();
+                return;
+            }
+
+            File md5File = new File(kffDb.getAbsolutePath() + MD5_DB_SUFFIX);
+            if (md5File.exists()) {
+                loadSortedDb(md5File);
 
-            if (!kffDb.exists() && !importing) {
+            } else if (!kffDb.exists()) {
                 String msg = "Invalid hash database path on " + kffDb.getAbsolutePath(); //$NON-NLS-1$
                 LOGGER.error(msg);
                 taskEnabled = false;
                 return;
-            }
-
-            try {
-                DBMaker dbMaker = DBMaker.newFileDB(kffDb).transactionDisable().mmapFileEnableIfSupported();
-                if (importing) {
-                    dbMaker.asyncWriteEnable().asyncWriteFlushDelay(1000).asyncWriteQueueSize(1024000);
-                } else {
-                    dbMaker.readOnly();
-                }
-                db = dbMaker.make();
-
-            } catch (java.io.IOError | ArrayIndexOutOfBoundsException e) {
-                throw new Exception("Hash database " + kffDb.getParent() + " seems corrupted."
-                        + " Point kffDb to a clean database or delete it and import the hashes again.", e);
-            }
 
-            md5Map = db.getHashMap("md5Map"); //$NON-NLS-1$
-            sha1Map = db.getHashMap("sha1Map"); //$NON-NLS-1$
-            products = db.getHashMap("productMap"); //$NON-NLS-1$
-
-            if (md5) {
-                map = md5Map;
             } else {
-                map = sha1Map;
+                loadMapDb();
             }
 
             if (confDir != null) {
@@ -170,8 +182,45 @@ public void init(Properties confParams, File confDir) throws Exception {
         }
     }
 
+    private void loadSortedDb(File md5File) throws Exception {
+        try {
+            md5SortedDb = new SortedHashDB(md5File);
+            sha1SortedDb = new SortedHashDB(new File(kffDb.getAbsolutePath() + SHA1_DB_SUFFIX));
+            try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(
+                    new FileInputStream(new File(kffDb.getAbsolutePath() + PRODUCTS_SUFFIX))))) {
+                products = (Map<Integer, String[]>) ois.readObject();
+            }
+        } catch (IOException e) {
+            throw new Exception("Hash database " + kffDb.getAbsolutePath() + " seems corrupted."
+                    + " Delete it and import the hashes again.", e);
+        }
+    }
+
+    private void loadMapDb() throws Exception {
+        try {
+            DBMaker dbMaker = DBMaker.newFileDB(kffDb).transactionDisable().mmapFileEnableIfSupported();
+            dbMaker.readOnly();
+            db = dbMaker.make();
+
+        } catch (java.io.IOError | ArrayIndexOutOfBoundsException e) {
+            throw new Exception("Hash database " + kffDb.getParent() + " seems corrupted."
+                    + " Point kffDb to a clean database or delete it and import the hashes again.", e);
+        }
+
+        md5Map = db.getHashMap("md5Map"); //$NON-NLS-1$
+        sha1Map = db.getHashMap("sha1Map"); //$NON-NLS-1$
+        products = db.getHashMap("productMap"); //$NON-NLS-1$
+
+        if (md5) {
+            map = md5Map;
+        } else {
+            map = sha1Map;
+        }
+    }
+
     @Override
     public void finish() throws Exception {
+        excluded += excludedCounter.getAndSet(0);
         if (excluded != -1) {
             LOGGER.info("Items ignored by hash database lookup: {}", excluded); //$NON-NLS-1$
         }
@@ -181,12 +230,36 @@ public void finish() throws Exception {
             db.close();
             db = null;
         }
+        if (md5SortedDb != null) {
+            md5SortedDb.close();
+            md5SortedDb = null;
+        }
+        if (sha1SortedDb != null) {
+            sha1SortedDb.close();
+            sha1SortedDb = null;
+        }
         md5Map = null;
         sha1Map = null;
         map = null;
     }
 
-    public void importKFF(File kffDir) throws IOException {
+    /**
+     * Importa arquivos no formato NIST NSRL, acrescentando-os à base existente,
+     * inclusive a uma base antiga no formato MapDB, que é migrada para o novo
+     * formato. Se o mesmo hash aparecer mais de uma vez, prevalece o primeiro
+     * produto, exceto se uma ocorrência posterior for ignorável, caso em que
+     * prevalece a primeira ocorrência ignorável.
+     */
+    public void importKFF(File kffDir) throws Exception {
+
+        SortedHashDBWriter.ValueMerger merger = (current, next) -> current > 0 && next < 0 ? next : current;
+        File tmpDir = kffDb.getParentFile();
+        SortedHashDBWriter md5Writer = new SortedHashDBWriter(16, tmpDir, IMPORT_HASHES_IN_MEMORY, merger);
+        SortedHashDBWriter sha1Writer = new SortedHashDBWriter(20, tmpDir, IMPORT_HASHES_IN_MEMORY, merger);
+
+        // os hashes já existentes são adicionados primeiro, para prevalecerem
+        products = new HashMap<>();
+        addExistingHashes(md5Writer, sha1Writer);
 
         File NSRLProd = new File(kffDir, "NSRLProd.txt"); //$NON-NLS-1$
         BufferedReader reader = new BufferedReader(new FileReader(NSRLProd));
@@ -199,6 +272,7 @@ public void importKFF(File kffDir) throws IOException {
             products.put(Integer.valueOf(key), prod);
         }
         reader.close();
+
         for (File kffFile : kffDir.listFiles()) {
             if (!kffFile.getName().equals("NSRLFile.txt")) { //$NON-NLS-1$
                 continue;
@@ -213,27 +287,19 @@ public void importKFF(File kffDir) throws IOException {
             String[] ignoreStrs = { "\"\"", "\"D\"" }; //$NON-NLS-1$ //$NON-NLS-2$
             while ((line = reader.readLine()) != null) {
                 String[] values = line.split(","); //$NON-NLS-1$
-                KffAttr attr = new KffAttr();
-                attr.group = Integer.valueOf(values[values.length - 3]);
+                int group = Integer.valueOf(values[values.length - 3]);
                 if (values[values.length - 1].equals(ignoreStrs[0])
                         || values[values.length - 1].equals(ignoreStrs[1])) {
-                    attr.group *= -1;
+                    group *= -1;
                 }
-                // else
-                // System.out.println(line);
 
-                HashValue md5 = new HashValue(values[1].substring(1, 33));
-                HashValue sha1 = new HashValue(values[0].substring(1, 41));
-
-                Integer value = md5Map.get(md5);
-                if (value == null || (value > 0 && attr.group < 0)) {
-                    md5Map.put(md5, attr.group);
-                    sha1Map.put(sha1, attr.group);
-                }
+                md5Writer.add(new HashValue(values[1].substring(1, 33)).getBytes(), group);
+                sha1Writer.add(new HashValue(values[0].substring(1, 41)).getBytes(), group);
 
                 progress += line.length() + 2;
                 if (progress > i * length / 1000) {
                     if (monitor.isCanceled()) {
+                        reader.close();
                         return;
                     }
                     monitor.setProgress((int) (progress / 1000));
@@ -242,10 +308,50 @@ public void importKFF(File kffDir) throws IOException {
 
             }
             reader.close();
-            db.commit();
-            db.close();
             monitor.close();
         }
+
+        LOGGER.info("Sorting and writing hash database..."); //$NON-NLS-1$
+        long md5Count = md5Writer.finish(new File(kffDb.getAbsolutePath() + MD5_DB_SUFFIX), BLOOM_BITS_PER_HASH);
+        sha1Writer.finish(new File(kffDb.getAbsolutePath() + SHA1_DB_SUFFIX), BLOOM_BITS_PER_HASH);
+        try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(kffDb.getAbsolutePath() + PRODUCTS_SUFFIX))))) {
+            oos.writeObject(products);
+        }
+        LOGGER.info("Imported {} distinct hashes.", md5Count); //$NON-NLS-1$
+    }
+
+    private void addExistingHashes(SortedHashDBWriter md5Writer, SortedHashDBWriter sha1Writer) throws Exception {
+        File md5File = new File(kffDb.getAbsolutePath() + MD5_DB_SUFFIX);
+        if (md5File.exists()) {
+            LOGGER.info("Reading existing hash database {}", kffDb.getAbsolutePath()); //$NON-NLS-1$
+            SortedHashDB.readAll(md5File, md5Writer::add);
+            SortedHashDB.readAll(new File(kffDb.getAbsolutePath() + SHA1_DB_SUFFIX), sha1Writer::add);
+            try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(
+                    new FileInputStream(new File(kffDb.getAbsolutePath() + PRODUCTS_SUFFIX))))) {
+                products.putAll((Map<Integer, String[]>) ois.readObject());
+            }
+
+        } else if (kffDb.exists()) {
+            LOGGER.info("Migrating old hash database {}", kffDb.getAbsolutePath()); //$NON-NLS-1$
+            loadMapDb();
+            try {
+                for (Map.Entry<HashValue, Integer> entry : md5Map.entrySet()) {
+                    md5Writer.add(entry.getKey().getBytes(), entry.getValue());
+                }
+                for (Map.Entry<HashValue, Integer> entry : sha1Map.entrySet()) {
+                    sha1Writer.add(entry.getKey().getBytes(), entry.getValue());
+                }
+                Map<Integer, String[]> oldProducts = products;
+                products = new HashMap<>(oldProducts);
+            } finally {
+                db.close();
+                db = null;
+                md5Map = null;
+                sha1Map = null;
+                map = null;
+            }
+        }
     }
 
     @Override
@@ -259,29 +365,40 @@ protected void process(IItem evidence) throws Exception {
         if (!isEnabled())
             return;
 
-        HashValue hash = null;
-        if (evidence.getHash() != null && !evidence.getHash().isEmpty()) {
-            hash = new HashValue(evidence.getHash());
+        if (evidence.isDir() || evidence.isRoot()) {
+            return;
         }
-        if (map != null && hash != null && !evidence.isDir() && !evidence.isRoot()) {
-            Integer attr = map.get(hash);
-            if (attr != null) {
-                String[] product = products.get(Math.abs(attr));
-                if (attr > 0 || alertProducts.contains(product[0])) // evidence.addCategory(ALERT);
-                {
-                    evidence.setExtraAttribute(KFF_STATUS, "alert"); //$NON-NLS-1$
+
+        int attr = SortedHashDB.NOT_FOUND;
+        if (md5SortedDb != null) {
+            IHashValue hash = evidence.getHashValue();
+            if (hash != null) {
+                byte[] bytes = hash.getBytes();
+                attr = bytes.length == md5SortedDb.getHashLength() ? md5SortedDb.lookup(bytes)
+                        : sha1SortedDb.lookup(bytes);
+            }
+
+        } else if (map != null && evidence.getHash() != null && !evidence.getHash().isEmpty()) {
+            Integer value = map.get(new HashValue(evidence.getHash()));
+            if (value != null) {
+                attr = value;
+            }
+        }
+
+        if (attr != SortedHashDB.NOT_FOUND) {
+            String[] product = products.get(Math.abs(attr));
+            if (attr > 0 || alertProducts.contains(product[0])) // evidence.addCategory(ALERT);
+            {
+                evidence.setExtraAttribute(KFF_STATUS, "alert"); //$NON-NLS-1$
+            } else {
+                if (excludeKffIgnorable) {
+                    evidence.setToIgnore(true);
+                    excludedCounter.incrementAndGet();
                 } else {
-                    if (excludeKffIgnorable) {
-                        evidence.setToIgnore(true);
-                        synchronized (lock) {
-                            excluded++;
-                        }
-                    } else {
-                        evidence.setExtraAttribute(KFF_STATUS, "ignore"); //$NON-NLS-1$
-                    }
+                    evidence.setExtraAttribute(KFF_STATUS, "ignore"); //$NON-NLS-1$
                 }
-                evidence.setExtraAttribute(KFF_GROUP, product[0] + " " + product[1]); //$NON-NLS-1$
             }
+            evidence.setExtraAttribute(KFF_GROUP, product[0] + " " + product[1]); //$NON-NLS-1$
         }
     }
 
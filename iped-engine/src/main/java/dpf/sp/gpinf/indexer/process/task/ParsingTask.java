@@ -25,6 +25,7 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
@@ -77,6 +78,7 @@
 import dpf.sp.gpinf.indexer.process.Worker;
 import dpf.sp.gpinf.indexer.process.Worker.ProcessTime;
 import dpf.sp.gpinf.indexer.search.IPEDSource;
+import dpf.sp.gpinf.indexer.util.IOUtil;
 import dpf.sp.gpinf.indexer.util.ItemInfoFactory;
 import dpf.sp.gpinf.indexer.util.ParentInfo;
 import dpf.sp.gpinf.indexer.util.TextCache;
@@ -343,15 +345,7 @@ private void safeProcess(IItem evidence) throws IOException {
             AdvancedIPEDConfig advancedConfig = (AdvancedIPEDConfig) ConfigurationManager.getInstance()
                     .findObjects(AdvancedIPEDConfig.class).iterator().next();
 
-            TextCache textCache = new TextCache();
-            textCache.setEnableDiskCache(advancedConfig.isStoreTextCacheOnDisk());
-            char[] cbuf = new char[128 * 1024];
-            int len = 0;
-            while ((len = reader.read(cbuf)) != -1 && !Thread.currentThread().isInterrupted()) {
-                textCache.write(cbuf, 0, len);
-                // if(metadata.get(IndexerDefaultParser.PARSER_EXCEPTION) != null)
-                // break;
-            }
+            TextCache textCache = readText(reader, advancedConfig.isStoreTextCacheOnDisk());
 
             ((Item) evidence).setParsedTextCache(textCache);
             evidence.setParsed(true);
@@ -375,6 +369,33 @@ private void safeProcess(IItem evidence) throws IOException {
 
     }
 
+    /**
+     * Copia o texto extraído para um novo cache. Em caso de erro (timeout,
+     * interrupção ou falha de leitura) o cache é fechado, devolvendo seus blocos
+     * ao pool, antes de propagar a exceção.
+     */
+    static TextCache readText(Reader reader, boolean diskCacheEnabled) throws IOException {
+        TextCache textCache = new TextCache();
+        textCache.setEnableDiskCache(diskCacheEnabled);
+        boolean ok = false;
+        try {
+            char[] cbuf = new char[128 * 1024];
+            int len = 0;
+            while ((len = reader.read(cbuf)) != -1 && !Thread.currentThread().isInterrupted()) {
+                textCache.write(cbuf, 0, len);
+                // if(metadata.get(IndexerDefaultParser.PARSER_EXCEPTION) != null)
+                // break;
+            }
+            ok = true;
+            return textCache;
+
+        } finally {
+            if (!ok) {
+                IOUtil.closeQuietly(textCache);
+            }
+        }
+    }
+
     private static final void handleMetadata(IItem evidence) {
         // Ajusta metadados:
         Metadata metadata = evidence.getMetadata();
@@ -658,6 +679,7 @@ public void finish() throws Exception {
             LOGGER.info("Total extracted text size: " + totalText.get()); //$NON-NLS-1$
         totalText = null;
 
+        OCRParser.shutdown();
     }
 
 }
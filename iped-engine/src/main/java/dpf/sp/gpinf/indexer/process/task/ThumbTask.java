@@ -1,13 +1,12 @@
 package dpf.sp.gpinf.indexer.process.task;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 
 import dpf.sp.gpinf.indexer.config.ConfigurationManager;
 import dpf.sp.gpinf.indexer.config.IPEDConfig;
+import dpf.sp.gpinf.indexer.util.BlobStore;
 import dpf.sp.gpinf.indexer.util.Util;
 import iped3.IItem;
 
@@ -16,8 +15,18 @@ public abstract class ThumbTask extends AbstractTask {
     public static final String thumbsFolder = "thumbs"; //$NON-NLS-1$
     public static final String HAS_THUMB = "hasThumb"; //$NON-NLS-1$
 
-    private static final String SELECT_THUMB = "SELECT thumb FROM t1 WHERE id=?;"; //$NON-NLS-1$
-    private static final String INSERT_THUMB = "INSERT INTO t1(id, thumb) VALUES(?,?) ON CONFLICT(id) DO UPDATE SET thumb=? WHERE thumb IS NULL;"; //$NON-NLS-1$
+    private BlobStore storage;
+
+    /**
+     * Armazenamento das miniaturas, obtido uma vez por tarefa, evitando disputar o
+     * lock de {@link BlobStore#openForWrite(File)} a cada miniatura.
+     */
+    private BlobStore getStorage() throws IOException {
+        if (storage == null || storage.isClosed()) {
+            storage = ExportFileTask.getStorage(output);
+        }
+        return storage;
+    }
 
     protected File getThumbFile(IItem evidence) throws Exception {
         File thumbFile = null;
@@ -34,26 +43,15 @@ protected File getThumbFile(IItem evidence) throws Exception {
 
     protected boolean hasThumb(IItem evidence, File thumbFile) throws Exception {
         if (thumbFile == null) {
-            Connection con = ExportFileTask.getSQLiteStorageCon(output, evidence.getHashValue().getBytes());
-            try (PreparedStatement ps = con.prepareStatement(SELECT_THUMB)) {
-                ps.setString(1, evidence.getHash());
-                ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
-                    byte[] thumb = rs.getBytes(1);
-                    if (thumb != null) {
-                        evidence.setThumb(thumb);
-                        if (thumb.length > 0) {
-                            evidence.setExtraAttribute(HAS_THUMB, true);
-                        } else {
-                            evidence.setExtraAttribute(HAS_THUMB, false);
-                        }
-                        rs.close();
-                        ps.close();
-                        return true;
-                    }
+            byte[] thumb = getStorage().get(evidence.getHashValue().getBytes(), BlobStore.THUMB);
+            if (thumb != null) {
+                evidence.setThumb(thumb);
+                if (thumb.length > 0) {
+                    evidence.setExtraAttribute(HAS_THUMB, true);
+                } else {
+                    evidence.setExtraAttribute(HAS_THUMB, false);
                 }
-                rs.close();
-                ps.close();
+                return true;
             }
         } else {
             // if exists, do not need to compute again
@@ -77,14 +75,8 @@ protected void saveThumb(IItem evidence, File thumbFile) throws Throwable {
                 evidence.setThumb(new byte[0]); // zero size thumb means thumb error
             }
             if (thumbFile == null) {
-                Connection con = ExportFileTask.getSQLiteStorageCon(output, evidence.getHashValue().getBytes());
-                try (PreparedStatement ps = con.prepareStatement(INSERT_THUMB)) {
-                    ps.setString(1, evidence.getHash());
-                    ps.setBytes(2, evidence.getThumb());
-                    ps.setBytes(3, evidence.getThumb());
-                    ps.executeUpdate();
-                    ps.close();
-                }
+                byte[] thumb = evidence.getThumb();
+                getStorage().put(evidence.getHashValue().getBytes(), BlobStore.THUMB, thumb, thumb.length);
             } else {
                 if (!thumbFile.getParentFile().exists()) {
                     thumbFile.getParentFile().mkdirs();
@@ -0,0 +1,276 @@
+package dpf.sp.gpinf.indexer.process.task.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import dk.brics.automaton.RunAutomaton;
+
+/**
+ * Autômato determinístico único para várias expressões regulares, cujos estados
+ * de aceitação informam quais expressões reconhecem o trecho encontrado,
+ * evitando executar novamente cada expressão sobre cada ocorrência.
+ *
+ * É construído pelo produto dos autômatos de cada expressão, alcançando os
+ * mesmos estados da determinização da união das expressões. A busca segue a
+ * semântica do AutomatonMatcher (ocorrência mais à esquerda e mais longa, sem
+ * sobreposição), mas opera diretamente sobre arrays de char. Uma busca que
+ * alcança o fim dos dados disponíveis sem ter sido decidida é informada ao
+ * chamador, que pode completar os dados e continuá-la a partir da mesma
+ * posição, assim ocorrências entre dois blocos de texto não são perdidas.
+ *
+ * O número de estados do produto pode crescer exponencialmente com o número de
+ * expressões, então é limitado: {@link #create(List, int)} agrupa as expressões
+ * em vários autômatos que respeitem o limite, no pior caso um por expressão,
+ * que são buscados independentemente.
+ */
+public class MultiPatternMatcher {
+
+    /**
+     * Limite padrão de estados de cada autômato produto.
+     */
+    public static final int MAX_STATES = 50000;
+
+    private static final int DEAD = -1;
+
+    private final int numPatterns;
+    private final int initialState;
+    private final int numClasses;
+    private final int[] classmap = new int[Character.MAX_VALUE + 1];
+    private final int[] transitions;
+    private final int[][] acceptTags;
+    private final boolean[] canStart;
+
+    /**
+     * Resultado de uma busca. Reutilizável entre buscas.
+     */
+    public static class Match {
+
+        private int start, end;
+        private int[] patterns;
+
+        public int start() {
+            return start;
+        }
+
+        public int end() {
+            return end;
+        }
+
+        /**
+         * @return índices, na lista usada na construção, das expressões que
+         *         reconhecem o trecho [start, end).
+         */
+        public int[] patterns() {
+            return patterns;
+        }
+    }
+
+    /**
+     * Lançada quando o produto excede o limite de estados.
+     */
+    private static class TooManyStatesException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Cria os autômatos das expressões. Se o produto de todas excede maxStates
+     * estados, as expressões são agrupadas, na ordem da lista, em produtos que não
+     * excedam o limite. Uma expressão sozinha sempre forma um grupo.
+     *
+     * @return os autômatos, que informam as expressões encontradas pelos seus
+     *         índices em patterns.
+     */
+    public static List<MultiPatternMatcher> create(List<RunAutomaton> patterns, int maxStates) {
+        List<MultiPatternMatcher> matchers = new ArrayList<>();
+        List<Integer> group = new ArrayList<>();
+        MultiPatternMatcher current = null;
+        for (int p = 0; p < patterns.size(); p++) {
+            group.add(p);
+            try {
+                current = new MultiPatternMatcher(patterns, group, group.size() == 1 ? Integer.MAX_VALUE : maxStates);
+            } catch (TooManyStatesException e) {
+                matchers.add(current);
+                group.clear();
+                group.add(p);
+                current = new MultiPatternMatcher(patterns, group, Integer.MAX_VALUE);
+            }
+        }
+        if (current != null) {
+            matchers.add(current);
+        }
+        return matchers;
+    }
+
+    private MultiPatternMatcher(List<RunAutomaton> allPatterns, List<Integer> indexes, int maxStates) {
+        List<RunAutomaton> patterns = new ArrayList<>(indexes.size());
+        for (int i : indexes) {
+            patterns.add(allPatterns.get(i));
+        }
+        this.numPatterns = patterns.size();
+
+        // classes de caracteres com transições equivalentes em todos os autômatos
+        TreeSet<Character> pointSet = new TreeSet<>();
+        pointSet.add((char) 0);
+        for (RunAutomaton ra : patterns) {
+            for (char c : ra.getCharIntervals()) {
+                pointSet.add(c);
+            }
+        }
+        char[] points = new char[pointSet.size()];
+        int n = 0;
+        for (char c : pointSet) {
+            points[n++] = c;
+        }
+        numClasses = points.length;
+        for (int k = 0; k < points.length; k++) {
+            int end = k + 1 < points.length ? points[k + 1] : Character.MAX_VALUE + 1;
+            Arrays.fill(classmap, points[k], end, k);
+        }
+
+        // construção do produto a partir do estado inicial
+        Map<StateKey, Integer> stateIds = new HashMap<>();
+        List<int[]> states = new ArrayList<>();
+        int[] initial = new int[numPatterns];
+        for (int p = 0; p < numPatterns; p++) {
+            initial[p] = patterns.get(p).getInitialState();
+        }
+        stateIds.put(new StateKey(initial), 0);
+        states.add(initial);
+
+        int[] trans = new int[16 * numClasses];
+        for (int s = 0; s < states.size(); s++) {
+            int[] current = states.get(s);
+            if ((s + 1) * numClasses > trans.length) {
+                trans = Arrays.copyOf(trans, Math.max(trans.length * 2, (s + 1) * numClasses));
+            }
+            for (int k = 0; k < numClasses; k++) {
+                int[] next = new int[numPatterns];
+                boolean alive = false;
+                for (int p = 0; p < numPatterns; p++) {
+                    next[p] = current[p] == DEAD ? DEAD : patterns.get(p).step(current[p], points[k]);
+                    alive |= next[p] != DEAD;
+                }
+                int id = DEAD;
+                if (alive) {
+                    StateKey key = new StateKey(next);
+                    Integer prev = stateIds.get(key);
+                    if (prev == null) {
+                        if (states.size() >= maxStates) {
+                            throw new TooManyStatesException();
+                        }
+                        prev = states.size();
+                        stateIds.put(key, prev);
+                        states.add(next);
+                    }
+                    id = prev;
+                }
+                trans[s * numClasses + k] = id;
+            }
+        }
+        transitions = Arrays.copyOf(trans, states.size() * numClasses);
+        initialState = 0;
+
+        canStart = new boolean[numClasses];
+        for (int k = 0; k < numClasses; k++) {
+            canStart[k] = transitions[initialState * numClasses + k] != DEAD;
+        }
+
+        acceptTags = new int[states.size()][];
+        int[] tags = new int[numPatterns];
+        for (int s = 0; s < states.size(); s++) {
+            int[] current = states.get(s);
+            int numTags = 0;
+            for (int p = 0; p < numPatterns; p++) {
+                if (current[p] != DEAD && patterns.get(p).isAccept(current[p])) {
+                    tags[numTags++] = indexes.get(p);
+                }
+            }
+            if (numTags > 0) {
+                acceptTags[s] = Arrays.copyOf(tags, numTags);
+            }
+        }
+    }
+
+    public int getNumStates() {
+        return acceptTags.length;
+    }
+
+    public int getNumPatterns() {
+        return numPatterns;
+    }
+
+    private static class StateKey {
+
+        private final int[] states;
+        private final int hash;
+
+        StateKey(int[] states) {
+            this.states = states;
+            this.hash = Arrays.hashCode(states);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StateKey && Arrays.equals(states, ((StateKey) o).states);
+        }
+    }
+
+    /**
+     * Procura a próxima ocorrência em buf[from, limit).
+     *
+     * @param eof
+     *            se não há mais dados após limit. Caso contrário, a busca é
+     *            interrompida quando não puder ser decidida sem mais dados.
+     * @return a posição de início da próxima ocorrência, com o resultado em match,
+     *         -1 se não há ocorrência em buf[from, limit), ou -(pos + 2) se a busca
+     *         a partir de pos precisa de mais dados para ser decidida.
+     */
+    public int find(char[] buf, int from, int limit, boolean eof, Match match) {
+        boolean emptyAccepted = acceptTags[initialState] != null;
+        for (int start = from; start < limit; start++) {
+            if (!emptyAccepted && !canStart[classmap[buf[start]]]) {
+                continue;
+            }
+            int state = initialState;
+            int lastEnd = -1;
+            int[] lastTags = null;
+            if (emptyAccepted) {
+                lastEnd = start;
+                lastTags = acceptTags[state];
+            }
+            int i = start;
+            for (; i < limit; i++) {
+                state = transitions[state * numClasses + classmap[buf[i]]];
+                if (state == DEAD) {
+                    break;
+                }
+                if (acceptTags[state] != null) {
+                    lastEnd = i + 1;
+                    lastTags = acceptTags[state];
+                }
+            }
+            if (i == limit && state != DEAD && !eof) {
+                // a ocorrência poderia continuar (ou começar) após os dados atuais
+                return -(start + 2);
+            }
+            if (lastEnd != -1) {
+                match.start = start;
+                match.end = lastEnd;
+                match.patterns = lastTags;
+                return start;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -13,9 +13,10 @@
 import java.util.Properties;
 import java.util.Set;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import dk.brics.automaton.Automaton;
-import dk.brics.automaton.AutomatonMatcher;
-import dk.brics.automaton.BasicOperations;
 import dk.brics.automaton.DatatypesAutomatonProvider;
 import dk.brics.automaton.RegExp;
 import dk.brics.automaton.RunAutomaton;
@@ -43,9 +44,14 @@ public class RegexTask extends AbstractTask {
 
     private static final int MAX_RESULTS = 50000; // OOME protection for files with tons of hits
 
+    // busca pendente no fim do buffer mantida para o próximo bloco de texto
+    private static final int MAX_PENDING_CHARS = 1 << 16;
+
+    private static Logger LOGGER = LoggerFactory.getLogger(RegexTask.class);
+
     private static List<Regex> regexList;
 
-    private static Regex regexFull;
+    private static List<MultiPatternMatcher> matchers;
 
     private static volatile boolean extractByKeywords = false;
 
@@ -175,11 +181,14 @@ public void init(Properties confParams, File confDir) throws Exception {
                 }
             }
 
-            ArrayList<Automaton> automatonList = new ArrayList<Automaton>();
+            ArrayList<RunAutomaton> automatonList = new ArrayList<RunAutomaton>();
             for (Regex regex : regexList)
-                automatonList.add(regex.automaton);
-            Automaton automata = BasicOperations.union(automatonList);
-            regexFull = new Regex("FULL", automata); //$NON-NLS-1$
+                automatonList.add(regex.pattern);
+            matchers = MultiPatternMatcher.create(automatonList, MultiPatternMatcher.MAX_STATES);
+            for (MultiPatternMatcher matcher : matchers) {
+                LOGGER.info("Regex matcher created with {} patterns and {} states", matcher.getNumPatterns(), //$NON-NLS-1$
+                        matcher.getNumStates());
+            }
 
             initValidators(confDir);
         }
@@ -203,7 +212,7 @@ private static final String replace(String s) {
 
     @Override
     public void finish() throws Exception {
-        regexFull = null;
+        matchers = null;
         regexList = null;
     }
 
@@ -220,79 +229,147 @@ protected void process(IItem item) throws Exception {
         processRegex(evidence, new StringReader(evidence.getName()));
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Busca as expressões no texto, lido em blocos do tamanho de cbuf. Uma busca
+     * ainda indefinida no fim do bloco é mantida no início do buffer e continuada
+     * com o próximo bloco. Se as expressões foram divididas em vários autômatos,
+     * cada um tem sua posição de busca no mesmo bloco. Cada ocorrência distinta é
+     * validada e formatada apenas uma vez por item.
+     */
     private void processRegex(IItem evidence, Reader reader) throws IOException {
 
-        int k = 0;
-        long totalOffset = 0;
-        while (k != -1) {
-            int off = 0;
-            k = 0;
-            while (k != -1 && (off += k) < cbuf.length)
-                k = reader.read(cbuf, off, cbuf.length - off);
-
-            String text = new String(cbuf, 0, off);
-
-            List<Map<String, RegexHits>> hitList = new ArrayList<Map<String, RegexHits>>();
-            for (int i = 0; i < regexList.size(); i++) {
-                hitList.add(new HashMap<>());
+        List<Map<String, RegexHits>> hitList = new ArrayList<Map<String, RegexHits>>();
+        List<Map<String, RegexHits>> validatedList = new ArrayList<Map<String, RegexHits>>();
+        for (int i = 0; i < regexList.size(); i++) {
+            hitList.add(new HashMap<>());
+            validatedList.add(new HashMap<>());
+        }
+        boolean[] maxHitsReached = new boolean[regexList.size()];
+
+        MultiPatternMatcher.Match match = new MultiPatternMatcher.Match();
+        long bufOffset = 0;
+        int len = 0;
+        int[] positions = new int[matchers.size()];
+        boolean eof = false;
+        while (true) {
+            while (!eof && len < cbuf.length) {
+                int k = reader.read(cbuf, len, cbuf.length - len);
+                if (k == -1)
+                    eof = true;
+                else
+                    len += k;
             }
 
-            AutomatonMatcher fullMatcher = regexFull.pattern.newMatcher(text);
-            while (fullMatcher.find()) {
-                int start = fullMatcher.start();
-                int end = fullMatcher.end();
-                String hit = text.substring(start, end);
-                int i = 0;
-                for (Regex regex : regexList) {
-                    if (regex.pattern.run(hit)) {
-                        hit = hit.substring(regex.prefix, hit.length() - regex.sufix);
-                        if (regex.ignoreCases)
-                            hit = hit.toLowerCase();
-                        if (regexValidator.validate(regex, hit)) {
-                            if (formatRegexMatches) {
-                                hit = regexValidator.format(regex, hit);
-                            }
-                            Map<String, RegexHits> hitMap = hitList.get(i);
-                            RegexHits hits = hitMap.get(hit);
-                            if (hits == null) {
-                                hits = new RegexHits(hit);
-                                hitMap.put(hit, hits);
-                            }
-                            hits.addOffset(totalOffset + start + regex.prefix);
-                        }
+            int minPos = len;
+            for (int m = 0; m < matchers.size(); m++) {
+                MultiPatternMatcher matcher = matchers.get(m);
+                int pos = positions[m];
+                while (pos < len) {
+                    boolean decideNow = eof || len - pos > MAX_PENDING_CHARS;
+                    int start = matcher.find(cbuf, pos, len, decideNow, match);
+                    if (start == -1) {
+                        pos = len;
+                    } else if (start < -1) {
+                        pos = -start - 2;
+                        if (len - pos <= MAX_PENDING_CHARS)
+                            break;
+                    } else {
+                        addHits(match, bufOffset, hitList, validatedList, maxHitsReached);
+                        pos = match.end() > match.start() ? match.end() : match.start() + 1;
                     }
-                    i++;
                 }
+                positions[m] = pos;
+                minPos = Math.min(minPos, pos);
             }
-            for (int i = 0; i < regexList.size(); i++) {
-                if (hitList.get(i).size() > 0) {
-                    String key = REGEX_PREFIX + regexList.get(i).name;
-                    Collection<RegexHits> prevHits = (Collection<RegexHits>) evidence.getExtraAttribute(key);
-                    Map<String, RegexHits> hitsMap = hitList.get(i);
-                    if (prevHits == null || prevHits.isEmpty() || !(prevHits.iterator().next() instanceof RegexHits)) {
-                        evidence.setExtraAttribute(key, hitsMap.values());
+
+            if (eof)
+                break;
+
+            System.arraycopy(cbuf, minPos, cbuf, 0, len - minPos);
+            bufOffset += minPos;
+            len -= minPos;
+            for (int m = 0; m < positions.length; m++) {
+                positions[m] -= minPos;
+            }
+        }
+
+        for (int i = 0; i < regexList.size(); i++) {
+            String key = REGEX_PREFIX + regexList.get(i).name;
+            if (maxHitsReached[i]) {
+                evidence.setExtraAttribute("maxHitsReached" + key, "true"); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            if (hitList.get(i).size() > 0) {
+                @SuppressWarnings("unchecked")
+                Collection<RegexHits> prevHits = (Collection<RegexHits>) evidence.getExtraAttribute(key);
+                Map<String, RegexHits> hitsMap = hitList.get(i);
+                if (prevHits == null || prevHits.isEmpty() || !(prevHits.iterator().next() instanceof RegexHits)) {
+                    evidence.setExtraAttribute(key, hitsMap.values());
+                } else {
+                    if (prevHits.size() >= MAX_RESULTS) {
+                        evidence.setExtraAttribute("maxHitsReached" + key, "true"); //$NON-NLS-1$ //$NON-NLS-2$
                     } else {
-                        if (prevHits.size() >= MAX_RESULTS) {
-                            evidence.setExtraAttribute("maxHitsReached" + key, "true");
-                        } else {
-                            for (RegexHits hits : prevHits) {
-                                RegexHits prev = hitsMap.get(hits.getHit());
-                                if (prev != null) {
-                                    prev.addAll(hits.getOffsets());
-                                } else {
-                                    hitsMap.put(hits.getHit(), hits);
-                                }
+                        for (RegexHits hits : prevHits) {
+                            RegexHits prev = hitsMap.get(hits.getHit());
+                            if (prev != null) {
+                                prev.addAll(hits.getOffsets());
+                            } else {
+                                hitsMap.put(hits.getHit(), hits);
                             }
-                            evidence.setExtraAttribute(key, hitsMap.values());
                         }
+                        evidence.setExtraAttribute(key, hitsMap.values());
                     }
+                }
+
+                if (regexList.get(i).name.equals(KEYWORDS_NAME))
+                    evidence.setToExtract(true);
+            }
+        }
+    }
 
-                    if (regexList.get(i).name.equals(KEYWORDS_NAME))
-                        evidence.setToExtract(true);
+    /**
+     * Registra a ocorrência para cada expressão que a reconhece.
+     *
+     * @param validatedList
+     *            por expressão, ocorrências já validadas, mapeadas para seus
+     *            resultados ou null caso inválidas.
+     */
+    private void addHits(MultiPatternMatcher.Match match, long bufOffset, List<Map<String, RegexHits>> hitList,
+            List<Map<String, RegexHits>> validatedList, boolean[] maxHitsReached) {
+
+        for (int i : match.patterns()) {
+            Regex regex = regexList.get(i);
+            int start = match.start() + regex.prefix;
+            int end = match.end() - regex.sufix;
+            if (end < start)
+                continue;
+            String hit = new String(cbuf, start, end - start);
+            if (regex.ignoreCases)
+                hit = hit.toLowerCase();
+
+            Map<String, RegexHits> validated = validatedList.get(i);
+            RegexHits hits = validated.get(hit);
+            if (hits == null) {
+                if (validated.containsKey(hit) || maxHitsReached[i])
+                    continue;
+                if (!regexValidator.validate(regex, hit)) {
+                    if (validated.size() < MAX_RESULTS)
+                        validated.put(hit, null);
+                    continue;
+                }
+                String formatted = formatRegexMatches ? regexValidator.format(regex, hit) : hit;
+                Map<String, RegexHits> hitMap = hitList.get(i);
+                hits = hitMap.get(formatted);
+                if (hits == null) {
+                    if (hitMap.size() >= MAX_RESULTS) {
+                        maxHitsReached[i] = true;
+                        continue;
+                    }
+                    hits = new RegexHits(formatted);
+                    hitMap.put(formatted, hits);
                 }
+                validated.put(hit, hits);
             }
-            totalOffset += off;
+            hits.addOffset(bufOffset + start);
         }
     }
 
@@ -19,8 +19,8 @@
 package dpf.sp.gpinf.indexer.search;
 
 import java.io.InterruptedIOException;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
 
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause.Occur;
@@ -32,7 +32,6 @@
 import org.slf4j.LoggerFactory;
 
 import dpf.sp.gpinf.indexer.process.IndexItem;
-import iped3.IItemId;
 import iped3.search.IIPEDSearcher;
 import iped3.search.LuceneSearchResult;
 import iped3.search.SearchResult;
@@ -47,10 +46,12 @@ public class IPEDSearcher implements IIPEDSearcher {
     Query query;
     String queryText;
     boolean treeQuery, noScore;
-    NoScoringCollector collector;
+    NoScoringCollectorManager collector;
 
     private volatile boolean canceled;
 
+    private long searchNanos, scoreNanos, fragmentNanos;
+
     public IPEDSearcher(IPEDSource ipedCase) {
         this.ipedCase = ipedCase;
     }
@@ -85,6 +86,27 @@ public Query getQuery() {
         return query;
     }
 
+    /**
+     * @return tempo em ms da última busca sem cálculo de score
+     */
+    public long getSearchTime() {
+        return searchNanos / 1000000;
+    }
+
+    /**
+     * @return tempo em ms do cálculo de score da última busca, 0 se não calculado
+     */
+    public long getScoreTime() {
+        return scoreNanos / 1000000;
+    }
+
+    /**
+     * @return tempo em ms da remoção de fragmentos repetidos da última busca
+     */
+    public long getFragmentFilterTime() {
+        return fragmentNanos / 1000000;
+    }
+
     public void cancel() {
         canceled = true;
         if (collector != null)
@@ -119,35 +141,51 @@ public LuceneSearchResult searchAll() throws Exception {
         if (!treeQuery)
             query = getNonTreeQuery();
 
-        collector = new NoScoringCollector(ipedCase.getReader().maxDoc());
+        // coleta os segmentos em paralelo se o searcher tiver executor
+        long t = System.nanoTime();
+        scoreNanos = 0;
+        collector = new NoScoringCollectorManager();
+        if (canceled)
+            collector.cancel();
         try {
             ipedCase.getSearcher().search(query, collector);
 
         } catch (InterruptedIOException e) {
             // e.printStackTrace();
+        } catch (RuntimeException e) {
+            if (!isCanceledException(e))
+                throw e;
         }
-        // não calcula scores (lento) quando resultado é mto grande
-        if (noScore || collector.getTotalHits() > MAX_SIZE_TO_SCORE || canceled)
-            return collector.getSearchResults();
+        LuceneSearchResult result = collector.getSearchResults();
+        searchNanos = System.nanoTime() - t;
 
-        // obtém resultados calculando score
-        LuceneSearchResult searchResult = new LuceneSearchResult(0);
-        int maxResults = MAX_SIZE_TO_SCORE;
-        ScoreDoc[] scoreDocs = null;
-        do {
-            ScoreDoc lastScoreDoc = null;
-            if (scoreDocs != null)
-                lastScoreDoc = scoreDocs[scoreDocs.length - 1];
-
-            scoreDocs = ipedCase.getSearcher().searchAfter(lastScoreDoc, query, maxResults).scoreDocs;
+        // não calcula scores (lento) quando resultado é mto grande
+        if (noScore || result.getLength() > MAX_SIZE_TO_SCORE || result.getLength() == 0 || canceled)
+            return result;
 
-            searchResult = searchResult.addResults(scoreDocs);
+        // obtém resultados calculando score, como o total é conhecido basta uma busca
+        t = System.nanoTime();
+        ScoreDoc[] scoreDocs = ipedCase.getSearcher().search(query, result.getLength()).scoreDocs;
+        LuceneSearchResult searchResult = new LuceneSearchResult(0).addResults(scoreDocs);
+        scoreNanos = System.nanoTime() - t;
 
-        } while (scoreDocs.length > 0 && !canceled);
+        LOGGER.debug("Search took {}ms, scoring took {}ms", getSearchTime(), getScoreTime()); //$NON-NLS-1$
 
         return searchResult;
     }
 
+    /**
+     * Com executor, o cancelamento chega encapsulado pelo IndexSearcher.
+     */
+    private boolean isCanceledException(Throwable e) {
+        while (e != null) {
+            if (e instanceof InterruptedIOException)
+                return true;
+            e = e.getCause();
+        }
+        return false;
+    }
+
     private Query getNonTreeQuery() {
         BooleanQuery.Builder result = new BooleanQuery.Builder();
         result.add(query, Occur.MUST);
@@ -159,75 +197,62 @@ public LuceneSearchResult filtrarFragmentos(LuceneSearchResult prevResult) throw
 
         // System.out.println("fragments");
 
-        if (ipedCase instanceof IPEDMultiSource)
-            return filtrarFragmentosMulti((IPEDMultiSource) ipedCase, prevResult);
+        long t = System.nanoTime();
+        try {
+            if (ipedCase instanceof IPEDMultiSource)
+                return filtrarFragmentosMulti((IPEDMultiSource) ipedCase, prevResult);
 
-        HashSet<Integer> duplicates = new HashSet<Integer>();
-        int[] docs = prevResult.getLuceneIds();
-        for (int i = 0; i < prevResult.getLength(); i++) {
-            int id = ipedCase.getId(docs[i]);
-            if (ipedCase.isSplited(id)) {
-                if (!duplicates.contains(id)) {
-                    duplicates.add(id);
-                } else {
-                    docs[i] = -1;
+            BitSet duplicates = new BitSet();
+            int[] docs = prevResult.getLuceneIds();
+            for (int i = 0; i < prevResult.getLength(); i++) {
+                int id = ipedCase.getId(docs[i]);
+                if (ipedCase.isSplited(id)) {
+                    if (!duplicates.get(id)) {
+                        duplicates.set(id);
+                    } else {
+                        docs[i] = -1;
+                    }
                 }
             }
-        }
 
-        prevResult.clearResults();
-        return prevResult;
+            prevResult.clearResults();
+            return prevResult;
+
+        } finally {
+            fragmentNanos = System.nanoTime() - t;
+        }
 
     }
 
     private LuceneSearchResult filtrarFragmentosMulti(IPEDMultiSource ipedCase, LuceneSearchResult prevResult)
             throws Exception {
-        HashMap<Integer, HashSet<Integer>> duplicates = new HashMap<Integer, HashSet<Integer>>();
+        HashMap<Integer, BitSet> duplicates = new HashMap<Integer, BitSet>();
         int[] docs = prevResult.getLuceneIds();
-        if (prevResult.getLength() <= MAX_SIZE_TO_SCORE) {
 
-            for (int i = 0; i < prevResult.getLength(); i++) {
-                IItemId item = ipedCase.getItemId(docs[i]);
-                IPEDSource atomicSource = (IPEDSource) ipedCase.getAtomicSourceBySourceId(item.getSourceId());
-                int id = item.getId();
-                if (atomicSource.isSplited(id)) {
-                    HashSet<Integer> dups = duplicates.get(atomicSource.getSourceId());
-                    if (dups == null) {
-                        dups = new HashSet<Integer>();
-                        duplicates.put(atomicSource.getSourceId(), dups);
-                    }
-                    if (!dups.contains(id)) {
-                        dups.add(id);
-                    } else {
-                        docs[i] = -1;
-                    }
+        // Resultados sem score estão em ordem crescente do LuceneId, então a fonte muda
+        // poucas vezes. Com score, a fonte é procurada quando o id está fora do
+        // intervalo da anterior.
+        IPEDSource atomicSource = null;
+        BitSet dups = null;
+        int baseDoc = 0;
+        int maxdoc = 0;
+        for (int i = 0; i < prevResult.getLength(); i++) {
+            if (atomicSource == null || docs[i] < baseDoc || docs[i] >= baseDoc + maxdoc) {
+                atomicSource = (IPEDSource) ipedCase.getAtomicSource(docs[i]);
+                baseDoc = ipedCase.getBaseLuceneId(atomicSource);
+                maxdoc = atomicSource.getReader().maxDoc();
+                dups = duplicates.get(atomicSource.getSourceId());
+                if (dups == null) {
+                    dups = new BitSet();
+                    duplicates.put(atomicSource.getSourceId(), dups);
                 }
             }
-
-            // Otimização: considera que itens estão em ordem crescente do LuceneId (qdo não
-            // usa scores)
-        } else {
-            IPEDSource atomicSource = null;
-            int baseDoc = 0;
-            int maxdoc = 0;
-            for (int i = 0; i < docs.length; i++) {
-                if (atomicSource == null || docs[i] >= baseDoc + maxdoc) {
-                    atomicSource = (IPEDSource) ipedCase.getAtomicSource(docs[i]);
-                    baseDoc = ipedCase.getBaseLuceneId(atomicSource);
-                    maxdoc = atomicSource.getReader().maxDoc();
-                }
-                int id = atomicSource.getId(docs[i] - baseDoc);
-                if (atomicSource.isSplited(id)) {
-                    HashSet<Integer> dups = duplicates.get(atomicSource.getSourceId());
-                    if (dups == null) {
-                        dups = new HashSet<Integer>();
-                        duplicates.put(atomicSource.getSourceId(), dups);
-                    }
-                    if (!dups.contains(id)) {
-                        dups.add(id);
-                    } else {
-                        docs[i] = -1;
-                    }
+            int id = atomicSource.getId(docs[i] - baseDoc);
+            if (atomicSource.isSplited(id)) {
+                if (!dups.get(id)) {
+                    dups.set(id);
+                } else {
+                    docs[i] = -1;
                 }
             }
         }
@@ -69,6 +69,7 @@
 import dpf.sp.gpinf.indexer.util.TouchSleuthkitImages;
 import dpf.sp.gpinf.indexer.util.Util;
 import gpinf.dev.data.Item;
+import gpinf.similarity.ImageSimilarityIndex;
 import iped3.IIPEDSource;
 import iped3.IItem;
 import iped3.IItemId;
@@ -104,6 +105,9 @@ public class IPEDSource implements Closeable, IIPEDSource {
 
     private ExecutorService searchExecutorService;
 
+    private ImageSimilarityIndex imageSimilarityIndex;
+    private boolean imageSimilarityIndexOpened = false;
+
     protected ArrayList<String> categories = new ArrayList<String>();
 
     private IMarcadores marcadores;
@@ -365,6 +369,7 @@ protected void openSearcher() {
     public void close() {
         try {
             IOUtil.closeQuietly(reader);
+            IOUtil.closeQuietly(imageSimilarityIndex);
 
             if (searchExecutorService != null)
                 searchExecutorService.shutdown();
@@ -398,6 +403,38 @@ public void reopen() throws IOException {
         openIndex(index, iw);
     }
 
+    /**
+     * Reabre em modo near-real-time o índice aberto sobre o IndexWriter,
+     * reaproveitando os segmentos não alterados, e atualiza os mapeamentos de ids.
+     * Não deve haver buscas em andamento.
+     *
+     * @return false se não houve alterações no índice.
+     */
+    public boolean refresh() throws IOException {
+        DirectoryReader newReader = DirectoryReader.openIfChanged((DirectoryReader) reader, iw, true);
+        if (newReader == null) {
+            return false;
+        }
+        IndexReader oldReader = reader;
+        ExecutorService oldExecutor = searchExecutorService;
+
+        reader = newReader;
+        atomicReader = SlowCompositeReaderWrapper.wrap(reader);
+        openSearcher();
+
+        IOUtil.closeQuietly(oldReader);
+        if (oldExecutor != null)
+            oldExecutor.shutdown();
+
+        populateLuceneIdToIdMap();
+        invertIdToLuceneIdArray();
+        populateEvidenceUUIDs();
+        splitedIds = getSplitedIds();
+        countTotalItems();
+
+        return true;
+    }
+
     public void checkImagePaths() throws IPEDException, TskCoreException {
         if (sleuthCase == null || isReport)
             return;
@@ -545,6 +582,18 @@ public File getCaseDir() {
         return casePath;
     }
 
+    /**
+     * @return índice de similaridade de imagens do caso, ou null se não existir
+     *         ou estiver desatualizado.
+     */
+    public synchronized ImageSimilarityIndex getImageSimilarityIndex() {
+        if (!imageSimilarityIndexOpened) {
+            imageSimilarityIndexOpened = true;
+            imageSimilarityIndex = ImageSimilarityIndex.open(this);
+        }
+        return imageSimilarityIndex;
+    }
+
     public int getId(int luceneId) {
         return ids[luceneId];
     }
@@ -557,6 +606,13 @@ public int getLuceneId(int id) {
         return docs[id];
     }
 
+    /**
+     * @return se o item com o id está presente no índice aberto.
+     */
+    public boolean containsId(int id) {
+        return id >= 0 && id < docs.length && ids.length > 0 && ids[docs[id]] == id;
+    }
+
     public int getParentId(int id) {
         try {
             Set<String> field = Collections.singleton(BasicProps.PARENTID);
@@ -20,11 +20,15 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -32,13 +36,25 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.zaxxer.sparsebits.SparseBitSet;
+
 import dpf.sp.gpinf.indexer.Versao;
+import dpf.sp.gpinf.indexer.search.MarcadoresJournal.Change;
 import dpf.sp.gpinf.indexer.util.IOUtil;
 import dpf.sp.gpinf.indexer.util.Util;
 import iped3.IIPEDSource;
 import iped3.search.IMarcadores;
 import iped3.search.LuceneSearchResult;
 
+/**
+ * Marcadores e seleção de itens de um caso.
+ *
+ * A seleção é mantida em um {@link BitSet} e cada marcador em um
+ * {@link SparseBitSet} próprio, que ocupa memória proporcional aos itens
+ * marcados. As alterações de marcação e seleção são gravadas de forma
+ * incremental em um {@link MarcadoresJournal}, o estado completo só é regravado
+ * quando outras propriedades mudam ou o registro fica grande.
+ */
 public class Marcadores implements Serializable, IMarcadores {
 
     /**
@@ -53,8 +69,19 @@ public class Marcadores implements Serializable, IMarcadores {
 
     static int labelBits = Byte.SIZE;
 
+    private static final long MAX_JOURNAL_SIZE = 16 * 1024 * 1024;
+
+    private static final Random random = new Random();
+
+    /**
+     * Formato usado por versões anteriores, mantidos apenas para leitura de
+     * estados antigos.
+     */
     private boolean[] selected;
     private ArrayList<byte[]> labels;
+
+    private BitSet selectedSet;
+    private ArrayList<SparseBitSet> labelSets;
     private TreeMap<Integer, String> labelNames = new TreeMap<Integer, String>();
     private TreeMap<Integer, String> labelComments = new TreeMap<Integer, String>();
     private Set<Integer> reportLabels = new TreeSet<Integer>();
@@ -65,8 +92,20 @@ public class Marcadores implements Serializable, IMarcadores {
     private File indexDir;
     private File stateFile, cookie;
 
+    private long journalId;
+
     private transient IIPEDSource ipedCase;
 
+    private transient Object changeLock;
+    private transient ArrayList<Change> changes;
+    private transient boolean fullSaveNeeded;
+    private transient File journalStateFile;
+    private transient int expectedTypedWords;
+    private transient boolean journalReplayed;
+
+    private transient volatile int modCount;
+    private transient volatile LabelUnion anyLabelCache, labelUnionCache;
+
     public Marcadores(IIPEDSource ipedCase, File modulePath) {
         this(ipedCase.getTotalItens(), ipedCase.getLastId(), modulePath);
         this.ipedCase = ipedCase;
@@ -75,8 +114,8 @@ public Marcadores(IIPEDSource ipedCase, File modulePath) {
     public Marcadores(int totalItens, int lastId, final File modulePath) {
         this.totalItems = totalItens;
         this.lastId = lastId;
-        selected = new boolean[lastId + 1];
-        labels = new ArrayList<byte[]>();
+        selectedSet = new BitSet();
+        labelSets = new ArrayList<SparseBitSet>();
         indexDir = new File(modulePath, "index"); //$NON-NLS-1$
         stateFile = new File(modulePath, STATEFILENAME);
         updateCookie();
@@ -84,6 +123,47 @@ public Marcadores(int totalItens, int lastId, final File modulePath) {
             stateFile = stateFile.getCanonicalFile();
         } catch (IOException e) {
         }
+        initTransientState();
+    }
+
+    private void initTransientState() {
+        changeLock = new Object();
+        changes = new ArrayList<>();
+        fullSaveNeeded = true;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (selectedSet == null) {
+            selectedSet = new BitSet();
+            if (selected != null) {
+                for (int i = 0; i < selected.length; i++) {
+                    if (selected[i]) {
+                        selectedSet.set(i);
+                    }
+                }
+            }
+            selected = null;
+        }
+        if (labelSets == null) {
+            labelSets = new ArrayList<SparseBitSet>();
+            if (labels != null) {
+                for (int order = 0; order < labels.size(); order++) {
+                    byte[] array = labels.get(order);
+                    for (int id = 0; id < array.length; id++) {
+                        if (array[id] != 0) {
+                            for (int mod = 0; mod < labelBits; mod++) {
+                                if ((array[id] & (1 << mod)) != 0) {
+                                    getOrCreateLabelSet(order * labelBits + mod).set(id);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            labels = null;
+        }
+        initTransientState();
     }
 
     public void updateCookie() {
@@ -119,22 +199,22 @@ public int getTotalSelected() {
     }
 
     public boolean isSelected(int id) {
-        return selected[id];
+        return selectedSet.get(id);
     }
 
     public void clearSelected() {
         selectedItens = 0;
-        for (int i = 0; i < selected.length; i++) {
-            selected[i] = false;
-        }
+        selectedSet.clear();
+        setFullSaveNeeded();
     }
 
     public void selectAll() {
         selectedItens = totalItems;
         int maxLuceneId = ipedCase.getReader().maxDoc() - 1;
         for (int i = 0; i <= maxLuceneId; i++) {
-            selected[ipedCase.getId(i)] = true;
+            selectedSet.set(ipedCase.getId(i));
         }
+        setFullSaveNeeded();
     }
 
     public List<String> getLabelList(int itemId) {
@@ -157,59 +237,110 @@ public ArrayList<Integer> getLabelIds(int id) {
         return labelIds;
     }
 
+    private SparseBitSet getOrCreateLabelSet(int label) {
+        while (labelSets.size() <= label) {
+            labelSets.add(null);
+        }
+        SparseBitSet set = labelSets.get(label);
+        if (set == null) {
+            set = new SparseBitSet();
+            labelSets.set(label, set);
+        }
+        return set;
+    }
+
+    private SparseBitSet getLabelSet(int label) {
+        if (label < 0 || label >= labelSets.size()) {
+            return null;
+        }
+        return labelSets.get(label);
+    }
+
     public void addLabel(List<Integer> ids, int label) {
-        int labelOrder = label / labelBits;
-        int labelMod = label % labelBits;
+        SparseBitSet set = getOrCreateLabelSet(label);
         for (int i = 0; i < ids.size(); i++) {
-            int id = ids.get(i);
-            labels.get(labelOrder)[id] = (byte) (labels.get(labelOrder)[id] | (1 << labelMod));
+            set.set(ids.get(i));
         }
-
+        modCount++;
+        recordChange(MarcadoresJournal.ADD_LABEL, label, ids);
     }
 
     public final boolean hasLabel(int id) {
-        boolean hasLabel = false;
-        for (byte[] b : labels) {
-            hasLabel = b[id] != 0;
-            if (hasLabel)
-                return true;
-        }
-        return hasLabel;
+        return getAnyLabel().get(id);
     }
 
     public final byte[] getLabelBits(int[] labelids) {
-        byte[] bits = new byte[labels.size()];
+        int maxLabel = 0;
+        for (int label : labelids)
+            maxLabel = Math.max(maxLabel, label);
+        byte[] bits = new byte[maxLabel / labelBits + 1];
         for (int label : labelids)
-            bits[label / labelBits] |= (int) Math.pow(2, label % labelBits);
+            if (label >= 0)
+                bits[label / labelBits] |= 1 << (label % labelBits);
 
         return bits;
     }
 
     public final boolean hasLabel(int id, byte[] labelbits) {
-        boolean hasLabel = false;
-        for (int i = 0; i < labelbits.length; i++) {
-            hasLabel = (labels.get(i)[id] & labelbits[i]) != 0;
-            if (hasLabel)
-                return true;
-        }
-        return hasLabel;
+        return getLabelUnion(labelbits).get(id);
     }
 
     public final boolean hasLabel(int id, int label) {
-        int p = (int) Math.pow(2, label % labelBits);
-        int bit = labels.get(label / labelBits)[id] & p;
-        return bit != 0;
+        SparseBitSet set = getLabelSet(label);
+        return set != null && set.get(id);
+    }
 
+    /**
+     * União dos itens com algum dos marcadores indicados pelos bits, reaproveitada
+     * enquanto os marcadores não forem alterados.
+     */
+    private SparseBitSet getLabelUnion(byte[] labelbits) {
+        LabelUnion union = labelUnionCache;
+        if (union != null && union.modCount == modCount && Arrays.equals(union.labelbits, labelbits)) {
+            return union.items;
+        }
+        int currentModCount = modCount;
+        SparseBitSet items = new SparseBitSet();
+        for (int i = 0; i < labelbits.length; i++) {
+            for (int mod = 0; mod < labelBits; mod++) {
+                if ((labelbits[i] & (1 << mod)) != 0) {
+                    SparseBitSet set = getLabelSet(i * labelBits + mod);
+                    if (set != null) {
+                        items.or(set);
+                    }
+                }
+            }
+        }
+        labelUnionCache = new LabelUnion(currentModCount, labelbits.clone(), items);
+        return items;
     }
 
-    public void removeLabel(List<Integer> ids, int label) {
-        int labelOrder = label / labelBits;
-        int labelMod = label % labelBits;
-        for (int i = 0; i < ids.size(); i++) {
-            int id = ids.get(i);
-            labels.get(labelOrder)[id] = (byte) (labels.get(labelOrder)[id] & (~(1 << labelMod)));
+    private SparseBitSet getAnyLabel() {
+        LabelUnion union = anyLabelCache;
+        if (union != null && union.modCount == modCount) {
+            return union.items;
+        }
+        int currentModCount = modCount;
+        SparseBitSet items = new SparseBitSet();
+        for (int label : labelNames.keySet()) {
+            SparseBitSet set = getLabelSet(label);
+            if (set != null) {
+                items.or(set);
+            }
         }
+        anyLabelCache = new LabelUnion(currentModCount, null, items);
+        return items;
+    }
 
+    public void removeLabel(List<Integer> ids, int label) {
+        SparseBitSet set = getLabelSet(label);
+        if (set != null) {
+            for (int i = 0; i < ids.size(); i++) {
+                set.clear(ids.get(i));
+            }
+        }
+        modCount++;
+        recordChange(MarcadoresJournal.REMOVE_LABEL, label, ids);
     }
 
     public int newLabel(String labelName) {
@@ -225,15 +356,14 @@ public int newLabel(String labelName) {
                     break;
                 }
 
-        if (labelId == -1 && labelNames.size() % labelBits == 0) {
-            byte[] newLabels = new byte[selected.length];
-            labels.add(newLabels);
-        }
         if (labelId == -1)
             labelId = labelNames.size();
 
+        getOrCreateLabelSet(labelId).clear();
         labelNames.put(labelId, labelName);
         labelComments.put(labelId, null);
+        modCount++;
+        setFullSaveNeeded();
 
         return labelId;
     }
@@ -245,16 +375,18 @@ public void delLabel(int label) {
         labelComments.remove(label);
         reportLabels.remove(label);
 
-        int labelOrder = label / labelBits;
-        int labelMod = label % labelBits;
-        for (int i = 0; i < labels.get(labelOrder).length; i++) {
-            labels.get(labelOrder)[i] = (byte) (labels.get(labelOrder)[i] & (~(1 << labelMod)));
+        if (label < labelSets.size()) {
+            labelSets.set(label, null);
         }
+        modCount++;
+        setFullSaveNeeded();
     }
 
     public void changeLabel(int labelId, String newLabel) {
-        if (labelId != -1)
+        if (labelId != -1) {
             labelNames.put(labelId, newLabel);
+            setFullSaveNeeded();
+        }
     }
 
     public int getLabelId(String labelName) {
@@ -271,6 +403,7 @@ public String getLabelName(int labelId) {
 
     public void setLabelComment(int labelId, String comment) {
         labelComments.put(labelId, comment);
+        setFullSaveNeeded();
     }
 
     public String getLabelComment(int labelId) {
@@ -282,25 +415,30 @@ public void setInReport(int labelId, boolean inReport) {
             reportLabels.add(labelId);
         else
             reportLabels.remove(labelId);
+        setFullSaveNeeded();
     }
 
     public boolean isInReport(int labelId) {
         return reportLabels.contains(labelId);
     }
 
-    public LuceneSearchResult filtrarMarcadores(LuceneSearchResult result, Set<String> labelNames, IIPEDSource ipedCase)
-            throws Exception {
-        result = result.clone();
-
+    private SparseBitSet getLabelUnion(Set<String> labelNames) {
         int[] labelIds = new int[labelNames.size()];
         int i = 0;
         for (String labelName : labelNames)
             labelIds[i++] = getLabelId(labelName);
-        byte[] labelBits = getLabelBits(labelIds);
+        return getLabelUnion(getLabelBits(labelIds));
+    }
 
-        for (i = 0; i < result.getLength(); i++)
-            if (!hasLabel(ipedCase.getId(result.getLuceneIds()[i]), labelBits)) {
-                result.getLuceneIds()[i] = -1;
+    public LuceneSearchResult filtrarMarcadores(LuceneSearchResult result, Set<String> labelNames, IIPEDSource ipedCase)
+            throws Exception {
+        result = result.clone();
+
+        SparseBitSet items = getLabelUnion(labelNames);
+        int[] luceneIds = result.getLuceneIds();
+        for (int i = 0; i < result.getLength(); i++)
+            if (!items.get(ipedCase.getId(luceneIds[i]))) {
+                luceneIds[i] = -1;
             }
 
         result.clearResults();
@@ -311,17 +449,15 @@ public LuceneSearchResult filtrarSemEComMarcadores(LuceneSearchResult result, Se
             IIPEDSource ipedCase) throws Exception {
         result = result.clone();
 
-        int[] labelIds = new int[labelNames.size()];
-        int i = 0;
-        for (String labelName : labelNames)
-            labelIds[i++] = getLabelId(labelName);
-        byte[] labelBits = getLabelBits(labelIds);
-
-        for (i = 0; i < result.getLength(); i++)
-            if (hasLabel(ipedCase.getId(result.getLuceneIds()[i]))
-                    && !hasLabel(ipedCase.getId(result.getLuceneIds()[i]), labelBits)) {
-                result.getLuceneIds()[i] = -1;
+        SparseBitSet items = getLabelUnion(labelNames);
+        SparseBitSet anyLabel = getAnyLabel();
+        int[] luceneIds = result.getLuceneIds();
+        for (int i = 0; i < result.getLength(); i++) {
+            int id = ipedCase.getId(luceneIds[i]);
+            if (anyLabel.get(id) && !items.get(id)) {
+                luceneIds[i] = -1;
             }
+        }
 
         result.clearResults();
         return result;
@@ -329,9 +465,11 @@ public LuceneSearchResult filtrarSemEComMarcadores(LuceneSearchResult result, Se
 
     public LuceneSearchResult filtrarSemMarcadores(LuceneSearchResult result, IIPEDSource ipedCase) {
         result = result.clone();
+        SparseBitSet anyLabel = getAnyLabel();
+        int[] luceneIds = result.getLuceneIds();
         for (int i = 0; i < result.getLength(); i++)
-            if (hasLabel(ipedCase.getId(result.getLuceneIds()[i]))) {
-                result.getLuceneIds()[i] = -1;
+            if (anyLabel.get(ipedCase.getId(luceneIds[i]))) {
+                luceneIds[i] = -1;
             }
 
         result.clearResults();
@@ -340,9 +478,10 @@ public LuceneSearchResult filtrarSemMarcadores(LuceneSearchResult result, IIPEDS
 
     public LuceneSearchResult filtrarSelecionados(LuceneSearchResult result, IIPEDSource ipedCase) throws Exception {
         result = result.clone();
+        int[] luceneIds = result.getLuceneIds();
         for (int i = 0; i < result.getLength(); i++)
-            if (!selected[ipedCase.getId(result.getLuceneIds()[i])]) {
-                result.getLuceneIds()[i] = -1;
+            if (!selectedSet.get(ipedCase.getId(luceneIds[i]))) {
+                luceneIds[i] = -1;
             }
 
         result.clearResults();
@@ -351,22 +490,166 @@ public LuceneSearchResult filtrarSelecionados(LuceneSearchResult result, IIPEDSo
 
     public LuceneSearchResult filterInReport(LuceneSearchResult result, IIPEDSource ipedCase) throws Exception {
         result = result.clone();
-        for (int i = 0; i < result.getLength(); i++) {
-            int itemId = ipedCase.getId(result.getLuceneIds()[i]);
-            List<Integer> labels = getLabelIds(itemId);
-            boolean inReport = false;
-            for (int label : labels)
-                if (isInReport(label)) {
-                    inReport = true;
-                    break;
-                }
-            if (!inReport)
-                result.getLuceneIds()[i] = -1;
+        int[] labelIds = new int[reportLabels.size()];
+        int i = 0;
+        for (int label : reportLabels)
+            labelIds[i++] = label;
+        SparseBitSet items = getLabelUnion(getLabelBits(labelIds));
+        int[] luceneIds = result.getLuceneIds();
+        for (i = 0; i < result.getLength(); i++) {
+            if (!items.get(ipedCase.getId(luceneIds[i])))
+                luceneIds[i] = -1;
         }
         result.clearResults();
         return result;
     }
 
+    private void setFullSaveNeeded() {
+        synchronized (changeLock) {
+            fullSaveNeeded = true;
+        }
+    }
+
+    private void recordChange(byte type, int label, List<Integer> ids) {
+        synchronized (changeLock) {
+            Change change = getLastChange(type, label);
+            for (int i = 0; i < ids.size(); i++) {
+                change.add(ids.get(i));
+            }
+        }
+    }
+
+    private void recordChange(byte type, int id) {
+        synchronized (changeLock) {
+            getLastChange(type, -1).add(id);
+        }
+    }
+
+    private Change getLastChange(byte type, int label) {
+        Change last = changes.isEmpty() ? null : changes.get(changes.size() - 1);
+        if (last == null || last.type != type || last.label != label) {
+            last = new Change(type, label);
+            changes.add(last);
+        }
+        return last;
+    }
+
+    /**
+     * Grava as alterações pendentes no registro incremental do arquivo de estado.
+     * Chamado por {@link SaveStateThread}.
+     *
+     * @return false se é necessário gravar o estado completo.
+     */
+    boolean appendToJournal(File file) {
+        List<Change> pending;
+        synchronized (changeLock) {
+            // a lista de buscas pode ser alterada diretamente, ver
+            // MultiMarcadores.clearTypedWords()
+            if (fullSaveNeeded || !file.equals(journalStateFile) || typedWords.size() != expectedTypedWords
+                    || MarcadoresJournal.length(file) > MAX_JOURNAL_SIZE) {
+                return false;
+            }
+            if (changes.isEmpty()) {
+                return true;
+            }
+            pending = changes;
+            changes = new ArrayList<>();
+        }
+        try {
+            MarcadoresJournal.append(file, pending);
+            return true;
+
+        } catch (IOException e) {
+            LOGGER.warn("Error writing bookmarks journal of {}: {}", file.getAbsolutePath(), e.toString()); //$NON-NLS-1$
+            synchronized (changeLock) {
+                fullSaveNeeded = true;
+                journalStateFile = null;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Inicia a gravação do estado completo, que passa a incluir todas as alterações
+     * pendentes. Chamado por {@link SaveStateThread}.
+     */
+    void startFullSave() {
+        synchronized (changeLock) {
+            long id;
+            do {
+                id = random.nextLong();
+            } while (id == 0 || id == journalId);
+            journalId = id;
+            changes = new ArrayList<>();
+            fullSaveNeeded = false;
+            journalStateFile = null;
+            expectedTypedWords = typedWords.size();
+        }
+    }
+
+    /**
+     * Cria um registro incremental vazio para o estado completo gravado.
+     */
+    void fullSaveFinished(File file, boolean success) {
+        long id;
+        synchronized (changeLock) {
+            if (!success) {
+                fullSaveNeeded = true;
+                return;
+            }
+            id = journalId;
+        }
+        try {
+            MarcadoresJournal.create(file, id);
+            synchronized (changeLock) {
+                if (journalId == id) {
+                    journalStateFile = file;
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Error creating bookmarks journal of {}: {}", file.getAbsolutePath(), e.toString()); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Reaplica o registro incremental gravado ao lado do arquivo de estado do qual
+     * este objeto foi lido.
+     */
+    public void replayJournal(File file) throws IOException {
+        journalReplayed = MarcadoresJournal.replay(file, journalId, this);
+        if (journalReplayed) {
+            selectedItens = selectedSet.cardinality();
+            modCount++;
+        }
+    }
+
+    void apply(Change change) {
+        switch (change.type) {
+            case MarcadoresJournal.ADD_LABEL:
+                SparseBitSet set = getOrCreateLabelSet(change.label);
+                for (int i = 0; i < change.size; i++)
+                    set.set(change.ids[i]);
+                break;
+            case MarcadoresJournal.REMOVE_LABEL:
+                set = getLabelSet(change.label);
+                if (set != null)
+                    for (int i = 0; i < change.size; i++)
+                        set.clear(change.ids[i]);
+                break;
+            case MarcadoresJournal.SELECT:
+                for (int i = 0; i < change.size; i++)
+                    selectedSet.set(change.ids[i]);
+                break;
+            case MarcadoresJournal.UNSELECT:
+                for (int i = 0; i < change.size; i++)
+                    selectedSet.clear(change.ids[i]);
+                break;
+            case MarcadoresJournal.TYPED_WORD:
+                typedWords.add(change.text);
+                break;
+        }
+    }
+
     public void saveState() {
         try {
             if (stateFile.canWrite() || (!stateFile.exists() && IOUtil.canCreateFile(stateFile.getParentFile())))
@@ -389,13 +672,21 @@ public void addToTypedWords(String texto) {
 
         if (!texto.trim().isEmpty() && !typedWords.contains(texto)) {
             typedWords.add(texto);
+            synchronized (changeLock) {
+                changes.add(new Change(texto));
+                expectedTypedWords++;
+            }
             saveState();
         }
     }
 
+    private static long lastModified(File file) {
+        return Math.max(file.lastModified(), MarcadoresJournal.getJournalFile(file).lastModified());
+    }
+
     public void loadState() {
         try {
-            if (cookie.exists() && (!stateFile.exists() || cookie.lastModified() > stateFile.lastModified()))
+            if (cookie.exists() && (!stateFile.exists() || lastModified(cookie) > lastModified(stateFile)))
                 loadState(cookie);
 
             else if (stateFile.exists())
@@ -409,40 +700,68 @@ else if (stateFile.exists())
     public void loadState(File file) throws IOException, ClassNotFoundException {
         Marcadores state = load(file);
 
-        if (state.selected != null /* && state.read != null */) {
-            int len = Math.min(state.selected.length, this.selected.length);
-            System.arraycopy(state.selected, 0, this.selected, 0, len);
-        }
-
-        this.labels.clear();
-        for (byte[] array : state.labels) {
-            byte[] newArray = new byte[lastId + 1];
-            int len = Math.min(newArray.length, array.length);
-            System.arraycopy(array, 0, newArray, 0, len);
-            this.labels.add(newArray);
+        if (state.lastId > lastId) {
+            state.selectedSet.clear(lastId + 1, state.lastId + 1);
+            for (SparseBitSet set : state.labelSets)
+                if (set != null)
+                    set.clear(lastId + 1, state.lastId + 1);
         }
+        this.selectedSet = state.selectedSet;
+        this.labelSets = state.labelSets;
 
         this.typedWords = state.typedWords;
-        this.selectedItens = state.selectedItens;
+        this.selectedItens = selectedSet.cardinality();
         this.labelNames = state.labelNames;
         this.labelComments = state.labelComments;
         this.reportLabels = state.reportLabels;
+        this.modCount++;
+
+        synchronized (changeLock) {
+            changes = new ArrayList<>();
+            journalId = state.journalId;
+            expectedTypedWords = typedWords.size();
+            // continua o registro incremental do arquivo lido, se for o mesmo a ser
+            // gravado e tiver os mesmos itens
+            if (state.journalReplayed && state.lastId == lastId && (file.equals(stateFile) || file.equals(cookie))) {
+                journalStateFile = file;
+                fullSaveNeeded = false;
+            } else {
+                journalStateFile = null;
+                fullSaveNeeded = true;
+            }
+        }
     }
 
     public static Marcadores load(File file) throws ClassNotFoundException, IOException {
         LOGGER.info("Loading state from file " + file.getAbsolutePath()); //$NON-NLS-1$
-        return (Marcadores) Util.readObject(file.getAbsolutePath());
+        Marcadores state = (Marcadores) Util.readObject(file.getAbsolutePath());
+        state.replayJournal(file);
+        return state;
     }
 
     public void setSelected(boolean value, int id) {
-        if (value != selected[id]) {
+        if (value != selectedSet.get(id)) {
             if (value)
                 selectedItens++;
             else
                 selectedItens--;
+            recordChange(value ? MarcadoresJournal.SELECT : MarcadoresJournal.UNSELECT, id);
         }
         // seta valor na versão de visualização ou vice-versa
-        selected[id] = value;
+        selectedSet.set(id, value);
+    }
+
+    private static class LabelUnion {
+
+        final int modCount;
+        final byte[] labelbits;
+        final SparseBitSet items;
+
+        LabelUnion(int modCount, byte[] labelbits, SparseBitSet items) {
+            this.modCount = modCount;
+            this.labelbits = labelbits;
+            this.items = items;
+        }
     }
 
 }
@@ -0,0 +1,155 @@
+package dpf.sp.gpinf.indexer.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Registro incremental das alterações de marcadores, gravado ao lado do arquivo
+ * de estado. Assim, marcar ou selecionar itens não exige regravar o estado
+ * completo a cada alteração.
+ *
+ * O cabeçalho contém o identificador do estado completo ao qual o registro se
+ * refere, um registro de outro estado é ignorado. As operações são idempotentes
+ * (marcar, desmarcar, selecionar), então reaplicar operações já contidas no
+ * estado completo não altera o resultado.
+ */
+class MarcadoresJournal {
+
+    static final String EXT = ".log"; //$NON-NLS-1$
+
+    private static final int MAGIC = 0x4D4A524E; // "MJRN"
+    private static final int VERSION = 1;
+
+    static final byte ADD_LABEL = 1;
+    static final byte REMOVE_LABEL = 2;
+    static final byte SELECT = 3;
+    static final byte UNSELECT = 4;
+    static final byte TYPED_WORD = 5;
+
+    static File getJournalFile(File stateFile) {
+        return new File(stateFile.getPath() + EXT);
+    }
+
+    static void create(File stateFile, long journalId) throws IOException {
+        File file = getJournalFile(stateFile);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(journalId);
+        }
+    }
+
+    static long length(File stateFile) {
+        return getJournalFile(stateFile).length();
+    }
+
+    static void append(File stateFile, List<Change> changes) throws IOException {
+        File file = getJournalFile(stateFile);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16))) {
+            for (Change change : changes) {
+                out.writeByte(change.type);
+                if (change.type == TYPED_WORD) {
+                    byte[] bytes = change.text.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                } else {
+                    out.writeInt(change.label);
+                    out.writeInt(change.size);
+                    for (int i = 0; i < change.size; i++) {
+                        out.writeInt(change.ids[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reaplica as alterações registradas sobre o estado carregado.
+     *
+     * @return false se não há registro para o estado.
+     */
+    static boolean replay(File stateFile, long journalId, Marcadores state) throws IOException {
+        File file = getJournalFile(stateFile);
+        if (journalId == 0 || !file.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != journalId) {
+                return false;
+            }
+            while (true) {
+                Change change;
+                try {
+                    change = readChange(in);
+                } catch (EOFException e) {
+                    // fim do registro ou última alteração gravada parcialmente
+                    break;
+                }
+                state.apply(change);
+            }
+        } catch (EOFException e) {
+            return false;
+        }
+        return true;
+    }
+
+    private static Change readChange(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        if (type == TYPED_WORD) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new Change(new String(bytes, StandardCharsets.UTF_8));
+        }
+        if (type < ADD_LABEL || type > UNSELECT) {
+            throw new IOException("Invalid bookmark journal entry: " + type); //$NON-NLS-1$
+        }
+        Change change = new Change(type, in.readInt());
+        int size = in.readInt();
+        change.ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            change.ids[i] = in.readInt();
+        }
+        change.size = size;
+        return change;
+    }
+
+    static class Change {
+
+        final byte type;
+        final int label;
+        final String text;
+        int[] ids = new int[4];
+        int size = 0;
+
+        Change(byte type, int label) {
+            this.type = type;
+            this.label = label;
+            this.text = null;
+        }
+
+        Change(String text) {
+            this.type = TYPED_WORD;
+            this.label = -1;
+            this.text = text;
+        }
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+
+}
@@ -313,6 +313,8 @@ public void loadState(File file) throws ClassNotFoundException, IOException {
             map = state.map;
         } else {
             IMarcadores m = (IMarcadores) obj;
+            if (m instanceof Marcadores)
+                ((Marcadores) m).replayJournal(file);
             if (map.size() > 1 || m.getTotalItens() != this.getTotalItens())
                 throw new IllegalArgumentException("Incompatible state file!"); //$NON-NLS-1$
             map.put(map.keySet().iterator().next(), m);
@@ -0,0 +1,133 @@
+package dpf.sp.gpinf.indexer.search;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Scorer;
+
+import iped3.search.LuceneSearchResult;
+
+/**
+ * Versão paralela do {@link NoScoringCollector}. O IndexSearcher cria um
+ * coletor por fatia de segmentos, executadas em paralelo quando o searcher tem
+ * um executor, e cada segmento marca seus resultados em um bitset próprio. No
+ * final, os bitsets são convertidos em um único array de ids em ordem
+ * crescente.
+ */
+public class NoScoringCollectorManager
+        implements CollectorManager<NoScoringCollectorManager.SliceCollector, LuceneSearchResult> {
+
+    private final List<SliceCollector> collectors = Collections.synchronizedList(new ArrayList<>());
+
+    private volatile boolean canceled = false;
+
+    public void cancel() {
+        canceled = true;
+    }
+
+    @Override
+    public SliceCollector newCollector() {
+        SliceCollector collector = new SliceCollector();
+        collectors.add(collector);
+        return collector;
+    }
+
+    /**
+     * Resultados de todos os coletores criados, mesmo se a busca foi interrompida.
+     */
+    public LuceneSearchResult getSearchResults() {
+        synchronized (collectors) {
+            return reduce(new ArrayList<>(collectors));
+        }
+    }
+
+    public int getTotalHits() {
+        int total = 0;
+        synchronized (collectors) {
+            for (SliceCollector collector : collectors) {
+                for (SegmentHits segment : collector.segments) {
+                    total += segment.count;
+                }
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public LuceneSearchResult reduce(Collection<SliceCollector> collectors) {
+        List<SegmentHits> segments = new ArrayList<>();
+        int total = 0;
+        for (SliceCollector collector : collectors) {
+            for (SegmentHits segment : collector.segments) {
+                segments.add(segment);
+                total += segment.count;
+            }
+        }
+        segments.sort((a, b) -> Integer.compare(a.docBase, b.docBase));
+
+        int[] docs = new int[total];
+        int idx = 0;
+        for (SegmentHits segment : segments) {
+            long[] bits = segment.bits;
+            for (int i = 0; i < bits.length && idx < total; i++) {
+                long word = bits[i];
+                while (word != 0) {
+                    docs[idx++] = segment.docBase + (i << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+        }
+        return LuceneSearchResult.buildSearchResult(docs, new float[total]);
+    }
+
+    public class SliceCollector implements Collector {
+
+        private final List<SegmentHits> segments = new ArrayList<>();
+
+        @Override
+        public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+            SegmentHits segment = new SegmentHits(context.docBase, context.reader().maxDoc());
+            segments.add(segment);
+            return segment;
+        }
+
+        @Override
+        public boolean needsScores() {
+            return false;
+        }
+    }
+
+    private class SegmentHits implements LeafCollector {
+
+        private final int docBase;
+        private final long[] bits;
+        private int count = 0;
+
+        SegmentHits(int docBase, int maxDoc) {
+            this.docBase = docBase;
+            this.bits = new long[(maxDoc + 63) >>> 6];
+        }
+
+        @Override
+        public void setScorer(Scorer scorer) throws IOException {
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            if (canceled)
+                throw new InterruptedIOException("Search canceled!"); //$NON-NLS-1$
+
+            bits[doc >>> 6] |= 1L << doc;
+            count++;
+        }
+    }
+
+}
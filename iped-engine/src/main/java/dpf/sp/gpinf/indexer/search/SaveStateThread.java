@@ -41,22 +41,33 @@ public void run() {
                 File file = stateMap.remove(state);
                 if (file == null)
                     continue;
+                Marcadores marcadores = null;
+                if (state instanceof Marcadores) {
+                    marcadores = (Marcadores) state;
+                    if (marcadores.appendToJournal(file))
+                        continue;
+                    marcadores.startFullSave();
+                }
+                boolean saved = false;
                 try {
                     File tmp = new File(file.getAbsolutePath() + ".tmp"); //$NON-NLS-1$
                     if (tmp.exists())
                         tmp.delete();
                     Util.writeObject(state, tmp.getAbsolutePath());
                     if (!file.exists()) {
-                        tmp.renameTo(file);
+                        saved = tmp.renameTo(file);
                     } else {
                         File bkp = backupAndDelete(file);
-                        if (!tmp.renameTo(file))
+                        saved = tmp.renameTo(file);
+                        if (!saved)
                             bkp.renameTo(file);
                     }
 
                 } catch (IOException e1) {
                     e1.printStackTrace();
                 }
+                if (marcadores != null)
+                    marcadores.fullSaveFinished(file, saved);
             }
             try {
                 Thread.sleep(200);
@@ -1,11 +1,21 @@
 package dpf.sp.gpinf.indexer.search;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.lucene.document.IntPoint;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
 import org.apache.lucene.search.Query;
 
+import dpf.sp.gpinf.indexer.process.IndexItem;
+import gpinf.similarity.ImageSimilarityIndex;
 import iped3.IItem;
+import iped3.IItemId;
 import iped3.util.BasicProps;
 
 public class SimilarImagesSearch {
@@ -19,6 +29,86 @@ public class SimilarImagesSearch {
      */
     private static final int range = 64;
 
+    /**
+     * Maximum number of images returned by the image similarity index.
+     */
+    private static final int maxIndexResults = 10000;
+
+    /**
+     * Maximum distance, per feature, of images returned by the image similarity
+     * index. Images farther than this would get a zero score anyway.
+     */
+    private static final int maxDistancePerFeature = 25;
+
+    /**
+     * Results from the image similarity index of each source, by source id. Null if
+     * the index was not used.
+     */
+    private Map<Integer, ImageSimilarityIndex.Result> indexResults;
+
+    /**
+     * Uses the image similarity index of the case, if all sources have an updated
+     * one, to select only the images closest to the reference image. Otherwise
+     * falls back to the range query over the 4 median features.
+     */
+    public Query getQueryForSimilarImages(IItem item, IPEDSource ipedCase) {
+        byte[] similarityFeatures = item.getImageSimilarityFeatures();
+        if (similarityFeatures == null) {
+            return null;
+        }
+        List<IPEDSource> sources = ipedCase instanceof IPEDMultiSource
+                ? ((IPEDMultiSource) ipedCase).getAtomicSources()
+                : Collections.singletonList(ipedCase);
+
+        List<ImageSimilarityIndex> indexes = new ArrayList<>();
+        for (IPEDSource source : sources) {
+            ImageSimilarityIndex index = source.getImageSimilarityIndex();
+            if (index == null) {
+                return getQueryForSimilarImages(item);
+            }
+            indexes.add(index);
+        }
+
+        int maxDistance = maxDistancePerFeature * similarityFeatures.length;
+        Map<Integer, ImageSimilarityIndex.Result> results = new HashMap<>();
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < sources.size(); i++) {
+            ImageSimilarityIndex.Result result = indexes.get(i).search(similarityFeatures, maxDistance,
+                    maxIndexResults);
+            results.put(sources.get(i).getSourceId(), result);
+            for (int j = 0; j < result.size(); j++) {
+                ids.add(result.getId(j));
+            }
+        }
+        indexResults = results;
+        if (ids.isEmpty()) {
+            return new MatchNoDocsQuery();
+        }
+        // ids of different sources are mixed in the query, items that are not
+        // results of their own source get a negative distance in getDistance()
+        int[] idArray = new int[ids.size()];
+        for (int i = 0; i < idArray.length; i++) {
+            idArray[i] = ids.get(i);
+        }
+        return IntPoint.newSetQuery(IndexItem.ID, idArray);
+    }
+
+    /**
+     * @return if the last query was built using the image similarity index.
+     */
+    public boolean isIndexUsed() {
+        return indexResults != null;
+    }
+
+    /**
+     * @return distance from the item to the reference image, computed by the image
+     *         similarity index, or -1 if the item was not returned by the index.
+     */
+    public int getDistance(IItemId itemId) {
+        ImageSimilarityIndex.Result result = indexResults.get(itemId.getSourceId());
+        return result != null ? result.getDistance(itemId.getId()) : -1;
+    }
+
     public Query getQueryForSimilarImages(IItem item) {
         byte[] similarityFeatures = item.getImageSimilarityFeatures();
         if (similarityFeatures == null) {
@@ -0,0 +1,1074 @@
+package dpf.sp.gpinf.indexer.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Armazenamento de conteúdo endereçado pelo hash (md5), usado para o conteúdo
+ * de subitens exportados e para as miniaturas de imagens e vídeos.
+ *
+ * O armazenamento é dividido em {@link #NUM_SHARDS} partes pelo primeiro byte
+ * do hash. Cada parte grava os conteúdos, comprimidos com LZ4 quando vantajoso,
+ * em arquivos de segmento apenas com inserções no final, e as localizações em um
+ * arquivo de índice, também apenas com inserções. As gravações são feitas em
+ * lotes por um conjunto de threads escritoras, sem sincronização com disco por
+ * item; {@link #commit()} aguarda as gravações pendentes e sincroniza os
+ * arquivos uma única vez.
+ *
+ * Conteúdos ainda não gravados são lidos da memória. Ao fechar um armazenamento
+ * aberto para escrita, é criado para cada parte um índice ordenado pelo hash,
+ * que é mapeado em memória pelas leituras no aplicativo de análise sem carregar
+ * todas as localizações.
+ */
+public class BlobStore implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlobStore.class);
+
+    public static final String STORAGE_DIR = "storage"; //$NON-NLS-1$
+
+    public static final byte DATA = 0;
+    public static final byte THUMB = 1;
+
+    private static final byte RAW = 0;
+    private static final byte LZ4 = 1;
+
+    private static final int NUM_SHARDS = 16;
+    private static final int NUM_WRITERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int WRITER_QUEUE_SIZE = 1024;
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final int MAX_BATCH_BYTES = 1 << 22;
+
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+    /**
+     * Compressão é mantida apenas se reduzir o tamanho em pelo menos 10%.
+     */
+    private static final double MIN_COMPRESSION_RATIO = 0.9;
+
+    private static final int RECORD_SIZE = 32;
+    private static final int SORTED_MAGIC = 0x42534958; // "BSIX"
+    private static final int SORTED_VERSION = 1;
+    private static final int SORTED_HEADER_SIZE = 32;
+
+    /**
+     * Registros ordenados em memória por vez (16 MB) ao criar o índice ordenado.
+     */
+    private static final int SORT_RUN_RECORDS = 1 << 19;
+
+    // layout da localização: tipo, compressão, presença, segmento e posição
+    private static final int KIND_SHIFT = 62;
+    private static final int CODEC_SHIFT = 60;
+    private static final long PRESENT = 1L << 59;
+    private static final int SEGMENT_SHIFT = 40;
+    private static final long SEGMENT_MASK = (1L << 19) - 1;
+    private static final long OFFSET_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private static final LZ4Factory lz4 = LZ4Factory.fastestInstance();
+
+    private static final Map<File, BlobStore> stores = new ConcurrentHashMap<>();
+
+    private final File dir;
+    private final boolean writable;
+    private final Shard[] shards = new Shard[NUM_SHARDS];
+    private final Writer[] writers;
+    private volatile boolean closed = false;
+
+    /**
+     * Retorna o armazenamento do diretório, aberto para escrita durante o
+     * processamento.
+     */
+    public static synchronized BlobStore openForWrite(File dir) throws IOException {
+        dir = dir.getAbsoluteFile();
+        BlobStore store = stores.get(dir);
+        if (store != null && store.writable) {
+            return store;
+        }
+        if (store != null) {
+            store.close();
+        }
+        store = new BlobStore(dir, true);
+        stores.put(dir, store);
+        return store;
+    }
+
+    /**
+     * Retorna o armazenamento do diretório, abrindo-o para leitura se ainda não
+     * estiver aberto.
+     */
+    public static BlobStore get(File dir) throws IOException {
+        dir = dir.getAbsoluteFile();
+        BlobStore store = stores.get(dir);
+        if (store != null && !store.closed) {
+            return store;
+        }
+        synchronized (BlobStore.class) {
+            store = stores.get(dir);
+            if (store == null || store.closed) {
+                store = new BlobStore(dir, false);
+                stores.put(dir, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Fecha o armazenamento do diretório, se estiver aberto.
+     */
+    public static synchronized void closeStore(File dir) throws IOException {
+        BlobStore store = stores.remove(dir.getAbsoluteFile());
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    /**
+     * Confirma as gravações do armazenamento do diretório, se estiver aberto para
+     * escrita.
+     */
+    public static void commitStore(File dir) throws IOException, InterruptedException {
+        BlobStore store = stores.get(dir.getAbsoluteFile());
+        if (store != null && store.writable) {
+            store.commit();
+        }
+    }
+
+    private BlobStore(File dir, boolean writable) throws IOException {
+        this.dir = dir;
+        this.writable = writable;
+        if (writable) {
+            dir.mkdirs();
+        }
+        try {
+            for (int i = 0; i < NUM_SHARDS; i++) {
+                shards[i] = new Shard(i);
+            }
+        } catch (IOException e) {
+            closeShards();
+            throw e;
+        }
+        if (writable) {
+            writers = new Writer[NUM_WRITERS];
+            for (int i = 0; i < NUM_WRITERS; i++) {
+                writers[i] = new Writer(i);
+                writers[i].start();
+            }
+        } else {
+            writers = new Writer[0];
+        }
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private static int getShard(byte[] hash) {
+        return (hash[0] & 0xFF) >> 4;
+    }
+
+    private static long getLong(byte[] hash, int off) {
+        long l = 0;
+        for (int i = off; i < off + 8 && i < hash.length; i++) {
+            l = (l << 8) | (hash[i] & 0xFF);
+        }
+        return l;
+    }
+
+    /**
+     * Armazena o conteúdo, se ainda não existir conteúdo do mesmo tipo com o mesmo
+     * hash. A compressão é feita pela thread chamadora, a gravação é assíncrona.
+     *
+     * @return false se o conteúdo já existia.
+     */
+    public boolean put(byte[] hash, byte kind, byte[] data, int len) throws IOException, InterruptedException {
+        if (!writable || closed) {
+            throw new IOException("Storage not opened for writing: " + dir.getAbsolutePath()); //$NON-NLS-1$
+        }
+        Shard shard = shards[getShard(hash)];
+        Key key = new Key(getLong(hash, 0), getLong(hash, 8), kind);
+        if (shard.pending.containsKey(key) || shard.table.find(key.hi, key.lo, kind) >= 0) {
+            return false;
+        }
+
+        Pending pending = compress(data, len);
+        if (shard.pending.putIfAbsent(key, pending) != null) {
+            return false;
+        }
+        // a thread escritora insere na tabela antes de remover dos pendentes
+        if (shard.table.find(key.hi, key.lo, kind) >= 0) {
+            shard.pending.remove(key, pending);
+            return false;
+        }
+        writers[shard.id % writers.length].queue.put(new Record(shard, key, pending));
+        return true;
+    }
+
+    public boolean contains(byte[] hash, byte kind) throws IOException {
+        Shard shard = shards[getShard(hash)];
+        long hi = getLong(hash, 0), lo = getLong(hash, 8);
+        return shard.pending.containsKey(new Key(hi, lo, kind)) || shard.locate(hi, lo, kind) != null;
+    }
+
+    /**
+     * @return o conteúdo armazenado ou null se não existir.
+     */
+    public byte[] get(byte[] hash, byte kind) throws IOException {
+        if (closed) {
+            throw new IOException("Storage closed: " + dir.getAbsolutePath()); //$NON-NLS-1$
+        }
+        Shard shard = shards[getShard(hash)];
+        long hi = getLong(hash, 0), lo = getLong(hash, 8);
+        // pendentes antes da tabela, pois a escritora remove dos pendentes depois de
+        // inserir na tabela
+        Pending pending = shard.pending.get(new Key(hi, lo, kind));
+        if (pending != null) {
+            return decompress(pending.codec, pending.data, pending.data.length, pending.rawLen);
+        }
+        long[] loc = shard.locate(hi, lo, kind);
+        if (loc == null) {
+            return null;
+        }
+        int storedLen = (int) loc[1];
+        byte[] stored = shard.read(getSegment(loc[0]), getOffset(loc[0]), storedLen);
+        return decompress(getCodec(loc[0]), stored, storedLen, (int) loc[2]);
+    }
+
+    private static Pending compress(byte[] data, int len) {
+        LZ4Compressor compressor = lz4.fastCompressor();
+        byte[] compressed = new byte[compressor.maxCompressedLength(len)];
+        int clen = compressor.compress(data, 0, len, compressed, 0, compressed.length);
+        if (clen < len * MIN_COMPRESSION_RATIO) {
+            return new Pending(LZ4, Arrays.copyOf(compressed, clen), len);
+        }
+        return new Pending(RAW, Arrays.copyOf(data, len), len);
+    }
+
+    private static byte[] decompress(byte codec, byte[] stored, int storedLen, int rawLen) {
+        if (codec == RAW) {
+            return storedLen == stored.length ? stored.clone() : Arrays.copyOf(stored, storedLen);
+        }
+        LZ4FastDecompressor decompressor = lz4.fastDecompressor();
+        byte[] raw = new byte[rawLen];
+        decompressor.decompress(stored, 0, raw, 0, rawLen);
+        return raw;
+    }
+
+    private static byte getKind(long loc) {
+        return (byte) (loc >>> KIND_SHIFT);
+    }
+
+    private static byte getCodec(long loc) {
+        return (byte) ((loc >>> CODEC_SHIFT) & 3);
+    }
+
+    private static int getSegment(long loc) {
+        return (int) ((loc >>> SEGMENT_SHIFT) & SEGMENT_MASK);
+    }
+
+    private static long getOffset(long loc) {
+        return loc & OFFSET_MASK;
+    }
+
+    private static long makeLoc(byte kind, byte codec, int segment, long offset) {
+        return ((long) kind << KIND_SHIFT) | ((long) codec << CODEC_SHIFT) | PRESENT
+                | ((long) segment << SEGMENT_SHIFT) | offset;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, pos);
+            if (read == -1) {
+                throw new EOFException("Truncated storage index"); //$NON-NLS-1$
+            }
+            pos += read;
+        }
+    }
+
+    private static int compareRecords(ByteBuffer buf, int a, int b) {
+        int pa = a * RECORD_SIZE, pb = b * RECORD_SIZE;
+        return SortedIndex.compare(buf.getLong(pa), buf.getLong(pa + 8), getKind(buf.getLong(pa + 16)),
+                buf.getLong(pb), buf.getLong(pb + 8), getKind(buf.getLong(pb + 16)));
+    }
+
+    private static void swapRecords(ByteBuffer buf, int a, int b) {
+        int pa = a * RECORD_SIZE, pb = b * RECORD_SIZE;
+        for (int k = 0; k < RECORD_SIZE; k += 8) {
+            long tmp = buf.getLong(pa + k);
+            buf.putLong(pa + k, buf.getLong(pb + k));
+            buf.putLong(pb + k, tmp);
+        }
+    }
+
+    /**
+     * Ordena os registros do buffer no próprio buffer, sem criar objetos por
+     * registro. Os hashes são aleatórios, então o pivô central basta.
+     */
+    private static void sortRecords(ByteBuffer buf, int low, int high) {
+        while (high - low > 16) {
+            swapRecords(buf, (low + high) >>> 1, high);
+            int store = low;
+            for (int i = low; i < high; i++) {
+                if (compareRecords(buf, i, high) < 0) {
+                    swapRecords(buf, i, store++);
+                }
+            }
+            swapRecords(buf, store, high);
+            // recursão no lado menor para limitar a profundidade
+            if (store - low < high - store) {
+                sortRecords(buf, low, store - 1);
+                low = store + 1;
+            } else {
+                sortRecords(buf, store + 1, high);
+                high = store - 1;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && compareRecords(buf, j - 1, j) > 0; j--) {
+                swapRecords(buf, j - 1, j);
+            }
+        }
+    }
+
+    /**
+     * Aguarda as gravações pendentes e sincroniza os arquivos com o disco.
+     */
+    public void commit() throws IOException, InterruptedException {
+        if (!writable || closed) {
+            return;
+        }
+        CountDownLatch latch = new CountDownLatch(writers.length);
+        for (Writer writer : writers) {
+            writer.queue.put(new Record(latch));
+        }
+        latch.await();
+        for (Writer writer : writers) {
+            if (writer.error != null) {
+                throw new IOException("Error writing to storage " + dir.getAbsolutePath(), writer.error); //$NON-NLS-1$
+            }
+        }
+        for (Shard shard : shards) {
+            shard.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (writable) {
+                commit();
+                for (Writer writer : writers) {
+                    writer.interrupt();
+                }
+                for (Shard shard : shards) {
+                    shard.writeSortedIndex();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+
+        } finally {
+            closed = true;
+            stores.remove(dir, this);
+            closeShards();
+        }
+    }
+
+    private void closeShards() {
+        for (Shard shard : shards) {
+            if (shard != null) {
+                shard.close();
+            }
+        }
+    }
+
+    private static class Key {
+
+        final long hi, lo;
+        final byte kind;
+
+        Key(long hi, long lo, byte kind) {
+            this.hi = hi;
+            this.lo = lo;
+            this.kind = kind;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hi) * 31 + kind;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return hi == k.hi && lo == k.lo && kind == k.kind;
+        }
+    }
+
+    private static class Pending {
+
+        final byte codec;
+        final byte[] data;
+        final int rawLen;
+
+        Pending(byte codec, byte[] data, int rawLen) {
+            this.codec = codec;
+            this.data = data;
+            this.rawLen = rawLen;
+        }
+    }
+
+    private static class Record {
+
+        final Shard shard;
+        final Key key;
+        final Pending pending;
+        final CountDownLatch flush;
+
+        Record(Shard shard, Key key, Pending pending) {
+            this.shard = shard;
+            this.key = key;
+            this.pending = pending;
+            this.flush = null;
+        }
+
+        Record(CountDownLatch flush) {
+            this.shard = null;
+            this.key = null;
+            this.pending = null;
+            this.flush = flush;
+        }
+    }
+
+    /**
+     * Thread que grava em lote os conteúdos das partes atribuídas a ela.
+     */
+    private class Writer extends Thread {
+
+        final int id;
+        final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(WRITER_QUEUE_SIZE);
+        volatile Exception error;
+
+        Writer(int id) {
+            super("BlobStoreWriter-" + id); //$NON-NLS-1$
+            this.id = id;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<Record> batch = new ArrayList<>(MAX_BATCH_SIZE);
+            try {
+                while (true) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                    try {
+                        write(batch);
+                    } catch (IOException e) {
+                        LOGGER.error("Error writing to storage " + dir.getAbsolutePath(), e); //$NON-NLS-1$
+                        error = e;
+                    }
+                    for (Record record : batch) {
+                        if (record.flush != null) {
+                            record.flush.countDown();
+                        }
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                // armazenamento fechado
+            }
+        }
+
+        private void write(List<Record> batch) throws IOException {
+            for (Shard shard : shards) {
+                if (shard.id % writers.length != id) {
+                    continue;
+                }
+                List<Record> records = new ArrayList<>();
+                for (Record record : batch) {
+                    if (record.shard == shard) {
+                        records.add(record);
+                    }
+                }
+                if (!records.isEmpty()) {
+                    shard.append(records);
+                }
+            }
+        }
+    }
+
+    private class Shard {
+
+        final int id;
+        final Map<Key, Pending> pending = new ConcurrentHashMap<>();
+        final List<FileChannel> segments = new CopyOnWriteArrayList<>();
+        LocationTable table;
+        SortedIndex sorted;
+        FileChannel index;
+        long indexLength;
+        long segmentLength;
+
+        Shard(int id) throws IOException {
+            this.id = id;
+            File indexFile = getIndexFile();
+            if (!writable) {
+                sorted = SortedIndex.open(getSortedFile(), indexFile.length());
+            }
+            openSegments();
+            if (writable) {
+                index = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            } else if (sorted == null && indexFile.exists()) {
+                index = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+            }
+            if (sorted == null) {
+                table = new LocationTable(index);
+                loadIndex(indexFile);
+            }
+            if (writable) {
+                // descarta registro gravado parcialmente
+                index.truncate(indexLength);
+                index.position(indexLength);
+                if (segments.isEmpty()) {
+                    newSegment();
+                }
+                FileChannel last = segments.get(segments.size() - 1);
+                segmentLength = last.size();
+            }
+        }
+
+        File getIndexFile() {
+            return new File(dir, "blobs-" + id + ".idx"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        File getSortedFile() {
+            return new File(dir, "blobs-" + id + ".sorted"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        File getSegmentFile(int segment) {
+            return new File(dir, "blobs-" + id + "-" + segment + ".seg"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+
+        private void openSegments() throws IOException {
+            File file;
+            while ((file = getSegmentFile(segments.size())).exists()) {
+                if (writable) {
+                    segments.add(FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE));
+                } else {
+                    segments.add(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+                }
+            }
+        }
+
+        private void newSegment() throws IOException {
+            File file = getSegmentFile(segments.size());
+            segments.add(FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE));
+            segmentLength = 0;
+        }
+
+        /**
+         * Carrega as localizações do índice. Registros que apontam para dados não
+         * gravados (após uma interrupção sem commit) são descartados.
+         */
+        private void loadIndex(File indexFile) throws IOException {
+            indexLength = 0;
+            if (!indexFile.exists()) {
+                return;
+            }
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(indexFile), 1 << 16))) {
+                while (true) {
+                    long hi = in.readLong();
+                    long lo = in.readLong();
+                    long loc = in.readLong();
+                    int storedLen = in.readInt();
+                    int rawLen = in.readInt();
+                    int segment = getSegment(loc);
+                    if (segment >= segments.size()
+                            || getOffset(loc) + storedLen > segments.get(segment).size()) {
+                        break;
+                    }
+                    table.add(hi, lo, getKind(loc), indexLength / RECORD_SIZE);
+                    indexLength += RECORD_SIZE;
+                }
+            } catch (EOFException e) {
+                // fim do índice
+            }
+        }
+
+        long[] locate(long hi, long lo, byte kind) throws IOException {
+            if (sorted != null) {
+                return sorted.find(hi, lo, kind);
+            }
+            long record = table.find(hi, lo, kind);
+            if (record < 0) {
+                return null;
+            }
+            ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE);
+            readFully(index, buf, record * RECORD_SIZE);
+            return new long[] { buf.getLong(16), buf.getInt(24), buf.getInt(28) };
+        }
+
+        byte[] read(int segment, long offset, int len) throws IOException {
+            byte[] bytes = new byte[len];
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            FileChannel channel = segments.get(segment);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, offset + buf.position()) == -1) {
+                    throw new EOFException("Truncated storage segment " + getSegmentFile(segment)); //$NON-NLS-1$
+                }
+            }
+            return bytes;
+        }
+
+        /**
+         * Grava um lote de conteúdos no segmento atual e suas localizações no índice.
+         * Chamado apenas pela thread escritora da parte.
+         */
+        void append(List<Record> records) throws IOException {
+            int start = 0;
+            while (start < records.size()) {
+                int end = start;
+                long batchBytes = 0;
+                while (end < records.size()) {
+                    int len = records.get(end).pending.data.length;
+                    if (end > start && (batchBytes + len > MAX_BATCH_BYTES
+                            || segmentLength + batchBytes + len > MAX_SEGMENT_SIZE)) {
+                        break;
+                    }
+                    batchBytes += len;
+                    end++;
+                }
+                if (segmentLength > 0 && segmentLength + batchBytes > MAX_SEGMENT_SIZE) {
+                    newSegment();
+                }
+                appendBatch(records.subList(start, end), batchBytes);
+                start = end;
+            }
+        }
+
+        private void appendBatch(List<Record> records, long batchBytes) throws IOException {
+            int segment = segments.size() - 1;
+            FileChannel channel = segments.get(segment);
+            ByteBuffer data = ByteBuffer.allocate((int) batchBytes);
+            ByteBuffer idx = ByteBuffer.allocate(records.size() * RECORD_SIZE);
+            long[] locs = new long[records.size()];
+            long firstRecord = indexLength / RECORD_SIZE;
+            long offset = segmentLength;
+            for (int i = 0; i < records.size(); i++) {
+                Record record = records.get(i);
+                Pending p = record.pending;
+                locs[i] = makeLoc(record.key.kind, p.codec, segment, offset);
+                data.put(p.data);
+                idx.putLong(record.key.hi).putLong(record.key.lo).putLong(locs[i]).putInt(p.data.length)
+                        .putInt(p.rawLen);
+                offset += p.data.length;
+            }
+            data.flip();
+            while (data.hasRemaining()) {
+                segmentLength += channel.write(data, segmentLength);
+            }
+            idx.flip();
+            while (idx.hasRemaining()) {
+                indexLength += index.write(idx);
+            }
+            for (int i = 0; i < records.size(); i++) {
+                Record record = records.get(i);
+                table.add(record.key.hi, record.key.lo, record.key.kind, firstRecord + i);
+                pending.remove(record.key, record.pending);
+            }
+        }
+
+        void force() throws IOException {
+            if (index != null) {
+                index.force(false);
+            }
+            for (FileChannel segment : segments) {
+                segment.force(false);
+            }
+        }
+
+        /**
+         * Cria o índice ordenado a partir do arquivo de índice, ordenando blocos de
+         * até {@link #SORT_RUN_RECORDS} registros em memória e intercalando os blocos
+         * ordenados gravados em arquivos temporários.
+         */
+        void writeSortedIndex() throws IOException {
+            File file = getSortedFile();
+            File tmp = new File(file.getPath() + ".tmp"); //$NON-NLS-1$
+            long count = indexLength / RECORD_SIZE;
+            List<File> runs = new ArrayList<>();
+            try {
+                ByteBuffer buf = ByteBuffer.allocate((int) Math.min(count, SORT_RUN_RECORDS) * RECORD_SIZE);
+                for (long first = 0; first < count; first += SORT_RUN_RECORDS) {
+                    int n = (int) Math.min(SORT_RUN_RECORDS, count - first);
+                    buf.clear().limit(n * RECORD_SIZE);
+                    readFully(index, buf, first * RECORD_SIZE);
+                    sortRecords(buf, 0, n - 1);
+                    if (count <= SORT_RUN_RECORDS) {
+                        break;
+                    }
+                    File run = new File(dir, "blobs-" + id + ".run" + runs.size()); //$NON-NLS-1$ //$NON-NLS-2$
+                    runs.add(run);
+                    try (FileChannel out = FileChannel.open(run.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                        buf.position(0);
+                        while (buf.hasRemaining()) {
+                            out.write(buf);
+                        }
+                    }
+                }
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+                    out.writeInt(SORTED_MAGIC);
+                    out.writeInt(SORTED_VERSION);
+                    out.writeLong(count);
+                    out.writeLong(indexLength);
+                    out.writeLong(0);
+                    if (runs.isEmpty()) {
+                        out.write(buf.array(), 0, (int) count * RECORD_SIZE);
+                    } else {
+                        mergeRuns(runs, out);
+                    }
+                }
+            } finally {
+                for (File run : runs) {
+                    run.delete();
+                }
+            }
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                LOGGER.warn("Error creating sorted storage index {}", file.getAbsolutePath()); //$NON-NLS-1$
+            }
+        }
+
+        private void mergeRuns(List<File> runs, DataOutputStream out) throws IOException {
+            PriorityQueue<RunReader> queue = new PriorityQueue<>(runs.size(),
+                    (a, b) -> SortedIndex.compare(a.hi, a.lo, getKind(a.loc), b.hi, b.lo, getKind(b.loc)));
+            try {
+                for (File run : runs) {
+                    RunReader reader = new RunReader(run);
+                    if (reader.next()) {
+                        queue.add(reader);
+                    } else {
+                        reader.close();
+                    }
+                }
+                RunReader reader;
+                while ((reader = queue.poll()) != null) {
+                    out.writeLong(reader.hi);
+                    out.writeLong(reader.lo);
+                    out.writeLong(reader.loc);
+                    out.writeInt(reader.storedLen);
+                    out.writeInt(reader.rawLen);
+                    if (reader.next()) {
+                        queue.add(reader);
+                    } else {
+                        reader.close();
+                    }
+                }
+            } finally {
+                for (RunReader reader : queue) {
+                    IOUtil.closeQuietly(reader);
+                }
+            }
+        }
+
+        void close() {
+            IOUtil.closeQuietly(index);
+            IOUtil.closeQuietly(sorted);
+            for (FileChannel segment : segments) {
+                IOUtil.closeQuietly(segment);
+            }
+        }
+    }
+
+    /**
+     * Tabela hash de endereçamento aberto que associa o hash ao número do seu
+     * registro no arquivo de índice. As entradas de 16 bytes (primeira metade do
+     * hash, tipo e número do registro) ficam fora do heap, em páginas de
+     * {@link #PAGE_SIZE} entradas. A segunda metade do hash e a localização são
+     * lidas do próprio arquivo de índice, apenas quando a primeira metade coincide.
+     * Escrita apenas pela thread escritora da parte.
+     */
+    private static class LocationTable {
+
+        private static final int ENTRY_SIZE = 16;
+        private static final int PAGE_BITS = 20;
+        private static final int PAGE_SIZE = 1 << PAGE_BITS;
+        private static final int PAGE_MASK = PAGE_SIZE - 1;
+        private static final long ENTRY_PRESENT = 1L << 61;
+        private static final long RECORD_MASK = ENTRY_PRESENT - 1;
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final FileChannel index;
+        private ByteBuffer[] pages;
+        private int capacity;
+        private int size = 0;
+
+        LocationTable(FileChannel index) {
+            this.index = index;
+            allocate(1024);
+        }
+
+        private void allocate(int capacity) {
+            this.capacity = capacity;
+            pages = new ByteBuffer[(capacity + PAGE_SIZE - 1) >>> PAGE_BITS];
+            for (int p = 0; p < pages.length; p++) {
+                pages[p] = ByteBuffer.allocateDirect(Math.min(capacity, PAGE_SIZE) * ENTRY_SIZE);
+            }
+        }
+
+        private static int slot(long hi, int mask) {
+            return (int) ((hi * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+
+        private long getHi(int i) {
+            return pages[i >>> PAGE_BITS].getLong((i & PAGE_MASK) * ENTRY_SIZE);
+        }
+
+        private long getEntry(int i) {
+            return pages[i >>> PAGE_BITS].getLong((i & PAGE_MASK) * ENTRY_SIZE + 8);
+        }
+
+        private void set(int i, long hi, long entry) {
+            ByteBuffer page = pages[i >>> PAGE_BITS];
+            page.putLong((i & PAGE_MASK) * ENTRY_SIZE, hi);
+            page.putLong((i & PAGE_MASK) * ENTRY_SIZE + 8, entry);
+        }
+
+        private long readLo(long record) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(8);
+            readFully(index, buf, record * RECORD_SIZE + 8);
+            return buf.getLong(0);
+        }
+
+        private int findSlot(long hi, long lo, byte kind) throws IOException {
+            int mask = capacity - 1;
+            for (int i = slot(hi, mask);; i = (i + 1) & mask) {
+                long entry = getEntry(i);
+                if (entry == 0) {
+                    return -1 - i;
+                }
+                if (getHi(i) == hi && getKind(entry) == kind && readLo(entry & RECORD_MASK) == lo) {
+                    return i;
+                }
+            }
+        }
+
+        /**
+         * @return número do registro no arquivo de índice ou -1 se não existir.
+         */
+        long find(long hi, long lo, byte kind) throws IOException {
+            lock.readLock().lock();
+            try {
+                int i = findSlot(hi, lo, kind);
+                return i < 0 ? -1 : getEntry(i) & RECORD_MASK;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void add(long hi, long lo, byte kind, long record) throws IOException {
+            lock.writeLock().lock();
+            try {
+                if ((size + 1) * 10L > capacity * 6L) {
+                    rehash(capacity * 2);
+                }
+                int i = findSlot(hi, lo, kind);
+                if (i >= 0) {
+                    return;
+                }
+                set(-1 - i, hi, ((long) kind << KIND_SHIFT) | ENTRY_PRESENT | record);
+                size++;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void rehash(int newCapacity) {
+            ByteBuffer[] oldPages = pages;
+            int oldCapacity = capacity;
+            allocate(newCapacity);
+            int mask = newCapacity - 1;
+            for (int j = 0; j < oldCapacity; j++) {
+                ByteBuffer page = oldPages[j >>> PAGE_BITS];
+                int pos = (j & PAGE_MASK) * ENTRY_SIZE;
+                long entry = page.getLong(pos + 8);
+                if (entry == 0) {
+                    continue;
+                }
+                long hi = page.getLong(pos);
+                int i = slot(hi, mask);
+                while (getEntry(i) != 0) {
+                    i = (i + 1) & mask;
+                }
+                set(i, hi, entry);
+            }
+        }
+    }
+
+    /**
+     * Leitura sequencial de um bloco ordenado durante a criação do índice
+     * ordenado.
+     */
+    private static class RunReader implements Closeable {
+
+        private final DataInputStream in;
+        private long remaining;
+        long hi, lo, loc;
+        int storedLen, rawLen;
+
+        RunReader(File run) throws IOException {
+            remaining = run.length() / RECORD_SIZE;
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            hi = in.readLong();
+            lo = in.readLong();
+            loc = in.readLong();
+            storedLen = in.readInt();
+            rawLen = in.readInt();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Índice das localizações ordenado pelo hash e mapeado em memória, usado para
+     * leitura. Só é usado se corresponder ao índice atual da parte.
+     */
+    private static class SortedIndex implements Closeable {
+
+        private static final long MAX_CHUNK_SIZE = (1L << 30) / RECORD_SIZE * RECORD_SIZE;
+
+        private final FileChannel channel;
+        private final long count;
+        private final MappedByteBuffer[] chunks;
+        private final long recordsPerChunk = MAX_CHUNK_SIZE / RECORD_SIZE;
+
+        static SortedIndex open(File file, long indexLength) throws IOException {
+            if (!file.exists()) {
+                return null;
+            }
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                if (in.readInt() != SORTED_MAGIC || in.readInt() != SORTED_VERSION) {
+                    return null;
+                }
+                long count = in.readLong();
+                if (in.readLong() != indexLength) {
+                    return null;
+                }
+                return new SortedIndex(file, count);
+
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        private SortedIndex(File file, long count) throws IOException {
+            this.count = count;
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                int numChunks = (int) ((count + recordsPerChunk - 1) / recordsPerChunk);
+                chunks = new MappedByteBuffer[numChunks];
+                for (int i = 0; i < numChunks; i++) {
+                    long first = i * recordsPerChunk;
+                    long size = Math.min(recordsPerChunk, count - first) * RECORD_SIZE;
+                    chunks[i] = channel.map(MapMode.READ_ONLY, SORTED_HEADER_SIZE + first * RECORD_SIZE, size);
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        static int compare(long hi1, long lo1, byte kind1, long hi2, long lo2, byte kind2) {
+            int c = Long.compareUnsigned(hi1, hi2);
+            if (c == 0) {
+                c = Long.compareUnsigned(lo1, lo2);
+            }
+            if (c == 0) {
+                c = Byte.compare(kind1, kind2);
+            }
+            return c;
+        }
+
+        long[] find(long hi, long lo, byte kind) {
+            long low = 0, high = count - 1;
+            while (low <= high) {
+                long mid = (low + high) >>> 1;
+                MappedByteBuffer chunk = chunks[(int) (mid / recordsPerChunk)];
+                int pos = (int) (mid % recordsPerChunk) * RECORD_SIZE;
+                long loc = chunk.getLong(pos + 16);
+                int c = compare(chunk.getLong(pos), chunk.getLong(pos + 8), getKind(loc), hi, lo, kind);
+                if (c < 0) {
+                    low = mid + 1;
+                } else if (c > 0) {
+                    high = mid - 1;
+                } else {
+                    return new long[] { loc, chunk.getInt(pos + 24), chunk.getInt(pos + 28) };
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package dpf.sp.gpinf.indexer.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+
+import iped3.io.SeekableInputStream;
+
+/**
+ * Leitura do conteúdo de itens gravados no {@link BlobStore} do caso. O
+ * identificador do item é o hash (md5) do conteúdo.
+ */
+public class BlobStoreInputStreamFactory extends SeekableInputStreamFactory {
+
+    private volatile BlobStore store;
+
+    public BlobStoreInputStreamFactory(Path storageDir) {
+        super(storageDir);
+    }
+
+    @Override
+    public boolean checkIfDataSourceExists() {
+        // do nothing, it will always be into case folder
+        return false;
+    }
+
+    private BlobStore getStore() throws IOException {
+        BlobStore store = this.store;
+        if (store == null || store.isClosed()) {
+            this.store = store = BlobStore.get(getDataSourcePath().toFile());
+        }
+        return store;
+    }
+
+    @Override
+    public SeekableInputStream getSeekableInputStream(String identifier) throws IOException {
+        byte[] bytes = getStore().get(new HashValue(identifier).getBytes(), BlobStore.DATA);
+        if (bytes == null) {
+            throw new IOException("Content not found in storage: " + identifier); //$NON-NLS-1$
+        }
+        return new SeekableFileInputStream(new SeekableInMemoryByteChannel(bytes));
+    }
+
+}
@@ -0,0 +1,406 @@
+package dpf.sp.gpinf.indexer.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Conjunto concorrente de hashes, indexado pelos bytes crus do digest.
+ *
+ * Os hashes são guardados fora do heap, em tabelas de endereçamento aberto com
+ * slots de tamanho fixo (um conjunto de tabelas por tamanho de digest: 16 bytes
+ * para md5, 20 para sha-1, 32 para sha-256, etc). Cada conjunto é dividido em
+ * segmentos para limitar o tamanho de cada buffer e a contenção durante o
+ * redimensionamento. A inserção de um slot vazio é feita por CAS no estado do
+ * slot, sem bloquear outras threads que acessam o mesmo segmento.
+ *
+ * Cada hash possui ainda um marcador de "indexado", que indica que algum item
+ * com aquele hash já foi adicionado ao índice. Apenas hashes indexados são
+ * persistidos, pois são os únicos garantidamente presentes no índice após um
+ * commit.
+ */
+public class HashRegistry {
+
+    private static final int MAGIC = 0x48524547; // "HREG"
+    private static final int VERSION = 1;
+
+    private static final int MAX_KEY_LEN = 64;
+    private static final int SEGMENT_BITS = 6;
+    private static final int NUM_SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int INITIAL_SEGMENT_CAPACITY = 1 << 10;
+    private static final float MAX_LOAD_FACTOR = 0.7f;
+    private static final int NUM_LOCKS = 1 << 12;
+
+    // estados dos slots. Slots ocupados guardam parte do hash nos bits superiores
+    private static final int EMPTY = 0;
+    private static final int WRITING = 0x4;
+    private static final int FULL = 0x2;
+    private static final int INDEXED = 0x1;
+    private static final int FLAGS_MASK = 0x7;
+
+    private final AtomicReferenceArray<KeySpace> keySpaces = new AtomicReferenceArray<>(MAX_KEY_LEN + 1);
+
+    private final Object[] locks = new Object[NUM_LOCKS];
+
+    public HashRegistry() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Adiciona o hash se ainda não existir.
+     *
+     * @return true se o hash foi adicionado, false se já existia
+     */
+    public boolean putIfAbsent(byte[] hash) {
+        return getKeySpace(hash.length).putIfAbsent(hash, false);
+    }
+
+    public boolean contains(byte[] hash) {
+        KeySpace keySpace = keySpaces.get(hash.length);
+        return keySpace != null && keySpace.contains(hash);
+    }
+
+    /**
+     * Marca o hash como pertencente a um item já adicionado ao índice, inserindo-o
+     * se necessário.
+     */
+    public void markIndexed(byte[] hash) {
+        getKeySpace(hash.length).putIfAbsent(hash, true);
+    }
+
+    /**
+     * Retorna um objeto de lock compartilhado por todos os usuários do mesmo hash.
+     * Hashes diferentes podem compartilhar o mesmo lock.
+     */
+    public Object getLock(byte[] hash) {
+        return locks[hash(hash) & (NUM_LOCKS - 1)];
+    }
+
+    public long size() {
+        long size = 0;
+        for (int i = 0; i < keySpaces.length(); i++) {
+            KeySpace keySpace = keySpaces.get(i);
+            if (keySpace != null) {
+                size += keySpace.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (int i = 0; i < keySpaces.length(); i++) {
+            keySpaces.set(i, null);
+        }
+    }
+
+    /**
+     * Grava os hashes indexados no arquivo.
+     */
+    public void save(File file) throws IOException {
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+            int num = 0;
+            for (int i = 0; i < keySpaces.length(); i++) {
+                if (keySpaces.get(i) != null) {
+                    num++;
+                }
+            }
+            buf.putInt(MAGIC).putInt(VERSION).putInt(num);
+            for (int i = 0; i < keySpaces.length(); i++) {
+                KeySpace keySpace = keySpaces.get(i);
+                if (keySpace != null) {
+                    keySpace.writeIndexed(fc, buf);
+                }
+            }
+            flush(fc, buf);
+            fc.force(true);
+        }
+    }
+
+    private static void flush(FileChannel fc, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            fc.write(buf);
+        }
+        buf.clear();
+    }
+
+    /**
+     * Carrega um arquivo gravado por {@link #save(File)}. Todos os hashes
+     * carregados são considerados indexados. O arquivo é lido por um buffer no
+     * heap em vez de mapeado, pois um mapeamento só é liberado pelo GC e impediria
+     * a substituição do arquivo no próximo commit no Windows.
+     */
+    public static HashRegistry load(File file) throws IOException {
+        HashRegistry registry = new HashRegistry();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 20))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Invalid hash registry file " + file.getAbsolutePath()); //$NON-NLS-1$
+            }
+            int num = in.readInt();
+            for (int i = 0; i < num; i++) {
+                int keyLen = in.readInt();
+                long count = in.readLong();
+                KeySpace keySpace = registry.getKeySpace(keyLen);
+                keySpace.presize(count);
+                byte[] key = new byte[keyLen];
+                for (long k = 0; k < count; k++) {
+                    in.readFully(key);
+                    keySpace.putIfAbsent(key, true);
+                }
+            }
+        }
+        return registry;
+    }
+
+    private KeySpace getKeySpace(int keyLen) {
+        if (keyLen == 0 || keyLen > MAX_KEY_LEN) {
+            throw new IllegalArgumentException("Unsupported hash length: " + keyLen); //$NON-NLS-1$
+        }
+        KeySpace keySpace = keySpaces.get(keyLen);
+        if (keySpace == null) {
+            keySpaces.compareAndSet(keyLen, null, new KeySpace(keyLen));
+            keySpace = keySpaces.get(keyLen);
+        }
+        return keySpace;
+    }
+
+    private static int hash(byte[] key) {
+        int h = 0;
+        for (byte b : key) {
+            h = 31 * h + b;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int fingerprint(int hash) {
+        return ((hash * 0x9E3779B9) & ~FLAGS_MASK) | FULL;
+    }
+
+    private static class KeySpace {
+
+        private final int keyLen;
+        private final Segment[] segments = new Segment[NUM_SEGMENTS];
+
+        KeySpace(int keyLen) {
+            this.keyLen = keyLen;
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = new Segment(keyLen, INITIAL_SEGMENT_CAPACITY);
+            }
+        }
+
+        void presize(long count) {
+            for (Segment segment : segments) {
+                segment.ensureCapacity((int) Math.min(Integer.MAX_VALUE / 2, count / NUM_SEGMENTS + 1));
+            }
+        }
+
+        boolean putIfAbsent(byte[] key, boolean indexed) {
+            int h = hash(key);
+            return segments[h >>> (32 - SEGMENT_BITS)].putIfAbsent(key, h, indexed);
+        }
+
+        boolean contains(byte[] key) {
+            int h = hash(key);
+            return segments[h >>> (32 - SEGMENT_BITS)].contains(key, h);
+        }
+
+        long size() {
+            long size = 0;
+            for (Segment segment : segments) {
+                size += segment.size.get();
+            }
+            return size;
+        }
+
+        void writeIndexed(FileChannel fc, ByteBuffer buf) throws IOException {
+            if (buf.remaining() < 12) {
+                flush(fc, buf);
+            }
+            buf.putInt(keyLen);
+            long countPos = fc.position() + buf.position();
+            buf.putLong(0);
+            long count = 0;
+            for (Segment segment : segments) {
+                count += segment.writeIndexed(fc, buf);
+            }
+            flush(fc, buf);
+            ByteBuffer countBuf = ByteBuffer.allocate(8);
+            countBuf.putLong(0, count);
+            fc.write(countBuf, countPos);
+        }
+    }
+
+    private static class Segment {
+
+        private final int keyLen;
+        private final ReentrantReadWriteLock resizeLock = new ReentrantReadWriteLock();
+        private final AtomicInteger size = new AtomicInteger();
+        private ByteBuffer keys;
+        private AtomicIntegerArray states;
+        private int mask;
+
+        Segment(int keyLen, int capacity) {
+            this.keyLen = keyLen;
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            keys = ByteBuffer.allocateDirect(capacity * keyLen);
+            states = new AtomicIntegerArray(capacity);
+            mask = capacity - 1;
+        }
+
+        boolean putIfAbsent(byte[] key, int h, boolean indexed) {
+            boolean added = false;
+            resizeLock.readLock().lock();
+            try {
+                int fp = fingerprint(h);
+                int idx = h & mask;
+                while (true) {
+                    int state = states.get(idx);
+                    if (state == EMPTY) {
+                        if (states.compareAndSet(idx, EMPTY, WRITING)) {
+                            int pos = idx * keyLen;
+                            for (int i = 0; i < keyLen; i++) {
+                                keys.put(pos + i, key[i]);
+                            }
+                            states.set(idx, indexed ? fp | INDEXED : fp);
+                            added = true;
+                            break;
+                        }
+                        continue;
+                    }
+                    if (state == WRITING) {
+                        Thread.yield();
+                        continue;
+                    }
+                    if ((state | INDEXED) == (fp | INDEXED) && keyEquals(idx, key)) {
+                        if (indexed && (state & INDEXED) == 0) {
+                            states.compareAndSet(idx, state, state | INDEXED);
+                        }
+                        break;
+                    }
+                    idx = (idx + 1) & mask;
+                }
+            } finally {
+                resizeLock.readLock().unlock();
+            }
+            if (added && size.incrementAndGet() > (mask + 1) * MAX_LOAD_FACTOR) {
+                ensureCapacity(size.get());
+            }
+            return added;
+        }
+
+        boolean contains(byte[] key, int h) {
+            resizeLock.readLock().lock();
+            try {
+                int fp = fingerprint(h);
+                int idx = h & mask;
+                while (true) {
+                    int state = states.get(idx);
+                    if (state == EMPTY) {
+                        return false;
+                    }
+                    if (state == WRITING) {
+                        Thread.yield();
+                        continue;
+                    }
+                    if ((state | INDEXED) == (fp | INDEXED) && keyEquals(idx, key)) {
+                        return true;
+                    }
+                    idx = (idx + 1) & mask;
+                }
+            } finally {
+                resizeLock.readLock().unlock();
+            }
+        }
+
+        private boolean keyEquals(int idx, byte[] key) {
+            int pos = idx * keyLen;
+            for (int i = 0; i < keyLen; i++) {
+                if (keys.get(pos + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void ensureCapacity(int numKeys) {
+            resizeLock.writeLock().lock();
+            try {
+                int capacity = mask + 1;
+                if (numKeys <= capacity * MAX_LOAD_FACTOR) {
+                    return;
+                }
+                while (numKeys > capacity * MAX_LOAD_FACTOR) {
+                    capacity <<= 1;
+                }
+                ByteBuffer oldKeys = keys;
+                AtomicIntegerArray oldStates = states;
+                allocate(capacity);
+                byte[] key = new byte[keyLen];
+                for (int i = 0; i < oldStates.length(); i++) {
+                    int state = oldStates.get(i);
+                    if ((state & FULL) == 0) {
+                        continue;
+                    }
+                    int pos = i * keyLen;
+                    for (int k = 0; k < keyLen; k++) {
+                        key[k] = oldKeys.get(pos + k);
+                    }
+                    int idx = hash(key) & mask;
+                    while (states.get(idx) != EMPTY) {
+                        idx = (idx + 1) & mask;
+                    }
+                    keys.position(idx * keyLen);
+                    keys.put(key);
+                    states.set(idx, state);
+                }
+                keys.clear();
+            } finally {
+                resizeLock.writeLock().unlock();
+            }
+        }
+
+        long writeIndexed(FileChannel fc, ByteBuffer buf) throws IOException {
+            resizeLock.writeLock().lock();
+            try {
+                long count = 0;
+                for (int i = 0; i < states.length(); i++) {
+                    if ((states.get(i) & (FULL | INDEXED)) == (FULL | INDEXED)) {
+                        if (buf.remaining() < keyLen) {
+                            flush(fc, buf);
+                        }
+                        int pos = i * keyLen;
+                        for (int k = 0; k < keyLen; k++) {
+                            buf.put(keys.get(pos + k));
+                        }
+                        count++;
+                    }
+                }
+                return count;
+            } finally {
+                resizeLock.writeLock().unlock();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,412 @@
+package dpf.sp.gpinf.indexer.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import iped3.io.SeekableInputStream;
+
+/**
+ * Conteúdo de um item compartilhado pelas tarefas do processamento. Cada tarefa
+ * (assinatura, hash, entropia, parsing, miniaturas, carving) abria um novo
+ * stream da fonte (Sleuthkit, contêineres) e relia o mesmo conteúdo.
+ *
+ * Itens pequenos são lidos uma única vez para um buffer direto reaproveitado de
+ * um pool. Itens grandes mantêm um único stream da fonte com um cache de blocos,
+ * lidos em sequência com leitura antecipada quando o acesso é sequencial. Cada
+ * stream obtido por {@link #newStream()} tem posição própria. Os buffers voltam
+ * ao pool quando o conteúdo foi fechado e todos os streams abertos sobre ele
+ * também.
+ */
+public class SharedContent {
+
+    public static final int MAX_BUFFERED_LENGTH = 1 << 23;
+
+    private static final int BLOCK_BITS = 20;
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    private static final int MAX_BLOCKS = 16;
+    private static final int MAX_READ_AHEAD = 4;
+
+    /**
+     * Fonte do conteúdo, aberta novamente se o stream anterior falhar.
+     */
+    public interface Source {
+        SeekableInputStream open() throws IOException;
+    }
+
+    private final Source source;
+    private final long length;
+
+    private int refs = 1;
+    private long servedBytes = 0, sourceBytes = 0;
+
+    // item pequeno: conteúdo inteiro
+    private ByteBuffer content;
+
+    // item grande: blocos em ordem de uso
+    private boolean blockMode;
+    private SeekableInputStream sourceStream;
+    private long size = -1;
+    private LinkedHashMap<Long, ByteBuffer> blocks;
+    private long lastMissedBlock = -2;
+    private int readAhead = 1;
+
+    public SharedContent(Source source, long length) {
+        this.source = source;
+        this.length = length;
+        this.blockMode = length > MAX_BUFFERED_LENGTH;
+    }
+
+    public synchronized SeekableInputStream newStream() throws IOException {
+        if (refs == 0) {
+            throw new IOException("Shared content already released"); //$NON-NLS-1$
+        }
+        refs++;
+        return new ContentStream();
+    }
+
+    /**
+     * Libera a referência do item. Os buffers voltam ao pool após o fechamento do
+     * último stream.
+     */
+    public void close() {
+        release();
+    }
+
+    private synchronized void release() {
+        if (refs > 0 && --refs == 0) {
+            if (content != null) {
+                BufferPool.release(content);
+                content = null;
+            }
+            if (blocks != null) {
+                for (ByteBuffer block : blocks.values()) {
+                    BufferPool.release(block);
+                }
+                blocks = null;
+            }
+            IOUtil.closeQuietly(sourceStream);
+            sourceStream = null;
+        }
+    }
+
+    /**
+     * @return bytes lidos pelos consumidores
+     */
+    public synchronized long getServedBytes() {
+        return servedBytes;
+    }
+
+    /**
+     * @return bytes lidos da fonte
+     */
+    public synchronized long getSourceBytes() {
+        return sourceBytes;
+    }
+
+    private synchronized long size() throws IOException {
+        if (!blockMode) {
+            fill();
+            if (!blockMode) {
+                return content.limit();
+            }
+        }
+        if (size == -1) {
+            size = getSourceStream().size();
+        }
+        return size;
+    }
+
+    private synchronized int read(long pos, byte[] b, int off, int len) throws IOException {
+        if (refs == 0) {
+            throw new IOException("Shared content already released"); //$NON-NLS-1$
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!blockMode) {
+            fill();
+        }
+        int read;
+        if (!blockMode) {
+            if (pos >= content.limit()) {
+                return -1;
+            }
+            read = (int) Math.min(len, content.limit() - pos);
+            ByteBuffer view = content.duplicate();
+            view.position((int) pos);
+            view.get(b, off, read);
+        } else {
+            read = readBlocks(pos, b, off, len);
+            if (read == -1) {
+                return -1;
+            }
+        }
+        servedBytes += read;
+        return read;
+    }
+
+    /**
+     * Lê o item pequeno inteiro para um buffer do pool. Se a fonte tiver mais
+     * dados do que o tamanho informado, passa a usar o cache de blocos.
+     */
+    private void fill() throws IOException {
+        if (content != null) {
+            return;
+        }
+        ByteBuffer buffer = BufferPool.get((int) length);
+        boolean filled = false;
+        try (SeekableInputStream is = source.open()) {
+            byte[] buf = new byte[(int) Math.min(length, 64 * 1024) + 1];
+            int i;
+            while ((i = is.read(buf, 0, Math.min(buf.length, buffer.remaining()))) != -1) {
+                if (i == 0 && buffer.remaining() == 0) {
+                    break;
+                }
+                buffer.put(buf, 0, i);
+                sourceBytes += i;
+            }
+            if (buffer.remaining() == 0 && is.read() != -1) {
+                blockMode = true;
+                return;
+            }
+            buffer.flip();
+            content = buffer;
+            filled = true;
+
+        } finally {
+            if (!filled) {
+                BufferPool.release(buffer);
+            }
+        }
+    }
+
+    private SeekableInputStream getSourceStream() throws IOException {
+        if (sourceStream == null) {
+            sourceStream = source.open();
+        }
+        return sourceStream;
+    }
+
+    private int readBlocks(long pos, byte[] b, int off, int len) throws IOException {
+        if (blocks == null) {
+            blocks = new LinkedHashMap<>(MAX_BLOCKS * 2, 0.75f, true);
+        }
+        if (pos >= size()) {
+            return -1;
+        }
+        long blockNum = pos >>> BLOCK_BITS;
+        ByteBuffer block = blocks.get(blockNum);
+        if (block == null) {
+            block = loadBlocks(blockNum);
+        }
+        int blockOff = (int) (pos - (blockNum << BLOCK_BITS));
+        if (blockOff >= block.limit()) {
+            return -1;
+        }
+        int read = Math.min(len, block.limit() - blockOff);
+        ByteBuffer view = block.duplicate();
+        view.position(blockOff);
+        view.get(b, off, read);
+        return read;
+    }
+
+    /**
+     * Lê o bloco e, se o acesso for sequencial, os seguintes em uma única leitura
+     * contínua da fonte.
+     */
+    private ByteBuffer loadBlocks(long blockNum) throws IOException {
+        if (blockNum == lastMissedBlock + 1) {
+            readAhead = Math.min(readAhead * 2, MAX_READ_AHEAD);
+        } else {
+            readAhead = 1;
+        }
+        long lastBlock = (size() - 1) >>> BLOCK_BITS;
+        int numBlocks = (int) Math.min(readAhead, lastBlock - blockNum + 1);
+        lastMissedBlock = blockNum + numBlocks - 1;
+
+        ByteBuffer first = null;
+        byte[] buf = new byte[64 * 1024];
+        try {
+            SeekableInputStream is = getSourceStream();
+            is.seek(blockNum << BLOCK_BITS);
+            for (int k = 0; k < numBlocks; k++) {
+                if (blocks.containsKey(blockNum + k)) {
+                    if (k == 0) {
+                        first = blocks.get(blockNum);
+                    }
+                    is.seek((blockNum + k + 1) << BLOCK_BITS);
+                    continue;
+                }
+                ByteBuffer block = BufferPool.get(BLOCK_SIZE);
+                try {
+                    int i;
+                    while (block.hasRemaining()
+                            && (i = is.read(buf, 0, Math.min(buf.length, block.remaining()))) != -1) {
+                        block.put(buf, 0, i);
+                        sourceBytes += i;
+                    }
+                } catch (IOException e) {
+                    BufferPool.release(block);
+                    throw e;
+                }
+                block.flip();
+                putBlock(blockNum + k, block);
+                if (k == 0) {
+                    first = block;
+                }
+                if (block.limit() < BLOCK_SIZE) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // reabre a fonte na próxima leitura
+            IOUtil.closeQuietly(sourceStream);
+            sourceStream = null;
+            throw e;
+        }
+        return first;
+    }
+
+    private void putBlock(long blockNum, ByteBuffer block) {
+        blocks.put(blockNum, block);
+        Iterator<Map.Entry<Long, ByteBuffer>> it = blocks.entrySet().iterator();
+        while (blocks.size() > MAX_BLOCKS && it.hasNext()) {
+            Map.Entry<Long, ByteBuffer> e = it.next();
+            if (e.getKey() == blockNum) {
+                continue;
+            }
+            BufferPool.release(e.getValue());
+            it.remove();
+        }
+    }
+
+    private class ContentStream extends SeekableInputStream {
+
+        private long pos = 0, markPos = 0;
+        private boolean closed = false;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int i = read(b, 0, 1);
+            return i == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int i = SharedContent.this.read(pos, b, off, len);
+            if (i > 0) {
+                pos += i;
+            }
+            return i;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long newPos = Math.max(0, Math.min(pos + n, size()));
+            long skipped = newPos - pos;
+            pos = newPos;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(Math.max(0, size() - pos), Integer.MAX_VALUE);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            markPos = pos;
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            pos = markPos;
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            this.pos = pos;
+        }
+
+        @Override
+        public long position() throws IOException {
+            return pos;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return SharedContent.this.size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                release();
+            }
+        }
+    }
+
+    /**
+     * Pool de buffers diretos por classe de tamanho (potências de 2), com limite
+     * total de bytes mantidos ociosos.
+     */
+    private static class BufferPool {
+
+        private static final int MIN_BITS = 16;
+        private static final int MAX_BITS = 23;
+        private static final long MAX_IDLE_BYTES = Math.min(Runtime.getRuntime().maxMemory() / 16, 256L << 20);
+
+        @SuppressWarnings("unchecked")
+        private static final ArrayDeque<ByteBuffer>[] free = new ArrayDeque[MAX_BITS - MIN_BITS + 1];
+        private static long idleBytes = 0;
+
+        static {
+            for (int i = 0; i < free.length; i++) {
+                free[i] = new ArrayDeque<>();
+            }
+        }
+
+        private static int sizeClass(int capacity) {
+            int bits = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1);
+            return Math.max(bits, MIN_BITS) - MIN_BITS;
+        }
+
+        static ByteBuffer get(int capacity) {
+            int c = sizeClass(capacity);
+            synchronized (free) {
+                ByteBuffer buffer = free[c].pollFirst();
+                if (buffer != null) {
+                    idleBytes -= buffer.capacity();
+                    buffer.clear();
+                    buffer.limit(capacity);
+                    return buffer;
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << (c + MIN_BITS));
+            buffer.limit(capacity);
+            return buffer;
+        }
+
+        static void release(ByteBuffer buffer) {
+            int c = sizeClass(buffer.capacity());
+            synchronized (free) {
+                if (idleBytes + buffer.capacity() <= MAX_IDLE_BYTES) {
+                    free[c].addFirst(buffer);
+                    idleBytes += buffer.capacity();
+                }
+            }
+        }
+    }
+
+}
@@ -5,6 +5,8 @@
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.FileChannel;
@@ -12,11 +14,16 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.PriorityQueue;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.tika.utils.SystemUtils;
 import org.slf4j.Logger;
@@ -36,6 +43,8 @@ public class SleuthkitClient implements Comparable<SleuthkitClient> {
 
     private static final int MAX_STREAMS = 10000;
     private static final int TIMEOUT_SECONDS = 3600;
+    private static final int PING_TIMEOUT_SECONDS = 60;
+    private static final int MEMORY_TIMEOUT_MILLIS = 10000;
 
     private static PriorityQueue<SleuthkitClient> clientPriorityQueue = new PriorityQueue<>();
     private static Object lock = new Object();
@@ -53,21 +62,26 @@ public class SleuthkitClient implements Comparable<SleuthkitClient> {
         NUM_TSK_SERVERS = config.getNumImageReaders();
     }
 
-    Process process;
-    int id = idStart.getAndIncrement();;
-    InputStream is;
-    FileChannel fc;
-    File pipe;
-    MappedByteBuffer out;
-    OutputStream os;
-    Random rand = new Random();
+    int id = idStart.getAndIncrement();
+    private int generation = 0;
+    volatile ServerConnection conn;
 
-    volatile boolean serverError = false;
+    // conexões de servidores reiniciados, cujo arquivo de pipe ainda não foi
+    // apagado
+    private final List<ServerConnection> retiredConnections = new ArrayList<>();
 
     private int openedStreams = 0;
     private Set<Long> currentStreams = new HashSet<>();
     private int priority = 0;
-    private volatile long requestTime = 0;
+
+    // métricas acumuladas entre reinícios do servidor
+    private final long startTime = System.currentTimeMillis();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong requestNanos = new AtomicLong();
+    private final AtomicLong maxRequestNanos = new AtomicLong();
+    private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+    private final AtomicInteger restarts = new AtomicInteger();
 
     static class TimeoutMonitor extends Thread {
         public void run() {
@@ -75,7 +89,10 @@ public void run() {
                 while (true) {
                     Thread.sleep(5000);
                     for (SleuthkitClient client : clientsList) {
-                        client.checkTimeout();
+                        ServerConnection conn = client.conn;
+                        if (conn != null) {
+                            conn.checkTimeout();
+                        }
                     }
                 }
             } catch (InterruptedException e) {
@@ -83,30 +100,6 @@ public void run() {
         }
     }
 
-    private void checkTimeout() {
-        if (requestTime == 0)
-            return;
-        if (SleuthkitServer.getByte(out, 0) != FLAGS.SQLITE_READ) {
-            logger.info("Waiting SleuthkitServer database read..."); //$NON-NLS-1$
-            return;
-        }
-        if (System.currentTimeMillis() / 1000 - requestTime >= TIMEOUT_SECONDS) {
-            logger.error("Timeout waiting SleuthkitServer " + id + " response! Restarting...");
-            if (process != null) {
-                process.destroyForcibly();
-            }
-            serverError = true;
-            requestTime = 0;
-        }
-    }
-
-    public void enableTimeoutCheck(boolean enable) {
-        if (enable)
-            requestTime = System.currentTimeMillis() / 1000;
-        else
-            requestTime = 0;
-    }
-
     public static SleuthkitClient get() {
 
         synchronized (lock) {
@@ -144,125 +137,65 @@ public void run() {
     }
 
     public static void shutDownServers() {
-        for (SleuthkitClient sc : clientsList)
-            sc.finishProcessAndClearMmap();
+        for (SleuthkitClient sc : clientsList) {
+            sc.logStats();
+            sc.conn.finishProcessAndClearMmap();
+            synchronized (sc) {
+                int tries = 100;
+                while (!sc.deleteRetiredPipes() && tries-- > 0) {
+                    System.gc();
+                }
+            }
+        }
     }
 
     private SleuthkitClient() {
-        while (process == null || !isAlive(process)) {
-            start();
-        }
+        startServer();
     }
 
-    private void start() {
-
-        LocalConfig localConfig = (LocalConfig) ConfigurationManager.getInstance().findObjects(LocalConfig.class)
-                .iterator().next();
-        String pipePath = localConfig.getIndexerTemp() + "/pipe-" + id; //$NON-NLS-1$
-
-        String classpath = Configuration.getInstance().appRoot + "/lib/*"; //$NON-NLS-1$
-        if (Configuration.getInstance().tskJarFile != null) {
-            classpath += SystemUtils.IS_OS_WINDOWS ? ";" : ":";
-            classpath += Configuration.getInstance().tskJarFile.getAbsolutePath(); // $NON-NLS-1$
-        }
-
-        String[] cmd = { "java", "-cp", classpath, "-Xmx128M", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-                SleuthkitServer.class.getCanonicalName(), dbDirPath + "/" + SleuthkitReader.DB_NAME, //$NON-NLS-1$
-                String.valueOf(id), pipePath };
-
-        try {
-            logger.info("Starting SleuthkitServer " + id + ": " + Arrays.asList(cmd));
-
-            ProcessBuilder pb = new ProcessBuilder(cmd);
-            process = pb.start();
-
-            logStdErr(process.getErrorStream(), id);
-
-            is = process.getInputStream();
-            os = process.getOutputStream();
-
-            int size = SleuthkitServer.MMAP_FILE_SIZE;
-            pipe = new File(pipePath);
-            try (RandomAccessFile raf = new RandomAccessFile(pipePath, "rw")) { //$NON-NLS-1$
-                raf.setLength(size);
-                fc = raf.getChannel();
-                out = fc.map(MapMode.READ_WRITE, 0, size);
-                out.load();
-            } catch (ClosedByInterruptException e) {
-                // clear interrupt status
-                Thread.interrupted();
-                throw e;
-            }
-
-            is.read();
-            boolean ok = false;
-            while (!(ok = SleuthkitServer.getByte(out, 0) == FLAGS.DONE)
-                    && SleuthkitServer.getByte(out, 0) != FLAGS.ERROR) {
-                Thread.sleep(1);
-            }
-
-            if (!ok) {
-                throw new Exception("Error starting SleuthkitServer"); //$NON-NLS-1$
-            }
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            if (process != null) {
-                process.destroyForcibly();
+    /**
+     * Tenta apagar os arquivos de pipe dos servidores reiniciados.
+     *
+     * @return true se todos foram apagados
+     */
+    private boolean deleteRetiredPipes() {
+        Iterator<ServerConnection> it = retiredConnections.iterator();
+        while (it.hasNext()) {
+            if (it.next().deletePipe()) {
+                it.remove();
             }
-            process = null;
         }
+        return retiredConnections.isEmpty();
     }
 
-    private void logStdErr(final InputStream is, final int id) {
-        new Thread() {
-            public void run() {
-                byte[] b = new byte[1024 * 1024];
-                try {
-                    int r = 0;
-                    while ((r = is.read(b)) != -1) {
-                        String msg = new String(b, 0, r).trim();
-                        if (!msg.isEmpty())
-                            logger.info("SleuthkitServer " + id + ": " + msg); //$NON-NLS-1$ //$NON-NLS-2$
-                    }
-
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+    private void startServer() {
+        while (conn == null || !conn.isAlive()) {
+            conn = new ServerConnection(this, generation++);
+            if (!conn.start()) {
+                conn = null;
             }
-        }.start();
-    }
-
-    private boolean ping() {
-        int i = rand.nextInt(255) + 1;
-        try {
-            os.write(i);
-            os.flush();
-            int r = is.read();
-            if (r == i)
-                return true;
-
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-        return false;
     }
 
     public synchronized SeekableInputStream getInputStream(int id, String path) throws IOException {
 
-        if (!serverError && !ping()) {
+        ServerConnection conn = this.conn;
+
+        if (!conn.serverError && !conn.ping()) {
             logger.warn("Ping SleuthkitServer " + this.id + " failed! Restarting..."); //$NON-NLS-1$ //$NON-NLS-2$
-            serverError = true;
+            conn.serverError = true;
         }
 
-        if (serverError || (openedStreams > MAX_STREAMS && currentStreams.size() == 0)) {
-            if (process != null) {
-                process.destroyForcibly();
-            }
-            process = null;
-            if (!serverError)
+        if (conn.serverError || (openedStreams > MAX_STREAMS && currentStreams.size() == 0)) {
+            if (!conn.serverError)
                 logger.info("Restarting SleuthkitServer to clean possible resource leaks."); //$NON-NLS-1$
-            serverError = false;
+            conn.destroy();
+            // streams antigos ainda podem acessar o mapeamento desta conexão, por isso
+            // apenas os pipes das gerações anteriores são liberados
+            deleteRetiredPipes();
+            retiredConnections.add(conn);
+            this.conn = null;
+            restarts.incrementAndGet();
             openedStreams = 0;
             currentStreams.clear();
             synchronized (lock) {
@@ -270,11 +203,9 @@ public synchronized SeekableInputStream getInputStream(int id, String path) thro
             }
         }
 
-        while (process == null || !isAlive(process)) {
-            start();
-        }
+        startServer();
 
-        SleuthkitClientInputStream stream = new SleuthkitClientInputStream(id, path, this);
+        SleuthkitClientInputStream stream = new SleuthkitClientInputStream(id, path, this.conn);
 
         currentStreams.add(stream.streamId);
         openedStreams++;
@@ -293,33 +224,410 @@ public synchronized void removeStream(long streamID) {
         }
     }
 
-    private void finishProcessAndClearMmap() {
-        process.destroyForcibly();
-        try {
-            fc.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        fc = null;
-        out = null;
-        int tries = 100;
-        do {
-            System.gc();
-            logger.info("Trying to delete " + pipe.getAbsolutePath());
-        } while (!pipe.delete() && tries-- > 0);
+    private void addRequestStats(long nanos, int bytes) {
+        requests.incrementAndGet();
+        requestNanos.addAndGet(nanos);
+        bytesRead.addAndGet(bytes);
+        maxRequestNanos.accumulateAndGet(nanos, Math::max);
     }
 
-    private boolean isAlive(Process p) {
-        try {
-            p.exitValue();
-            return false;
-        } catch (Exception e) {
-            return true;
-        }
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * @return latência média das requisições, em milissegundos.
+     */
+    public double getAverageLatency() {
+        long n = requests.get();
+        return n == 0 ? 0 : requestNanos.get() / 1e6 / n;
+    }
+
+    public double getMaxLatency() {
+        return maxRequestNanos.get() / 1e6;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests.get();
+    }
+
+    /**
+     * @return vazão média desde o início do servidor, em MB/s.
+     */
+    public double getThroughput() {
+        long time = System.currentTimeMillis() - startTime;
+        return time == 0 ? 0 : (bytesRead.get() / (1024.0 * 1024)) / (time / 1000.0);
+    }
+
+    private void logStats() {
+        logger.info(String.format("SleuthkitServer %d: %d requests, %.1f MB read, %.2f MB/s, " //$NON-NLS-1$
+                + "avg latency %.3f ms, max latency %.1f ms, max concurrent requests %d, restarts %d", id, //$NON-NLS-1$
+                getRequests(), getBytesRead() / (1024.0 * 1024), getThroughput(), getAverageLatency(),
+                getMaxLatency(), getMaxConcurrentRequests(), restarts.get()));
     }
 
     @Override
     public int compareTo(SleuthkitClient o) {
         return priority - o.priority;
     }
+
+    /**
+     * Conexão com um processo SleuthkitServer. Cada reinício do servidor cria uma
+     * nova conexão, streams abertos na conexão anterior passam a retornar erro.
+     *
+     * Os slots da memória compartilhada são reservados sem bloqueio (CAS); uma
+     * thread dedicada lê as notificações do servidor e libera a thread que aguarda
+     * cada slot, permitindo várias requisições simultâneas ao mesmo servidor.
+     */
+    static class ServerConnection {
+
+        final SleuthkitClient client;
+        private final int generation;
+
+        Process process;
+        InputStream is;
+        OutputStream os;
+        FileChannel fc;
+        File pipe;
+        MappedByteBuffer out;
+
+        volatile boolean serverError = false;
+
+        private final AtomicIntegerArray slotInUse = new AtomicIntegerArray(SleuthkitServer.NUM_SLOTS);
+        private final Semaphore freeSlots = new Semaphore(SleuthkitServer.NUM_SLOTS);
+        private final Semaphore[] slotDone = new Semaphore[SleuthkitServer.NUM_SLOTS];
+        private final AtomicLongArray requestTime = new AtomicLongArray(SleuthkitServer.NUM_SLOTS);
+        private final AtomicInteger slotsInUse = new AtomicInteger();
+        private final Semaphore pong = new Semaphore(0);
+
+        ServerConnection(SleuthkitClient client, int generation) {
+            this.client = client;
+            this.generation = generation;
+            for (int i = 0; i < slotDone.length; i++) {
+                slotDone[i] = new Semaphore(0);
+            }
+        }
+
+        String getServerId() {
+            return "SleuthkitServer " + client.id; //$NON-NLS-1$
+        }
+
+        boolean isAlive() {
+            try {
+                process.exitValue();
+                return false;
+            } catch (Exception e) {
+                return true;
+            }
+        }
+
+        private boolean start() {
+
+            LocalConfig localConfig = (LocalConfig) ConfigurationManager.getInstance()
+                    .findObjects(LocalConfig.class).iterator().next();
+            String pipePath = localConfig.getIndexerTemp() + "/pipe-" + client.id + "-" + generation; //$NON-NLS-1$ //$NON-NLS-2$
+
+            String classpath = Configuration.getInstance().appRoot + "/lib/*"; //$NON-NLS-1$
+            if (Configuration.getInstance().tskJarFile != null) {
+                classpath += SystemUtils.IS_OS_WINDOWS ? ";" : ":";
+                classpath += Configuration.getInstance().tskJarFile.getAbsolutePath(); // $NON-NLS-1$
+            }
+
+            String[] cmd = { "java", "-cp", classpath, "-Xmx128M", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                    SleuthkitServer.class.getCanonicalName(), dbDirPath + "/" + SleuthkitReader.DB_NAME, //$NON-NLS-1$
+                    String.valueOf(client.id), pipePath };
+
+            try {
+                logger.info("Starting SleuthkitServer " + client.id + ": " + Arrays.asList(cmd));
+
+                ProcessBuilder pb = new ProcessBuilder(cmd);
+                process = pb.start();
+
+                logStdErr(process.getErrorStream(), client.id);
+
+                is = process.getInputStream();
+                os = process.getOutputStream();
+
+                int size = SleuthkitServer.MMAP_FILE_SIZE;
+                pipe = new File(pipePath);
+                try (RandomAccessFile raf = new RandomAccessFile(pipePath, "rw")) { //$NON-NLS-1$
+                    raf.setLength(size);
+                    fc = raf.getChannel();
+                    out = fc.map(MapMode.READ_WRITE, 0, size);
+                    out.load();
+                } catch (ClosedByInterruptException e) {
+                    // clear interrupt status
+                    Thread.interrupted();
+                    throw e;
+                }
+
+                is.read();
+                boolean ok = false;
+                while (!(ok = SleuthkitServer.getByte(out, SleuthkitServer.CMD) == FLAGS.DONE)
+                        && SleuthkitServer.getByte(out, SleuthkitServer.CMD) != FLAGS.ERROR) {
+                    Thread.sleep(1);
+                }
+
+                if (!ok) {
+                    throw new Exception("Error starting SleuthkitServer"); //$NON-NLS-1$
+                }
+
+                Thread dispatcher = new Thread("SleuthkitServer " + client.id + " dispatcher") { //$NON-NLS-1$ //$NON-NLS-2$
+                    @Override
+                    public void run() {
+                        dispatchResponses();
+                    }
+                };
+                dispatcher.setDaemon(true);
+                dispatcher.start();
+
+                return true;
+
+            } catch (Exception e) {
+                e.printStackTrace();
+                if (process != null) {
+                    process.destroyForcibly();
+                }
+                return false;
+            }
+        }
+
+        private void logStdErr(final InputStream is, final int id) {
+            new Thread() {
+                public void run() {
+                    byte[] b = new byte[1024 * 1024];
+                    try {
+                        int r = 0;
+                        while ((r = is.read(b)) != -1) {
+                            String msg = new String(b, 0, r).trim();
+                            if (!msg.isEmpty())
+                                logger.info("SleuthkitServer " + id + ": " + msg); //$NON-NLS-1$ //$NON-NLS-2$
+                        }
+
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }.start();
+        }
+
+        private void dispatchResponses() {
+            try {
+                int slot;
+                while ((slot = is.read()) != -1) {
+                    if (slot == SleuthkitServer.PING) {
+                        pong.release();
+                    } else if (slot < slotDone.length) {
+                        slotDone[slot].release();
+                    }
+                }
+            } catch (IOException e) {
+                // processo finalizado
+            }
+            if (!serverError && slotsInUse.get() > 0) {
+                logger.error("Possible " + getServerId() + " crash."); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            serverError = true;
+            // acorda quem está aguardando resposta
+            for (Semaphore done : slotDone) {
+                done.release();
+            }
+            pong.release();
+        }
+
+        private boolean ping() {
+            try {
+                SleuthkitServer.notify(os, SleuthkitServer.PING);
+                return pong.tryAcquire(PING_TIMEOUT_SECONDS, TimeUnit.SECONDS) && !serverError;
+
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        private void checkTimeout() {
+            for (int slot = 0; slot < SleuthkitServer.NUM_SLOTS; slot++) {
+                long time = requestTime.get(slot);
+                if (time == 0)
+                    continue;
+                if (SleuthkitServer.getByte(out, slot * SleuthkitServer.SLOT_SIZE) != FLAGS.SQLITE_READ) {
+                    logger.info("Waiting SleuthkitServer database read..."); //$NON-NLS-1$
+                    continue;
+                }
+                if (System.currentTimeMillis() / 1000 - time >= TIMEOUT_SECONDS) {
+                    logger.error("Timeout waiting SleuthkitServer " + client.id + " response! Restarting...");
+                    if (process != null) {
+                        process.destroyForcibly();
+                    }
+                    serverError = true;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Reserva um slot livre, aguardando se todos estiverem em uso.
+         */
+        int claimSlot() throws IOException {
+            if (serverError) {
+                throw new IOException(getServerId() + " returned an error before."); //$NON-NLS-1$
+            }
+            freeSlots.acquireUninterruptibly();
+            int inUse = slotsInUse.incrementAndGet();
+            client.maxConcurrentRequests.accumulateAndGet(inUse, Math::max);
+            int start = (int) (Thread.currentThread().getId() % SleuthkitServer.NUM_SLOTS);
+            while (true) {
+                for (int i = 0; i < SleuthkitServer.NUM_SLOTS; i++) {
+                    int slot = (start + i) % SleuthkitServer.NUM_SLOTS;
+                    if (slotInUse.get(slot) == 0 && slotInUse.compareAndSet(slot, 0, 1)) {
+                        return slot;
+                    }
+                }
+            }
+        }
+
+        void releaseSlot(int slot) {
+            slotInUse.set(slot, 0);
+            slotsInUse.decrementAndGet();
+            freeSlots.release();
+        }
+
+        /**
+         * Posição inicial do slot na memória compartilhada.
+         */
+        int base(int slot) {
+            return slot * SleuthkitServer.SLOT_SIZE;
+        }
+
+        /**
+         * Envia o comando escrito no slot e aguarda a resposta do servidor.
+         *
+         * @return o estado final do slot (DONE ou EOF)
+         */
+        byte request(int slot, byte cmd, String path) throws IOException {
+            int base = base(slot);
+            long t = System.nanoTime();
+            SleuthkitServer.commitByte(out, base + SleuthkitServer.CMD, cmd);
+            requestTime.set(slot, System.currentTimeMillis() / 1000);
+            try {
+                try {
+                    SleuthkitServer.notify(os, slot);
+                } catch (IOException e) {
+                    serverError = true;
+                    logger.error(getCrashMsg(path));
+                    throw e;
+                }
+                // a resposta deve ser aguardada mesmo se a thread for interrompida, senão o
+                // slot seria reutilizado enquanto o servidor ainda escreve nele
+                slotDone[slot].acquireUninterruptibly();
+
+            } finally {
+                requestTime.set(slot, 0);
+            }
+
+            byte state;
+            long time = 0;
+            while (FLAGS.isClientCmd(state = SleuthkitServer.getByte(out, base + SleuthkitServer.CMD))) {
+                if (serverError) {
+                    logger.error(getCrashMsg(path));
+                    throw new IOException(getServerId() + " pipe closed!"); //$NON-NLS-1$
+                }
+                if (time == 0) {
+                    time = System.currentTimeMillis();
+                }
+                logger.warn("Waiting " + getServerId() + " memory write..."); //$NON-NLS-1$
+                if (System.currentTimeMillis() - time >= MEMORY_TIMEOUT_MILLIS) {
+                    serverError = true;
+                    logger.error("MemoryReadTimeout waiting " + getServerId() + ": " + path); //$NON-NLS-1$
+                    throw new IOException("MemoryReadTimeout waiting " + getServerId() + ": " + path); //$NON-NLS-1$
+                }
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            if (state == FLAGS.ERROR) {
+                serverError = true;
+                throw new IOException(getServerId() + " returned an error."); //$NON-NLS-1$
+            }
+
+            int bytes = state == FLAGS.DONE && cmd == FLAGS.READ ? out.getInt(base + SleuthkitServer.ARG) : 0;
+            client.addRequestStats(System.nanoTime() - t, bytes);
+
+            if (state == FLAGS.EXCEPTION) {
+                int len = out.getInt(base + SleuthkitServer.ARG);
+                byte[] b = new byte[len];
+                readData(slot, b, 0, len);
+                try {
+                    throw new IOException(getServerId() + " error: " + new String(b, "UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+                } catch (UnsupportedEncodingException e) {
+                }
+            }
+
+            return state;
+        }
+
+        void readData(int slot, byte[] b, int off, int len) {
+            ByteBuffer data = out.duplicate();
+            data.position(base(slot) + SleuthkitServer.DATA);
+            data.get(b, off, len);
+        }
+
+        String getCrashMsg(String path) {
+            return "Possible " + getServerId() + " crash reading " + path; //$NON-NLS-1$
+        }
+
+        /**
+         * Finaliza o processo em um reinício. O mapeamento é mantido, pois streams
+         * antigos ainda podem acessá-lo antes de detectar o erro.
+         */
+        private void destroy() {
+            serverError = true;
+            process.destroyForcibly();
+            if (!pipe.delete()) {
+                pipe.deleteOnExit();
+            }
+        }
+
+        /**
+         * Libera o mapeamento de uma conexão finalizada e apaga seu arquivo. No
+         * Windows, o arquivo só pode ser apagado depois que o GC descartar o
+         * mapeamento, por isso a exclusão pode precisar ser repetida.
+         *
+         * @return true se o arquivo não existe mais
+         */
+        private boolean deletePipe() {
+            if (slotsInUse.get() > 0) {
+                return false;
+            }
+            out = null;
+            return pipe.delete() || !pipe.exists();
+        }
+
+        private void finishProcessAndClearMmap() {
+            serverError = true;
+            process.destroyForcibly();
+            try {
+                fc.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            fc = null;
+            out = null;
+            int tries = 100;
+            do {
+                System.gc();
+                logger.info("Trying to delete " + pipe.getAbsolutePath());
+            } while (!pipe.delete() && tries-- > 0);
+        }
+    }
 }
@@ -1,62 +1,60 @@
 package dpf.sp.gpinf.indexer.util;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InterruptedIOException;
-import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
-import java.nio.MappedByteBuffer;
 import java.util.concurrent.atomic.AtomicLong;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
+import dpf.sp.gpinf.indexer.util.SleuthkitClient.ServerConnection;
 import dpf.sp.gpinf.indexer.util.SleuthkitServer.FLAGS;
 import iped3.io.SeekableInputStream;
 
+/**
+ * Stream de um arquivo lido por um processo SleuthkitServer. Cada requisição
+ * reserva um slot da memória compartilhada apenas durante sua execução, assim
+ * streams diferentes acessam o mesmo servidor em paralelo.
+ *
+ * Leituras sequenciais dobram o tamanho pedido ao servidor (read-ahead) até o
+ * tamanho do slot, reduzindo o número de requisições.
+ */
 public class SleuthkitClientInputStream extends SeekableInputStream {
 
-    private static Logger LOGGER = LoggerFactory.getLogger(SleuthkitClientInputStream.class);
-
     private static AtomicLong next = new AtomicLong();
 
-    private static int TIMEOUT = 10000;
+    private static final int MIN_READ_AHEAD = 64 * 1024;
 
     int sleuthId;
     String path;
-    SleuthkitClient client;
+    ServerConnection conn;
     long streamId = next.getAndIncrement();
-    private InputStream in;
-    OutputStream os;
-    int bufPos = 0;
-    byte[] buf;
-    MappedByteBuffer mbb;
+    int bufPos = 0, bufLen = 0;
+    byte[] buf = new byte[0];
     boolean closed = false, empty = true;
     long position = 0;
     Long size;
+    private int readAhead = MIN_READ_AHEAD;
 
-    public SleuthkitClientInputStream(int id, String path, SleuthkitClient client) {
+    public SleuthkitClientInputStream(int id, String path, ServerConnection conn) {
         this.sleuthId = id;
         this.path = path;
-        this.client = client;
-        this.mbb = client.out;
-        this.in = client.is;
-        this.os = client.os;
+        this.conn = conn;
     }
 
     private String getServerId() {
-        return "SleuthkitServer " + client.id;
+        return conn.getServerId();
     }
 
-    @Override
-    public int read(byte b[], int off, int len) throws IOException {
-
+    private void checkState() throws IOException {
         if (closed) {
             throw new IOException("Stream is closed!"); //$NON-NLS-1$
         }
-        if (client.serverError) {
+        if (conn.serverError) {
             throw new IOException(getServerId() + " returned an error before."); //$NON-NLS-1$
         }
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+
+        checkState();
 
         int read = readIn(b, off, len);
         return read;
@@ -66,25 +64,31 @@ public int read(byte b[], int off, int len) throws IOException {
     private int readIn(byte b[], int off, int len) throws IOException {
 
         if (empty) {
-            synchronized (client) {
-                byte cmd = sendRead(len);
+            int slot = conn.claimSlot();
+            try {
+                byte cmd = sendRead(slot, Math.max(len, readAhead));
                 if (cmd == FLAGS.EOF) {
                     return -1;
                 }
-                int size = mbb.getInt(13);
-                buf = new byte[size];
-                mbb.position(17);
-                mbb.get(buf, 0, size);
+                int size = conn.out.getInt(conn.base(slot) + SleuthkitServer.ARG);
+                if (buf.length < size) {
+                    buf = new byte[size];
+                }
+                conn.readData(slot, buf, 0, size);
+                bufLen = size;
                 bufPos = 0;
-                empty = false;
+                empty = bufLen == 0;
+            } finally {
+                conn.releaseSlot(slot);
             }
+            readAhead = Math.min(readAhead << 1, SleuthkitServer.SLOT_DATA_SIZE);
         }
 
-        int copyLen = Math.min(len, buf.length - bufPos);
+        int copyLen = Math.min(len, bufLen - bufPos);
         System.arraycopy(buf, bufPos, b, off, copyLen);
 
         bufPos += copyLen;
-        if (bufPos == buf.length) {
+        if (bufPos == bufLen) {
             empty = true;
         }
         position += copyLen;
@@ -92,106 +96,42 @@ private int readIn(byte b[], int off, int len) throws IOException {
         return copyLen;
     }
 
-    private byte sendRead(int len) throws IOException {
-        mbb.putInt(1, sleuthId);
-        mbb.putLong(5, streamId);
-        mbb.putInt(13, len);
-        SleuthkitServer.commitByte(mbb, 0, FLAGS.READ);
-        notifyServer();
-        return waitServerResponse();
-    }
-
-    private byte waitServerResponse() throws IOException {
-
-        client.enableTimeoutCheck(true);
-        try {
-            int b = in.read();
-            if (b == -1)
-                throw new IOException(getServerId() + " pipe closed!"); //$NON-NLS-1$
-
-        } catch (IOException e) {
-            client.serverError = true;
-            LOGGER.error(getCrashMsg());
-            throw e;
-
-        } finally {
-            client.enableTimeoutCheck(false);
-        }
-
-        byte cmd;
-        long time = 0;
-        while (FLAGS.isClientCmd(cmd = SleuthkitServer.getByte(mbb, 0))) {
-            try {
-                if (time == 0) {
-                    time = System.currentTimeMillis();
-                }
-                Thread.sleep(1);
-                LOGGER.warn("Waiting " + getServerId() + " memory write..."); //$NON-NLS-1$
-
-                if (System.currentTimeMillis() - time >= TIMEOUT) {
-                    client.serverError = true;
-                    LOGGER.error("MemoryReadTimeout waiting " + getServerId() + ": " + path); //$NON-NLS-1$
-                    throw new IOException("MemoryReadTimeout waiting " + getServerId() + ": " + path); //$NON-NLS-1$
-                }
-
-            } catch (InterruptedException e) {
-                throw new InterruptedIOException(e.toString());
-            }
-        }
-
-        if (cmd == FLAGS.EXCEPTION) {
-            int len = mbb.getInt(13);
-            byte[] b = new byte[len];
-            mbb.position(17);
-            mbb.get(b);
-            try {
-                throw new IOException(getServerId() + " error: " + new String(b, "UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
-            } catch (UnsupportedEncodingException e) {
-            }
-        }
-
-        return cmd;
-    }
-
-    private void notifyServer() throws IOException {
-        try {
-            SleuthkitServer.notify(os);
-        } catch (IOException e) {
-            client.serverError = true;
-            LOGGER.error(getCrashMsg());
-            throw e;
-        }
+    private void writeHeader(int slot) {
+        int base = conn.base(slot);
+        conn.out.putInt(base + SleuthkitServer.SLEUTH_ID, sleuthId);
+        conn.out.putLong(base + SleuthkitServer.STREAM_ID, streamId);
     }
 
-    private String getCrashMsg() {
-        return "Possible " + getServerId() + " crash reading " + path; //$NON-NLS-1$
+    private byte sendRead(int slot, int len) throws IOException {
+        writeHeader(slot);
+        conn.out.putInt(conn.base(slot) + SleuthkitServer.ARG, len);
+        return conn.request(slot, FLAGS.READ, path);
     }
 
     @Override
     public void seek(long pos) throws IOException {
 
-        if (closed) {
-            throw new IOException("Stream is closed!"); //$NON-NLS-1$
-        }
-        if (client.serverError) {
-            throw new IOException(getServerId() + " returned an error before."); //$NON-NLS-1$
-        }
+        checkState();
 
         long dif = pos - position;
-        if (!empty && bufPos + dif >= 0 && bufPos + dif < buf.length) {
+        if (!empty && bufPos + dif >= 0 && bufPos + dif < bufLen) {
             bufPos += dif;
 
-        } else
-            synchronized (client) {
-                mbb.putInt(1, sleuthId);
-                mbb.putLong(5, streamId);
-                mbb.putLong(13, pos);
-                SleuthkitServer.commitByte(mbb, 0, FLAGS.SEEK);
-                notifyServer();
-                waitServerResponse();
-                empty = true;
-                bufPos = 0;
+        } else {
+            int slot = conn.claimSlot();
+            try {
+                writeHeader(slot);
+                conn.out.putLong(conn.base(slot) + SleuthkitServer.ARG, pos);
+                conn.request(slot, FLAGS.SEEK, path);
+            } finally {
+                conn.releaseSlot(slot);
             }
+            empty = true;
+            bufPos = 0;
+            bufLen = 0;
+            // acesso não sequencial
+            readAhead = MIN_READ_AHEAD;
+        }
 
         position = pos;
 
@@ -208,33 +148,23 @@ public long size() throws IOException {
         if (size != null)
             return size;
 
-        if (closed) {
-            throw new IOException("Stream is closed!"); //$NON-NLS-1$
-        }
-        if (client.serverError) {
-            throw new IOException(getServerId() + " returned an error before."); //$NON-NLS-1$
-        }
+        checkState();
 
-        synchronized (client) {
-            mbb.putInt(1, sleuthId);
-            mbb.putLong(5, streamId);
-            SleuthkitServer.commitByte(mbb, 0, FLAGS.SIZE);
-            notifyServer();
-            waitServerResponse();
-            size = mbb.getLong(13);
+        int slot = conn.claimSlot();
+        try {
+            writeHeader(slot);
+            conn.request(slot, FLAGS.SIZE, path);
+            size = conn.out.getLong(conn.base(slot) + SleuthkitServer.ARG);
             return size;
+        } finally {
+            conn.releaseSlot(slot);
         }
 
     }
 
     @Override
     public int read() throws IOException {
-        if (closed) {
-            throw new IOException("Stream is closed!"); //$NON-NLS-1$
-        }
-        if (client.serverError) {
-            throw new IOException(getServerId() + " returned an error before."); //$NON-NLS-1$
-        }
+        checkState();
 
         byte[] b = new byte[1];
         int i = 0;
@@ -246,24 +176,27 @@ public int read() throws IOException {
             return -1;
         }
 
-        return b[0];
+        return b[0] & 0xFF;
     }
 
     @Override
     public void close() throws IOException {
 
-        synchronized (client) {
-            if (!closed && !client.serverError) {
-                mbb.putInt(1, sleuthId);
-                mbb.putLong(5, streamId);
-                SleuthkitServer.commitByte(mbb, 0, FLAGS.CLOSE);
-                notifyServer();
-                waitServerResponse();
+        try {
+            if (!closed && !conn.serverError) {
+                int slot = conn.claimSlot();
+                try {
+                    writeHeader(slot);
+                    conn.request(slot, FLAGS.CLOSE, path);
+                } finally {
+                    conn.releaseSlot(slot);
+                }
             }
+        } finally {
+            conn.client.removeStream(streamId);
+            empty = true;
+            closed = true;
         }
-        client.removeStream(streamId);
-        empty = true;
-        closed = true;
 
     }
 
@@ -6,11 +6,17 @@
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.sleuthkit.datamodel.Content;
 import org.sleuthkit.datamodel.SleuthkitCase;
@@ -19,10 +25,34 @@
 import dpf.sp.gpinf.indexer.config.ConfigurationManager;
 import dpf.sp.gpinf.indexer.config.LocalConfig;
 
+/**
+ * Processo que lê as imagens pela Sleuthkit para o processo principal, isolando
+ * eventuais crashes da biblioteca nativa.
+ *
+ * A memória compartilhada é dividida em {@link #NUM_SLOTS} slots independentes,
+ * cada um com cabeçalho de comando e área de dados. O cliente reserva um slot
+ * livre, escreve o comando e envia o número do slot pelo stdin. O servidor
+ * executa os comandos de slots diferentes em paralelo e responde escrevendo o
+ * número do slot no stdout. O byte {@link #PING} é ecoado imediatamente.
+ */
 public class SleuthkitServer {
 
-    public static final int MMAP_FILE_SIZE = 10 * 1024 * 1024;
-    private static final int MAX_BUF_SIZE = 8 * 1024 * 1024; // must be less than MMAP_FILE_SIZE
+    public static final int NUM_SLOTS = 16;
+    public static final int SLOT_DATA_SIZE = 1024 * 1024;
+
+    // layout do cabeçalho de cada slot
+    static final int CMD = 0;
+    static final int SLEUTH_ID = 1;
+    static final int STREAM_ID = 5;
+    static final int ARG = 13;
+    static final int DATA = 21;
+
+    static final int SLOT_SIZE = DATA + SLOT_DATA_SIZE;
+    public static final int MMAP_FILE_SIZE = NUM_SLOTS * SLOT_SIZE;
+
+    static final int PING = 255;
+
+    private static final int MIN_TO_READ = 64 * 1024;
 
     static class FLAGS {
 
@@ -48,15 +78,27 @@ final static boolean isClientCmd(int cmd) {
 
     static boolean useUnsafe = true;
 
+    private static MappedByteBuffer out;
+    private static OutputStream os;
+    private static SleuthkitCase sleuthCase;
+    private static Map<Long, SleuthkitInputStream> sisMap = new ConcurrentHashMap<>();
+    private static Set<Long> warmedDataSources = Collections.synchronizedSet(new HashSet<>());
+
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[SLOT_DATA_SIZE];
+        }
+    };
+
     public static void main(String args[]) {
 
         String dbPath = args[0];
         String id = args[1];
         String pipePath = args[2];
-        MappedByteBuffer out = null;
 
         InputStream in = System.in;
-        OutputStream os = System.out;
+        os = System.out;
         System.setIn(new ByteArrayInputStream(new byte[0]));
         System.setOut(System.err);
 
@@ -75,89 +117,105 @@ public static void main(String args[]) {
             cm.loadConfigs();
             Configuration.getInstance().loadLibsAndToolPaths();
 
-            SleuthkitCase sleuthCase = SleuthkitCase.openCase(dbPath);
-            HashMap<Long, SleuthkitInputStream> sisMap = new HashMap<>();
+            sleuthCase = SleuthkitCase.openCase(dbPath);
 
             java.util.logging.Logger.getLogger("org.sleuthkit").setLevel(java.util.logging.Level.SEVERE); //$NON-NLS-1$
 
-            commitByte(out, 0, FLAGS.DONE);
-            notify(os);
+            ExecutorService executor = Executors.newFixedThreadPool(NUM_SLOTS, r -> {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            });
 
-            byte[] buf = new byte[MAX_BUF_SIZE];
-            int minToRead = 64 * 1024;
-            SleuthkitInputStream sis = null;
+            commitByte(out, CMD, FLAGS.DONE);
+            notify(os, 0);
 
             while (true) {
-                try {
-                    int read = in.read();
-                    if (read == -1)
-                        break;
-                    if (read > 0) {
-                        // ping response
-                        os.write(read);
-                        os.flush();
-                        continue;
-                    }
-                    byte cmd = waitCmd(out, in);
-                    sis = getSis(out, sleuthCase, sisMap);
-                    commitByte(out, 0, FLAGS.SQLITE_READ);
-
-                    if (cmd == FLAGS.SEEK) {
-                        sis.seek(out.getLong(13));
-                    } else if (cmd == FLAGS.CLOSE) {
-                        sis = sisMap.remove(out.getLong(5));
-                        sis.close();
-                    } else if (cmd == FLAGS.READ) {
-                        int len = out.getInt(13);
-                        len = Math.max(minToRead, Math.min(len, buf.length));
-                        len = readIn(sis, buf, len);
-                        if (len == -1) {
-                            commitByte(out, 0, FLAGS.EOF);
-                            notify(os);
-                            continue;
-                        } else {
-                            writeOut(out, buf, len);
-                        }
-                    } else if (cmd == FLAGS.SIZE) {
-                        out.putLong(13, sis.size());
-                    } else if (cmd == FLAGS.POSITION) {
-                        out.putLong(13, sis.position());
-                    }
-
-                    commitByte(out, 0, FLAGS.DONE);
-                    notify(os);
-
-                } catch (Throwable e) {
-                    // e.printStackTrace(System.err);
-                    byte[] msgBytes = e.getMessage().getBytes("UTF-8"); //$NON-NLS-1$
-                    out.putInt(13, msgBytes.length);
-                    out.position(17);
-                    out.put(msgBytes);
-                    commitByte(out, 0, FLAGS.EXCEPTION);
-                    notify(os);
+                int read = in.read();
+                if (read == -1)
+                    break;
+                if (read == PING) {
+                    notify(os, PING);
+                    continue;
+                }
+                if (read >= NUM_SLOTS) {
+                    continue;
                 }
+                final int slot = read;
+                executor.execute(() -> process(slot));
             }
 
         } catch (Throwable e) {
             e.printStackTrace();
-            commitByte(out, 0, FLAGS.ERROR);
+            commitByte(out, CMD, FLAGS.ERROR);
             try {
                 if (os != null)
-                    notify(os);
+                    notify(os, 0);
             } catch (IOException e1) {
                 e1.printStackTrace();
             }
         }
     }
 
-    private static HashSet<Long> warmedDataSources = new HashSet<>();
+    private static void process(int slot) {
+        int base = slot * SLOT_SIZE;
+        try {
+            try {
+                byte cmd = waitCmd(out, base);
+                if (cmd == FLAGS.CLOSE) {
+                    SleuthkitInputStream sis = sisMap.remove(out.getLong(base + STREAM_ID));
+                    if (sis != null) {
+                        sis.close();
+                    }
+                    commitByte(out, base + CMD, FLAGS.DONE);
+                    notify(os, slot);
+                    return;
+                }
+                SleuthkitInputStream sis = getSis(base);
+                commitByte(out, base + CMD, FLAGS.SQLITE_READ);
+
+                if (cmd == FLAGS.SEEK) {
+                    sis.seek(out.getLong(base + ARG));
+                } else if (cmd == FLAGS.READ) {
+                    int len = out.getInt(base + ARG);
+                    len = Math.max(MIN_TO_READ, Math.min(len, SLOT_DATA_SIZE));
+                    byte[] buf = buffers.get();
+                    len = readIn(sis, buf, len);
+                    if (len == -1) {
+                        commitByte(out, base + CMD, FLAGS.EOF);
+                        notify(os, slot);
+                        return;
+                    } else {
+                        writeOut(base, buf, len);
+                    }
+                } else if (cmd == FLAGS.SIZE) {
+                    out.putLong(base + ARG, sis.size());
+                } else if (cmd == FLAGS.POSITION) {
+                    out.putLong(base + ARG, sis.position());
+                }
+
+                commitByte(out, base + CMD, FLAGS.DONE);
+                notify(os, slot);
+
+            } catch (Throwable e) {
+                // e.printStackTrace(System.err);
+                String msg = e.getMessage() != null ? e.getMessage() : e.toString();
+                byte[] msgBytes = msg.getBytes("UTF-8"); //$NON-NLS-1$
+                int len = Math.min(msgBytes.length, SLOT_DATA_SIZE);
+                writeOut(base, msgBytes, len);
+                commitByte(out, base + CMD, FLAGS.EXCEPTION);
+                notify(os, slot);
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
 
-    private static SleuthkitInputStream getSis(MappedByteBuffer out, SleuthkitCase sleuthCase,
-            HashMap<Long, SleuthkitInputStream> sisMap) throws Exception {
-        long streamId = out.getLong(5);
+    private static SleuthkitInputStream getSis(int base) throws Exception {
+        long streamId = out.getLong(base + STREAM_ID);
         SleuthkitInputStream sis = sisMap.get(streamId);
         if (sis == null) {
-            int id = out.getInt(1);
+            int id = out.getInt(base + SLEUTH_ID);
             Content content = sleuthCase.getAbstractFileById(id);
             if (content == null) {
                 content = sleuthCase.getContentById(id);
@@ -168,19 +226,18 @@ private static SleuthkitInputStream getSis(MappedByteBuffer out, SleuthkitCase s
             // first read can take a long time, so do it here to prevent timeouts on client
             // side
             Long sourceId = content.getDataSource().getId();
-            if (!warmedDataSources.contains(sourceId)) {
+            if (warmedDataSources.add(sourceId)) {
                 sis.read();
                 sis.seek(0);
-                warmedDataSources.add(sourceId);
             }
         }
         return sis;
     }
 
-    private static byte waitCmd(MappedByteBuffer out, InputStream in) throws Exception {
+    private static byte waitCmd(MappedByteBuffer out, int base) throws Exception {
         byte cmd;
         long t = 0;
-        while (!FLAGS.isClientCmd(cmd = getByte(out, 0))) {
+        while (!FLAGS.isClientCmd(cmd = getByte(out, base + CMD))) {
             if (t == 0)
                 t = System.currentTimeMillis();
             long time = (System.currentTimeMillis() - t) / 1000;
@@ -191,19 +248,30 @@ private static byte waitCmd(MappedByteBuffer out, InputStream in) throws Excepti
         return cmd;
     }
 
+    /**
+     * Lê até completar len bytes ou até o fim do stream, para que leituras
+     * sequenciais sejam atendidas com menos requisições.
+     */
     private static int readIn(SleuthkitInputStream sis, byte[] buf, int len) throws IOException {
-        return sis.read(buf, 0, len);
+        int total = 0, read = 0;
+        while (total < len && (read = sis.read(buf, total, len - total)) > 0) {
+            total += read;
+        }
+        return total == 0 && read == -1 ? -1 : total;
     }
 
-    private static void writeOut(MappedByteBuffer out, byte[] buf, int len) throws Exception {
-        out.position(17);
-        out.put(buf, 0, len);
-        out.putInt(13, len);
+    private static void writeOut(int base, byte[] buf, int len) throws Exception {
+        ByteBuffer data = out.duplicate();
+        data.position(base + DATA);
+        data.put(buf, 0, len);
+        out.putInt(base + ARG, len);
     }
 
-    static void notify(OutputStream os) throws IOException {
-        os.write(0);
-        os.flush();
+    static void notify(OutputStream os, int slot) throws IOException {
+        synchronized (os) {
+            os.write(slot);
+            os.flush();
+        }
     }
 
     static final void commitByte(MappedByteBuffer mbb, int pos, byte val) {
@@ -0,0 +1,214 @@
+package dpf.sp.gpinf.indexer.util;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Base de hashes somente leitura, composta por registros de tamanho fixo
+ * (digest + valor inteiro) ordenados pelo digest e mapeados em memória.
+ *
+ * A busca usa um índice pelos primeiros bits do digest para limitar a busca
+ * binária a poucos registros. Opcionalmente, um filtro de Bloom descarta a maior
+ * parte dos hashes ausentes sem acessar as páginas dos registros. As buscas não
+ * alocam memória e podem ser feitas por várias threads simultaneamente.
+ *
+ * O arquivo é gerado por {@link SortedHashDBWriter}. Layout: cabeçalho de
+ * {@link #HEADER_SIZE} bytes, registros, índice de prefixos (long por prefixo,
+ * mais um final) e bits do filtro de Bloom.
+ */
+public class SortedHashDB implements Closeable {
+
+    static final int MAGIC = 0x4B464653; // "KFFS"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int BLOOM_HASHES = 7;
+
+    /**
+     * Valor retornado quando o hash não existe na base.
+     */
+    public static final int NOT_FOUND = Integer.MIN_VALUE;
+
+    /**
+     * Recebe os registros de uma base, em ordem crescente de hash.
+     */
+    public interface RecordVisitor {
+        void visit(byte[] hash, int value) throws IOException;
+    }
+
+    private static final long MAX_CHUNK_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final int hashLen;
+    private final int recordSize;
+    private final long count;
+    private final int prefixBits;
+    private final long[] prefixIndex;
+    private final long bloomBits;
+    private final MappedByteBuffer bloom;
+
+    private final MappedByteBuffer[] chunks;
+    private final long recordsPerChunk;
+
+    public SortedHashDB(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) != -1)
+                ;
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Invalid hash database " + file.getAbsolutePath()); //$NON-NLS-1$
+            }
+            hashLen = header.getInt();
+            recordSize = hashLen + 4;
+            count = header.getLong();
+            prefixBits = header.getInt();
+            bloomBits = header.getLong();
+
+            recordsPerChunk = Math.max(1, MAX_CHUNK_SIZE / recordSize);
+            int numChunks = (int) ((count + recordsPerChunk - 1) / recordsPerChunk);
+            chunks = new MappedByteBuffer[numChunks];
+            for (int i = 0; i < numChunks; i++) {
+                long first = i * recordsPerChunk;
+                long size = Math.min(recordsPerChunk, count - first) * recordSize;
+                chunks[i] = channel.map(MapMode.READ_ONLY, HEADER_SIZE + first * recordSize, size);
+            }
+
+            long indexPos = HEADER_SIZE + count * recordSize;
+            int indexLen = (1 << prefixBits) + 1;
+            MappedByteBuffer indexBuf = channel.map(MapMode.READ_ONLY, indexPos, indexLen * 8L);
+            prefixIndex = new long[indexLen];
+            indexBuf.asLongBuffer().get(prefixIndex);
+
+            if (bloomBits > 0) {
+                bloom = channel.map(MapMode.READ_ONLY, indexPos + indexLen * 8L, bloomBits / 8);
+            } else {
+                bloom = null;
+            }
+
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getHashLength() {
+        return hashLen;
+    }
+
+    public long size() {
+        return count;
+    }
+
+    /**
+     * @return o valor associado ao hash ou {@link #NOT_FOUND}
+     */
+    public int lookup(byte[] hash) {
+        if (hash.length != hashLen) {
+            return NOT_FOUND;
+        }
+        if (bloom != null && !mightContain(hash)) {
+            return NOT_FOUND;
+        }
+        int prefix = prefix(hash, prefixBits);
+        long lo = prefixIndex[prefix];
+        long hi = prefixIndex[prefix + 1] - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            MappedByteBuffer chunk = chunks[(int) (mid / recordsPerChunk)];
+            int pos = (int) ((mid % recordsPerChunk) * recordSize);
+            int cmp = compare(chunk, pos, hash);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return chunk.getInt(pos + hashLen);
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    private boolean mightContain(byte[] hash) {
+        long h1 = bloomHash1(hash);
+        long h2 = bloomHash2(hash);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bloomBits;
+            if ((bloom.get((int) (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int compare(ByteBuffer buf, int pos, byte[] hash) {
+        for (int i = 0; i < hash.length; i++) {
+            int cmp = Integer.compare(buf.get(pos + i) & 0xFF, hash[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    static int prefix(byte[] hash, int bits) {
+        int prefix = (hash[0] & 0xFF) << 24 | (hash[1] & 0xFF) << 16 | (hash[2] & 0xFF) << 8 | (hash[3] & 0xFF);
+        return prefix >>> (32 - bits);
+    }
+
+    // digests já são uniformemente distribuídos, basta usar bytes diferentes dos
+    // usados no prefixo
+    static long bloomHash1(byte[] hash) {
+        return readLong(hash, hash.length - 8);
+    }
+
+    static long bloomHash2(byte[] hash) {
+        return readLong(hash, 4) | 1;
+    }
+
+    private static long readLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (b[off + i] & 0xFF);
+        }
+        return v;
+    }
+
+    /**
+     * Lê sequencialmente todos os registros da base, sem mapeá-la em memória, de
+     * forma que o arquivo possa ser substituído logo em seguida.
+     *
+     * @return o tamanho dos hashes da base
+     */
+    public static int readAll(File file, RecordVisitor visitor) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Invalid hash database " + file.getAbsolutePath()); //$NON-NLS-1$
+            }
+            int hashLen = in.readInt();
+            long count = in.readLong();
+            in.readFully(new byte[HEADER_SIZE - 20]);
+            byte[] hash = new byte[hashLen];
+            for (long i = 0; i < count; i++) {
+                in.readFully(hash);
+                visitor.visit(hash, in.readInt());
+            }
+            return hashLen;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
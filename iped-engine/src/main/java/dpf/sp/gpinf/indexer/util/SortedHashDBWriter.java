@@ -0,0 +1,317 @@
+package dpf.sp.gpinf.indexer.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Gera um arquivo {@link SortedHashDB} a partir de uma quantidade arbitrária de
+ * hashes, usando ordenação externa: os registros são acumulados em memória até
+ * um limite, ordenados e gravados em arquivos temporários, que são intercalados
+ * ao final.
+ */
+public class SortedHashDBWriter {
+
+    /**
+     * Define o valor mantido quando o mesmo hash é adicionado mais de uma vez. Os
+     * valores são apresentados na ordem em que foram adicionados.
+     */
+    public interface ValueMerger {
+        int merge(int current, int next);
+    }
+
+    public static final ValueMerger KEEP_FIRST = (current, next) -> current;
+
+    private static final int MIN_PREFIX_BITS = 8;
+    private static final int MAX_PREFIX_BITS = 24;
+    // o filtro é um byte[] e é mapeado em um único buffer, por isso seu tamanho
+    // em bytes deve caber em um int
+    private static final long MAX_BLOOM_BITS = ((Integer.MAX_VALUE - 8) & ~7L) * 8;
+
+    private final int hashLen;
+    private final int recordSize;
+    private final File tmpDir;
+    private final ValueMerger merger;
+
+    private final byte[] buffer;
+    private final int maxRecords;
+    private int numRecords = 0;
+    private long totalRecords = 0;
+
+    private List<File> runs = new ArrayList<>();
+
+    public SortedHashDBWriter(int hashLen, File tmpDir, int maxRecordsInMemory, ValueMerger merger) {
+        if (hashLen < 12) {
+            throw new IllegalArgumentException("Hash length too small: " + hashLen); //$NON-NLS-1$
+        }
+        this.hashLen = hashLen;
+        this.recordSize = hashLen + 4;
+        this.tmpDir = tmpDir;
+        this.merger = merger;
+        this.maxRecords = maxRecordsInMemory;
+        this.buffer = new byte[maxRecordsInMemory * recordSize];
+    }
+
+    public void add(byte[] hash, int value) throws IOException {
+        if (hash.length != hashLen) {
+            throw new IllegalArgumentException("Invalid hash length: " + hash.length); //$NON-NLS-1$
+        }
+        if (numRecords == maxRecords) {
+            flushRun();
+        }
+        int pos = numRecords * recordSize;
+        System.arraycopy(hash, 0, buffer, pos, hashLen);
+        writeInt(buffer, pos + hashLen, value);
+        numRecords++;
+        totalRecords++;
+    }
+
+    private void flushRun() throws IOException {
+        if (numRecords == 0) {
+            return;
+        }
+        int[] order = new int[numRecords];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // merge sort é estável, mantendo a ordem de inserção de hashes iguais
+        mergeSort(order, new int[order.length], 0, order.length);
+
+        File run = File.createTempFile("kffrun", ".tmp", tmpDir); //$NON-NLS-1$ //$NON-NLS-2$
+        run.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(run), 1 << 20))) {
+            int prev = -1;
+            int value = 0;
+            for (int idx : order) {
+                int pos = idx * recordSize;
+                int next = readInt(buffer, pos + hashLen);
+                if (prev != -1 && compare(buffer, prev * recordSize, buffer, pos) == 0) {
+                    value = merger.merge(value, next);
+                    continue;
+                }
+                if (prev != -1) {
+                    out.write(buffer, prev * recordSize, hashLen);
+                    out.writeInt(value);
+                }
+                prev = idx;
+                value = next;
+            }
+            if (prev != -1) {
+                out.write(buffer, prev * recordSize, hashLen);
+                out.writeInt(value);
+            }
+        }
+        runs.add(run);
+        numRecords = 0;
+    }
+
+    /**
+     * Intercala os dados acumulados e grava a base no arquivo de saída.
+     *
+     * @param bloomBitsPerHash
+     *            bits do filtro de Bloom por hash, 0 para não criar o filtro.
+     * @return número de hashes distintos gravados
+     */
+    public long finish(File output, int bloomBitsPerHash) throws IOException {
+        flushRun();
+
+        int prefixBits = MIN_PREFIX_BITS;
+        while (prefixBits < MAX_PREFIX_BITS && (totalRecords >> prefixBits) > 64) {
+            prefixBits++;
+        }
+        long[] prefixCounts = new long[1 << prefixBits];
+
+        long bloomBits = 0;
+        byte[] bloom = null;
+        if (bloomBitsPerHash > 0 && totalRecords > 0) {
+            bloomBits = Math.min(MAX_BLOOM_BITS, totalRecords * bloomBitsPerHash);
+            bloomBits = (bloomBits + 63) & ~63L;
+            bloom = new byte[(int) (bloomBits / 8)];
+        }
+
+        long count = 0;
+        List<RunReader> readers = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(output), 1 << 20))) {
+            out.write(new byte[SortedHashDB.HEADER_SIZE]);
+
+            PriorityQueue<RunReader> queue = new PriorityQueue<>((a, b) -> {
+                int cmp = compare(a.record, 0, b.record, 0);
+                return cmp != 0 ? cmp : Integer.compare(a.runIdx, b.runIdx);
+            });
+            for (File run : runs) {
+                RunReader reader = new RunReader(run, readers.size());
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+
+            byte[] current = new byte[hashLen];
+            int value = 0;
+            boolean hasCurrent = false;
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                int next = readInt(reader.record, hashLen);
+                if (hasCurrent && compare(current, 0, reader.record, 0) == 0) {
+                    value = merger.merge(value, next);
+                } else {
+                    if (hasCurrent) {
+                        write(out, current, value, prefixCounts, prefixBits, bloom, bloomBits);
+                        count++;
+                    }
+                    System.arraycopy(reader.record, 0, current, 0, hashLen);
+                    value = next;
+                    hasCurrent = true;
+                }
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            if (hasCurrent) {
+                write(out, current, value, prefixCounts, prefixBits, bloom, bloomBits);
+                count++;
+            }
+
+            long start = 0;
+            for (long prefixCount : prefixCounts) {
+                out.writeLong(start);
+                start += prefixCount;
+            }
+            out.writeLong(start);
+
+            if (bloom != null) {
+                out.write(bloom);
+            }
+
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+            for (File run : runs) {
+                run.delete();
+            }
+            runs.clear();
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(output, "rw")) { //$NON-NLS-1$
+            ByteBuffer header = ByteBuffer.allocate(SortedHashDB.HEADER_SIZE);
+            header.putInt(SortedHashDB.MAGIC).putInt(SortedHashDB.VERSION).putInt(hashLen).putLong(count)
+                    .putInt(prefixBits).putLong(bloomBits);
+            raf.write(header.array());
+        }
+        Util.fsync(output.toPath());
+
+        return count;
+    }
+
+    private void write(DataOutputStream out, byte[] hash, int value, long[] prefixCounts, int prefixBits,
+            byte[] bloom, long bloomBits) throws IOException {
+        out.write(hash);
+        out.writeInt(value);
+        prefixCounts[SortedHashDB.prefix(hash, prefixBits)]++;
+        if (bloom != null) {
+            long h1 = SortedHashDB.bloomHash1(hash);
+            long h2 = SortedHashDB.bloomHash2(hash);
+            for (int i = 0; i < SortedHashDB.BLOOM_HASHES; i++) {
+                long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bloomBits;
+                bloom[(int) (bit >>> 3)] |= 1 << (bit & 7);
+            }
+        }
+    }
+
+    private void mergeSort(int[] a, int[] tmp, int from, int to) {
+        if (to - from < 16) {
+            for (int i = from + 1; i < to; i++) {
+                int v = a[i];
+                int j = i - 1;
+                while (j >= from && compare(buffer, a[j] * recordSize, buffer, v * recordSize) > 0) {
+                    a[j + 1] = a[j];
+                    j--;
+                }
+                a[j + 1] = v;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(a, tmp, from, mid);
+        mergeSort(a, tmp, mid, to);
+        if (compare(buffer, a[mid - 1] * recordSize, buffer, a[mid] * recordSize) <= 0) {
+            return;
+        }
+        System.arraycopy(a, from, tmp, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+            if (compare(buffer, tmp[j] * recordSize, buffer, tmp[i] * recordSize) < 0) {
+                a[k++] = tmp[j++];
+            } else {
+                a[k++] = tmp[i++];
+            }
+        }
+        while (i < mid) {
+            a[k++] = tmp[i++];
+        }
+        while (j < to) {
+            a[k++] = tmp[j++];
+        }
+    }
+
+    private int compare(byte[] a, int posA, byte[] b, int posB) {
+        for (int i = 0; i < hashLen; i++) {
+            int cmp = Integer.compare(a[posA + i] & 0xFF, b[posB + i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private static void writeInt(byte[] b, int pos, int v) {
+        b[pos] = (byte) (v >>> 24);
+        b[pos + 1] = (byte) (v >>> 16);
+        b[pos + 2] = (byte) (v >>> 8);
+        b[pos + 3] = (byte) v;
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return (b[pos] & 0xFF) << 24 | (b[pos + 1] & 0xFF) << 16 | (b[pos + 2] & 0xFF) << 8 | (b[pos + 3] & 0xFF);
+    }
+
+    private class RunReader {
+
+        final int runIdx;
+        final byte[] record = new byte[recordSize];
+        private final DataInputStream in;
+
+        RunReader(File run, int runIdx) throws IOException {
+            this.runIdx = runIdx;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+        }
+
+        boolean next() throws IOException {
+            try {
+                in.readFully(record);
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+}
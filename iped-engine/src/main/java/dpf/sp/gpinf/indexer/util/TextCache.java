@@ -2,32 +2,76 @@
 
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
-import java.io.Writer;
-import java.nio.file.FileSystemException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import iped3.IItem;
 
+/**
+ * Armazena o texto extraído de um item, que é lido várias vezes por diferentes
+ * tarefas (indexação, expressões regulares, detecção de idioma...).
+ *
+ * O texto é codificado em UTF-8 e guardado em blocos de {@link #CHUNK_SIZE}
+ * bytes, alocados fora do heap a partir de um pool global com orçamento de
+ * memória limitado. Quando o orçamento se esgota, ou o texto de um único item é
+ * muito grande, os blocos completos são gravados em um arquivo temporário
+ * compartilhado. Cada bloco contém apenas sequências UTF-8 completas e pode ser
+ * decodificado isoladamente, assim vários leitores independentes podem ser
+ * criados sem copiar o texto para uma String.
+ *
+ * Os blocos só retornam ao pool depois que o cache e todos os leitores abertos
+ * forem fechados, assim um leitor continua válido mesmo que o item seja
+ * descartado enquanto outra tarefa ainda lê seu texto.
+ */
 public class TextCache implements Closeable {
 
     private static Logger logger = LoggerFactory.getLogger(TextCache.class);
 
-    private static int MAX_MEMORY_CHARS = 10000000;
+    static final int CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * Máximo de blocos de um item mantidos em memória, cerca de 10 milhões de
+     * caracteres ASCII. Acima disso os blocos vão para disco ou, se o cache em
+     * disco estiver desabilitado, o restante do texto é descartado.
+     */
+    private static final int MAX_MEMORY_CHUNKS = 40;
+
+    private static final ChunkStore store = new ChunkStore();
 
     private IItem sourceItem;
-    private StringBuilder sb = new StringBuilder();
-    private File tmp;
-    private Writer writer;
+    private List<Chunk> chunks = new ArrayList<>();
+    private Chunk tail;
+    private int memoryChunks = 0;
+    private CharsetEncoder encoder;
+    private char[] pendingSurrogate;
     private long size = 0;
     private boolean diskCacheEnabled = true;
+    private boolean truncated = false;
+    private volatile boolean closed = false;
+
+    /**
+     * Referências aos blocos: o próprio cache mais os leitores ainda abertos.
+     */
+    private int refs = 1;
 
     public void setSourceItem(IItem sourceItem) {
         this.sourceItem = sourceItem;
@@ -42,90 +86,260 @@ public void write(String string) throws IOException {
     }
 
     public void write(char[] buf, int off, int len) throws IOException {
-        if (tmp == null && sb != null && sb.length() + len > MAX_MEMORY_CHARS && diskCacheEnabled) {
-            tmp = File.createTempFile("text", null);
-            writer = Files.newBufferedWriter(tmp.toPath(), StandardOpenOption.APPEND);
-            writer.write(sb.toString());
-            sb = null;
+        if (truncated || closed || len <= 0) {
+            return;
         }
-
-        if (sb != null && sb.length() < MAX_MEMORY_CHARS) {
-            if (sb.length() + len > MAX_MEMORY_CHARS)
-                len = MAX_MEMORY_CHARS - sb.length();
-            sb.append(buf, off, len);
+        if (encoder == null) {
+            encoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
         }
+        int start = off;
+        if (pendingSurrogate != null) {
+            // completa o par de surrogates dividido entre duas escritas
+            pendingSurrogate[1] = buf[off];
+            CharBuffer pair = CharBuffer.wrap(pendingSurrogate);
+            pendingSurrogate = null;
+            encode(pair, false);
+            if (pair.hasRemaining()) {
+                pendingSurrogate = new char[] { pair.get(), 0 };
+            }
+            start++;
+        }
+        CharBuffer in = CharBuffer.wrap(buf, start, off + len - start);
+        encode(in, false);
+        if (in.hasRemaining()) {
+            pendingSurrogate = new char[] { in.get(), 0 };
+        }
+        if (!truncated) {
+            size += len;
+        }
+    }
 
-        if (writer != null)
-            try {
-                writer.write(buf, off, len);
-            } catch (IOException e) {
-                // maybe no space left
-                e.printStackTrace();
-                IOUtil.closeQuietly(writer);
-                writer = null;
-                tmp.delete();
-                tmp = null;
+    private void encode(CharBuffer in, boolean endOfInput) throws IOException {
+        while (!truncated) {
+            if (tail == null || !tail.mem.hasRemaining()) {
+                nextChunk();
+                if (truncated) {
+                    return;
+                }
+            }
+            CoderResult result = encoder.encode(in, tail.mem, endOfInput);
+            if (!result.isOverflow()) {
+                return;
             }
+            // o encoder não divide caracteres, o espaço final que sobrou no bloco fica
+            // sem uso
+            tail.mem.limit(tail.mem.position());
+        }
+    }
 
-        size += len;
+    private void nextChunk() throws IOException {
+        if (tail != null) {
+            tail.length = tail.mem.position();
+        }
+        ByteBuffer mem = null;
+        boolean pooled = false;
+        if (memoryChunks < MAX_MEMORY_CHUNKS) {
+            mem = store.allocate();
+            pooled = mem != null;
+            if (mem == null && !diskCacheEnabled) {
+                // sem cache em disco, mantém o texto no heap como antes
+                mem = ByteBuffer.allocate(CHUNK_SIZE);
+            }
+        }
+        if (mem == null) {
+            if (!diskCacheEnabled) {
+                truncated = true;
+                return;
+            }
+            if (tail != null) {
+                // grava o último bloco em disco e reaproveita seu buffer
+                try {
+                    tail.slot = store.spill(tail.mem, tail.length);
+                } catch (IOException e) {
+                    // maybe no space left
+                    logger.error("Error writing extracted text to temp file{}: {}", getSourcePath(), //$NON-NLS-1$
+                            e.toString());
+                    truncated = true;
+                    return;
+                }
+                mem = tail.mem;
+                pooled = tail.pooled;
+                tail.mem = null;
+                tail.pooled = false;
+                memoryChunks--;
+            } else {
+                mem = ByteBuffer.allocate(CHUNK_SIZE);
+            }
+        }
+        mem.clear();
+        tail = new Chunk(mem, pooled);
+        chunks.add(tail);
+        memoryChunks++;
     }
 
     public long getSize() {
         return size;
     }
 
-    public Reader getTextReader() throws IOException {
-        if (writer != null) {
-            writer.close();
-            writer = null;
+    public synchronized Reader getTextReader() throws IOException {
+        if (closed) {
+            return new StringReader(""); //$NON-NLS-1$
+        }
+        if (pendingSurrogate != null) {
+            CharBuffer lone = CharBuffer.wrap(pendingSurrogate, 0, 1);
+            pendingSurrogate = null;
+            encode(lone, true);
+            encoder.reset();
         }
+        if (tail != null && tail.mem != null) {
+            tail.length = tail.mem.position();
+        }
+        refs++;
+        return new KnownSizeReader(chunks.toArray(new Chunk[chunks.size()]));
+    }
 
-        Reader reader = null;
-        if (sb != null)
-            reader = new StringReader(sb.toString());
+    /**
+     * @return número de blocos do pool global em uso, usado nos testes.
+     */
+    public static int getPooledChunksInUse() {
+        return store.inUse.get();
+    }
 
-        if (tmp != null) {
-            try {
-                reader = Files.newBufferedReader(tmp.toPath());
+    private String getSourcePath() {
+        return sourceItem != null ? " from " + sourceItem.getPath() : ""; //$NON-NLS-1$ //$NON-NLS-2$
+    }
 
-            } catch (FileSystemException | FileNotFoundException e) {
-                logger.error("Error reading extracted text file{}, maybe your antivirus blocked or deleted it? {}",
-                        sourceItem != null ? " from " + sourceItem.getPath() : "", e.toString());
-                e.printStackTrace();
-                return new StringReader("");
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        release();
+    }
+
+    private synchronized void release() {
+        if (refs == 0 || --refs > 0) {
+            return;
+        }
+        for (Chunk chunk : chunks) {
+            if (chunk.pooled) {
+                store.release(chunk.mem);
             }
+            if (chunk.slot != -1) {
+                store.freeSlot(chunk.slot);
+            }
+            chunk.mem = null;
         }
+        chunks = null;
+        tail = null;
+    }
 
-        if (reader != null)
-            return new KnownSizeReader(reader);
+    private static class Chunk {
 
-        return null;
-    }
+        volatile ByteBuffer mem;
+        volatile boolean pooled;
+        volatile long slot = -1;
+        volatile int length;
 
-    @Override
-    public void close() throws IOException {
-        if (writer != null)
-            writer.close();
-        if (tmp != null)
-            tmp.delete();
+        Chunk(ByteBuffer mem, boolean pooled) {
+            this.mem = mem;
+            this.pooled = pooled;
+        }
     }
 
+    /**
+     * Leitor independente do texto. Decodifica os blocos diretamente, sem cópias
+     * intermediárias do texto, e pode ser usado em paralelo com outros leitores.
+     */
     public class KnownSizeReader extends Reader {
 
-        private Reader delegate;
+        private final Chunk[] chunks;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private int nextChunk = 0;
+        private ByteBuffer current;
+        private ByteBuffer readBuffer;
+        private char pendingLowSurrogate;
+        private boolean readerClosed = false;
 
-        public KnownSizeReader(Reader delegate) {
-            this.delegate = delegate;
+        private KnownSizeReader(Chunk[] chunks) {
+            this.chunks = chunks;
         }
 
         @Override
         public int read(char[] cbuf, int off, int len) throws IOException {
-            return delegate.read(cbuf, off, len);
+            if (len == 0) {
+                return 0;
+            }
+            CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+            if (pendingLowSurrogate != 0) {
+                out.put(pendingLowSurrogate);
+                pendingLowSurrogate = 0;
+            }
+            while (out.hasRemaining()) {
+                if (current == null || !current.hasRemaining()) {
+                    if (!loadNextChunk()) {
+                        break;
+                    }
+                    continue;
+                }
+                if (decoder.decode(current, out, false).isOverflow()) {
+                    if (out.position() == off) {
+                        // não há espaço para o par de surrogates, entrega um de cada vez
+                        CharBuffer pair = CharBuffer.allocate(2);
+                        decoder.decode(current, pair, false);
+                        out.put(pair.get(0));
+                        pendingLowSurrogate = pair.get(1);
+                    }
+                    break;
+                }
+            }
+            int read = out.position() - off;
+            return read == 0 ? -1 : read;
+        }
+
+        private boolean loadNextChunk() throws IOException {
+            if (nextChunk >= chunks.length) {
+                return false;
+            }
+            if (readerClosed) {
+                throw new IOException("Reader already closed"); //$NON-NLS-1$
+            }
+            Chunk chunk = chunks[nextChunk++];
+            int length = chunk.length;
+            ByteBuffer mem = chunk.mem;
+            if (mem != null) {
+                current = mem.duplicate();
+                current.position(0).limit(length);
+            } else {
+                if (readBuffer == null) {
+                    readBuffer = ByteBuffer.allocate(CHUNK_SIZE);
+                }
+                readBuffer.clear().limit(length);
+                try {
+                    store.read(chunk.slot, readBuffer);
+                } catch (IOException e) {
+                    logger.error("Error reading extracted text file{}, maybe your antivirus blocked or deleted it? {}",
+                            getSourcePath(), e.toString());
+                    throw e;
+                }
+                readBuffer.flip();
+                current = readBuffer;
+            }
+            return true;
         }
 
         @Override
         public void close() throws IOException {
-            delegate.close();
+            if (readerClosed) {
+                return;
+            }
+            readerClosed = true;
+            current = null;
+            readBuffer = null;
+            release();
         }
 
         public long getSize() {
@@ -134,4 +348,104 @@ public long getSize() {
 
     }
 
+    /**
+     * Pool global dos blocos em memória e arquivo temporário compartilhado para os
+     * blocos descarregados.
+     */
+    private static class ChunkStore {
+
+        private final long memoryBudget;
+        private final AtomicLong allocated = new AtomicLong();
+        private final AtomicInteger inUse = new AtomicInteger();
+        private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+
+        private File scratchFile;
+        private FileChannel scratch;
+        private long nextSlot = 0;
+        private final ArrayDeque<Long> freeSlots = new ArrayDeque<>();
+
+        ChunkStore() {
+            long budget = Runtime.getRuntime().maxMemory() / 10;
+            budget = Math.max(32L << 20, Math.min(1L << 30, budget));
+            memoryBudget = budget;
+        }
+
+        /**
+         * @return buffer do pool ou null se o orçamento de memória se esgotou.
+         */
+        ByteBuffer allocate() {
+            ByteBuffer buf = freeBuffers.poll();
+            if (buf != null) {
+                inUse.incrementAndGet();
+                return buf;
+            }
+            long current;
+            do {
+                current = allocated.get();
+                if (current + CHUNK_SIZE > memoryBudget) {
+                    return null;
+                }
+            } while (!allocated.compareAndSet(current, current + CHUNK_SIZE));
+            inUse.incrementAndGet();
+            return ByteBuffer.allocateDirect(CHUNK_SIZE);
+        }
+
+        void release(ByteBuffer buf) {
+            if (buf != null) {
+                buf.clear();
+                inUse.decrementAndGet();
+                freeBuffers.offer(buf);
+            }
+        }
+
+        long spill(ByteBuffer mem, int length) throws IOException {
+            long slot;
+            FileChannel channel;
+            synchronized (this) {
+                if (scratch == null) {
+                    scratchFile = File.createTempFile("textcache", ".tmp"); //$NON-NLS-1$ //$NON-NLS-2$
+                    scratchFile.deleteOnExit();
+                    scratch = FileChannel.open(scratchFile.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE);
+                    logger.info("Text cache memory budget of {} MB reached, using temp file {}", //$NON-NLS-1$
+                            memoryBudget >> 20, scratchFile.getAbsolutePath());
+                }
+                channel = scratch;
+                Long free = freeSlots.poll();
+                slot = free != null ? free : nextSlot++;
+            }
+            ByteBuffer src = mem.duplicate();
+            src.position(0).limit(length);
+            long pos = slot * CHUNK_SIZE;
+            try {
+                while (src.hasRemaining()) {
+                    pos += channel.write(src, pos);
+                }
+            } catch (IOException e) {
+                freeSlot(slot);
+                throw e;
+            }
+            return slot;
+        }
+
+        void read(long slot, ByteBuffer dst) throws IOException {
+            FileChannel channel;
+            synchronized (this) {
+                channel = scratch;
+            }
+            long pos = slot * CHUNK_SIZE;
+            while (dst.hasRemaining()) {
+                int read = channel.read(dst, pos);
+                if (read == -1) {
+                    throw new IOException("Unexpected end of text cache file " + scratchFile.getAbsolutePath()); //$NON-NLS-1$
+                }
+                pos += read;
+            }
+        }
+
+        synchronized void freeSlot(long slot) {
+            freeSlots.push(slot);
+        }
+    }
+
 }
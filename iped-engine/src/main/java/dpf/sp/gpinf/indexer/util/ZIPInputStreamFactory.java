@@ -3,13 +3,16 @@
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.ClosedChannelException;
-import java.nio.file.Files;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
-import org.apache.commons.io.IOUtils;
 
 import iped3.io.SeekableInputStream;
 import net.lingala.zip4j.exception.ZipException;
@@ -17,7 +20,9 @@
 
 public class ZIPInputStreamFactory extends SeekableInputStreamFactory implements Closeable {
 
-    private static int MAX_MEM_BYTES = 1 << 24;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int STORED = 0;
 
     private ZipFile4j zip;
 
@@ -33,9 +38,7 @@ private synchronized void init() throws ZipException {
 
     @Override
     public SeekableInputStream getSeekableInputStream(String path) throws IOException {
-        Path tmp = null;
-        byte[] bytes = null;
-        FileHeader zae;
+        final FileHeader zae;
         try {
             if (zip == null)
                 init();
@@ -46,33 +49,141 @@ public SeekableInputStream getSeekableInputStream(String path) throws IOExceptio
         if (zae == null) {
             return new SeekableFileInputStream(new SeekableInMemoryByteChannel(new byte[0]));
         }
-        try (InputStream is = zip.getInputStream(zae)) {
-            if (zae.getUncompressedSize() <= MAX_MEM_BYTES) {
-                bytes = IOUtils.toByteArray(is);
-            } else {
-                tmp = Files.createTempFile("zip-stream", null);
-                Files.copy(is, tmp, StandardCopyOption.REPLACE_EXISTING);
+
+        if (zae.getCompressionMethod() == STORED && !zae.isEncrypted()
+                && zae.getCompressedSize() == zae.getUncompressedSize()) {
+            SeekableInputStream sis = openStored(zae);
+            if (sis != null) {
+                ZipEntryCache.addStoredOpen();
+                return sis;
+            }
+        }
+
+        String key = dataSource.toAbsolutePath() + "!/" + path; //$NON-NLS-1$
+        return ZipEntryCache.get(key, zae.getUncompressedSize(), new ZipEntryCache.EntrySource() {
+            @Override
+            public InputStream open() throws IOException {
+                try {
+                    ZipFile4j zip = ZIPInputStreamFactory.this.zip;
+                    if (zip == null) {
+                        init();
+                        zip = ZIPInputStreamFactory.this.zip;
+                    }
+                    return zip.getInputStream(zae);
+
+                } catch (ClosedChannelException e) {
+                    // if(zip != null) zip.close();
+                    ZIPInputStreamFactory.this.zip = null;
+                    throw e;
+                } catch (ZipException e1) {
+                    throw new IOException(e1);
+                }
+            }
+        });
+    }
+
+    /**
+     * Entradas sem compressão são lidas diretamente do contêiner, sem cópia.
+     * 
+     * @return o stream sobre a região da entrada ou null se o cabeçalho local não
+     *         for válido.
+     */
+    private SeekableInputStream openStored(FileHeader zae) throws IOException {
+        FileChannel fc = FileChannel.open(dataSource, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long headerPos = zae.getOffsetLocalHeader();
+            while (header.hasRemaining() && fc.read(header, headerPos + header.position()) != -1)
+                ;
+            if (header.hasRemaining() || header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                fc.close();
+                return null;
             }
-        } catch (ClosedChannelException e) {
-            // if(zip != null) zip.close();
-            zip = null;
-            if (tmp != null)
-                Files.delete(tmp);
+            int nameLen = header.getShort(26) & 0xFFFF;
+            int extraLen = header.getShort(28) & 0xFFFF;
+            long dataPos = headerPos + LOCAL_HEADER_SIZE + nameLen + extraLen;
+            if (dataPos + zae.getUncompressedSize() > fc.size()) {
+                fc.close();
+                return null;
+            }
+            return new SeekableFileInputStream(new RegionChannel(fc, dataPos, zae.getUncompressedSize()));
+
+        } catch (IOException | RuntimeException e) {
+            fc.close();
             throw e;
-        } catch (ZipException e1) {
-            throw new IOException(e1);
         }
-        if (bytes != null) {
-            return new SeekableFileInputStream(new SeekableInMemoryByteChannel(bytes));
+    }
+
+    /**
+     * Canal somente leitura sobre uma região de um arquivo.
+     */
+    private static class RegionChannel implements SeekableByteChannel {
+
+        private final FileChannel fc;
+        private final long start, size;
+        private long position = 0;
+
+        RegionChannel(FileChannel fc, long start, long size) {
+            this.fc = fc;
+            this.start = start;
+            this.size = size;
         }
-        final Path finalTmp = tmp;
-        return new SeekableFileInputStream(finalTmp.toFile()) {
-            @Override
-            public void close() throws IOException {
-                super.close();
-                Files.delete(finalTmp);
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (position >= size) {
+                return -1;
+            }
+            int limit = dst.limit();
+            if (dst.remaining() > size - position) {
+                dst.limit(dst.position() + (int) (size - position));
+            }
+            try {
+                int read = fc.read(dst, start + position);
+                if (read > 0) {
+                    position += read;
+                }
+                return read;
+            } finally {
+                dst.limit(limit);
             }
-        };
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return size;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) throws IOException {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return fc.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            fc.close();
+        }
     }
 
     @Override
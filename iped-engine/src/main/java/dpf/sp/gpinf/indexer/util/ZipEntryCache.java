@@ -0,0 +1,257 @@
+package dpf.sp.gpinf.indexer.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import iped3.io.SeekableInputStream;
+
+/**
+ * Cache compartilhado de entradas de arquivos ZIP descompactadas. Os itens de
+ * extrações UFDR são abertos várias vezes durante o processamento (assinatura,
+ * hash, parsing, miniaturas, carving), assim a mesma entrada era descompactada
+ * repetidamente.
+ *
+ * Entradas pequenas ficam em memória e as maiores em arquivos temporários, cada
+ * nível limitado em bytes e com descarte da entrada usada há mais tempo. As
+ * entradas contam as referências dos streams abertos sobre elas: uma entrada
+ * descartada com leitores ativos só tem seu arquivo temporário apagado quando o
+ * último stream for fechado. Leitores concorrentes da mesma entrada aguardam a
+ * descompactação em andamento em vez de repeti-la.
+ */
+public class ZipEntryCache {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ZipEntryCache.class);
+
+    private static final int MAX_MEM_ENTRY_BYTES = 1 << 24;
+
+    private static final long MAX_MEM_BYTES = Math.min(Runtime.getRuntime().maxMemory() / 16, 512L << 20);
+    private static final long MAX_SPILL_BYTES = 8L << 30;
+
+    private static final AtomicLong opens = new AtomicLong();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong inflatedBytes = new AtomicLong();
+    private static final AtomicLong storedOpens = new AtomicLong();
+
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static long memBytes = 0, spillBytes = 0;
+
+    /**
+     * Fonte do conteúdo descompactado de uma entrada.
+     */
+    public interface EntrySource {
+        InputStream open() throws IOException;
+    }
+
+    private static class Entry {
+
+        final boolean inMemory;
+        long length;
+        byte[] bytes;
+        Path file;
+        boolean loaded, cached = true;
+        int refs;
+
+        Entry(long size) {
+            this.inMemory = size <= MAX_MEM_ENTRY_BYTES;
+        }
+    }
+
+    private ZipEntryCache() {
+    }
+
+    /**
+     * Retorna um stream sobre o conteúdo descompactado da entrada, descompactando-a
+     * apenas se não estiver no cache.
+     *
+     * @param key
+     *            identificador único da entrada (contêiner e caminho interno)
+     * @param size
+     *            tamanho descompactado informado pelo cabeçalho da entrada
+     */
+    public static SeekableInputStream get(String key, long size, EntrySource source) throws IOException {
+        opens.incrementAndGet();
+        if (size > MAX_SPILL_BYTES / 4) {
+            // grande demais para o cache, descompacta em arquivo apagado ao fechar
+            Entry entry = new Entry(size);
+            entry.cached = false;
+            entry.refs = 1;
+            load(entry, source);
+            return newStream(entry);
+        }
+
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(size);
+                entries.put(key, entry);
+            }
+            entry.refs++;
+        }
+        try {
+            boolean inflated = false;
+            synchronized (entry) {
+                // se outra thread falhou na descompactação, esta tenta novamente
+                if (!entry.loaded) {
+                    load(entry, source);
+                    inflated = true;
+                }
+            }
+            if (inflated) {
+                synchronized (entries) {
+                    if (entry.cached) {
+                        if (entry.inMemory) {
+                            memBytes += entry.length;
+                        } else {
+                            spillBytes += entry.length;
+                        }
+                        evict();
+                    }
+                }
+            } else {
+                hits.incrementAndGet();
+            }
+            return newStream(entry);
+
+        } catch (IOException | RuntimeException e) {
+            synchronized (entries) {
+                if (!entry.loaded && entries.get(key) == entry) {
+                    entries.remove(key);
+                    entry.cached = false;
+                }
+            }
+            release(entry);
+            throw e;
+        }
+    }
+
+    private static void load(Entry entry, EntrySource source) throws IOException {
+        Path tmp = null;
+        try (InputStream is = source.open()) {
+            if (entry.inMemory) {
+                entry.bytes = IOUtils.toByteArray(is);
+                entry.length = entry.bytes.length;
+            } else {
+                tmp = Files.createTempFile("zip-stream", null); //$NON-NLS-1$
+                Files.copy(is, tmp, StandardCopyOption.REPLACE_EXISTING);
+                entry.length = Files.size(tmp);
+                entry.file = tmp;
+                tmp = null;
+            }
+            entry.loaded = true;
+            inflatedBytes.addAndGet(entry.length);
+
+        } finally {
+            if (tmp != null) {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    private static SeekableInputStream newStream(final Entry entry) throws IOException {
+        if (entry.inMemory) {
+            return new SeekableFileInputStream(new SeekableInMemoryByteChannel(entry.bytes)) {
+                private boolean closed = false;
+
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    if (!closed) {
+                        closed = true;
+                        release(entry);
+                    }
+                }
+            };
+        }
+        return new SeekableFileInputStream(entry.file.toFile()) {
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                if (!closed) {
+                    closed = true;
+                    release(entry);
+                }
+            }
+        };
+    }
+
+    private static void release(Entry entry) throws IOException {
+        Path toDelete = null;
+        synchronized (entries) {
+            if (--entry.refs == 0 && !entry.cached) {
+                toDelete = entry.file;
+                entry.file = null;
+                entry.bytes = null;
+            }
+        }
+        if (toDelete != null) {
+            Files.deleteIfExists(toDelete);
+        }
+    }
+
+    /**
+     * Descarta entradas usadas há mais tempo até os níveis voltarem aos limites.
+     * Deve ser chamado com o lock de entries.
+     */
+    private static void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while ((memBytes > MAX_MEM_BYTES || spillBytes > MAX_SPILL_BYTES) && it.hasNext()) {
+            Entry entry = it.next();
+            if (!entry.loaded || (entry.inMemory ? memBytes <= MAX_MEM_BYTES : spillBytes <= MAX_SPILL_BYTES)) {
+                continue;
+            }
+            it.remove();
+            entry.cached = false;
+            if (entry.inMemory) {
+                memBytes -= entry.length;
+            } else {
+                spillBytes -= entry.length;
+            }
+            if (entry.refs == 0) {
+                if (entry.file != null && !entry.file.toFile().delete()) {
+                    LOGGER.warn("Error deleting {}", entry.file); //$NON-NLS-1$
+                }
+                entry.file = null;
+                entry.bytes = null;
+            }
+        }
+    }
+
+    /**
+     * Registra que uma entrada sem compressão foi lida diretamente do contêiner.
+     */
+    static void addStoredOpen() {
+        opens.incrementAndGet();
+        storedOpens.incrementAndGet();
+    }
+
+    public static long getOpens() {
+        return opens.get();
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getInflatedBytes() {
+        return inflatedBytes.get();
+    }
+
+    public static long getStoredOpens() {
+        return storedOpens.get();
+    }
+
+}
@@ -12,12 +12,12 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import dpf.sp.gpinf.indexer.Messages;
+import dpf.sp.gpinf.indexer.datasource.EnumerationManifest;
+import dpf.sp.gpinf.indexer.process.ItemScheduler;
 import dpf.sp.gpinf.indexer.process.MimeTypesProcessingOrder;
 import dpf.sp.gpinf.indexer.process.task.SkipCommitedTask;
 import dpf.sp.gpinf.indexer.util.HashValue;
@@ -59,9 +59,7 @@ public class CaseData implements ICaseData {
     /**
      * Filas de processamento dos itens do caso
      */
-    private TreeMap<Integer, LinkedBlockingDeque<IItem>> queues;
-
-    private volatile Integer currentQueuePriority = 0;
+    private transient ItemScheduler itemScheduler;
 
     /**
      * Mapa genérico de objetos extras do caso. Pode ser utilizado como área de
@@ -126,8 +124,6 @@ synchronized public int getDiscoveredEvidences() {
         return discoveredEvidences;
     }
 
-    private int maxQueueSize;
-
     /**
      * Cria objeto do caso
      *
@@ -135,15 +131,11 @@ synchronized public int getDiscoveredEvidences() {
      *            tamanho da fila de processamento dos itens
      */
     public CaseData(int queueSize) {
-        this.maxQueueSize = queueSize;
-        initQueues();
+        itemScheduler = new ItemScheduler(queueSize, MimeTypesProcessingOrder.getProcessingPriorities());
     }
 
-    private void initQueues() {
-        queues = new TreeMap<Integer, LinkedBlockingDeque<IItem>>();
-        queues.put(0, new LinkedBlockingDeque<IItem>());
-        for (Integer priority : MimeTypesProcessingOrder.getProcessingPriorities())
-            queues.put(priority, new LinkedBlockingDeque<IItem>());
+    public ItemScheduler getItemScheduler() {
+        return itemScheduler;
     }
 
     /**
@@ -212,16 +204,27 @@ public IPathNode getRootNode() {
      */
     public void addItem(IItem item) throws InterruptedException {
         computeGlobalId(item);
+        countDiscoveredItem(item);
         addItemToQueue(item, 0);
     }
 
-    public void addItemToQueue(IItem item, int queuePriority) throws InterruptedException {
-        LinkedBlockingDeque<IItem> queue = queues.get(queuePriority);
-        while (queue.size() >= maxQueueSize) {
-            Thread.sleep(1000);
+    /**
+     * Contabiliza o item descoberto para estimativa do progresso e o registra no
+     * manifesto da enumeração, se houver.
+     */
+    private void countDiscoveredItem(IItem item) {
+        incDiscoveredEvidences(1);
+        if (item.isToSumVolume()) {
+            incDiscoveredVolume(item.getLength());
+        }
+        EnumerationManifest manifest = (EnumerationManifest) objectMap.get(EnumerationManifest.class.getName());
+        if (manifest != null) {
+            manifest.add(item);
         }
+    }
 
-        queue.put(item);
+    public void addItemToQueue(IItem item, int queuePriority) throws InterruptedException {
+        itemScheduler.add(item, queuePriority);
     }
 
     private void computeGlobalId(IItem item) {
@@ -243,22 +246,14 @@ private void computeGlobalId(IItem item) {
         }
     }
 
-    public Integer changeToNextQueue() {
-        currentQueuePriority = queues.ceilingKey(currentQueuePriority + 1);
-        return currentQueuePriority;
-    }
-
-    public Integer getCurrentQueuePriority() {
-        return currentQueuePriority;
-    }
-
     /**
-     * Obtém fila de arquivos de evidência do caso.
+     * Obtém o número de itens aguardando processamento, incluindo os retidos
+     * aguardando suas dependências.
      *
-     * @return fila de arquivos.
+     * @return tamanho da fila de arquivos.
      */
-    public LinkedBlockingDeque<IItem> getItemQueue() {
-        return queues.get(currentQueuePriority);
+    public int getItemQueueSize() {
+        return itemScheduler.getQueueSize();
     }
 
     /**
@@ -42,6 +42,7 @@
 import dpf.sp.gpinf.indexer.util.ParentInfo;
 import dpf.sp.gpinf.indexer.util.SeekableByteChannelImpl;
 import dpf.sp.gpinf.indexer.util.SeekableFileInputStream;
+import dpf.sp.gpinf.indexer.util.SharedContent;
 import dpf.sp.gpinf.indexer.util.SleuthkitClient;
 import dpf.sp.gpinf.indexer.util.SleuthkitInputStream;
 import dpf.sp.gpinf.indexer.util.TextCache;
@@ -96,6 +97,17 @@ public static void setStartID(int start) {
         Counter.setStartID(start);
     }
 
+    private static boolean shareContent = false;
+
+    /**
+     * @param share
+     *            se o conteúdo lido da fonte deve ser compartilhado entre os streams
+     *            obtidos pelas tarefas, em vez de cada uma reler a fonte
+     */
+    public static void setShareContent(boolean share) {
+        shareContent = share;
+    }
+
     /**
      * Identificador utilizado para serialização da classe.
      */
@@ -237,6 +249,8 @@ public void setDeleteFile(boolean deleteFile) {
 
     private ISeekableInputStreamFactory inputStreamFactory;
 
+    private SharedContent sharedContent;
+
     static final int BUF_LEN = 8 * 1024 * 1024;
 
     /**
@@ -283,6 +297,15 @@ public void dispose() {
         }
         tmpFile = null;
         tis = null;
+        if (sharedContent != null) {
+            Statistics stats = Statistics.get();
+            if (stats != null) {
+                stats.addContentRead(length != null ? length : 0, sharedContent.getServedBytes(),
+                        sharedContent.getSourceBytes());
+            }
+            sharedContent.close();
+            sharedContent = null;
+        }
         try {
             if (textCache != null) {
                 textCache.close();
@@ -312,6 +335,11 @@ public Date getAccessDate() {
     public BufferedInputStream getBufferedStream() throws IOException {
 
         int len = 8192;
+        SeekableInputStream stream = getStream();
+        if (sharedContent != null) {
+            // conteúdo já está em memória, buffer grande só duplicaria os dados
+            return new BufferedInputStream(stream, len);
+        }
         if (length != null && length > len) {
             if (length < BUF_LEN) {
                 len = length.intValue();
@@ -320,7 +348,7 @@ public BufferedInputStream getBufferedStream() throws IOException {
             }
         }
 
-        return new BufferedInputStream(getStream(), len);
+        return new BufferedInputStream(stream, len);
     }
 
     /**
@@ -627,6 +655,27 @@ public SeekableInputStream getStream() throws IOException {
             }
         }
 
+        if (shareContent && length != null && length > 0) {
+            synchronized (this) {
+                if (sharedContent == null) {
+                    sharedContent = new SharedContent(new SharedContent.Source() {
+                        @Override
+                        public SeekableInputStream open() throws IOException {
+                            return getSourceStream();
+                        }
+                    }, length);
+                }
+                return sharedContent.newStream();
+            }
+        }
+
+        return getSourceStream();
+    }
+
+    /**
+     * @return stream lido diretamente da fonte do item.
+     */
+    private SeekableInputStream getSourceStream() throws IOException {
         SeekableInputStream stream = null;
         if (file != null && file.isFile()) {
             try {
@@ -1144,15 +1193,24 @@ public void setParsed(boolean parsed) {
      */
     @Deprecated
     public void setParsedTextCache(String parsedText) {
-        this.textCache = new TextCache();
+        TextCache textCache = new TextCache();
         try {
-            this.textCache.write(parsedText);
+            textCache.write(parsedText);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        setParsedTextCache(textCache);
     }
 
     public void setParsedTextCache(TextCache textCache) {
+        // devolve ao pool os blocos do texto anterior, p.ex. de um reprocessamento
+        if (this.textCache != null && this.textCache != textCache) {
+            try {
+                this.textCache.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         this.textCache = textCache;
     }
 
@@ -4,25 +4,36 @@
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Random forest evaluated over float[] feature rows. The nodes of all trees are
+ * kept in a single int array, with the split feature, the left child index (the
+ * right child is the next node) and the split value or leaf value stored side
+ * by side, so each visited node touches a single cache line. Batches are
+ * evaluated tree by tree, keeping the nodes of one tree in cache while all rows
+ * go through it.
+ */
 public class RandomForestPredictor {
 
+    private static final int NODE_SIZE = 3;
+
     private final int[] roots;
-    private final int[] nodeLeft;
-    private final short[] splitFeature;
-    private final float[] value;
+    private final int[] nodes;
     private int trees;
     private int version;
 
+    /**
+     * Per thread buffer for the results of each tree, sorted to compute the
+     * trimmed mean.
+     */
+    private final ThreadLocal<float[]> treeResults = new ThreadLocal<>();
+
     private RandomForestPredictor(int trees, int nodes) {
         this.trees = trees;
         roots = new int[trees];
-        nodeLeft = new int[nodes];
-        splitFeature = new short[nodes];
-        value = new float[nodes];
+        this.nodes = new int[nodes * NODE_SIZE];
     }
 
     public int size() {
@@ -34,74 +45,113 @@ public int getVersion() {
     }
 
     public double predict(List<Float> lFeatures) {
-        float[] features = toArr(lFeatures);
-        double ret = 0;
-        List<Double> l = new ArrayList<Double>();
-        for (int root : roots) {
-            l.add(classify(root, features));
+        return predict(toArray(lFeatures, null));
+    }
+
+    public double predict(float[] features) {
+        float[] results = getTreeResults(trees);
+        for (int t = 0; t < trees; t++) {
+            results[t] = classify(roots[t], features);
+        }
+        return trimmedMean(results, 0, trees);
+    }
+
+    /**
+     * Predicts the first numRows rows, storing the predictions in out.
+     */
+    public void predict(float[][] rows, int numRows, double[] out) {
+        float[] results = getTreeResults(numRows * trees);
+        for (int t = 0; t < trees; t++) {
+            int root = roots[t];
+            for (int r = 0, pos = t; r < numRows; r++, pos += trees) {
+                results[pos] = classify(root, rows[r]);
+            }
         }
-        Collections.sort(l);
-        int cnt = 0;
-        int border = (int) (l.size() * 0.07);
-        for (int i = border; i < l.size() - border; i++) {
-            ret += l.get(i);
-            cnt++;
+        for (int r = 0; r < numRows; r++) {
+            out[r] = trimmedMean(results, r * trees, trees);
         }
-        return ret / cnt;
     }
 
-    private static float[] toArr(List<Float> l) {
-        float[] arr = new float[l.size()];
-        for (int i = 0; i < l.size(); i++) {
-            arr[i] = l.get(i);
+    /**
+     * Copies the features to buf, allocating a new array if buf is null or has a
+     * different length.
+     */
+    public static float[] toArray(List<Float> l, float[] buf) {
+        if (buf == null || buf.length != l.size()) {
+            buf = new float[l.size()];
         }
-        return arr;
+        for (int i = 0; i < buf.length; i++) {
+            buf[i] = l.get(i);
+        }
+        return buf;
     }
 
-    private double classify(int pos, float[] features) {
-        while (true) {
-            int sf = splitFeature[pos];
-            if (sf < 0) {
-                return value[pos];
-            }
-            if (features[sf] < value[pos]) {
-                pos = nodeLeft[pos];
-            } else {
-                pos = nodeLeft[pos] + 1;
-            }
+    private float[] getTreeResults(int len) {
+        float[] results = treeResults.get();
+        if (results == null || results.length < len) {
+            results = new float[len];
+            treeResults.set(results);
         }
+        return results;
     }
 
-    public static RandomForestPredictor load(File file, int maxTrees) throws Exception {
-        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
-        int skip = in.readInt();
-        in.skipBytes(skip);
-        int ver = in.readInt();
-        int trees = in.readInt();
-        int[] t = new int[trees];
-        for (int i = 0; i < trees; i++) {
-            t[i] = in.readInt();
+    /**
+     * Mean of the tree results, discarding the lowest and highest 7%.
+     */
+    private static double trimmedMean(float[] results, int from, int len) {
+        Arrays.sort(results, from, from + len);
+        int border = (int) (len * 0.07);
+        double ret = 0;
+        for (int i = from + border; i < from + len - border; i++) {
+            ret += results[i];
         }
-        int nodes = in.readInt();
-        if (maxTrees > 0 && trees > maxTrees) {
-            trees = maxTrees;
-            nodes = t[trees + 1];
+        return ret / (len - 2 * border);
+    }
+
+    private float classify(int pos, float[] features) {
+        int[] nodes = this.nodes;
+        int i = pos * NODE_SIZE;
+        int sf;
+        while ((sf = nodes[i]) >= 0) {
+            int left = nodes[i + 1];
+            i = (features[sf] < Float.intBitsToFloat(nodes[i + 2]) ? left : left + 1) * NODE_SIZE;
         }
-        RandomForestPredictor predictor = new RandomForestPredictor(trees, nodes);
-        predictor.version = ver;
-        System.arraycopy(t, 0, predictor.roots, 0, trees);
-        byte[] bytes = new byte[nodes * 10];
-        in.read(bytes);
-
-        int pos = 0;
-        for (int i = 0; i < nodes; i++) {
-            predictor.splitFeature[i] = (short) (((bytes[pos++] & 0xFF) << 8) + ((bytes[pos++] & 0xFF) << 0));
-            predictor.nodeLeft[i] = (((bytes[pos++] & 0xFF) << 24) + ((bytes[pos++] & 0xFF) << 16)
-                    + ((bytes[pos++] & 0xFF) << 8) + ((bytes[pos++] & 0xFF) << 0));
-            predictor.value[i] = Float.intBitsToFloat((((bytes[pos++] & 0xFF) << 24) + ((bytes[pos++] & 0xFF) << 16)
-                    + ((bytes[pos++] & 0xFF) << 8) + ((bytes[pos++] & 0xFF) << 0)));
+        return Float.intBitsToFloat(nodes[i + 2]);
+    }
+
+    public static RandomForestPredictor load(File file, int maxTrees) throws Exception {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int skip = in.readInt();
+            in.skipBytes(skip);
+            int ver = in.readInt();
+            int trees = in.readInt();
+            int[] t = new int[trees];
+            for (int i = 0; i < trees; i++) {
+                t[i] = in.readInt();
+            }
+            int nodes = in.readInt();
+            if (maxTrees > 0 && trees > maxTrees) {
+                trees = maxTrees;
+                nodes = t[trees + 1];
+            }
+            RandomForestPredictor predictor = new RandomForestPredictor(trees, nodes);
+            predictor.version = ver;
+            System.arraycopy(t, 0, predictor.roots, 0, trees);
+            byte[] bytes = new byte[nodes * 10];
+            in.readFully(bytes);
+
+            int pos = 0;
+            for (int i = 0; i < nodes * NODE_SIZE; i += NODE_SIZE) {
+                // split feature (negative on leaves)
+                predictor.nodes[i] = (short) (((bytes[pos++] & 0xFF) << 8) + ((bytes[pos++] & 0xFF) << 0));
+                // left child
+                predictor.nodes[i + 1] = (((bytes[pos++] & 0xFF) << 24) + ((bytes[pos++] & 0xFF) << 16)
+                        + ((bytes[pos++] & 0xFF) << 8) + ((bytes[pos++] & 0xFF) << 0));
+                // split or leaf value, as float bits
+                predictor.nodes[i + 2] = (((bytes[pos++] & 0xFF) << 24) + ((bytes[pos++] & 0xFF) << 16)
+                        + ((bytes[pos++] & 0xFF) << 8) + ((bytes[pos++] & 0xFF) << 0));
+            }
+            return predictor;
         }
-        in.close();
-        return predictor;
     }
 }
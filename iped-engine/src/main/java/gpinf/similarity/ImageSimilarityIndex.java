@@ -0,0 +1,565 @@
+package gpinf.similarity;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dpf.sp.gpinf.indexer.search.IPEDSource;
+import iped3.util.BasicProps;
+
+/**
+ * Índice para busca aproximada de imagens semelhantes, baseado em listas
+ * invertidas (IVF).
+ *
+ * Os vetores de características são agrupados por k-means em uma projeção de
+ * menor dimensão (soma de {@link #PROJ_GROUP} características consecutivas). Uma
+ * consulta compara a imagem de referência apenas com os centróides, e calcula a
+ * distância exata ({@link ImageSimilarity#distance(byte[], byte[], int)}) para
+ * os vetores dos grupos mais próximos, que ficam contíguos no arquivo e são
+ * mapeados em memória.
+ *
+ * O índice é criado ao final do processamento a partir dos valores gravados no
+ * índice do caso. Layout do arquivo: cabeçalho, centróides, início de cada
+ * grupo, ids dos itens e vetores ordenados por grupo.
+ */
+public class ImageSimilarityIndex implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageSimilarityIndex.class);
+
+    public static final String INDEX_FILE = "data/imageSimilarity.idx"; //$NON-NLS-1$
+
+    private static final int MAGIC = 0x49534958; // "ISIX"
+    private static final int VERSION = 1;
+
+    /**
+     * As primeiras características (medianas dos canais) não entram no cálculo da
+     * distância.
+     */
+    private static final int FIRST_FEATURE = 4;
+
+    private static final int PROJ_GROUP = 8;
+
+    private static final int MAX_CLUSTERS = 4096;
+    private static final int MIN_VECTORS_TO_CLUSTER = 4096;
+    private static final int TRAINING_VECTORS_PER_CLUSTER = 64;
+    private static final int KMEANS_ITERATIONS = 8;
+
+    /**
+     * Fração dos grupos consultados em cada busca, com um mínimo de
+     * {@link #MIN_PROBES} grupos.
+     */
+    private static final int PROBE_FRACTION = 16;
+    private static final int MIN_PROBES = 8;
+
+    private static final long MAX_CHUNK_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final int dim;
+    private final int projDim;
+    private final int numClusters;
+    private final int count;
+    private final int lastId;
+    private final float[] centroids;
+    private final int[] clusterStart;
+    private final int[] ids;
+    private final MappedByteBuffer[] chunks;
+    private final int vectorsPerChunk;
+
+    public static File getIndexFile(File moduleDir) {
+        return new File(moduleDir, INDEX_FILE);
+    }
+
+    /**
+     * Abre o índice do caso, se existir e estiver atualizado.
+     *
+     * @return o índice ou null
+     */
+    public static ImageSimilarityIndex open(IPEDSource ipedCase) {
+        File file = getIndexFile(ipedCase.getModuleDir());
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            ImageSimilarityIndex index = new ImageSimilarityIndex(file);
+            if (index.lastId != ipedCase.getLastId()) {
+                logger.warn("Image similarity index outdated, it will not be used: " + file.getAbsolutePath()); //$NON-NLS-1$
+                index.close();
+                return null;
+            }
+            return index;
+
+        } catch (IOException e) {
+            logger.warn("Error opening image similarity index " + file.getAbsolutePath(), e); //$NON-NLS-1$
+            return null;
+        }
+    }
+
+    public ImageSimilarityIndex(File file) throws IOException {
+        long dataStart;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Invalid image similarity index " + file.getAbsolutePath()); //$NON-NLS-1$
+            }
+            dim = in.readInt();
+            projDim = in.readInt();
+            numClusters = in.readInt();
+            count = in.readInt();
+            lastId = in.readInt();
+            centroids = new float[numClusters * projDim];
+            for (int i = 0; i < centroids.length; i++) {
+                centroids[i] = in.readFloat();
+            }
+            clusterStart = new int[numClusters + 1];
+            for (int i = 0; i < clusterStart.length; i++) {
+                clusterStart[i] = in.readInt();
+            }
+            ids = new int[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = in.readInt();
+            }
+            dataStart = 7 * 4 + centroids.length * 4L + clusterStart.length * 4L + count * 4L;
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            vectorsPerChunk = (int) Math.max(1, MAX_CHUNK_SIZE / dim);
+            int numChunks = (count + vectorsPerChunk - 1) / vectorsPerChunk;
+            chunks = new MappedByteBuffer[numChunks];
+            for (int i = 0; i < numChunks; i++) {
+                long first = (long) i * vectorsPerChunk;
+                long size = Math.min(vectorsPerChunk, count - first) * dim;
+                chunks[i] = channel.map(MapMode.READ_ONLY, dataStart + first * dim, size);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Resultado de uma busca, ordenado pelo id do item.
+     */
+    public static class Result {
+
+        private final int[] ids;
+        private final int[] distances;
+
+        Result(int[] ids, int[] distances) {
+            this.ids = ids;
+            this.distances = distances;
+        }
+
+        public int size() {
+            return ids.length;
+        }
+
+        public int getId(int i) {
+            return ids[i];
+        }
+
+        /**
+         * @return distância do item à imagem de referência ou -1 se o item não foi
+         *         encontrado
+         */
+        public int getDistance(int id) {
+            int pos = Arrays.binarySearch(ids, id);
+            return pos >= 0 ? distances[pos] : -1;
+        }
+    }
+
+    /**
+     * Busca as imagens mais próximas da referência.
+     *
+     * @param maxDistance
+     *            distância máxima, imagens mais distantes são descartadas
+     * @param maxResults
+     *            número máximo de resultados
+     */
+    public Result search(byte[] ref, int maxDistance, int maxResults) {
+        if (ref.length != dim || count == 0) {
+            return new Result(new int[0], new int[0]);
+        }
+        float[] projRef = project(ref, 0, new float[projDim]);
+        float[] centroidDist = new float[numClusters];
+        Integer[] order = new Integer[numClusters];
+        for (int c = 0; c < numClusters; c++) {
+            centroidDist[c] = squaredDistance(projRef, centroids, c * projDim, projDim);
+            order[c] = c;
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(centroidDist[a], centroidDist[b]));
+        int probes = Math.min(numClusters, Math.max(MIN_PROBES, numClusters / PROBE_FRACTION));
+
+        // max-heap das melhores distâncias, a raiz é a pior mantida
+        int[] heapDist = new int[maxResults];
+        int[] heapIdx = new int[maxResults];
+        int heapSize = 0;
+        int cut = maxDistance;
+
+        byte[] buf = new byte[0];
+        for (int p = 0; p < probes; p++) {
+            int c = order[p];
+            int start = clusterStart[c];
+            int end = clusterStart[c + 1];
+            if (start == end) {
+                continue;
+            }
+            int len = (end - start) * dim;
+            if (buf.length < len) {
+                buf = new byte[len];
+            }
+            readVectors(start, end, buf);
+            for (int i = start, off = 0; i < end; i++, off += dim) {
+                int d = distance(ref, buf, off, cut);
+                if (d >= cut) {
+                    continue;
+                }
+                if (heapSize < maxResults) {
+                    heapDist[heapSize] = d;
+                    heapIdx[heapSize] = i;
+                    siftUp(heapDist, heapIdx, heapSize++);
+                    if (heapSize == maxResults) {
+                        cut = heapDist[0];
+                    }
+                } else {
+                    heapDist[0] = d;
+                    heapIdx[0] = i;
+                    siftDown(heapDist, heapIdx, heapSize);
+                    cut = heapDist[0];
+                }
+            }
+        }
+
+        long[] packed = new long[heapSize];
+        for (int i = 0; i < heapSize; i++) {
+            packed[i] = ((long) ids[heapIdx[i]] << 32) | (heapDist[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(packed);
+        int[] resultIds = new int[heapSize];
+        int[] resultDist = new int[heapSize];
+        for (int i = 0; i < heapSize; i++) {
+            resultIds[i] = (int) (packed[i] >>> 32);
+            resultDist[i] = (int) packed[i];
+        }
+        return new Result(resultIds, resultDist);
+    }
+
+    private void readVectors(int start, int end, byte[] buf) {
+        int pos = 0;
+        for (int i = start; i < end;) {
+            int chunk = i / vectorsPerChunk;
+            int first = i % vectorsPerChunk;
+            int n = Math.min(end - i, vectorsPerChunk - first);
+            ByteBuffer src = chunks[chunk].duplicate();
+            src.position(first * dim);
+            src.get(buf, pos, n * dim);
+            pos += n * dim;
+            i += n;
+        }
+    }
+
+    private static void siftUp(int[] dist, int[] idx, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (dist[parent] >= dist[i]) {
+                break;
+            }
+            swap(dist, idx, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] dist, int[] idx, int size) {
+        int i = 0;
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                break;
+            }
+            int largest = left + 1 < size && dist[left + 1] > dist[left] ? left + 1 : left;
+            if (dist[i] >= dist[largest]) {
+                break;
+            }
+            swap(dist, idx, i, largest);
+            i = largest;
+        }
+    }
+
+    private static void swap(int[] dist, int[] idx, int a, int b) {
+        int t = dist[a];
+        dist[a] = dist[b];
+        dist[b] = t;
+        t = idx[a];
+        idx[a] = idx[b];
+        idx[b] = t;
+    }
+
+    /**
+     * Mesmo cálculo de {@link ImageSimilarity#distance(byte[], byte[], int)}, com
+     * o vetor em uma posição de um array maior.
+     */
+    static int distance(byte[] a, byte[] b, int off, int cut) {
+        int distance = 0;
+        for (int i = FIRST_FEATURE; i < a.length && distance < cut; i++) {
+            int d = a[i] - b[off + i];
+            distance += d * d;
+        }
+        return distance;
+    }
+
+    private static float[] project(byte[] vector, int off, float[] proj) {
+        Arrays.fill(proj, 0);
+        int dim = proj.length * PROJ_GROUP + FIRST_FEATURE;
+        for (int i = FIRST_FEATURE; i < dim; i++) {
+            proj[(i - FIRST_FEATURE) / PROJ_GROUP] += vector[off + i];
+        }
+        return proj;
+    }
+
+    private static float squaredDistance(float[] a, float[] b, int off, int len) {
+        float sum = 0;
+        for (int i = 0; i < len; i++) {
+            float d = a[i] - b[off + i];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    private static int nearest(float[] proj, float[] centroids, int numClusters, int projDim) {
+        int best = 0;
+        float bestDist = Float.MAX_VALUE;
+        for (int c = 0; c < numClusters; c++) {
+            float d = squaredDistance(proj, centroids, c * projDim, projDim);
+            if (d < bestDist) {
+                bestDist = d;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Cria o índice a partir das características de similaridade gravadas no
+     * índice do caso.
+     */
+    public static void build(IPEDSource ipedCase) throws IOException {
+        File output = getIndexFile(ipedCase.getModuleDir());
+        File tmpVectors = new File(output.getPath() + ".vectors.tmp"); //$NON-NLS-1$
+        File tmpOutput = new File(output.getPath() + ".tmp"); //$NON-NLS-1$
+
+        LeafReader reader = ipedCase.getLeafReader();
+        BinaryDocValues values = reader.getBinaryDocValues(BasicProps.SIMILARITY_FEATURES);
+        if (values == null) {
+            return;
+        }
+        Bits liveDocs = reader.getLiveDocs();
+        int dim = -1;
+        int count = 0;
+        int[] ids = new int[1024];
+        try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(tmpVectors), 1 << 20)) {
+            for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                if (liveDocs != null && !liveDocs.get(doc)) {
+                    continue;
+                }
+                BytesRef bytesRef = values.get(doc);
+                if (bytesRef == null || bytesRef.length == 0) {
+                    continue;
+                }
+                if (dim == -1) {
+                    dim = bytesRef.length;
+                } else if (bytesRef.length != dim) {
+                    continue;
+                }
+                out.write(bytesRef.bytes, bytesRef.offset, bytesRef.length);
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                }
+                ids[count++] = ipedCase.getId(doc);
+            }
+        }
+
+        try {
+            if (count == 0) {
+                output.delete();
+                return;
+            }
+            try (FileChannel vectorsChannel = FileChannel.open(tmpVectors.toPath(), StandardOpenOption.READ)) {
+                VectorReader vectors = new VectorReader(vectorsChannel, dim);
+                writeIndex(tmpOutput, vectors, ids, count, ipedCase.getLastId());
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            output.delete();
+            if (!tmpOutput.renameTo(output)) {
+                throw new IOException("Error renaming " + tmpOutput.getAbsolutePath()); //$NON-NLS-1$
+            }
+            logger.info("Image similarity index created with {} images", count); //$NON-NLS-1$
+
+        } finally {
+            tmpVectors.delete();
+            tmpOutput.delete();
+        }
+    }
+
+    private static void writeIndex(File file, VectorReader vectors, int[] ids, int count, int lastId)
+            throws IOException {
+        int dim = vectors.dim;
+        int projDim = (dim - FIRST_FEATURE) / PROJ_GROUP;
+        int numClusters = 1;
+        if (count >= MIN_VECTORS_TO_CLUSTER) {
+            numClusters = Math.min(MAX_CLUSTERS, (int) Math.sqrt(count));
+        }
+        float[] centroids = train(vectors, count, numClusters, projDim);
+
+        int[] assignment = new int[count];
+        final int k = numClusters;
+        IntStream.range(0, count).parallel().forEach(i -> {
+            float[] proj = project(vectors.get(i), 0, new float[projDim]);
+            assignment[i] = nearest(proj, centroids, k, projDim);
+        });
+
+        int[] clusterStart = new int[numClusters + 1];
+        for (int c : assignment) {
+            clusterStart[c + 1]++;
+        }
+        for (int c = 0; c < numClusters; c++) {
+            clusterStart[c + 1] += clusterStart[c];
+        }
+        int[] order = new int[count];
+        int[] next = Arrays.copyOf(clusterStart, numClusters);
+        for (int i = 0; i < count; i++) {
+            order[next[assignment[i]]++] = i;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 20))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(dim);
+            out.writeInt(projDim);
+            out.writeInt(numClusters);
+            out.writeInt(count);
+            out.writeInt(lastId);
+            for (float f : centroids) {
+                out.writeFloat(f);
+            }
+            for (int start : clusterStart) {
+                out.writeInt(start);
+            }
+            for (int i : order) {
+                out.writeInt(ids[i]);
+            }
+            for (int i : order) {
+                out.write(vectors.get(i));
+            }
+        }
+    }
+
+    private static float[] train(VectorReader vectors, int count, int numClusters, int projDim) {
+        Random random = new Random(0);
+        int numSamples = (int) Math.min(count, (long) numClusters * TRAINING_VECTORS_PER_CLUSTER);
+        float[][] samples = new float[numSamples][];
+        for (int i = 0; i < numSamples; i++) {
+            int idx = numSamples == count ? i : (int) ((long) i * count / numSamples);
+            samples[i] = project(vectors.get(idx), 0, new float[projDim]);
+        }
+
+        float[] centroids = new float[numClusters * projDim];
+        for (int c = 0; c < numClusters; c++) {
+            System.arraycopy(samples[random.nextInt(numSamples)], 0, centroids, c * projDim, projDim);
+        }
+        if (numClusters == 1) {
+            return centroids;
+        }
+
+        int[] assignment = new int[numSamples];
+        for (int iter = 0; iter < KMEANS_ITERATIONS; iter++) {
+            IntStream.range(0, numSamples).parallel()
+                    .forEach(i -> assignment[i] = nearest(samples[i], centroids, numClusters, projDim));
+
+            float[] sums = new float[centroids.length];
+            int[] counts = new int[numClusters];
+            for (int i = 0; i < numSamples; i++) {
+                int c = assignment[i];
+                counts[c]++;
+                for (int j = 0; j < projDim; j++) {
+                    sums[c * projDim + j] += samples[i][j];
+                }
+            }
+            for (int c = 0; c < numClusters; c++) {
+                if (counts[c] == 0) {
+                    // grupo vazio, reinicia com uma amostra aleatória
+                    System.arraycopy(samples[random.nextInt(numSamples)], 0, centroids, c * projDim, projDim);
+                } else {
+                    for (int j = 0; j < projDim; j++) {
+                        centroids[c * projDim + j] = sums[c * projDim + j] / counts[c];
+                    }
+                }
+            }
+        }
+        return centroids;
+    }
+
+    /**
+     * Acesso aos vetores do arquivo temporário por leituras posicionais, que
+     * podem ser feitas por várias threads. O arquivo não é mapeado em memória,
+     * pois o mapeamento só é liberado pelo GC e impediria sua exclusão no Windows.
+     */
+    private static class VectorReader {
+
+        final int dim;
+        final FileChannel channel;
+
+        VectorReader(FileChannel channel, int dim) {
+            this.dim = dim;
+            this.channel = channel;
+        }
+
+        byte[] get(int i) {
+            byte[] vector = new byte[dim];
+            ByteBuffer dst = ByteBuffer.wrap(vector);
+            long pos = (long) i * dim;
+            try {
+                while (dst.hasRemaining()) {
+                    if (channel.read(dst, pos + dst.position()) < 0) {
+                        throw new EOFException();
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return vector;
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+package dpf.sp.gpinf.indexer.process.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.elasticsearch.client.RestClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import repackaged.org.apache.http.HttpHost;
+
+/**
+ * Runs the ElasticSearch export pipeline against an in-process HTTP stub of the
+ * bulk API, so indexing, replay of rejected items, splitting of too large bulks
+ * and disk spilling can be checked offline.
+ */
+public class ElasticSearchBulkPipelineTest {
+
+    private static final Pattern ID_PATTERN = Pattern.compile("\"_id\":\"([^\"]*)\""); //$NON-NLS-1$
+
+    private HttpServer server;
+    private RestClient client;
+    private File spillDir;
+
+    private volatile long delayMillis = 0;
+    private volatile int rejectEvery = 0;
+    private volatile int maxBodyBytes = 0;
+    private final Set<String> rejected = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> indexed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0); //$NON-NLS-1$
+        server.createContext("/_bulk", this::handleBulk); //$NON-NLS-1$
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.start();
+        client = RestClient.builder(new HttpHost("localhost", server.getAddress().getPort(), "http")).build(); //$NON-NLS-1$ //$NON-NLS-2$
+        spillDir = Files.createTempDirectory("elastic-test").toFile(); //$NON-NLS-1$
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop(0);
+        for (File f : spillDir.listFiles()) {
+            f.delete();
+        }
+        spillDir.delete();
+    }
+
+    private void handleBulk(HttpExchange exchange) throws IOException {
+        InputStream is = exchange.getRequestBody();
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) { //$NON-NLS-1$ //$NON-NLS-2$
+            is = new GZIPInputStream(is);
+        }
+        String body = new String(IOUtils.toByteArray(is), StandardCharsets.UTF_8);
+        if (maxBodyBytes > 0 && body.length() > maxBodyBytes) {
+            exchange.sendResponseHeaders(413, -1);
+            exchange.close();
+            return;
+        }
+        if (delayMillis > 0) {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        StringBuilder sb = new StringBuilder("{\"took\":1,\"errors\":true,\"items\":["); //$NON-NLS-1$
+        String[] lines = body.split("\n"); //$NON-NLS-1$
+        for (int i = 0; i < lines.length; i += 2) {
+            Matcher m = ID_PATTERN.matcher(lines[i]);
+            m.find();
+            String id = m.group(1);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"create\":{\"_index\":\"test\",\"_id\":\"").append(id).append('"'); //$NON-NLS-1$
+            if (rejectEvery > 0 && id.hashCode() % rejectEvery == 0 && rejected.add(id)) {
+                sb.append(",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"}}}"); //$NON-NLS-1$
+            } else if (!indexed.add(id)) {
+                sb.append(",\"status\":409,\"error\":{\"type\":\"version_conflict_engine_exception\",\"reason\":\"document already exists\"}}}"); //$NON-NLS-1$
+            } else {
+                sb.append(",\"status\":201,\"result\":\"created\"}}"); //$NON-NLS-1$
+            }
+        }
+        sb.append("]}"); //$NON-NLS-1$
+        byte[] response = sb.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json"); //$NON-NLS-1$ //$NON-NLS-2$
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(response);
+        }
+    }
+
+    private static byte[] source(int i, int size) {
+        StringBuilder sb = new StringBuilder("{\"name\":\"item").append(i).append("\",\"content\":\""); //$NON-NLS-1$ //$NON-NLS-2$
+        while (sb.length() < size) {
+            sb.append("lorem ipsum dolor sit amet "); //$NON-NLS-1$
+        }
+        return sb.append("\"}").toString().getBytes(StandardCharsets.UTF_8); //$NON-NLS-1$
+    }
+
+    private void run(ElasticSearchBulkPipeline pipeline, int numDocs, int docSize) throws Exception {
+        for (int i = 0; i < numDocs; i++) {
+            pipeline.add("id" + i, "/path/item" + i, source(i, docSize)); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        pipeline.close();
+    }
+
+    @Test
+    public void testIndexAll() throws Exception {
+        ElasticSearchBulkPipeline pipeline = new ElasticSearchBulkPipeline(client, "test", 4, 1 << 20, 1000, 60000, //$NON-NLS-1$
+                true, spillDir);
+        run(pipeline, 50000, 1024);
+        assertEquals(50000, indexed.size());
+        assertEquals(50000, pipeline.getIndexedDocs());
+        assertEquals(0, pipeline.getFailedDocs());
+    }
+
+    @Test
+    public void testReplayRejectedItems() throws Exception {
+        rejectEvery = 7;
+        ElasticSearchBulkPipeline pipeline = new ElasticSearchBulkPipeline(client, "test", 2, 1 << 20, 500, 60000, //$NON-NLS-1$
+                false, spillDir);
+        run(pipeline, 5000, 256);
+        assertTrue(pipeline.getRetriedDocs() > 0);
+        assertEquals(rejected.size(), pipeline.getRetriedDocs());
+        assertEquals(5000, indexed.size());
+        assertEquals(5000, pipeline.getIndexedDocs());
+        assertEquals(0, pipeline.getFailedDocs());
+    }
+
+    @Test
+    public void testSlowClusterSpillsToDisk() throws Exception {
+        delayMillis = 200;
+        ElasticSearchBulkPipeline pipeline = new ElasticSearchBulkPipeline(client, "test", 1, 1 << 20, 100, 60000, //$NON-NLS-1$
+                true, spillDir);
+        run(pipeline, 2000, 512);
+        assertTrue(pipeline.getSpilledDocs() > 0);
+        assertEquals(2000, indexed.size());
+        assertEquals(0, pipeline.getFailedDocs());
+    }
+
+    @Test
+    public void testSplitTooLargeBulks() throws Exception {
+        maxBodyBytes = 100 << 10;
+        ElasticSearchBulkPipeline pipeline = new ElasticSearchBulkPipeline(client, "test", 2, 1 << 20, 1000, 60000, //$NON-NLS-1$
+                false, spillDir);
+        pipeline.add("big", "/path/big", source(-1, 200 << 10)); //$NON-NLS-1$ //$NON-NLS-2$
+        run(pipeline, 2000, 512);
+        assertEquals(2000, indexed.size());
+        assertEquals(2000, pipeline.getIndexedDocs());
+        assertEquals(1, pipeline.getFailedDocs());
+        assertEquals(0, pipeline.getPendingDocs());
+    }
+
+}
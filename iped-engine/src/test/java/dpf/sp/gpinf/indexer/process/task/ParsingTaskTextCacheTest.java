@@ -0,0 +1,92 @@
+package dpf.sp.gpinf.indexer.process.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import dpf.sp.gpinf.indexer.util.TextCache;
+
+/**
+ * Checks that the pooled text cache buffers go back to the pool when parsing
+ * fails and only after the last open reader is closed.
+ */
+public class ParsingTaskTextCacheTest {
+
+    private static final int TEXT_LEN = 1 << 20;
+
+    /**
+     * Reader that delivers some text and then fails, like a parser that times out
+     * or hits a corrupted stream.
+     */
+    private static class FailingReader extends Reader {
+
+        private int remaining;
+
+        FailingReader(int length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (remaining == 0) {
+                throw new IOException("parsing failed"); //$NON-NLS-1$
+            }
+            int n = Math.min(len, remaining);
+            Arrays.fill(cbuf, off, off + n, 'a');
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testBuffersReleasedOnParsingFailure() throws IOException {
+        int before = TextCache.getPooledChunksInUse();
+        try {
+            ParsingTask.readText(new FailingReader(TEXT_LEN), false);
+            fail("IOException expected"); //$NON-NLS-1$
+        } catch (IOException e) {
+            assertEquals("parsing failed", e.getMessage()); //$NON-NLS-1$
+        }
+        assertEquals(before, TextCache.getPooledChunksInUse());
+    }
+
+    @Test
+    public void testBuffersReleasedAfterLastReader() throws IOException {
+        int before = TextCache.getPooledChunksInUse();
+        TextCache cache = new TextCache();
+        char[] text = new char[TEXT_LEN];
+        Arrays.fill(text, 'b');
+        cache.write(text, 0, text.length);
+        assertTrue(TextCache.getPooledChunksInUse() > before);
+
+        Reader reader = cache.getTextReader();
+        cache.close();
+        assertTrue(TextCache.getPooledChunksInUse() > before);
+
+        // the reader stays valid after the cache itself is closed
+        char[] cbuf = new char[64 * 1024];
+        long total = 0;
+        int len;
+        while ((len = reader.read(cbuf)) != -1) {
+            for (int i = 0; i < len; i++) {
+                assertEquals('b', cbuf[i]);
+            }
+            total += len;
+        }
+        assertEquals(TEXT_LEN, total);
+
+        reader.close();
+        assertEquals(before, TextCache.getPooledChunksInUse());
+    }
+
+}
@@ -0,0 +1,69 @@
+package gpinf.die;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import gpinf.die.RandomForestPredictorTest.ListPredictor;
+
+/**
+ * Compares the throughput of the previous predictor with the flattened one,
+ * predicting single rows and batches.
+ *
+ * Manual tool, not run by the unit tests. Usage, with the test classpath:
+ * RandomForestPredictorBenchmark [model]
+ */
+public class RandomForestPredictorBenchmark {
+
+    private static final int ROWS = RandomForestPredictorTest.ROWS;
+    private static final int BATCH = RandomForestPredictorTest.BATCH;
+
+    public static void main(String[] args) throws Exception {
+        File model;
+        if (args.length > 0) {
+            model = new File(args[0]);
+        } else {
+            model = File.createTempFile("rfdie", ".dat"); //$NON-NLS-1$ //$NON-NLS-2$
+            model.deleteOnExit();
+            RandomForestPredictorTest.writeRandomForest(model, 200, 14, 100, new Random(0));
+        }
+        ListPredictor reference = new ListPredictor(model);
+        RandomForestPredictor predictor = RandomForestPredictor.load(model, -1);
+        float[][] rows = RandomForestPredictorTest.randomRows(ROWS, reference.numFeatures, new Random(2));
+        List<List<Float>> lists = new ArrayList<>();
+        for (float[] row : rows) {
+            lists.add(RandomForestPredictorTest.toList(row));
+        }
+        double[] out = new double[BATCH];
+        float[][] batchRows = new float[BATCH][];
+        double sink = 0;
+        for (int round = 0; round < 5; round++) {
+            long t = System.nanoTime();
+            for (List<Float> l : lists) {
+                sink += reference.predict(l);
+            }
+            long listTime = System.nanoTime() - t;
+
+            t = System.nanoTime();
+            for (float[] row : rows) {
+                sink += predictor.predict(row);
+            }
+            long rowTime = System.nanoTime() - t;
+
+            t = System.nanoTime();
+            for (int r = 0; r < ROWS; r += BATCH) {
+                int n = Math.min(BATCH, ROWS - r);
+                System.arraycopy(rows, r, batchRows, 0, n);
+                predictor.predict(batchRows, n, out);
+                sink += out[0];
+            }
+            long batchTime = System.nanoTime() - t;
+
+            System.out.println(String.format(
+                    "Round %d: previous %.0f rows/s, single row %.0f rows/s, batches of %d %.0f rows/s (%.0f)", //$NON-NLS-1$
+                    round, ROWS * 1e9 / listTime, ROWS * 1e9 / rowTime, BATCH, ROWS * 1e9 / batchTime, sink));
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+package gpinf.die;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the flattened predictor returns exactly the predictions of the
+ * previous implementation, kept here as {@link ListPredictor}. A random forest
+ * with the shape of the DIE model is generated, unless the shipped model is
+ * given with -Ddie.model=models/rfdie.dat. Throughput is compared by
+ * {@link RandomForestPredictorBenchmark}.
+ */
+public class RandomForestPredictorTest {
+
+    static final int ROWS = 2000;
+    static final int BATCH = 16;
+
+    private File model;
+    private boolean tempModel;
+
+    @Before
+    public void setUp() throws IOException {
+        String path = System.getProperty("die.model"); //$NON-NLS-1$
+        if (path != null) {
+            model = new File(path);
+        } else {
+            model = File.createTempFile("rfdie", ".dat"); //$NON-NLS-1$ //$NON-NLS-2$
+            tempModel = true;
+            writeRandomForest(model, 200, 14, 100, new Random(0));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (tempModel) {
+            model.delete();
+        }
+    }
+
+    /**
+     * Writes a forest in the model file format: class bytes (none here), version,
+     * roots, nodes. Children of a node are stored next to each other.
+     */
+    static void writeRandomForest(File file, int trees, int depth, int features, Random random)
+            throws IOException {
+        List<int[]> nodes = new ArrayList<>();
+        List<Float> values = new ArrayList<>();
+        int[] roots = new int[trees];
+        for (int t = 0; t < trees; t++) {
+            roots[t] = nodes.size();
+            nodes.add(null);
+            values.add(null);
+            addNode(roots[t], depth, features, random, nodes, values);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(0);
+            out.writeInt(1);
+            out.writeInt(trees);
+            for (int root : roots) {
+                out.writeInt(root);
+            }
+            out.writeInt(nodes.size());
+            for (int i = 0; i < nodes.size(); i++) {
+                out.writeShort(nodes.get(i)[0]);
+                out.writeInt(nodes.get(i)[1]);
+                out.writeFloat(values.get(i));
+            }
+        }
+    }
+
+    private static void addNode(int pos, int depth, int features, Random random, List<int[]> nodes,
+            List<Float> values) {
+        if (depth == 0 || (depth < 10 && random.nextInt(4) == 0)) {
+            nodes.set(pos, new int[] { -1, 0 });
+            values.set(pos, random.nextFloat());
+            return;
+        }
+        int left = nodes.size();
+        nodes.set(pos, new int[] { random.nextInt(features), left });
+        values.set(pos, random.nextFloat());
+        nodes.add(null);
+        nodes.add(null);
+        values.add(null);
+        values.add(null);
+        addNode(left, depth - 1, features, random, nodes, values);
+        addNode(left + 1, depth - 1, features, random, nodes, values);
+    }
+
+    @Test
+    public void testSamePredictions() throws Exception {
+        ListPredictor reference = new ListPredictor(model);
+        RandomForestPredictor predictor = RandomForestPredictor.load(model, -1);
+        float[][] rows = randomRows(ROWS, reference.numFeatures, new Random(1));
+
+        double[] batch = new double[BATCH];
+        for (int r = 0; r < ROWS; r += BATCH) {
+            int n = Math.min(BATCH, ROWS - r);
+            float[][] batchRows = new float[n][];
+            System.arraycopy(rows, r, batchRows, 0, n);
+            predictor.predict(batchRows, n, batch);
+            for (int i = 0; i < n; i++) {
+                double expected = reference.predict(toList(rows[r + i]));
+                assertEquals(expected, predictor.predict(rows[r + i]), 0);
+                assertEquals(expected, predictor.predict(toList(rows[r + i])), 0);
+                assertEquals(expected, batch[i], 0);
+            }
+        }
+    }
+
+    static float[][] randomRows(int n, int features, Random random) {
+        float[][] rows = new float[n][features];
+        for (float[] row : rows) {
+            for (int i = 0; i < features; i++) {
+                row[i] = random.nextFloat();
+            }
+        }
+        return rows;
+    }
+
+    static List<Float> toList(float[] row) {
+        List<Float> l = new ArrayList<>(row.length);
+        for (float f : row) {
+            l.add(f);
+        }
+        return l;
+    }
+
+    /**
+     * Previous implementation of the predictor, used as reference.
+     */
+    static class ListPredictor {
+
+        private final int[] roots;
+        private final int[] nodeLeft;
+        private final short[] splitFeature;
+        private final float[] value;
+        int numFeatures;
+
+        ListPredictor(File file) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                in.skipBytes(in.readInt());
+                in.readInt();
+                roots = new int[in.readInt()];
+                for (int i = 0; i < roots.length; i++) {
+                    roots[i] = in.readInt();
+                }
+                int nodes = in.readInt();
+                nodeLeft = new int[nodes];
+                splitFeature = new short[nodes];
+                value = new float[nodes];
+                for (int i = 0; i < nodes; i++) {
+                    splitFeature[i] = in.readShort();
+                    nodeLeft[i] = in.readInt();
+                    value[i] = in.readFloat();
+                    numFeatures = Math.max(numFeatures, splitFeature[i] + 1);
+                }
+            }
+        }
+
+        double predict(List<Float> lFeatures) {
+            float[] features = new float[lFeatures.size()];
+            for (int i = 0; i < lFeatures.size(); i++) {
+                features[i] = lFeatures.get(i);
+            }
+            double ret = 0;
+            List<Double> l = new ArrayList<Double>();
+            for (int root : roots) {
+                l.add(classify(root, features));
+            }
+            Collections.sort(l);
+            int cnt = 0;
+            int border = (int) (l.size() * 0.07);
+            for (int i = border; i < l.size() - border; i++) {
+                ret += l.get(i);
+                cnt++;
+            }
+            return ret / cnt;
+        }
+
+        private double classify(int pos, float[] features) {
+            while (true) {
+                int sf = splitFeature[pos];
+                if (sf < 0) {
+                    return value[pos];
+                }
+                if (features[sf] < value[pos]) {
+                    pos = nodeLeft[pos];
+                } else {
+                    pos = nodeLeft[pos] + 1;
+                }
+            }
+        }
+    }
+
+}
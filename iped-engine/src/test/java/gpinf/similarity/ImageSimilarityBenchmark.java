@@ -0,0 +1,119 @@
+package gpinf.similarity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.BytesRef;
+
+import dpf.sp.gpinf.indexer.search.IPEDSource;
+import iped3.util.BasicProps;
+
+/**
+ * Compara a busca pelo {@link ImageSimilarityIndex} com o cálculo exato da
+ * distância para todas as imagens do caso (abordagem usada sem o índice),
+ * medindo a revocação dos K mais próximos e o tempo de cada busca.
+ *
+ * Ferramenta manual, fora dos testes unitários. Uso, com o classpath de testes:
+ * ImageSimilarityBenchmark caseDir [numQueries] [k]
+ */
+public class ImageSimilarityBenchmark {
+
+    private static final int MAX_DISTANCE_PER_FEATURE = 25;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: ImageSimilarityBenchmark caseDir [numQueries] [k]"); //$NON-NLS-1$
+            return;
+        }
+        File caseDir = new File(args[0]);
+        int numQueries = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int k = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        try (IPEDSource ipedCase = new IPEDSource(caseDir)) {
+            ImageSimilarityIndex index = ipedCase.getImageSimilarityIndex();
+            if (index == null) {
+                System.out.println("Creating image similarity index..."); //$NON-NLS-1$
+                long t = System.currentTimeMillis();
+                ImageSimilarityIndex.build(ipedCase);
+                System.out.println("Index created in " + (System.currentTimeMillis() - t) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$
+                index = ImageSimilarityIndex.open(ipedCase);
+                if (index == null) {
+                    System.out.println("No images with similarity features found."); //$NON-NLS-1$
+                    return;
+                }
+            }
+            try {
+                run(ipedCase, index, numQueries, k);
+            } finally {
+                index.close();
+            }
+        }
+    }
+
+    private static void run(IPEDSource ipedCase, ImageSimilarityIndex index, int numQueries, int k)
+            throws IOException {
+        LeafReader reader = ipedCase.getLeafReader();
+        List<Integer> docs = new ArrayList<>();
+        List<byte[]> vectors = new ArrayList<>();
+        BinaryDocValues values = reader.getBinaryDocValues(BasicProps.SIMILARITY_FEATURES);
+        for (int doc = 0; values != null && doc < reader.maxDoc(); doc++) {
+            BytesRef bytesRef = values.get(doc);
+            if (bytesRef != null && bytesRef.length > 0) {
+                docs.add(doc);
+                vectors.add(Arrays.copyOfRange(bytesRef.bytes, bytesRef.offset, bytesRef.offset + bytesRef.length));
+            }
+        }
+        System.out.println("Images: " + docs.size() + " indexed: " + index.size()); //$NON-NLS-1$ //$NON-NLS-2$
+        if (docs.isEmpty()) {
+            return;
+        }
+
+        Random random = new Random(0);
+        double recallSum = 0;
+        long exactNanos = 0, indexNanos = 0;
+        for (int q = 0; q < numQueries; q++) {
+            byte[] ref = vectors.get(random.nextInt(vectors.size()));
+            int maxDistance = MAX_DISTANCE_PER_FEATURE * ref.length;
+
+            long t = System.nanoTime();
+            long[] exact = new long[vectors.size()];
+            int n = 0;
+            for (int i = 0; i < vectors.size(); i++) {
+                int d = ImageSimilarity.distance(ref, vectors.get(i), maxDistance);
+                if (d < maxDistance) {
+                    exact[n++] = ((long) d << 32) | ipedCase.getId(docs.get(i));
+                }
+            }
+            Arrays.sort(exact, 0, n);
+            exactNanos += System.nanoTime() - t;
+
+            t = System.nanoTime();
+            ImageSimilarityIndex.Result result = index.search(ref, maxDistance, k);
+            indexNanos += System.nanoTime() - t;
+
+            int top = Math.min(k, n);
+            if (top == 0) {
+                recallSum += 1;
+                continue;
+            }
+            int found = 0;
+            for (int i = 0; i < top; i++) {
+                if (result.getDistance((int) exact[i]) >= 0) {
+                    found++;
+                }
+            }
+            recallSum += (double) found / top;
+        }
+
+        System.out.printf("Recall@%d: %.4f%n", k, recallSum / numQueries); //$NON-NLS-1$
+        System.out.printf("Exact search: %.2f ms/query%n", exactNanos / 1e6 / numQueries); //$NON-NLS-1$
+        System.out.printf("Index search: %.2f ms/query%n", indexNanos / 1e6 / numQueries); //$NON-NLS-1$
+    }
+
+}
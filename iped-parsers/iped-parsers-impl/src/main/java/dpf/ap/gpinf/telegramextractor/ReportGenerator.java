@@ -23,11 +23,16 @@
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import dpf.sp.gpinf.indexer.parsers.util.Messages;
 import iped3.io.IItemBase;
 import iped3.search.IItemSearcher;
+import iped3.util.BasicProps;
 
 public class ReportGenerator {
 
@@ -38,6 +43,7 @@ public class ReportGenerator {
     private IItemSearcher searcher;
     private boolean firstFragment = true;
     private int currentMsg = 0;
+    private Map<String, List<IItemBase>> mediaItems = new HashMap<>();
 
     ReportGenerator(IItemSearcher s) {
         this.searcher = s;
@@ -106,6 +112,8 @@ else if (c.getC().getUsername() != null)
             out.println("<div class=\"linha\"><div class=\"date\">" //$NON-NLS-1$
                     + Messages.getString("WhatsAppReport.ChatContinuation") + "</div></div>"); //$NON-NLS-1$ //$NON-NLS-2$
 
+        lookupMediaItems(c);
+
         String lastDate = null;
         while (currentMsg < c.getMessages().size()) {
             Message m = c.getMessages().get(currentMsg++);
@@ -131,12 +139,31 @@ else if (c.getC().getUsername() != null)
         return bout.toByteArray();
     }
 
+    /**
+     * Looks up in a single batch the media items of the remaining messages that
+     * have no thumbnail.
+     */
+    private void lookupMediaItems(Chat c) {
+        if (searcher == null) {
+            return;
+        }
+        Set<String> hashes = new HashSet<>();
+        for (int i = currentMsg; i < c.getMessages().size(); i++) {
+            Message m = c.getMessages().get(i);
+            if (m.getThumb() == null && m.getMediaHash() != null && !mediaItems.containsKey(m.getMediaHash())) {
+                hashes.add(m.getMediaHash());
+            }
+        }
+        if (!hashes.isEmpty()) {
+            mediaItems.putAll(searcher.lookup(BasicProps.HASH, hashes));
+        }
+    }
+
     private TagHtml getThumbTag(Message m, String classnotfound) {
         byte thumb[] = m.getThumb();
 
         if (thumb == null && m.getMediaHash() != null) {
-            List<IItemBase> result = null;
-            result = dpf.sp.gpinf.indexer.parsers.util.Util.getItems("hash:" + m.getMediaHash(), searcher);
+            List<IItemBase> result = mediaItems.get(m.getMediaHash());
             if (result != null && !result.isEmpty()) {
                 thumb = result.get(0).getThumb();
             }
@@ -408,12 +408,12 @@ private String getInternationalPhone(String id) {
     }
 
     private WAAccount getUserAccount(IItemSearcher searcher, String dbPath, boolean isAndroid) {
-        String query = BasicProps.NAME + ":";
+        String name;
         if (isAndroid)
-            query += "\"com.whatsapp_preferences.xml\"";
+            name = "com.whatsapp_preferences.xml"; //$NON-NLS-1$
         else
-            query += "\"group.net.whatsapp.WhatsApp.shared.plist\"";
-        List<IItemBase> result = searcher.search(query);
+            name = "group.net.whatsapp.WhatsApp.shared.plist"; //$NON-NLS-1$
+        List<IItemBase> result = searcher.lookup(BasicProps.NAME, name);
         IItemBase item = getBestItem(result, dbPath);
         if (item != null) {
             try (InputStream is = item.getBufferedStream()) {
@@ -591,21 +591,23 @@ private void storeLocations(List<Message> messages, Metadata metadata) {
 
     private void getAvatar(IItemSearcher searcher, WAContact contact) {
         if (searcher != null && contact.getAvatar() == null) {
-            List<IItemBase> result = searcher
-                    .search(BasicProps.NAME + ":\"" + escape(searcher, contact.getFullId()) + ".j\""); //$NON-NLS-1$ //$NON-NLS-2$
-            if (result.isEmpty()) {
-                if (contact.getAvatarPath() != null) {
-                    String avatarFileBase = contact.getAvatarPath();
-                    if (avatarFileBase.contains("/")) { //$NON-NLS-1$
-                        avatarFileBase = avatarFileBase.substring(avatarFileBase.lastIndexOf('/') + 1);
-                    }
-                    avatarFileBase = escape(searcher, avatarFileBase);
-                    // Try file .jpg
-                    result = searcher.search(BasicProps.NAME + ":\"" + avatarFileBase + ".jpg\""); //$NON-NLS-1$ //$NON-NLS-2$
-                    if (result.isEmpty()) {
-                        // Try file .thumb
-                        result = searcher.search(BasicProps.NAME + ":\"" + avatarFileBase + ".thumb\""); //$NON-NLS-1$ //$NON-NLS-2$
-                    }
+            // file .j, then .jpg and .thumb, looked up in a single batch
+            List<String> names = new ArrayList<>();
+            names.add(contact.getFullId() + ".j"); //$NON-NLS-1$
+            if (contact.getAvatarPath() != null) {
+                String avatarFileBase = contact.getAvatarPath();
+                if (avatarFileBase.contains("/")) { //$NON-NLS-1$
+                    avatarFileBase = avatarFileBase.substring(avatarFileBase.lastIndexOf('/') + 1);
+                }
+                names.add(avatarFileBase + ".jpg"); //$NON-NLS-1$
+                names.add(avatarFileBase + ".thumb"); //$NON-NLS-1$
+            }
+            Map<String, List<IItemBase>> avatars = searcher.lookup(BasicProps.NAME, names);
+            List<IItemBase> result = Collections.emptyList();
+            for (String name : names) {
+                result = avatars.get(name);
+                if (!result.isEmpty()) {
+                    break;
                 }
             }
             if (result.isEmpty()) {
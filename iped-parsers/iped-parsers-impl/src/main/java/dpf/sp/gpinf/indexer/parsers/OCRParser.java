@@ -29,19 +29,26 @@
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.imageio.ImageIO;
@@ -68,8 +75,8 @@
 import dpf.sp.gpinf.indexer.parsers.util.ItemInfo;
 import dpf.sp.gpinf.indexer.parsers.util.OCROutputFolder;
 import dpf.sp.gpinf.indexer.parsers.util.PDFToImage;
+import dpf.sp.gpinf.indexer.parsers.util.TesseractWorkerPool;
 import dpf.sp.gpinf.indexer.util.HashValue;
-import dpf.sp.gpinf.indexer.util.IOUtil;
 
 /**
  * Parser OCR para imagens e PDFs via Tesseract. No caso de PDFs, é gerada uma
@@ -77,6 +84,10 @@
  * alguns softwares de digitalização geram várias imagens por página e algumas
  * linhas de texto são cortadas pelas bordas das imagens.
  * 
+ * As imagens são processadas por um pool de workers compartilhado, que agrupa
+ * as imagens em espera em uma única execução do Tesseract. Os resultados são
+ * gravados de forma assíncrona e em lotes no banco de resultados de OCR.
+ * 
  * @author Nassif
  *
  */
@@ -89,8 +100,6 @@ public class OCRParser extends AbstractParser {
 
     private static Logger LOGGER;
 
-    private static final String OUTPUT_REGEX = "Tesseract Open Source OCR Engine v.* with Leptonica"; //$NON-NLS-1$
-
     public static final String OCR_CHAR_COUNT = "ocrCharCount"; //$NON-NLS-1$
 
     private static final String TOOL_NAME = "tesseract"; //$NON-NLS-1$
@@ -113,6 +122,9 @@ public class OCRParser extends AbstractParser {
     public static final String PAGE_SEGMODE_PROP = "ocr.pageSegMode"; //$NON-NLS-1$
     public static final String MIN_SIZE_PROP = "ocr.minFileSize"; //$NON-NLS-1$
     public static final String MAX_SIZE_PROP = "ocr.maxFileSize"; //$NON-NLS-1$
+    public static final String MAX_BATCH_PROP = "ocr.maxBatchSize"; //$NON-NLS-1$
+    public static final String NUM_WORKERS_PROP = "ocr.numWorkers"; //$NON-NLS-1$
+    public static final String TIMEOUT_PROP = "ocr.timeoutPerImage"; //$NON-NLS-1$
     public static final String SUBSET_TO_OCR = "subsetToOcr"; //$NON-NLS-1$
     public static final String SUBSET_SEPARATOR = "_#_"; //$NON-NLS-1$
     public static final String TEXT_DIR = "text"; //$NON-NLS-1$
@@ -123,13 +135,21 @@ public class OCRParser extends AbstractParser {
     private String PAGESEGMODE = System.getProperty(PAGE_SEGMODE_PROP, "1"); //$NON-NLS-1$
     private int MIN_SIZE = Integer.valueOf(System.getProperty(MIN_SIZE_PROP, "10000")); //$NON-NLS-1$
     private long MAX_SIZE = Integer.valueOf(System.getProperty(MAX_SIZE_PROP, "100000000")); //$NON-NLS-1$
+    private int MAX_BATCH = Integer.valueOf(System.getProperty(MAX_BATCH_PROP, "8")); //$NON-NLS-1$
+    private int NUM_WORKERS = Integer
+            .valueOf(System.getProperty(NUM_WORKERS_PROP, String.valueOf(Runtime.getRuntime().availableProcessors())));
+    private int TIMEOUT = Integer.valueOf(System.getProperty(TIMEOUT_PROP, "180")); //$NON-NLS-1$
     private List<String> bookmarksToOCR = Arrays
             .asList(System.getProperty(SUBSET_TO_OCR, SUBSET_SEPARATOR).split(SUBSET_SEPARATOR)); // $NON-NLS-1$;
 
     private static AtomicBoolean checked = new AtomicBoolean();
     private static String tessVersion = "";
 
-    private static HashMap<File, Connection> connMap = new HashMap<>();
+    private static HashMap<File, OcrStore> storeMap = new HashMap<>();
+
+    private static TesseractWorkerPool workerPool;
+
+    private static ScheduledExecutorService flushExecutor;
 
     // Root folder to store ocr results
     private File outputBase;
@@ -166,7 +186,7 @@ public OCRParser() {
         if (!TOOL_PATH.isEmpty())
             tesseractPath = TOOL_PATH + "/" + TOOL_NAME; //$NON-NLS-1$ //$NON-NLS-2$
 
-        String[] cmd = { tesseractPath, INPUT_FILE_TOKEN, OUTPUT_FILE_TOKEN, "-l", LANGUAGE, "-psm", PAGESEGMODE }; //$NON-NLS-1$ //$NON-NLS-2$
+        String[] cmd = { tesseractPath, "-l", LANGUAGE, "-psm", PAGESEGMODE }; //$NON-NLS-1$ //$NON-NLS-2$
         this.command = cmd;
 
         try {
@@ -189,27 +209,14 @@ public OCRParser() {
     }
 
     /**
-     * The token, which if present in the Command string, will be replaced with the
-     * input filename. Alternately, the input data can be streamed over STDIN.
-     */
-    private static final String INPUT_FILE_TOKEN = "${INPUT}"; //$NON-NLS-1$
-    /**
-     * The token, which if present in the Command string, will be replaced with the
-     * output filename. Alternately, the output data can be collected on STDOUT.
-     */
-    private static final String OUTPUT_FILE_TOKEN = "${OUTPUT}"; //$NON-NLS-1$
-
-    /**
-     * The external command to invoke.
+     * The external command to invoke, without input and output files.
      * 
-     * @see Runtime#exec(String[])
+     * @see TesseractWorkerPool
      */
     private String[] command;
 
     private Random random = new Random();
 
-    private String filePath = "";
-
     private boolean isFromBookmarkToOCR(ItemInfo ocrContext) {
 
         if (bookmarksToOCR.size() == 0)
@@ -227,28 +234,191 @@ private boolean isFromBookmarkToOCR(ItemInfo ocrContext) {
         return false;
     }
 
-    private static synchronized Connection getConnection(File outputBase) {
+    private TesseractWorkerPool getWorkerPool() {
+        synchronized (OCRParser.class) {
+            if (workerPool == null) {
+                workerPool = new TesseractWorkerPool(command, NUM_WORKERS, MAX_BATCH, TIMEOUT * 1000L);
+            }
+            return workerPool;
+        }
+    }
+
+    private static synchronized OcrStore getStore(File outputBase) {
         File db = new File(outputBase, OCR_STORAGE);
-        Connection conn = connMap.get(db);
-        if (conn != null) {
-            return conn;
+        OcrStore store = storeMap.get(db);
+        if (store != null) {
+            return store;
         }
         db.getParentFile().mkdirs();
         try {
             SQLiteConfig config = new SQLiteConfig();
             config.setPragma(Pragma.SYNCHRONOUS, "0");
             config.setBusyTimeout(3600000);
-            conn = config.createConnection("jdbc:sqlite:" + db.getAbsolutePath());
-            connMap.put(db, conn);
+            Connection conn = config.createConnection("jdbc:sqlite:" + db.getAbsolutePath());
 
             try (Statement stmt = conn.createStatement()) {
                 stmt.executeUpdate(CREATE_TABLE);
             }
+            store = new OcrStore(conn);
+            storeMap.put(db, store);
 
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
-        return conn;
+        if (flushExecutor == null) {
+            flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "OCR results writer"); //$NON-NLS-1$
+                t.setDaemon(true);
+                return t;
+            });
+            flushExecutor.scheduleWithFixedDelay(OCRParser::flushStores, 2, 2, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(OCRParser::flushStores));
+        }
+        return store;
+    }
+
+    private static void flushStores() {
+        List<OcrStore> stores;
+        synchronized (OCRParser.class) {
+            stores = new ArrayList<>(storeMap.values());
+        }
+        for (OcrStore store : stores) {
+            store.flushQuietly();
+        }
+    }
+
+    /**
+     * Grava os resultados de OCR pendentes e encerra o pool de workers, que é
+     * recriado se houver novo OCR.
+     *
+     * @throws IOException
+     *             se algum resultado pendente não pôde ser gravado.
+     */
+    public static void shutdown() throws IOException {
+        synchronized (OCRParser.class) {
+            if (workerPool != null) {
+                workerPool.logStats();
+                workerPool.close();
+                workerPool = null;
+            }
+        }
+        List<OcrStore> stores;
+        synchronized (OCRParser.class) {
+            stores = new ArrayList<>(storeMap.values());
+        }
+        for (OcrStore store : stores) {
+            try {
+                store.flush();
+            } catch (SQLException e) {
+                throw new IOException("Error storing OCR results", e); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * Banco de resultados de OCR com gravação assíncrona em lotes. Resultados
+     * ainda não gravados são consultados em memória.
+     */
+    private static class OcrStore {
+
+        private static final int FLUSH_SIZE = 1000;
+
+        private final Connection conn;
+        private Map<String, String> pending = new HashMap<>();
+        private Map<String, String> flushing = Collections.emptyMap();
+        private final Object flushLock = new Object();
+
+        OcrStore(Connection conn) {
+            this.conn = conn;
+        }
+
+        String get(String id) throws SQLException {
+            synchronized (this) {
+                String text = pending.get(id);
+                if (text == null) {
+                    text = flushing.get(id);
+                }
+                if (text != null) {
+                    return text;
+                }
+            }
+            synchronized (conn) {
+                try (PreparedStatement ps = conn.prepareStatement(SELECT_EXACT)) {
+                    ps.setString(1, id);
+                    ResultSet rs = ps.executeQuery();
+                    if (rs.next()) {
+                        return rs.getString(1);
+                    }
+                }
+            }
+            return null;
+        }
+
+        void put(String id, String text) {
+            boolean flush;
+            synchronized (this) {
+                pending.putIfAbsent(id, text);
+                flush = pending.size() >= FLUSH_SIZE;
+            }
+            if (flush) {
+                flushExecutor.execute(this::flushQuietly);
+            }
+        }
+
+        void flushQuietly() {
+            try {
+                flush();
+            } catch (SQLException e) {
+                LoggerFactory.getLogger(OCRParser.class).warn("Error storing OCR results, will retry", e); //$NON-NLS-1$
+            }
+        }
+
+        private void flush() throws SQLException {
+            synchronized (flushLock) {
+                Map<String, String> batch;
+                synchronized (this) {
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    batch = pending;
+                    flushing = batch;
+                    pending = new HashMap<>();
+                }
+                boolean stored = false;
+                try {
+                    synchronized (conn) {
+                        conn.setAutoCommit(false);
+                        try (PreparedStatement ps = conn.prepareStatement(INSERT_DATA)) {
+                            for (Map.Entry<String, String> entry : batch.entrySet()) {
+                                ps.setString(1, entry.getKey());
+                                ps.setString(2, entry.getValue());
+                                ps.addBatch();
+                            }
+                            ps.executeBatch();
+                            conn.commit();
+                            stored = true;
+
+                        } catch (SQLException e) {
+                            conn.rollback();
+                            throw e;
+
+                        } finally {
+                            conn.setAutoCommit(true);
+                        }
+                    }
+                } finally {
+                    synchronized (this) {
+                        if (!stored) {
+                            // volta para os pendentes, para ser gravado na próxima tentativa
+                            for (Map.Entry<String, String> entry : batch.entrySet()) {
+                                pending.putIfAbsent(entry.getKey(), entry.getValue());
+                            }
+                        }
+                        flushing = Collections.emptyMap();
+                    }
+                }
+            }
+        }
     }
 
     /**
@@ -275,7 +445,6 @@ public void parse(InputStream stream, ContentHandler handler, Metadata metadata,
             if (metadata.get(Metadata.CONTENT_LENGTH) != null)
                 size = Long.parseLong(metadata.get(Metadata.CONTENT_LENGTH));
             ItemInfo itemInfo = context.get(ItemInfo.class);
-            filePath = itemInfo.getPath();
 
             OCROutputFolder outDir = context.get(OCROutputFolder.class);
             if (outDir != null)
@@ -337,26 +506,15 @@ else if (mediaType.equals("image/tiff")) //$NON-NLS-1$
     }
 
     private static String getOcrTextFromDb(String id, File outputBase) throws IOException {
-        try (PreparedStatement ps = getConnection(outputBase).prepareStatement(SELECT_EXACT)) {
-            ps.setString(1, id);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                return rs.getString(1);
-            }
+        try {
+            return getStore(outputBase).get(id);
         } catch (SQLException e) {
             throw new IOException(e);
         }
-        return null;
     }
 
     private static void storeOcrTextInDb(String id, String ocrText, File outputBase) throws IOException {
-        try (PreparedStatement ps = getConnection(outputBase).prepareStatement(INSERT_DATA)) {
-            ps.setString(1, id);
-            ps.setString(2, ocrText);
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            throw new IOException(e);
-        }
+        getStore(outputBase).put(id, ocrText);
     }
 
     public static void copyOcrResults(String hash, File inputBase, File outputBase) throws IOException {
@@ -364,16 +522,19 @@ public static void copyOcrResults(String hash, File inputBase, File outputBase)
         File targetDb = new File(outputBase, OCRParser.TEXT_DIR + File.separator + OCRParser.OCR_STORAGE);
         if (!sourceDb.exists())
             return;
-        try (PreparedStatement ps = getConnection(sourceDb.getParentFile()).prepareStatement(SELECT_ALL)) {
-            ps.setString(1, hash + "%"); //$NON-NLS-1$
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                String id = rs.getString(1);
-                String ocrText = rs.getString(2);
-                storeOcrTextInDb(id, ocrText, targetDb.getParentFile());
+        OcrStore source = getStore(sourceDb.getParentFile());
+        synchronized (source.conn) {
+            try (PreparedStatement ps = source.conn.prepareStatement(SELECT_ALL)) {
+                ps.setString(1, hash + "%"); //$NON-NLS-1$
+                ResultSet rs = ps.executeQuery();
+                while (rs.next()) {
+                    String id = rs.getString(1);
+                    String ocrText = rs.getString(2);
+                    storeOcrTextInDb(id, ocrText, targetDb.getParentFile());
+                }
+            } catch (SQLException e) {
+                throw new IOException(e);
             }
-        } catch (SQLException e) {
-            throw new IOException(e);
         }
 
     }
@@ -409,6 +570,7 @@ private void parseTiff(XHTMLContentHandler xhtml, TemporaryResources tmp, File i
             throws IOException, SAXException, TikaException {
 
         ImageReader reader = null;
+        List<File> images = new ArrayList<>();
         try (ImageInputStream iis = ImageIO.createImageInputStream(input)) {
             reader = ImageIO.getImageReaders(iis).next();
             reader.setInput(iis, false, true);
@@ -430,24 +592,24 @@ private void parseTiff(XHTMLContentHandler xhtml, TemporaryResources tmp, File i
                         image = getCompatibleImage(image);
                         imageFile = File.createTempFile("iped-ocr", "." + PDFToImage.EXT); //$NON-NLS-1$ //$NON-NLS-2$
                         ImageIO.write(image, PDFToImage.EXT, imageFile);
-                        File imageText = new File(imageFile.getAbsolutePath() + ".txt"); //$NON-NLS-1$
-                        parse(xhtml, imageFile, imageText);
-                        if (imageText.exists()) {
-                            if (outputBase != null)
-                                IOUtil.copiaArquivo(imageText, output, true);
-                            imageText.delete();
-                        }
+                        images.add(imageFile);
+                        imageFile = null;
                     } catch (IOException e) {
                         // ignore and try next page
                     } finally {
                         if (imageFile != null)
                             imageFile.delete();
                     }
+                    if (images.size() >= MAX_BATCH)
+                        parsePages(xhtml, images, output);
                 }
+                parsePages(xhtml, images, output);
             } else
                 parse(xhtml, input, output);
 
         } finally {
+            for (File image : images)
+                image.delete();
             if (reader != null)
                 reader.dispose();
         }
@@ -457,28 +619,26 @@ private void parsePDF(XHTMLContentHandler xhtml, TemporaryResources tmp, File in
             throws IOException, SAXException, TikaException {
 
         PDFToImage pdfConverter = new PDFToImage();
+        List<File> images = new ArrayList<>();
         try {
             pdfConverter.load(input);
             for (int page = 0; page < pdfConverter.getNumPages(); page++) {
-                File imageFile = null;
-                try {
-                    imageFile = File.createTempFile("iped-ocr", "." + PDFToImage.EXT); //$NON-NLS-1$ //$NON-NLS-2$
-                    boolean success = pdfConverter.convert(page, imageFile);
-                    if (!success || !imageFile.exists())
-                        continue;
-                    File imageText = new File(imageFile.getAbsolutePath() + ".txt"); //$NON-NLS-1$
-                    parse(xhtml, imageFile, imageText);
-                    if (imageText.exists()) {
-                        if (outputBase != null)
-                            IOUtil.copiaArquivo(imageText, output, true);
-                        imageText.delete();
-                    }
-                } finally {
-                    if (imageFile != null)
-                        imageFile.delete();
+                File imageFile = File.createTempFile("iped-ocr", "." + PDFToImage.EXT); //$NON-NLS-1$ //$NON-NLS-2$
+                boolean success = pdfConverter.convert(page, imageFile);
+                if (!success || !imageFile.exists()) {
+                    imageFile.delete();
+                    continue;
                 }
+                images.add(imageFile);
+                // pages are submitted together to be OCRed in the same batch
+                if (images.size() >= MAX_BATCH)
+                    parsePages(xhtml, images, output);
             }
+            parsePages(xhtml, images, output);
+
         } finally {
+            for (File image : images)
+                image.delete();
             pdfConverter.close();
         }
     }
@@ -519,47 +679,52 @@ private void parsePDF(XHTMLContentHandler xhtml, TemporaryResources tmp, File in
     private void parse(XHTMLContentHandler xhtml, File input, File output)
             throws IOException, SAXException, TikaException {
 
-        // Build our command
-        String[] cmd = new String[command.length];
-        System.arraycopy(command, 0, cmd, 0, command.length);
-        for (int i = 0; i < cmd.length; i++) {
-            if (cmd[i].indexOf(INPUT_FILE_TOKEN) != -1) {
-                cmd[i] = cmd[i].replace(INPUT_FILE_TOKEN, input.getPath());
-            }
-            if (cmd[i].indexOf(OUTPUT_FILE_TOKEN) != -1) {
-                String outputPrefix = output.getPath().substring(0, output.getPath().length() - 4);
-                cmd[i] = cmd[i].replace(OUTPUT_FILE_TOKEN, outputPrefix);
-            }
-        }
-
-        ProcessBuilder pb = new ProcessBuilder(cmd);
-        Map<String, String> env = pb.environment();
-        // try to disable OpenMP
-        env.put("OMP_THREAD_LIMIT", "1"); //$NON-NLS-1$ //$NON-NLS-2$
-
-        Process process = pb.start();
-
-        process.getOutputStream().close();
+        String text = ocr(Collections.singletonList(input)).get(0);
+        if (text == null)
+            throw new TikaException("OCR not completed (timeout)"); //$NON-NLS-1$
+        Files.write(output.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        xhtml.characters(text);
+    }
 
-        InputStream out = process.getInputStream();
-        InputStream err = process.getErrorStream();
+    /**
+     * OCRs the page images, appending their texts in page order, and deletes the
+     * images.
+     */
+    private void parsePages(XHTMLContentHandler xhtml, List<File> images, File output)
+            throws IOException, SAXException, TikaException {
 
-        logStream("OCR MSG", out); //$NON-NLS-1$
-        logStream("OCR ERROR", err); //$NON-NLS-1$
+        if (images.isEmpty())
+            return;
+        try {
+            boolean incomplete = false;
+            for (String text : ocr(images)) {
+                if (text == null) {
+                    incomplete = true;
+                    continue;
+                }
+                xhtml.characters(text);
+                if (outputBase != null)
+                    Files.write(output.toPath(), ("\n" + text).getBytes(StandardCharsets.UTF_8), //$NON-NLS-1$
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            // partial texts are not stored as results, so the pages are OCRed again later
+            if (incomplete)
+                throw new TikaException("OCR not completed (timeout) for some pages"); //$NON-NLS-1$
+        } finally {
+            for (File image : images)
+                image.delete();
+            images.clear();
+        }
+    }
 
+    private List<String> ocr(List<File> images) throws TikaException {
         try {
-            process.waitFor();
+            return getWorkerPool().ocr(images);
+
         } catch (InterruptedException e) {
-            // System.out.println(new Date() + "\t[AVISO]\t" +
-            // "Interrompendo OCRParsing of " + input.getPath());
-            process.destroyForcibly();
             Thread.currentThread().interrupt();
             throw new TikaException(this.getClass().getSimpleName() + " interrupted", e); //$NON-NLS-1$
-
         }
-        if (output.exists())
-            extractOutput(new FileInputStream(output), xhtml);
-
     }
 
     /**
@@ -590,40 +755,6 @@ private void extractOutput(InputStream stream, XHTMLContentHandler xhtml) throws
         }
     }
 
-    // Object msgLock = new Object();
-
-    /**
-     * 
-     * @param process
-     *            process
-     * @param stream
-     *            input stream
-     */
-    private void logStream(final String logType, final InputStream stream) {
-        new Thread() {
-            @Override
-            public void run() {
-                Reader reader = new InputStreamReader(stream);
-                StringBuilder out = new StringBuilder();
-                char[] buffer = new char[1024];
-                try {
-                    for (int n = reader.read(buffer); n != -1; n = reader.read(buffer))
-                        out.append(buffer, 0, n);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                } finally {
-                    IOUtils.closeQuietly(stream);
-                }
-
-                String msg = out.toString().replaceAll(OUTPUT_REGEX, "").replaceAll("\r?\n", " ").trim();
-                if (!msg.isEmpty())
-                    LOGGER.debug("OCR msg from " + filePath + "\t" + msg);
-
-                return;
-            }
-        }.start();
-    }
-
     public static String checkVersion(String... checkCmd) throws IOException, InterruptedException {
         Process process = Runtime.getRuntime().exec(checkCmd);
         int result = process.waitFor();
@@ -115,8 +115,7 @@ private File exportWalLog(File dbFile, ParseContext context) {
             IItemBase dbItem = context.get(IItemBase.class);
             if (dbItem != null) {
                 String dbPath = dbItem.getPath();
-                String walQuery = BasicProps.PATH + ":\"" + searcher.escapeQuery(dbPath + "-wal") + "\"";
-                List<IItemBase> items = searcher.search(walQuery);
+                List<IItemBase> items = searcher.lookup(BasicProps.PATH, dbPath + "-wal"); //$NON-NLS-1$
                 if (items.size() > 0) {
                     IItemBase wal = items.get(0);
                     File walTemp = new File(dbFile.getAbsolutePath() + "-wal");
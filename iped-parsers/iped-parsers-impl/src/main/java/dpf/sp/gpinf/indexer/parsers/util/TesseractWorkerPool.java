@@ -0,0 +1,406 @@
+package dpf.sp.gpinf.indexer.parsers.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of OCR workers shared by all parsing threads. Images submitted by the
+ * parsers wait in a bounded queue and each worker takes the images waiting
+ * there, up to a maximum count and total size, and runs a single tesseract
+ * process over all of them using an image list file. So the process startup and
+ * the language model loading are paid once per batch, instead of once per
+ * image or PDF page. Batches only group images already waiting, so no latency
+ * is added when the workers are idle.
+ *
+ * If a batch fails or its output does not have one page per image, its images
+ * are processed again one by one.
+ *
+ * A tesseract process is killed if it exceeds the timeout for its images or if
+ * all the parsers waiting for its images gave up (e.g. interrupted by the
+ * parsing timeout), so hung processes do not block the workers. Images whose
+ * process was killed get no text (null), so callers can tell them apart from
+ * images where tesseract found no text and do not store them as final results.
+ */
+public class TesseractWorkerPool {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(TesseractWorkerPool.class);
+
+    private static final int MAX_BATCH_BYTES = 16 << 20;
+
+    private static final long CANCEL_CHECK_MILLIS = 500;
+
+    private static final String PAGE_SEPARATOR = "\f"; //$NON-NLS-1$
+
+    private static final String OUTPUT_REGEX = "Tesseract Open Source OCR Engine v.* with Leptonica"; //$NON-NLS-1$
+
+    private final String[] command;
+    private final int maxBatchSize;
+    private final long timeoutPerImageMillis;
+    private final BlockingQueue<Job> queue;
+    private final Thread[] workers;
+
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong processes = new AtomicLong();
+    private final AtomicLong retriedBatches = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong killedCanceled = new AtomicLong();
+    private final AtomicLong dequeuedJobs = new AtomicLong();
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+    private final AtomicLong ocrNanos = new AtomicLong();
+    private volatile long firstJobTime = 0;
+    private volatile long lastJobTime = 0;
+
+    /**
+     * Thrown when a tesseract process is killed by timeout or cancellation.
+     */
+    private static class KilledException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        KilledException(String message) {
+            super(message);
+        }
+    }
+
+    private static class Job {
+
+        final File image;
+        final long length;
+        final long enqueueTime = System.nanoTime();
+        String text;
+        boolean done, canceled;
+
+        Job(File image) {
+            this.image = image;
+            this.length = image.length();
+        }
+
+        synchronized void complete(String text) {
+            this.text = text;
+            this.done = true;
+            notifyAll();
+        }
+
+        synchronized String await() throws InterruptedException {
+            while (!done) {
+                wait();
+            }
+            return text;
+        }
+
+        synchronized void cancel() {
+            canceled = true;
+        }
+
+        synchronized boolean isCanceled() {
+            return canceled;
+        }
+
+        synchronized boolean isDone() {
+            return done;
+        }
+    }
+
+    /**
+     * @param command
+     *            tesseract executable followed by its options (language, page
+     *            segmentation mode); input and output are inserted after the
+     *            executable.
+     * @param timeoutPerImageMillis
+     *            maximum time of a tesseract process, per image it processes, or 0
+     *            for no timeout.
+     */
+    public TesseractWorkerPool(String[] command, int numWorkers, int maxBatchSize, long timeoutPerImageMillis) {
+        this.command = command;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.timeoutPerImageMillis = timeoutPerImageMillis;
+        this.queue = new ArrayBlockingQueue<>(numWorkers * this.maxBatchSize * 2);
+        this.workers = new Thread[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            workers[i] = new Thread("OCR Worker-" + i) { //$NON-NLS-1$
+                @Override
+                public void run() {
+                    processBatches();
+                }
+            };
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * OCRs the image, waiting for the result.
+     *
+     * @return the recognized text, empty if tesseract failed, or null if it was
+     *         killed by timeout or the pool was closed.
+     */
+    public String ocr(File image) throws InterruptedException {
+        return ocr(Collections.singletonList(image)).get(0);
+    }
+
+    /**
+     * OCRs the images, possibly in the same batch, waiting for the results.
+     *
+     * @return the recognized texts, in the order of the images, null for images
+     *         not processed (see {@link #ocr(File)}).
+     */
+    public List<String> ocr(List<File> images) throws InterruptedException {
+        List<Job> jobs = new ArrayList<>(images.size());
+        for (File image : images) {
+            Job job = new Job(image);
+            jobs.add(job);
+            queue.put(job);
+        }
+        List<String> texts = new ArrayList<>(jobs.size());
+        try {
+            for (Job job : jobs) {
+                texts.add(job.await());
+            }
+        } catch (InterruptedException e) {
+            for (Job job : jobs) {
+                job.cancel();
+            }
+            throw e;
+        }
+        return texts;
+    }
+
+    private void processBatches() {
+        List<Job> batch = new ArrayList<>();
+        while (true) {
+            batch.clear();
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            long bytes = batch.get(0).length;
+            while (batch.size() < maxBatchSize && bytes < MAX_BATCH_BYTES) {
+                Job next = queue.poll();
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+                bytes += next.length;
+            }
+            long start = System.nanoTime();
+            if (firstJobTime == 0) {
+                firstJobTime = start;
+            }
+            List<Job> jobs = new ArrayList<>(batch.size());
+            for (Job job : batch) {
+                dequeuedJobs.incrementAndGet();
+                queueWaitNanos.addAndGet(start - job.enqueueTime);
+                if (job.isCanceled()) {
+                    job.complete(null);
+                } else {
+                    jobs.add(job);
+                }
+            }
+            try {
+                process(jobs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                LOGGER.warn("Error running OCR", e); //$NON-NLS-1$
+            } finally {
+                for (Job job : jobs) {
+                    if (!job.isDone()) {
+                        job.complete(null);
+                    }
+                }
+            }
+            lastJobTime = System.nanoTime();
+            ocrNanos.addAndGet(lastJobTime - start);
+        }
+    }
+
+    private void process(List<Job> jobs) throws IOException, InterruptedException {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        batches.incrementAndGet();
+        if (jobs.size() > 1) {
+            List<String> texts = runBatch(jobs);
+            if (texts != null) {
+                pages.addAndGet(jobs.size());
+                for (int i = 0; i < jobs.size(); i++) {
+                    jobs.get(i).complete(texts.get(i));
+                }
+                return;
+            }
+            retriedBatches.incrementAndGet();
+        }
+        for (Job job : jobs) {
+            if (!job.isCanceled()) {
+                try {
+                    String text = run(job.image, Collections.singletonList(job));
+                    pages.incrementAndGet();
+                    job.complete(text != null ? text : ""); //$NON-NLS-1$
+
+                } catch (KilledException e) {
+                    job.complete(null);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return texts of the images, or null if the batch failed.
+     */
+    private List<String> runBatch(List<Job> jobs) throws IOException, InterruptedException {
+        File list = File.createTempFile("iped-ocr", ".list"); //$NON-NLS-1$ //$NON-NLS-2$
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (Job job : jobs) {
+                sb.append(job.image.getAbsolutePath()).append('\n');
+            }
+            Files.write(list.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+            String text;
+            try {
+                text = run(list, jobs);
+            } catch (KilledException e) {
+                // images are processed again one by one, each with its own timeout
+                return null;
+            }
+            if (text == null) {
+                return null;
+            }
+            // tesseract ends each page with a form feed
+            if (text.endsWith(PAGE_SEPARATOR)) {
+                text = text.substring(0, text.length() - 1);
+            }
+            List<String> texts = Arrays.asList(text.split(PAGE_SEPARATOR, -1));
+            if (texts.size() != jobs.size()) {
+                LOGGER.debug("OCR batch returned {} pages for {} images", texts.size(), jobs.size()); //$NON-NLS-1$
+                return null;
+            }
+            return texts;
+
+        } finally {
+            list.delete();
+        }
+    }
+
+    /**
+     * Runs tesseract over an image or image list. The process is killed on
+     * timeout or when all its jobs are canceled.
+     *
+     * @return the output text, or null if tesseract failed.
+     * @throws KilledException
+     *             if the process was killed by timeout or cancellation.
+     */
+    private String run(File input, List<Job> jobs) throws IOException, InterruptedException {
+        File output = File.createTempFile("iped-ocr", ".txt"); //$NON-NLS-1$ //$NON-NLS-2$
+        // messages go to a file, so waiting for the process does not depend on reading its output
+        File log = File.createTempFile("iped-ocr", ".log"); //$NON-NLS-1$ //$NON-NLS-2$
+        try {
+            String outputPrefix = output.getPath().substring(0, output.getPath().length() - 4);
+            List<String> cmd = new ArrayList<>();
+            cmd.add(command[0]);
+            cmd.add(input.getPath());
+            cmd.add(outputPrefix);
+            cmd.addAll(Arrays.asList(command).subList(1, command.length));
+
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            // try to disable OpenMP
+            pb.environment().put("OMP_THREAD_LIMIT", "1"); //$NON-NLS-1$ //$NON-NLS-2$
+            pb.redirectErrorStream(true);
+            pb.redirectOutput(log);
+            Process process = pb.start();
+            processes.incrementAndGet();
+            process.getOutputStream().close();
+
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutPerImageMillis * jobs.size());
+            try {
+                while (!process.waitFor(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (allCanceled(jobs)) {
+                        killedCanceled.incrementAndGet();
+                        kill(process);
+                        throw new KilledException("OCR canceled on " + input.getPath()); //$NON-NLS-1$
+                    }
+                    if (timeoutPerImageMillis > 0 && System.nanoTime() - deadline > 0) {
+                        timeouts.incrementAndGet();
+                        LOGGER.warn("Timeout running OCR on " + input.getPath()); //$NON-NLS-1$
+                        kill(process);
+                        throw new KilledException("OCR timeout on " + input.getPath()); //$NON-NLS-1$
+                    }
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                throw e;
+            }
+            int exitCode = process.exitValue();
+            String msg = new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8);
+            msg = msg.replaceAll(OUTPUT_REGEX, "").replaceAll("\r?\n", " ").trim(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            if (!msg.isEmpty()) {
+                LOGGER.debug("OCR msg from " + input.getPath() + "\t" + msg); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            if (exitCode != 0 || !output.exists()) {
+                return null;
+            }
+            return new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8);
+
+        } finally {
+            output.delete();
+            log.delete();
+        }
+    }
+
+    private static boolean allCanceled(List<Job> jobs) {
+        for (Job job : jobs) {
+            if (!job.isCanceled()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void kill(Process process) throws InterruptedException {
+        // waits a little, so the temp files are released before being deleted
+        process.destroyForcibly().waitFor(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the workers. Jobs still queued are completed without text.
+     */
+    public void close() {
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        Job job;
+        while ((job = queue.poll()) != null) {
+            job.complete(null);
+        }
+    }
+
+    public void logStats() {
+        long numPages = pages.get();
+        if (numPages == 0) {
+            return;
+        }
+        long numBatches = batches.get();
+        double elapsed = Math.max(1, lastJobTime - firstJobTime) / 1e9;
+        LOGGER.info("OCR pages: {}\tBatches: {}\tProcesses: {}\tRetried batches: {}\tTimeouts: {}\t" //$NON-NLS-1$
+                + "Killed canceled: {}\tPages/s: {}\tPages/s per worker: {}\tAverage queue wait: {} ms", //$NON-NLS-1$
+                numPages, numBatches, processes.get(), retriedBatches.get(), timeouts.get(), killedCanceled.get(),
+                String.format("%.2f", numPages / elapsed), //$NON-NLS-1$
+                String.format("%.2f", numPages / (ocrNanos.get() / 1e9)), //$NON-NLS-1$
+                queueWaitNanos.get() / dequeuedJobs.get() / 1000000);
+    }
+
+}
@@ -61,6 +61,13 @@ class OffsetIndexItem {
 
     }
 
+    OffsetIndexItem(long indexIdentifier, long fileOffset, int size, long cRef) {
+        this.indexIdentifier = indexIdentifier;
+        this.fileOffset = fileOffset;
+        this.size = size;
+        this.cRef = cRef;
+    }
+
     @Override
     public String toString() {
         return "OffsetIndexItem\n" + "Index Identifier: " + indexIdentifier + " (0x" + Long.toHexString(indexIdentifier)
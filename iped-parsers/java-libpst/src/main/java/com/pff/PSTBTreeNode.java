@@ -0,0 +1,141 @@
+/**
+ * Copyright 2010 Richard Johnson & Orin Eman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ---
+ *
+ * This file is part of java-libpst.
+ *
+ * java-libpst is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * java-libpst is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with java-libpst.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.pff;
+
+/**
+ * A decoded page of the offset (block) or descriptor (node) index b-tree. The
+ * keys of the entries are extracted once, so navigating a cached page does not
+ * touch the file again.
+ */
+class PSTBTreeNode {
+
+    static final int PAGE_SIZE = 512;
+
+    static final int TYPE_OFFSET_INDEX = 0x80;
+    static final int TYPE_DESCRIPTOR_INDEX = 0x81;
+
+    /**
+     * page type, or -1 if the page type and its repeated copy do not match
+     */
+    final int type;
+    final int numberOfItems;
+    final int levelsToLeaf;
+
+    private final byte[] data;
+    private final int entrySize;
+    private final long[] keys;
+    private final long[] children;
+
+    PSTBTreeNode(byte[] data, int pstFileType) {
+        this.data = data;
+        boolean ansi = pstFileType == PSTFile.PST_TYPE_ANSI;
+        int entriesSize = ansi ? 496 : 488;
+        int typeOffset = ansi ? 500 : 496;
+
+        int pageType = data[typeOffset] & 0xff;
+        this.type = pageType == (data[typeOffset + 1] & 0xff) ? pageType : -1;
+        this.levelsToLeaf = data[entriesSize + 3] & 0xff;
+
+        int keySize = ansi ? 4 : 8;
+        if (levelsToLeaf > 0) {
+            entrySize = ansi ? 12 : 24;
+        } else if (type == TYPE_DESCRIPTOR_INDEX) {
+            // descriptor identifiers are 4 bytes long in both formats
+            entrySize = ansi ? 16 : 32;
+            keySize = 4;
+        } else {
+            entrySize = ansi ? 12 : 24;
+        }
+        // entries of corrupted pages can not go beyond the page
+        this.numberOfItems = Math.min(data[entriesSize] & 0xff, entriesSize / entrySize);
+
+        keys = new long[numberOfItems];
+        children = levelsToLeaf > 0 ? new long[numberOfItems] : null;
+        for (int x = 0; x < numberOfItems; x++) {
+            int offset = x * entrySize;
+            keys[x] = PSTObject.convertLittleEndianBytesToLong(data, offset, offset + keySize);
+            if (children != null) {
+                children[x] = PSTObject.convertLittleEndianBytesToLong(data, offset + entrySize - keySize,
+                        offset + entrySize);
+            }
+        }
+    }
+
+    long getKey(int x) {
+        return keys[x];
+    }
+
+    /**
+     * @return file offset of the child page of a branch entry
+     */
+    long getChild(int x) {
+        return children[x];
+    }
+
+    /**
+     * @return position of the child that may contain the index, which is the
+     *         entry before the first one with a greater key, or the last entry.
+     *         -1 if the first key is already greater than the index.
+     */
+    int findChild(long index) {
+        for (int x = 0; x < numberOfItems; x++) {
+            if (keys[x] > index) {
+                return x - 1;
+            }
+        }
+        return numberOfItems - 1;
+    }
+
+    /**
+     * @return position of the leaf entry with the index, or -1 if not found
+     */
+    int findEntry(long index) {
+        for (int x = 0; x < numberOfItems; x++) {
+            if (keys[x] == index) {
+                return x;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a copy of the raw bytes of the entry
+     */
+    byte[] getEntry(int x) {
+        byte[] entry = new byte[entrySize];
+        System.arraycopy(data, x * entrySize, entry, 0, entrySize);
+        return entry;
+    }
+
+}
@@ -41,6 +41,7 @@
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
 
@@ -99,7 +100,7 @@ public class PSTFile {
     // our all important tree.
     private LinkedHashMap<Integer, LinkedList<DescriptorIndexNode>> childrenDescriptorTree = null;
 
-    private HashMap<Long, Integer> nameToId = new HashMap<Long, Integer>();
+    private NameToIdMap nameToId = new NameToIdMap();
     private HashMap<String, Integer> stringToId = new HashMap<String, Integer>();
     private static HashMap<Integer, Long> idToName = new HashMap<Integer, Long>();
     private HashMap<Integer, String> idToString = new HashMap<Integer, String>();
@@ -107,7 +108,36 @@ public class PSTFile {
 
     private int itemCount = 0;
 
-    private RandomAccessFile in;
+    private RandomAccessFile file;
+
+    private PSTFileContent in;
+
+    /**
+     * Maximum number of entries of the offset index loaded in memory. Files with
+     * more blocks navigate the b-tree through the cached pages.
+     */
+    private static int maxOffsetIndexEntries = Integer.getInteger("pst.maxOffsetIndexEntries", 1 << 22);
+
+    private static final int MAX_CACHED_BTREE_NODES = 1024;
+
+    private long offsetBTreeRoot;
+    private long descriptorBTreeRoot;
+
+    private PSTOffsetIndex offsetIndex;
+
+    private final LinkedHashMap<Long, PSTBTreeNode> btreeNodes = new LinkedHashMap<Long, PSTBTreeNode>(16, 0.75f,
+            true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, PSTBTreeNode> eldest) {
+            return size() > MAX_CACHED_BTREE_NODES;
+        }
+    };
+
+    public static void setMaxOffsetIndexEntries(int maxEntries) {
+        maxOffsetIndexEntries = maxEntries;
+    }
 
     /**
      * constructor
@@ -123,7 +153,8 @@ public PSTFile(String fileName) throws FileNotFoundException, PSTException, IOEx
 
     public PSTFile(File fileName) throws FileNotFoundException, PSTException, IOException {
         // attempt to open the file.
-        in = new RandomAccessFile(fileName, "r");
+        file = new RandomAccessFile(fileName, "r");
+        in = new PSTFileContent(file);
 
         // get the first 4 bytes, should be !BDN
         try {
@@ -160,8 +191,18 @@ public PSTFile(File fileName) throws FileNotFoundException, PSTException, IOExce
                 throw new PSTException("Only unencrypted and compressable PST files are supported at this time");
             }
 
+            // find the b-trees and load the offset index
+            if (this.getPSTFileType() == PST_TYPE_ANSI) {
+                offsetBTreeRoot = this.extractLEFileOffset(196);
+                descriptorBTreeRoot = this.extractLEFileOffset(188);
+            } else {
+                offsetBTreeRoot = this.extractLEFileOffset(240);
+                descriptorBTreeRoot = this.extractLEFileOffset(224);
+            }
+            loadOffsetIndex();
+
             // build out name to id map.
-            processNameToIdMap(in);
+            processNameToIdMap();
 
         } catch (IOException err) {
             throw new PSTException("Unable to read PST Sig", err);
@@ -178,11 +219,10 @@ public int getPSTFileType() {
     /**
      * read the name-to-id map from the file and load it in
      * 
-     * @param in
      * @throws IOException
      * @throws PSTException
      */
-    private void processNameToIdMap(RandomAccessFile in) throws IOException, PSTException {
+    private void processNameToIdMap() throws IOException, PSTException {
 
         // Create our guid map
         for (int i = 0; i < guidStrings.length; ++i) {
@@ -316,11 +356,7 @@ private byte[] getData(PSTTableItem item, HashMap<Integer, PSTDescriptorItem> lo
 
     int getNameToIdMapItem(int key, int propertySetIndex) {
         long lKey = ((long) propertySetIndex << 32) | key;
-        Integer i = nameToId.get(lKey);
-        if (i == null) {
-            return -1;
-        }
-        return i;
+        return nameToId.get(lKey);
     }
 
     int getPublicStringToIdMapItem(String key) {
@@ -448,6 +484,13 @@ public int getEncryptionType() {
      * get the handle to the file we are currently accessing
      */
     public RandomAccessFile getFileHandle() {
+        return this.file;
+    }
+
+    /**
+     * get the cached content of the file we are currently accessing
+     */
+    PSTFileContent getFileContent() {
         return this.in;
     }
 
@@ -549,157 +592,34 @@ protected long extractLEFileOffset(long startOffset) throws IOException {
      * Generic function used by getOffsetIndexNode and getDescriptorIndexNode for
      * navigating the PST B-Trees
      * 
-     * @param in
      * @param index
      * @param descTree
      * @return
      * @throws IOException
      * @throws PSTException
      */
-    private byte[] findBtreeItem(RandomAccessFile in, long index, boolean descTree) throws IOException, PSTException {
-
-        long btreeStartOffset;
-        // first find the starting point for the offset index
-        if (this.getPSTFileType() == PST_TYPE_ANSI) {
-            btreeStartOffset = this.extractLEFileOffset(196);
-            if (descTree) {
-                btreeStartOffset = this.extractLEFileOffset(188);
-            }
-        } else {
-            btreeStartOffset = this.extractLEFileOffset(240);
-            if (descTree) {
-                btreeStartOffset = this.extractLEFileOffset(224);
-            }
-        }
+    private byte[] findBtreeItem(long index, boolean descTree) throws IOException, PSTException {
+
+        // first find the starting point for the index
+        long btreeStartOffset = descTree ? descriptorBTreeRoot : offsetBTreeRoot;
+        int btreeType = descTree ? PSTBTreeNode.TYPE_DESCRIPTOR_INDEX : PSTBTreeNode.TYPE_OFFSET_INDEX;
 
         // okay, what we want to do is navigate the tree until you reach the
         // bottom....
-        // try and read the index b-tree
-        byte[] temp = new byte[2];
-        if (this.getPSTFileType() == PST_TYPE_ANSI) {
-            in.seek(btreeStartOffset + 500);
-        } else {
-            in.seek(btreeStartOffset + 496);
-        }
-        in.read(temp);
-        while ((temp[0] == 0xffffff80 && temp[1] == 0xffffff80 && !descTree)
-                || (temp[0] == 0xffffff81 && temp[1] == 0xffffff81 && descTree)) {
-
-            // get the rest of the data....
-            byte[] branchNodeItems;
-            if (this.getPSTFileType() == PST_TYPE_ANSI) {
-                branchNodeItems = new byte[496];
-            } else {
-                branchNodeItems = new byte[488];
-            }
-            in.seek(btreeStartOffset);
-            in.read(branchNodeItems);
-
-            int numberOfItems = in.read();
-            in.read(); // maxNumberOfItems
-            in.read(); // itemSize
-            int levelsToLeaf = in.read();
-
-            if (levelsToLeaf > 0) {
-                boolean found = false;
-                for (int x = 0; x < numberOfItems; x++) {
-                    if (this.getPSTFileType() == PST_TYPE_ANSI) {
-                        long indexIdOfFirstChildNode = extractLEFileOffset(btreeStartOffset + (x * 12));
-                        if (indexIdOfFirstChildNode > index) {
-                            // get the address for the child first node in this
-                            // group
-                            btreeStartOffset = extractLEFileOffset(btreeStartOffset + ((x - 1) * 12) + 8);
-                            in.seek(btreeStartOffset + 500);
-                            in.read(temp);
-                            found = true;
-                            break;
-                        }
-                    } else {
-                        long indexIdOfFirstChildNode = extractLEFileOffset(btreeStartOffset + (x * 24));
-                        if (indexIdOfFirstChildNode > index) {
-                            // get the address for the child first node in this
-                            // group
-                            btreeStartOffset = extractLEFileOffset(btreeStartOffset + ((x - 1) * 24) + 16);
-                            in.seek(btreeStartOffset + 496);
-                            in.read(temp);
-                            found = true;
-                            break;
-                        }
-                    }
-                }
-                if (!found) {
-                    // it must be in the very last branch...
-                    if (this.getPSTFileType() == PST_TYPE_ANSI) {
-                        btreeStartOffset = extractLEFileOffset(btreeStartOffset + ((numberOfItems - 1) * 12) + 8);
-                        in.seek(btreeStartOffset + 500);
-                        in.read(temp);
-                    } else {
-                        btreeStartOffset = extractLEFileOffset(btreeStartOffset + ((numberOfItems - 1) * 24) + 16);
-                        in.seek(btreeStartOffset + 496);
-                        in.read(temp);
-                    }
+        PSTBTreeNode node = getBTreeNode(btreeStartOffset);
+        while (node.type == btreeType) {
+            if (node.levelsToLeaf > 0) {
+                int x = node.findChild(index);
+                if (x < 0) {
+                    break;
                 }
+                // get the address for the child first node in this group
+                node = getBTreeNode(node.getChild(x));
             } else {
                 // we are at the bottom of the tree...
-                // we want to get our file offset!
-                for (int x = 0; x < numberOfItems; x++) {
-
-                    if (this.getPSTFileType() == PSTFile.PST_TYPE_ANSI) {
-                        if (descTree) {
-                            // The 32-bit descriptor index b-tree leaf node item
-                            in.seek(btreeStartOffset + (x * 16));
-                            temp = new byte[4];
-                            in.read(temp);
-                            if (PSTObject.convertLittleEndianBytesToLong(temp) == index) {
-                                // give me the offset index please!
-                                in.seek(btreeStartOffset + (x * 16));
-                                temp = new byte[16];
-                                in.read(temp);
-                                return temp;
-                            }
-                        } else {
-                            // The 32-bit (file) offset index item
-                            long indexIdOfFirstChildNode = extractLEFileOffset(btreeStartOffset + (x * 12));
-
-                            if (indexIdOfFirstChildNode == index) {
-                                // we found it!!!! OMG
-                                // System.out.println("item found as item #"+x);
-                                in.seek(btreeStartOffset + (x * 12));
-
-                                temp = new byte[12];
-                                in.read(temp);
-                                return temp;
-                            }
-                        }
-                    } else {
-                        if (descTree) {
-                            // The 64-bit descriptor index b-tree leaf node item
-                            in.seek(btreeStartOffset + (x * 32));
-
-                            temp = new byte[4];
-                            in.read(temp);
-                            if (PSTObject.convertLittleEndianBytesToLong(temp) == index) {
-                                // give me the offset index please!
-                                in.seek(btreeStartOffset + (x * 32));
-                                temp = new byte[32];
-                                in.read(temp);
-                                return temp;
-                            }
-                        } else {
-                            // The 64-bit (file) offset index item
-                            long indexIdOfFirstChildNode = extractLEFileOffset(btreeStartOffset + (x * 24));
-
-                            if (indexIdOfFirstChildNode == index) {
-                                // we found it!!!! OMG
-                                // System.out.println("item found as item #"+x);
-                                in.seek(btreeStartOffset + (x * 24));
-
-                                temp = new byte[24];
-                                in.read(temp);
-                                return temp;
-                            }
-                        }
-                    }
+                int x = node.findEntry(index);
+                if (x >= 0) {
+                    return node.getEntry(x);
                 }
                 throw new PSTException("Unable to find " + index);
             }
@@ -708,30 +628,138 @@ private byte[] findBtreeItem(RandomAccessFile in, long index, boolean descTree)
         throw new PSTException("Unable to find node: " + index);
     }
 
+    /**
+     * get a b-tree page, decoding it if it is not in the cache of recently used
+     * pages
+     */
+    private PSTBTreeNode getBTreeNode(long offset) throws IOException {
+        PSTBTreeNode node = btreeNodes.get(offset);
+        if (node == null) {
+            node = readBTreeNode(offset);
+            btreeNodes.put(offset, node);
+        }
+        return node;
+    }
+
+    private PSTBTreeNode readBTreeNode(long offset) throws IOException {
+        byte[] page = new byte[PSTBTreeNode.PAGE_SIZE];
+        in.seek(offset);
+        in.read(page);
+        return new PSTBTreeNode(page, this.getPSTFileType());
+    }
+
+    /**
+     * Load all entries of the offset index b-tree in memory. If the b-tree is
+     * broken, out of order or too large, the index is discarded and the b-tree
+     * is navigated for each item. The size is estimated first, so the b-tree of
+     * files too large for the index is not read in vain.
+     */
+    private void loadOffsetIndex() {
+        try {
+            long estimate = estimateOffsetIndexEntries();
+            if (estimate < 0 || estimate > maxOffsetIndexEntries) {
+                return;
+            }
+            PSTOffsetIndex index = new PSTOffsetIndex();
+            if (loadOffsetIndex(index, offsetBTreeRoot, Integer.MAX_VALUE)) {
+                index.trimToSize();
+                offsetIndex = index;
+            }
+        } catch (IOException e) {
+            // the b-tree will be navigated, failing only for the broken items
+        }
+    }
+
+    /**
+     * Estimates the number of entries of the offset index b-tree from its upper
+     * pages: the entries of the pages below the root are counted and each lower
+     * level is assumed to have the fanout of the page in the middle of the level
+     * above.
+     *
+     * @return the estimate, or -1 if the b-tree is broken
+     */
+    private long estimateOffsetIndexEntries() throws IOException {
+        PSTBTreeNode root = readBTreeNode(offsetBTreeRoot);
+        if (root.type != PSTBTreeNode.TYPE_OFFSET_INDEX) {
+            return -1;
+        }
+        if (root.levelsToLeaf == 0) {
+            return root.numberOfItems;
+        }
+        long estimate = 0;
+        PSTBTreeNode node = null;
+        for (int x = 0; x < root.numberOfItems; x++) {
+            PSTBTreeNode child = readBTreeNode(root.getChild(x));
+            if (child.type != PSTBTreeNode.TYPE_OFFSET_INDEX || child.levelsToLeaf >= root.levelsToLeaf) {
+                return -1;
+            }
+            estimate += child.numberOfItems;
+            if (x == root.numberOfItems / 2) {
+                node = child;
+            }
+        }
+        while (node != null && node.levelsToLeaf > 0 && node.numberOfItems > 0) {
+            PSTBTreeNode child = readBTreeNode(node.getChild(node.numberOfItems / 2));
+            if (child.type != PSTBTreeNode.TYPE_OFFSET_INDEX || child.levelsToLeaf >= node.levelsToLeaf) {
+                return -1;
+            }
+            estimate *= child.numberOfItems;
+            if (estimate > maxOffsetIndexEntries) {
+                break;
+            }
+            node = child;
+        }
+        return estimate;
+    }
+
+    private boolean loadOffsetIndex(PSTOffsetIndex index, long btreeStartOffset, int maxLevel) throws IOException {
+        // the pages read here are not cached, they would just evict each other
+        PSTBTreeNode node = readBTreeNode(btreeStartOffset);
+        if (node.type != PSTBTreeNode.TYPE_OFFSET_INDEX || node.levelsToLeaf >= maxLevel) {
+            return false;
+        }
+        for (int x = 0; x < node.numberOfItems; x++) {
+            if (node.levelsToLeaf > 0) {
+                if (!loadOffsetIndex(index, node.getChild(x), node.levelsToLeaf)) {
+                    return false;
+                }
+            } else if (index.size() >= maxOffsetIndexEntries
+                    || !index.add(new OffsetIndexItem(node.getEntry(x), this.getPSTFileType()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * navigate the internal descriptor B-Tree and find a specific item
      * 
-     * @param in
      * @param identifier
      * @return the descriptor node for the item
      * @throws IOException
      * @throws PSTException
      */
     DescriptorIndexNode getDescriptorIndexNode(long identifier) throws IOException, PSTException {
-        return new DescriptorIndexNode(findBtreeItem(in, identifier, true), this.getPSTFileType());
+        return new DescriptorIndexNode(findBtreeItem(identifier, true), this.getPSTFileType());
     }
 
     /**
-     * navigate the internal index B-Tree and find a specific item
+     * find a specific item in the offset index, navigating the internal index
+     * B-Tree if it is not loaded in memory
      * 
-     * @param in
      * @param identifier
      * @return the offset index item
      * @throws IOException
      * @throws PSTException
      */
     OffsetIndexItem getOffsetIndexNode(long identifier) throws IOException, PSTException {
-        return new OffsetIndexItem(findBtreeItem(in, identifier, false), this.getPSTFileType());
+        if (offsetIndex != null) {
+            OffsetIndexItem item = offsetIndex.get(identifier);
+            if (item != null) {
+                return item;
+            }
+        }
+        return new OffsetIndexItem(findBtreeItem(identifier, false), this.getPSTFileType());
     }
 
     /**
@@ -781,20 +809,13 @@ HashMap<Integer, PSTDescriptorItem> getPSTDescriptorItems(PSTNodeInputStream in)
      * B-Tree and adds every item to the childrenDescriptorTree. This is used as
      * fallback when the nodes that list file contents are broken.
      * 
-     * @param in
      * @throws IOException
      * @throws PSTException
      */
     LinkedHashMap<Integer, LinkedList<DescriptorIndexNode>> getChildDescriptorTree() throws IOException, PSTException {
         if (this.childrenDescriptorTree == null) {
-            long btreeStartOffset = 0;
-            if (this.getPSTFileType() == PST_TYPE_ANSI) {
-                btreeStartOffset = this.extractLEFileOffset(188);
-            } else {
-                btreeStartOffset = this.extractLEFileOffset(224);
-            }
             this.childrenDescriptorTree = new LinkedHashMap<Integer, LinkedList<DescriptorIndexNode>>();
-            processDescriptorBTree(btreeStartOffset);
+            processDescriptorBTree(descriptorBTreeRoot);
         }
         return this.childrenDescriptorTree;
     }
@@ -803,58 +824,24 @@ LinkedHashMap<Integer, LinkedList<DescriptorIndexNode>> getChildDescriptorTree()
      * Recursive function for building the descriptor tree, used by
      * buildDescriptorTree
      * 
-     * @param in
      * @param btreeStartOffset
      * @throws IOException
      * @throws PSTException
      */
     private void processDescriptorBTree(long btreeStartOffset) throws IOException, PSTException {
-        byte[] temp = new byte[2];
-        if (this.getPSTFileType() == PST_TYPE_ANSI) {
-            in.seek(btreeStartOffset + 500);
-        } else {
-            in.seek(btreeStartOffset + 496);
-        }
-        in.read(temp);
-
-        if ((temp[0] == 0xffffff81 && temp[1] == 0xffffff81)) {
+        PSTBTreeNode node = readBTreeNode(btreeStartOffset);
 
-            if (this.getPSTFileType() == PST_TYPE_ANSI) {
-                in.seek(btreeStartOffset + 496);
-            } else {
-                in.seek(btreeStartOffset + 488);
-            }
+        if (node.type == PSTBTreeNode.TYPE_DESCRIPTOR_INDEX) {
 
-            int numberOfItems = in.read();
-            in.read(); // maxNumberOfItems
-            in.read(); // itemSize
-            int levelsToLeaf = in.read();
-
-            if (levelsToLeaf > 0) {
-                for (int x = 0; x < numberOfItems; x++) {
-                    if (this.getPSTFileType() == PST_TYPE_ANSI) {
-                        long branchNodeItemStartIndex = (btreeStartOffset + (12 * x));
-                        long nextLevelStartsAt = this.extractLEFileOffset(branchNodeItemStartIndex + 8);
-                        processDescriptorBTree(nextLevelStartsAt);
-                    } else {
-                        long branchNodeItemStartIndex = (btreeStartOffset + (24 * x));
-                        long nextLevelStartsAt = this.extractLEFileOffset(branchNodeItemStartIndex + 16);
-                        processDescriptorBTree(nextLevelStartsAt);
-                    }
+            if (node.levelsToLeaf > 0) {
+                for (int x = 0; x < node.numberOfItems; x++) {
+                    processDescriptorBTree(node.getChild(x));
                 }
             } else {
-                for (int x = 0; x < numberOfItems; x++) {
-                    // The 64-bit descriptor index b-tree leaf node item
+                for (int x = 0; x < node.numberOfItems; x++) {
+                    // The descriptor index b-tree leaf node item
                     // give me the offset index please!
-                    if (this.getPSTFileType() == PSTFile.PST_TYPE_ANSI) {
-                        in.seek(btreeStartOffset + (x * 16));
-                        temp = new byte[16];
-                        in.read(temp);
-                    } else {
-                        in.seek(btreeStartOffset + (x * 32));
-                        temp = new byte[32];
-                        in.read(temp);
-                    }
+                    byte[] temp = node.getEntry(x);
 
                     DescriptorIndexNode tempNode = new DescriptorIndexNode(temp, this.getPSTFileType());
 
@@ -876,9 +863,59 @@ private void processDescriptorBTree(long btreeStartOffset) throws IOException, P
                 }
             }
         } else {
-            PSTObject.printHexFormatted(temp, true);
             throw new PSTException("Unable to read descriptor node, is not a descriptor");
         }
     }
 
-}
+    /**
+     * Open addressing map of the named property keys to ids, without boxing the
+     * keys and values on each property lookup. The ids are always 0x8000 or
+     * greater, so 0 marks the empty slots.
+     */
+    private static class NameToIdMap {
+
+        private long[] keys = new long[256];
+        private int[] values = new int[256];
+        private int size = 0;
+
+        void put(long key, int value) {
+            if ((size + 1) * 2 > keys.length) {
+                long[] oldKeys = keys;
+                int[] oldValues = values;
+                keys = new long[oldKeys.length * 2];
+                values = new int[oldKeys.length * 2];
+                size = 0;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldValues[i] != 0) {
+                        put(oldKeys[i], oldValues[i]);
+                    }
+                }
+            }
+            int i = slot(key);
+            if (values[i] == 0) {
+                size++;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        /**
+         * @return the id, or -1 if not found
+         */
+        int get(long key) {
+            int i = slot(key);
+            return values[i] != 0 ? values[i] : -1;
+        }
+
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            long h = key * 0x9E3779B97F4A7C15L;
+            int i = (int) (h ^ (h >>> 32)) & mask;
+            while (values[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+    }
+
+}
\ No newline at end of file
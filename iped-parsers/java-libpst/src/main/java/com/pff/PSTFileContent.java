@@ -0,0 +1,167 @@
+/**
+ * Copyright 2010 Richard Johnson & Orin Eman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ---
+ *
+ * This file is part of java-libpst.
+ *
+ * java-libpst is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * java-libpst is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with java-libpst.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.pff;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read access to the PST file through a cache of fixed size blocks, with the
+ * seek/read interface of the RandomAccessFile it replaces. B-tree pages, index
+ * entries and small data blocks are read many times in small pieces, so they
+ * are served from the cached blocks instead of a system call for each read.
+ * Reads of a block or more go straight to the file, so attachment data does
+ * not evict the cached blocks.
+ *
+ * Like the RandomAccessFile, instances are not thread safe.
+ */
+class PSTFileContent {
+
+    static final int BLOCK_SIZE = 8192;
+
+    private static final int BLOCK_BITS = 13;
+
+    private static final int MAX_CACHED_BLOCKS = 512;
+
+    private final RandomAccessFile file;
+    private final long length;
+    private long position = 0;
+
+    // last block used, to skip the cache lookup on sequential reads
+    private long currentBlockIndex = -1;
+    private byte[] currentBlock;
+
+    private final LinkedHashMap<Long, byte[]> blocks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > MAX_CACHED_BLOCKS;
+        }
+    };
+
+    PSTFileContent(RandomAccessFile file) throws IOException {
+        this.file = file;
+        this.length = file.length();
+    }
+
+    long length() {
+        return length;
+    }
+
+    long getFilePointer() {
+        return position;
+    }
+
+    void seek(long pos) throws IOException {
+        if (pos < 0) {
+            throw new IOException("Negative seek offset");
+        }
+        this.position = pos;
+    }
+
+    int read() throws IOException {
+        if (position >= length) {
+            return -1;
+        }
+        byte[] block = getBlock(position >>> BLOCK_BITS);
+        return block[(int) (position++ & (BLOCK_SIZE - 1))] & 0xff;
+    }
+
+    byte readByte() throws IOException {
+        int b = read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return (byte) b;
+    }
+
+    int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= length) {
+            return -1;
+        }
+        len = (int) Math.min(len, length - position);
+        if (len >= BLOCK_SIZE) {
+            file.seek(position);
+            file.readFully(b, off, len);
+            position += len;
+            return len;
+        }
+        int done = 0;
+        while (done < len) {
+            byte[] block = getBlock(position >>> BLOCK_BITS);
+            int posInBlock = (int) (position & (BLOCK_SIZE - 1));
+            int n = Math.min(len - done, block.length - posInBlock);
+            System.arraycopy(block, posInBlock, b, off + done, n);
+            done += n;
+            position += n;
+        }
+        return done;
+    }
+
+    private byte[] getBlock(long index) throws IOException {
+        if (index == currentBlockIndex) {
+            return currentBlock;
+        }
+        byte[] block = blocks.get(index);
+        if (block == null) {
+            long start = index << BLOCK_BITS;
+            block = new byte[(int) Math.min(BLOCK_SIZE, length - start)];
+            file.seek(start);
+            file.readFully(block);
+            blocks.put(index, block);
+        }
+        currentBlockIndex = index;
+        currentBlock = block;
+        return block;
+    }
+
+    void close() throws IOException {
+        blocks.clear();
+        currentBlock = null;
+        currentBlockIndex = -1;
+        file.close();
+    }
+
+}
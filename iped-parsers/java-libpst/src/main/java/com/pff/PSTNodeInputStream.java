@@ -36,7 +36,6 @@
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
 import java.util.LinkedList;
 import java.util.TreeSet;
 
@@ -48,7 +47,7 @@
  */
 public class PSTNodeInputStream extends InputStream {
 
-    private RandomAccessFile in;
+    private PSTFileContent in;
     private PSTFile pstFile;
     private LinkedList<Long> skipPoints = new LinkedList<Long>();
     private TreeSet<Long> skipPointsSet;
@@ -79,7 +78,7 @@ public class PSTNodeInputStream extends InputStream {
     }
 
     PSTNodeInputStream(PSTFile pstFile, PSTDescriptorItem descriptorItem) throws IOException, PSTException {
-        this.in = pstFile.getFileHandle();
+        this.in = pstFile.getFileContent();
         this.pstFile = pstFile;
         this.encrypted = pstFile.getEncryptionType() == PSTFile.ENCRYPTION_TYPE_COMPRESSIBLE;
 
@@ -93,7 +92,7 @@ public class PSTNodeInputStream extends InputStream {
     }
 
     PSTNodeInputStream(PSTFile pstFile, OffsetIndexItem offsetItem) throws IOException, PSTException {
-        this.in = pstFile.getFileHandle();
+        this.in = pstFile.getFileContent();
         this.pstFile = pstFile;
         this.encrypted = pstFile.getEncryptionType() == PSTFile.ENCRYPTION_TYPE_COMPRESSIBLE;
         loadFromOffsetItem(offsetItem);
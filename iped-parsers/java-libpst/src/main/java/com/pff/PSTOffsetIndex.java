@@ -0,0 +1,96 @@
+/**
+ * Copyright 2010 Richard Johnson & Orin Eman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ---
+ *
+ * This file is part of java-libpst.
+ *
+ * java-libpst is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * java-libpst is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with java-libpst.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.pff;
+
+import java.util.Arrays;
+
+/**
+ * All entries of the offset index b-tree, loaded when the file is opened, in
+ * primitive arrays sorted by index identifier. Looking up a block is then a
+ * binary search, without navigating the b-tree pages. Uses 20 bytes per block
+ * of the file.
+ */
+class PSTOffsetIndex {
+
+    private long[] ids = new long[1024];
+    private long[] fileOffsets = new long[1024];
+    // size in the low 16 bits, cRef in the high 16 bits
+    private int[] sizes = new int[1024];
+    private int count = 0;
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Adds an entry of a leaf page. Entries must be added in increasing index
+     * identifier order.
+     * 
+     * @return false if the entry is out of order
+     */
+    boolean add(OffsetIndexItem item) {
+        if (count > 0 && item.indexIdentifier <= ids[count - 1]) {
+            return false;
+        }
+        if (count == ids.length) {
+            int newLength = count + (count >> 1);
+            ids = Arrays.copyOf(ids, newLength);
+            fileOffsets = Arrays.copyOf(fileOffsets, newLength);
+            sizes = Arrays.copyOf(sizes, newLength);
+        }
+        ids[count] = item.indexIdentifier;
+        fileOffsets[count] = item.fileOffset;
+        sizes[count] = (item.size & 0xffff) | ((int) item.cRef << 16);
+        count++;
+        return true;
+    }
+
+    /**
+     * @return the entry with the identifier, or null if not found
+     */
+    OffsetIndexItem get(long indexIdentifier) {
+        int i = Arrays.binarySearch(ids, 0, count, indexIdentifier);
+        if (i < 0) {
+            return null;
+        }
+        return new OffsetIndexItem(ids[i], fileOffsets[i], sizes[i] & 0xffff, sizes[i] >>> 16);
+    }
+
+    void trimToSize() {
+        ids = Arrays.copyOf(ids, count);
+        fileOffsets = Arrays.copyOf(fileOffsets, count);
+        sizes = Arrays.copyOf(sizes, count);
+    }
+
+}